@@ -0,0 +1,233 @@
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Samples a curve for display with as many points as the screen needs rather than a fixed number. It starts
+ * from a coarse uniform grid and recursively halves every interval whose midpoint is visibly off the straight
+ * line through its ends, so straight stretches get few points and sharp bends get many. Refinement stops at a
+ * maximum depth, or once an interval is narrower than the points-per-pixel budget allows.
+ * Poles are not bridged: where the curve jumps from beyond one edge of the viewport to beyond the other without
+ * passing through the values in between, a point with a NaN y value is inserted, which renderers such as
+ * CanvasPlotter treat as a gap. Points where the curve is NaN or infinite are kept as gaps too, and the
+ * boundaries of such regions are refined so the curve runs up to them.
+ * Given the ranges of the curve over ranges of x (see Expression.evaluateInterval), it halves the grid from the
+ * whole viewport down instead, skipping every run of grid intervals over which the curve stays above or below the
+ * viewport, or is undefined: only the ends of such a run are sampled. The points are the same as without
+ * the ranges, except the ones that would be out of view.
+ */
+class AdaptiveSampler {
+	// Distance between the points of the initial grid, in pixels.
+	protected static final double INITIAL_SPACING = 4;
+	// How far (in pixels) a midpoint may be from the straight line through its interval's ends before the interval is split.
+	protected static final double DEFAULT_TOLERANCE = 0.5;
+	protected static final int DEFAULT_MAX_DEPTH = 16;
+	protected static final double DEFAULT_POINTS_PER_PIXEL = 4;
+	// The fewest intervals of the initial grid over which the range of the curve is computed to see if they can be skipped.
+	protected static final int MIN_CULLED_INTERVALS = 8;
+	// The cancellation check of sample calls that can't be cancelled.
+	private static final BooleanSupplier NEVER = () -> false;
+
+	private final double _minX, _maxX, _minY, _maxY;
+	private final double _pixelsPerX, _pixelsPerY;
+	private final int _width;
+	private final double _tolerance;
+	private final int _maxDepth;
+	private final double _minIntervalPixels;
+
+	/**
+	 * Computes a range that encloses the values of a function over a range of x, as Expression.evaluateInterval does.
+	 */
+	interface Enclosure {
+		Interval apply (double lo, double hi);
+	}
+
+	/**
+	 * Creates a sampler for a viewport of the given size, with the default tolerance, depth and budget.
+	 */
+	public AdaptiveSampler (double minX, double maxX, double minY, double maxY, int width, int height) {
+		this(minX, maxX, minY, maxY, width, height, DEFAULT_TOLERANCE, DEFAULT_MAX_DEPTH, DEFAULT_POINTS_PER_PIXEL);
+	}
+
+	/**
+	 * @param minX the x value at the left edge of the viewport
+	 * @param maxX the x value at the right edge of the viewport
+	 * @param minY the y value at the bottom edge of the viewport
+	 * @param maxY the y value at the top edge of the viewport
+	 * @param width the width of the viewport in pixels
+	 * @param height the height of the viewport in pixels
+	 * @param tolerance how far (in pixels) the drawn line may be from the curve before an interval is split
+	 * @param maxDepth how many times an interval of the initial grid may be halved
+	 * @param pointsPerPixel the most points to take per horizontal pixel
+	 */
+	public AdaptiveSampler (double minX, double maxX, double minY, double maxY, int width, int height, double tolerance, int maxDepth, double pointsPerPixel) {
+		if (!(minX < maxX && minY < maxY && width > 0 && height > 0 && pointsPerPixel > 0)) {
+			throw new IllegalArgumentException("Invalid viewport");
+		}
+		_minX = minX;
+		_maxX = maxX;
+		_minY = minY;
+		_maxY = maxY;
+		_width = width;
+		_pixelsPerX = width / (maxX - minX);
+		_pixelsPerY = height / (maxY - minY);
+		_tolerance = tolerance;
+		_maxDepth = maxDepth;
+		_minIntervalPixels = 1 / pointsPerPixel;
+	}
+
+	/**
+	 * Samples the expression over the viewport, replacing the contents of points.
+	 * @param expression the expression to sample
+	 * @param points receives the points of the curve in order of increasing x, with NaN y values marking gaps
+	 */
+	public void sample (Expression expression, PointBuffer points) {
+		sample(expression, points, NEVER);
+	}
+
+	/**
+	 * Samples the expression over the viewport, replacing the contents of points, skipping the ranges of x over
+	 * which it is out of view.
+	 * @param expression the expression to sample
+	 * @param points receives the points of the curve in order of increasing x, with NaN y values marking gaps
+	 * @param cancelled returns true once the result is no longer needed
+	 * @throws CancellationException if cancelled returned true before the whole viewport was sampled
+	 */
+	public void sample (Expression expression, PointBuffer points, BooleanSupplier cancelled) {
+		sample(expression::evaluate, expression::evaluateInterval, points, cancelled);
+	}
+
+	/**
+	 * Samples the function over the viewport, replacing the contents of points.
+	 * @param function the function to sample
+	 * @param points receives the points of the curve in order of increasing x, with NaN y values marking gaps
+	 */
+	public void sample (DoubleUnaryOperator function, PointBuffer points) {
+		sample(function, points, NEVER);
+	}
+
+	/**
+	 * Samples the function over the viewport, replacing the contents of points, and checks before every interval
+	 * of the initial grid whether the work has been cancelled.
+	 * @param function the function to sample
+	 * @param points receives the points of the curve in order of increasing x, with NaN y values marking gaps
+	 * @param cancelled returns true once the result is no longer needed
+	 * @throws CancellationException if cancelled returned true before the whole viewport was sampled
+	 */
+	public void sample (DoubleUnaryOperator function, PointBuffer points, BooleanSupplier cancelled) {
+		sample(function, null, points, cancelled);
+	}
+
+	/**
+	 * Samples the function over the viewport, replacing the contents of points.
+	 * @param function the function to sample
+	 * @param enclosure the ranges of the function over ranges of x, or null to sample the whole viewport
+	 * @param points receives the points of the curve in order of increasing x, with NaN y values marking gaps
+	 * @param cancelled returns true once the result is no longer needed
+	 * @throws CancellationException if cancelled returned true before the whole viewport was sampled
+	 */
+	public void sample (DoubleUnaryOperator function, Enclosure enclosure, PointBuffer points, BooleanSupplier cancelled) {
+		points.clear();
+		final int intervals = (int) Math.ceil(_width / INITIAL_SPACING);
+		if (enclosure != null) {
+			final double fa = function.applyAsDouble(_minX), fb = function.applyAsDouble(_maxX);
+			points.add(_minX, fa);
+			cover(function, enclosure, 0, fa, intervals, fb, intervals, points, cancelled);
+			points.add(_maxX, fb);
+			return;
+		}
+		double a = _minX;
+		double fa = function.applyAsDouble(a);
+		points.add(a, fa);
+		for (int i = 1; i <= intervals; i++) {
+			if (cancelled.getAsBoolean()) {
+				throw new CancellationException();
+			}
+			final double b = gridX(i, intervals);
+			final double fb = function.applyAsDouble(b);
+			refine(function, a, fa, b, fb, 0, points);
+			points.add(b, fb);
+			a = b;
+			fa = fb;
+		}
+	}
+
+	/**
+	 * Adds the points strictly between the grid points i and j that are needed to draw the curve between them,
+	 * halving the run of grid intervals unless the curve is out of view over all of it.
+	 */
+	private void cover (DoubleUnaryOperator function, Enclosure enclosure, int i, double fi, int j, double fj, int intervals, PointBuffer points, BooleanSupplier cancelled) {
+		final double a = gridX(i, intervals), b = gridX(j, intervals);
+		if (j - i == 1) {
+			if (cancelled.getAsBoolean()) {
+				throw new CancellationException();
+			}
+			refine(function, a, fi, b, fj, 0, points);
+			return;
+		}
+		if (j - i >= MIN_CULLED_INTERVALS && isOutOfView(enclosure.apply(a, b))) {
+			// The straight line between the ends is out of view too, or a gap.
+			return;
+		}
+		final int k = (i + j) >>> 1;
+		final double m = gridX(k, intervals);
+		final double fm = function.applyAsDouble(m);
+		cover(function, enclosure, i, fi, k, fm, intervals, points, cancelled);
+		points.add(m, fm);
+		cover(function, enclosure, k, fm, j, fj, intervals, points, cancelled);
+	}
+
+	/**
+	 * Returns the x value of the ith point of an initial grid with the given number of intervals.
+	 */
+	private double gridX (int i, int intervals) {
+		return i == intervals ? _maxX : _minX + (_maxX - _minX) * i / intervals;
+	}
+
+	private boolean isOutOfView (Interval range) {
+		return range.isEmpty() || range.lo() > _maxY || range.hi() < _minY;
+	}
+
+	/**
+	 * Adds the points strictly between a and b that are needed to draw the curve over [a, b].
+	 */
+	private void refine (DoubleUnaryOperator function, double a, double fa, double b, double fb, int depth, PointBuffer points) {
+		final double m = 0.5 * (a + b);
+		final double fm = function.applyAsDouble(m);
+		if (depth < _maxDepth && (b - a) * _pixelsPerX > 2 * _minIntervalPixels && needsRefinement(fa, fm, fb)) {
+			refine(function, a, fa, m, fm, depth + 1, points);
+			points.add(m, fm);
+			refine(function, m, fm, b, fb, depth + 1, points);
+		} else if (isPole(fa, fm, fb)) {
+			points.add(m, Double.NaN);
+		}
+	}
+
+	/**
+	 * Decides whether the curve through the ends and the midpoint of an interval is too far from a straight line to draw it as one.
+	 */
+	private boolean needsRefinement (double fa, double fm, double fb) {
+		final boolean finiteA = Double.isFinite(fa), finiteM = Double.isFinite(fm), finiteB = Double.isFinite(fb);
+		if (!finiteA || !finiteM || !finiteB) {
+			// Refine towards the edge of a region where the curve is undefined, but not inside it.
+			return finiteA || finiteM || finiteB;
+		}
+		// Nothing to draw if the whole interval is beyond the same edge of the viewport.
+		if (fa > _maxY && fm > _maxY && fb > _maxY || fa < _minY && fm < _minY && fb < _minY) {
+			return false;
+		}
+		return Math.abs(fm - 0.5 * (fa + fb)) * _pixelsPerY > _tolerance;
+	}
+
+	/**
+	 * Decides whether an interval that can't be refined any further contains a pole: the curve goes from beyond
+	 * one edge of the viewport to beyond the other, and the midpoint does not lie between the two ends.
+	 */
+	private boolean isPole (double fa, double fm, double fb) {
+		if (!Double.isFinite(fa) || !Double.isFinite(fb)) {
+			return false;
+		}
+		final boolean crossesViewport = fa > _maxY && fb < _minY || fa < _minY && fb > _maxY;
+		return crossesViewport && !(Math.min(fa, fb) < fm && fm < Math.max(fa, fb));
+	}
+}
@@ -0,0 +1,129 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * Checks that AdaptiveSampler refines where the curve bends, within its depth and points-per-pixel budgets, and
+ * leaves gaps at poles and where the curve is undefined.
+ */
+public class AdaptiveSamplerTester {
+	private static final int WIDTH = 400, HEIGHT = 400;
+
+	private ExpressionParser _parser;
+	private PointBuffer _points;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser and the point buffer
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser();
+		_points = new PointBuffer();
+	}
+
+	/**
+	 * Returns the number of intervals of the initial grid of a viewport of the test's width.
+	 */
+	private static int gridIntervals () {
+		return (int) Math.ceil(WIDTH / AdaptiveSampler.INITIAL_SPACING);
+	}
+
+	private void assertIncreasingX () {
+		for (int i = 1; i < _points.size(); i++) {
+			assertTrue(_points.x(i - 1) < _points.x(i), "x " + i);
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that a straight line gets only the initial grid, and that a curve sampled with a tight tolerance gets
+	 * more points, but no more than the points-per-pixel budget allows.
+	 */
+	public void testBudget () throws ExpressionParseException {
+		final Expression line = _parser.parse("2*x+1");
+		new AdaptiveSampler(-10, 10, -10, 10, WIDTH, HEIGHT).sample(line::evaluate, _points);
+		assertEquals(gridIntervals() + 1, _points.size());
+
+		for (double pointsPerPixel : new double[] { 0.5, 1, 2 }) {
+			final AdaptiveSampler sampler = new AdaptiveSampler(-10, 10, -2, 2, WIDTH, HEIGHT, 1e-3, AdaptiveSampler.DEFAULT_MAX_DEPTH, pointsPerPixel);
+			sampler.sample(Math::sin, _points);
+			assertTrue(_points.size() > gridIntervals() + 1, "" + pointsPerPixel);
+			assertTrue(_points.size() <= Math.max(gridIntervals(), WIDTH * pointsPerPixel) + 1, _points.size() + " points at " + pointsPerPixel);
+			assertIncreasingX();
+			for (int i = 0; i < _points.size(); i++) {
+				assertEquals(Math.sin(_points.x(i)), _points.y(i));
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that a jump is refined exactly as many times as the maximum depth allows.
+	 */
+	public void testMaxDepth () {
+		for (int maxDepth : new int[] { 0, 1, 3, 10 }) {
+			final AdaptiveSampler sampler = new AdaptiveSampler(-10, 10, -10, 10, WIDTH, HEIGHT, AdaptiveSampler.DEFAULT_TOLERANCE, maxDepth, 1e6);
+			// Only the interval of the grid containing the jump is refined, and only its half containing the jump.
+			sampler.sample(x -> x < 0.3 ? -1 : 1, _points);
+			assertEquals(gridIntervals() + 1 + maxDepth, _points.size(), "" + maxDepth);
+			assertIncreasingX();
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that no line is drawn across the pole of 1/x: the last point left of it and the first right of it
+	 * are separated by a gap.
+	 */
+	public void testPole () throws ExpressionParseException {
+		// The grid doesn't hit x = 0, so the curve is finite at every sample.
+		new AdaptiveSampler(-9.7, 10.3, -10, 10, WIDTH, HEIGHT).sample(_parser.parse("1/x"), _points);
+		assertIncreasingX();
+		int gaps = 0;
+		for (int i = 1; i < _points.size(); i++) {
+			final double previous = _points.y(i - 1), current = _points.y(i);
+			assertFalse(Double.isFinite(previous) && Double.isFinite(current) && _points.x(i - 1) < 0 && _points.x(i) > 0,
+				"line from " + _points.x(i - 1) + " to " + _points.x(i));
+			if (Double.isNaN(current)) {
+				gaps++;
+				assertTrue(Math.abs(_points.x(i)) < 0.1, "gap at " + _points.x(i));
+			}
+		}
+		assertEquals(1, gaps);
+	}
+
+	@Test
+	/**
+	 * Verifies that where log(x) is undefined the points are gaps, and that the curve is refined up to where it is
+	 * defined again.
+	 */
+	public void testUndefined () throws ExpressionParseException {
+		final Expression log = _parser.parse("log(x)");
+		final AdaptiveSampler sampler = new AdaptiveSampler(-10, 10, -10, 10, WIDTH, HEIGHT);
+		sampler.sample(log::evaluate, _points);
+		assertIncreasingX();
+		double firstDefined = Double.POSITIVE_INFINITY;
+		int undefined = 0;
+		for (int i = 0; i < _points.size(); i++) {
+			final double x = _points.x(i), y = _points.y(i);
+			if (x < 0) {
+				assertTrue(Double.isNaN(y), "y at " + x);
+				undefined++;
+			} else if (Double.isFinite(y)) {
+				firstDefined = Math.min(firstDefined, x);
+			}
+		}
+		// Only the initial grid is sampled where the curve is undefined.
+		assertEquals(gridIntervals() / 2, undefined);
+		// Refined to within a pixel (0.05) of 0, closer than the grid spacing of 0.2.
+		assertTrue(firstDefined > 0 && firstDefined < 0.05, "" + firstDefined);
+
+		// With the ranges of the curve, only the ends of the undefined run are sampled, and it is still a gap.
+		final PointBuffer culled = new PointBuffer();
+		sampler.sample(log, culled);
+		assertTrue(culled.size() < _points.size());
+		assertTrue(Double.isNaN(culled.y(0)));
+		assertEquals(0, culled.x(1));
+		assertFalse(Double.isFinite(culled.y(1)));
+		assertEquals(firstDefined, culled.x(2));
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Compares evaluating an expression one x at a time, as GraphingCalculator.graph does, with Expression.evaluateBatch
+ * over the same equally spaced x values. Run with the number of x values as an optional argument, and with
+ * --add-modules jdk.incubator.vector for the vectorized batch loops of BatchKernels.
+ */
+public class BatchEvaluationBenchmark {
+	private static final String[] EXPRESSIONS = { "2*x+5*x*x", "10*x^3 + 2*(15+x)", "1./(1. + 5^(-1*x))", "(x-1)*(x+1)/(x*x+1) - 3*x/7" };
+	private static final int ROUNDS = 10;
+
+	public static void main (String[] args) throws ExpressionParseException {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 2001;
+		final double[] xs = new double[count];
+		for (int i = 0; i < count; i++) {
+			xs[i] = -10 + 20.0 * i / (count - 1);
+		}
+		final double[] out = new double[count];
+		final ExpressionParser parser = new TokenizingExpressionParser();
+		// Repeat so that every curve is evaluated about ten million times in total.
+		final int repetitions = Math.max(1, 10000000 / count);
+		final BatchScratch scratch = new BatchScratch();
+		System.out.println(BatchKernels.VECTORIZED ? "Vectorized batch loops" : "Scalar batch loops");
+
+		for (String expressionStr : EXPRESSIONS) {
+			final Expression expression = parser.parse(expressionStr);
+			double pointNanos = 0, batchNanos = 0, checksum = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				for (int r = 0; r < repetitions; r++) {
+					for (int i = 0; i < count; i++) {
+						out[i] = expression.evaluate(xs[i]);
+					}
+					checksum += out[r % count];
+				}
+				final double point = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int r = 0; r < repetitions; r++) {
+					expression.evaluateBatch(xs, out, scratch);
+					checksum += out[r % count];
+				}
+				final double batch = System.nanoTime() - start;
+
+				// The first half of the rounds is warm-up.
+				if (round >= ROUNDS / 2) {
+					pointNanos += point;
+					batchNanos += batch;
+				}
+			}
+			final double evaluations = (double) repetitions * count * (ROUNDS - ROUNDS / 2);
+			System.out.printf("%-32s per point %7.2f ns/x   batch %7.2f ns/x   speedup %5.2fx   (checksum %g)%n", expressionStr,
+				pointNanos / evaluations, batchNanos / evaluations, pointNanos / batchNanos, checksum);
+		}
+	}
+}
@@ -0,0 +1,423 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates a file of expressions from the command line, without the user interface: it only uses the parser and
+ * Expression classes, so it starts quickly and runs where there is no display.
+ * Each line of the input holds an expression, the range to sample it over and the number of samples, and
+ * optionally the order of the derivative to sample instead, separated by semicolons:
+ * <pre>
+ * x^2 - 3*x; -10; 10; 2001
+ * 1/(1 + 2^-x); -5; 5; 501; 1
+ * </pre>
+ * Blank lines and lines starting with '#' are skipped. For every other line one tab-separated line is written, in
+ * input order, with the line number, the expression, the derivative order, the number of samples and how many of
+ * them are defined, the minimum, maximum and mean of the defined ones, the time spent parsing, differentiating and
+ * sampling in microseconds, and the error, if the line couldn't be evaluated. The sampled values themselves can be
+ * appended as a last column. A line is sampled at most MAX_SAMPLES times, and a line that fails, whatever the
+ * reason, only has its error written, so one line can't abort the run.
+ * Lines are evaluated in parallel on a pool of worker threads. The thread reading the input hands every line to
+ * the pool and keeps the pending results in a queue of bounded capacity; when it is full, it writes the oldest
+ * result before reading on, so the number of lines in flight, and the memory used, is bounded however long the
+ * input is.
+ * The parsed trees and derivatives can be saved to a bundle (see ExpressionCodec) and loaded by the next run, so
+ * that it doesn't parse and differentiate the same expressions again. With an ExpressionStore, the trees of an
+ * expression are instead read from the store the first time it occurs, and stored as soon as it has been evaluated,
+ * so runs share them without loading or saving everything.
+ */
+class BatchEvaluator implements AutoCloseable {
+	protected static final int DEFAULT_QUEUE_CAPACITY = 256;
+	// The most samples of a line, which bounds the arrays each line in flight holds.
+	protected static final int MAX_SAMPLES = 1 << 20;
+	// The header line of the output.
+	protected static final String HEADER = "line\texpression\torder\tsamples\tdefined\tmin\tmax\tmean\tparse_us\tdifferentiate_us\tsample_us\terror";
+
+	private final ExecutorService _pool;
+	private final int _queueCapacity;
+	private final boolean _writeValues;
+	// Shared by the workers, so expressions that occur again are parsed and differentiated once.
+	private final CachingExpressionParser _parser = new CachingExpressionParser(new TokenizingExpressionParser());
+	private final DerivativeCache _derivatives = new DerivativeCache();
+	// The intermediate arrays of each worker thread, kept from line to line.
+	private final ThreadLocal<BatchScratch> _scratch = ThreadLocal.withInitial(BatchScratch::new);
+	// The store the trees are read from and written to, or null.
+	private ExpressionStore _store;
+	// For every normalized text looked up in the store, the number of trees stored for it.
+	private final ConcurrentHashMap<String, Integer> _storedTreeCounts = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an evaluator with a worker thread per processor and the default queue capacity.
+	 */
+	public BatchEvaluator () {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, false);
+	}
+
+	/**
+	 * @param threads the number of worker threads
+	 * @param queueCapacity the most lines evaluated or waiting to be written at a time
+	 * @param writeValues whether to append the sampled values to every output line
+	 */
+	public BatchEvaluator (int threads, int queueCapacity, boolean writeValues) {
+		if (threads < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Invalid number of threads or queue capacity: " + threads + ", " + queueCapacity);
+		}
+		_pool = Executors.newFixedThreadPool(threads, runnable -> {
+			final Thread thread = new Thread(runnable, "Batch evaluator");
+			thread.setDaemon(true);
+			return thread;
+		});
+		_queueCapacity = queueCapacity;
+		_writeValues = writeValues;
+	}
+
+	/**
+	 * The outcome of evaluating one line of the input.
+	 */
+	static final class Result {
+		final int _line;
+		final String _expression;
+		int _order, _samples, _defined;
+		double _min = Double.NaN, _max = Double.NaN, _mean = Double.NaN;
+		long _parseNanos, _differentiateNanos, _sampleNanos;
+		double[] _values;
+		// The reason the line couldn't be evaluated, or null.
+		String _error;
+
+		Result (int line, String expression) {
+			_line = line;
+			_expression = expression;
+		}
+	}
+
+	/**
+	 * Evaluates every line of the input and writes the results, in input order, to the output.
+	 * @param in the input, which is read to its end
+	 * @param out the output; the header line is written first
+	 * @return the number of lines evaluated, including those that failed
+	 * @throws IOException if the input can't be read or the output can't be written
+	 */
+	public int run (BufferedReader in, Writer out) throws IOException {
+		out.write(HEADER);
+		out.write('\n');
+		final ArrayDeque<Future<Result>> pending = new ArrayDeque<>(_queueCapacity);
+		int lineNumber = 0, evaluated = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			lineNumber++;
+			final String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+				continue;
+			}
+			if (pending.size() == _queueCapacity) {
+				write(out, join(pending.poll()));
+			}
+			final int number = lineNumber;
+			pending.add(_pool.submit(() -> evaluate(number, trimmed)));
+			evaluated++;
+		}
+		while (!pending.isEmpty()) {
+			write(out, join(pending.poll()));
+		}
+		out.flush();
+		return evaluated;
+	}
+
+	private static Result join (Future<Result> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a result");
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException("Evaluating a line failed", ee.getCause());
+		}
+	}
+
+	/**
+	 * Parses one line of the input, then parses, differentiates and samples its expression.
+	 * @param lineNumber the number of the line, starting at 1
+	 * @param line the line, without leading and trailing whitespace
+	 * @return the result; any failure is recorded in it rather than thrown
+	 */
+	Result evaluate (int lineNumber, String line) {
+		final String[] fields = line.split(";");
+		final Result result = new Result(lineNumber, fields[0].trim());
+		try {
+			evaluate(result, fields);
+		} catch (RuntimeException re) {
+			// Only this line is lost, not the whole run.
+			result._values = null;
+			result._error = re.toString();
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluates the fields of a line into its result, letting unexpected exceptions through.
+	 */
+	private void evaluate (Result result, String[] fields) {
+		final double minX, maxX;
+		if (fields.length < 4 || fields.length > 5) {
+			result._error = "Expected expression; minX; maxX; samples[; order]";
+			return;
+		}
+		try {
+			minX = Double.parseDouble(fields[1].trim());
+			maxX = Double.parseDouble(fields[2].trim());
+			result._samples = Integer.parseInt(fields[3].trim());
+			result._order = fields.length > 4 ? Integer.parseInt(fields[4].trim()) : 0;
+		} catch (NumberFormatException nfe) {
+			result._error = "Invalid number: " + nfe.getMessage();
+			return;
+		}
+		if (result._samples < 1 || result._order < 0) {
+			result._error = "Invalid number of samples or derivative order";
+			return;
+		}
+		if (result._samples > MAX_SAMPLES) {
+			result._error = "Too many samples, at most " + MAX_SAMPLES;
+			return;
+		}
+
+		long start = System.nanoTime();
+		final String key = _store == null ? null : ExpressionStore.normalize(result._expression);
+		if (key != null) {
+			readStored(key);
+		}
+		final Expression parsed;
+		Expression expression;
+		try {
+			parsed = expression = _parser.parse(result._expression);
+		} catch (ExpressionParseException epe) {
+			result._error = epe.getMessage();
+			return;
+		} finally {
+			result._parseNanos = System.nanoTime() - start;
+		}
+
+		if (result._order > 0) {
+			start = System.nanoTime();
+			try {
+				expression = _derivatives.derivative(expression, result._order);
+			} catch (UnsupportedOperationException uoe) {
+				result._error = uoe.getMessage();
+				if (key != null) {
+					writeStored(key, parsed, 1);
+				}
+				return;
+			} finally {
+				result._differentiateNanos = System.nanoTime() - start;
+			}
+		}
+		if (key != null) {
+			// The simplified tree comes before the derivatives.
+			writeStored(key, parsed, result._order > 0 ? result._order + 2 : 1);
+		}
+
+		start = System.nanoTime();
+		final double[] xs = new double[result._samples], ys = new double[result._samples];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = ParallelSampler.xAt(minX, maxX, xs.length, i);
+		}
+		expression.evaluateBatch(xs, ys, _scratch.get());
+		result._sampleNanos = System.nanoTime() - start;
+
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum = 0;
+		for (double y : ys) {
+			if (Double.isFinite(y)) {
+				result._defined++;
+				min = Math.min(min, y);
+				max = Math.max(max, y);
+				sum += y;
+			}
+		}
+		if (result._defined > 0) {
+			result._min = min;
+			result._max = max;
+			result._mean = sum / result._defined;
+		}
+		if (_writeValues) {
+			result._values = ys;
+		}
+	}
+
+	/**
+	 * Sets the store that the trees of every expression are read from the first time it occurs, and written to once
+	 * it has been evaluated. The store isn't closed with the evaluator.
+	 * @param store the store, or null to use none
+	 */
+	public void setStore (ExpressionStore store) {
+		_store = store;
+		_storedTreeCounts.clear();
+	}
+
+	/**
+	 * Reads the trees stored for an expression into the caches, unless it was looked up before.
+	 * @param key the normalized text of the expression
+	 */
+	private void readStored (String key) {
+		if (_storedTreeCounts.containsKey(key)) {
+			return;
+		}
+		List<Expression> trees = null;
+		try {
+			trees = _store.get(key);
+		} catch (IOException | IllegalArgumentException e) {
+			// The record can't be read or decoded; without it, the expression is only parsed and differentiated again.
+		}
+		if (trees != null && !trees.isEmpty()) {
+			_parser.put(key, trees.get(0));
+			if (trees.size() > 1) {
+				_derivatives.put(trees.get(0), trees.subList(1, trees.size()));
+			}
+		}
+		_storedTreeCounts.putIfAbsent(key, trees == null ? 0 : trees.size());
+	}
+
+	/**
+	 * Stores the parsed tree of an expression and its cached derivatives, if fewer trees than needed are stored.
+	 * @param key the normalized text of the expression
+	 * @param parsed the parsed tree
+	 * @param needed the number of trees the evaluation used
+	 */
+	private void writeStored (String key, Expression parsed, int needed) {
+		if (_storedTreeCounts.getOrDefault(key, 0) >= needed) {
+			return;
+		}
+		final List<Expression> trees = new ArrayList<>();
+		trees.add(parsed);
+		trees.addAll(_derivatives.getCachedDerivatives(parsed));
+		try {
+			_store.put(key, trees);
+			_storedTreeCounts.merge(key, trees.size(), Math::max);
+		} catch (IOException ioe) {
+			// The next run parses and differentiates the expression again.
+		}
+	}
+
+	/**
+	 * Loads the trees saved by save into the caches.
+	 * @param bundle the file written by save
+	 * @return the number of expressions loaded
+	 * @throws IOException if the file can't be read or isn't a valid bundle
+	 */
+	public int load (Path bundle) throws IOException {
+		final Map<String, List<Expression>> entries = ExpressionCodec.readBundle(bundle);
+		for (Map.Entry<String, List<Expression>> entry : entries.entrySet()) {
+			final List<Expression> trees = entry.getValue();
+			if (trees.isEmpty()) {
+				throw new IOException("Expression bundle " + bundle + " has no tree for " + entry.getKey());
+			}
+			_parser.put(entry.getKey(), trees.get(0));
+			if (trees.size() > 1) {
+				_derivatives.put(trees.get(0), trees.subList(1, trees.size()));
+			}
+		}
+		return entries.size();
+	}
+
+	/**
+	 * Saves the cached trees to a bundle: for every text, its parsed tree followed by the simplified tree and the
+	 * derivatives computed from it, if any.
+	 * @param bundle the file to write
+	 * @return the number of expressions saved
+	 * @throws IOException if the file can't be written
+	 */
+	public int save (Path bundle) throws IOException {
+		final Map<String, List<Expression>> entries = new LinkedHashMap<>();
+		for (Map.Entry<String, Expression> entry : _parser.getParsedTrees().entrySet()) {
+			final List<Expression> trees = new ArrayList<>();
+			trees.add(entry.getValue());
+			trees.addAll(_derivatives.getCachedDerivatives(entry.getValue()));
+			entries.put(entry.getKey(), trees);
+		}
+		ExpressionCodec.writeBundle(bundle, entries);
+		return entries.size();
+	}
+
+	private static void write (Writer out, Result result) throws IOException {
+		final StringBuilder line = new StringBuilder(128);
+		line.append(result._line).append('\t').append(result._expression).append('\t').append(result._order).append('\t')
+			.append(result._samples).append('\t').append(result._defined).append('\t')
+			.append(result._min).append('\t').append(result._max).append('\t').append(result._mean).append('\t')
+			.append(result._parseNanos / 1000).append('\t').append(result._differentiateNanos / 1000).append('\t')
+			.append(result._sampleNanos / 1000).append('\t').append(result._error == null ? "" : result._error);
+		if (result._values != null) {
+			line.append('\t');
+			for (int i = 0; i < result._values.length; i++) {
+				if (i > 0) {
+					line.append(',');
+				}
+				line.append(result._values[i]);
+			}
+		}
+		line.append('\n');
+		out.write(line.toString());
+	}
+
+	/**
+	 * Shuts down the worker threads.
+	 */
+	public void close () {
+		_pool.shutdown();
+	}
+
+	/**
+	 * Evaluates a file from the command line:
+	 * java BatchEvaluator [--threads n] [--queue n] [--values] [--bundle file] [--store directory] input|- [output]
+	 * The results are written to standard output if no output file is given, and a summary to standard error.
+	 * With --bundle, the trees saved in the file, if it exists, are loaded first, and the file is rewritten with the
+	 * trees of this run at the end. With --store, the trees are read from and written to the ExpressionStore in the
+	 * directory as the expressions are evaluated.
+	 */
+	public static void main (String[] args) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors(), queueCapacity = DEFAULT_QUEUE_CAPACITY;
+		boolean writeValues = false;
+		String input = null, output = null, bundle = null, store = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				case "--queue": queueCapacity = Integer.parseInt(args[++i]); break;
+				case "--values": writeValues = true; break;
+				case "--bundle": bundle = args[++i]; break;
+				case "--store": store = args[++i]; break;
+				default:
+					if (input == null) {
+						input = args[i];
+					} else {
+						output = args[i];
+					}
+			}
+		}
+		if (input == null) {
+			System.err.println("Usage: java BatchEvaluator [--threads n] [--queue n] [--values] [--bundle file] [--store directory] input|- [output]");
+			System.exit(2);
+		}
+
+		final long start = System.nanoTime();
+		final int evaluated;
+		try (ExpressionStore expressionStore = store == null ? null : new ExpressionStore(Paths.get(store));
+				BatchEvaluator evaluator = new BatchEvaluator(threads, queueCapacity, writeValues);
+				BufferedReader in = new BufferedReader(input.equals("-") ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+					: new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(output == null ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+					: new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), 1 << 16)) {
+			if (bundle != null && Files.exists(Paths.get(bundle))) {
+				System.err.printf("%d expressions loaded from %s%n", evaluator.load(Paths.get(bundle)), bundle);
+			}
+			if (expressionStore != null) {
+				System.err.printf("%d expressions in %s%n", expressionStore.size(), store);
+				evaluator.setStore(expressionStore);
+			}
+			evaluated = evaluator.run(in, out);
+			if (bundle != null) {
+				System.err.printf("%d expressions saved to %s%n", evaluator.save(Paths.get(bundle)), bundle);
+			}
+		}
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d expressions in %.3f s on %d threads (%.0f expressions/s)%n", evaluated, seconds, threads, evaluated / seconds);
+	}
+}
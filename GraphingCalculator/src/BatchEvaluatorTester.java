@@ -0,0 +1,143 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.nio.file.Path;
+
+/**
+ * Checks the output of BatchEvaluator: its order, the statistics and values of every line, and the errors reported.
+ */
+public class BatchEvaluatorTester {
+	@TempDir
+	Path _directory;
+
+	@Test
+	/**
+	 * Verifies that many lines, evaluated on several threads through a small queue, are written in input order.
+	 */
+	public void testOrder () throws IOException {
+		final StringBuilder input = new StringBuilder("# a comment\n\n");
+		for (int i = 0; i < 500; i++) {
+			input.append(i).append("*x; 0; 1; ").append(1 + i % 97).append('\n');
+		}
+		final String[] lines = run(input.toString(), new BatchEvaluator(4, 8, false));
+		assertEquals(501, lines.length);
+		assertEquals(BatchEvaluator.HEADER, lines[0]);
+		for (int i = 0; i < 500; i++) {
+			final String[] fields = lines[i + 1].split("\t", -1);
+			assertEquals(String.valueOf(i + 3), fields[0]);
+			assertEquals(i + "*x", fields[1]);
+			assertEquals(String.valueOf(1 + i % 97), fields[3]);
+			assertEquals("", fields[11]);
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies the statistics, the sampled values and derivatives.
+	 */
+	public void testValues () throws IOException {
+		final String[] lines = run("x^2 - 1; -1; 1; 5\n1/x; -1; 1; 3\nx^3; 0; 2; 3; 2\n", new BatchEvaluator(2, 4, true));
+		String[] fields = lines[1].split("\t", -1);
+		assertEquals("5", fields[4]);
+		assertEquals(-1, Double.parseDouble(fields[5]));
+		assertEquals(0, Double.parseDouble(fields[6]));
+		assertEquals(-0.5, Double.parseDouble(fields[7]), 1e-12);
+		assertEquals("0.0,-0.75,-1.0,-0.75,0.0", fields[12]);
+
+		// 1/0 is infinite, so it isn't counted.
+		fields = lines[2].split("\t", -1);
+		assertEquals("3", fields[3]);
+		assertEquals("2", fields[4]);
+
+		// The second derivative of x^3 is 6x.
+		fields = lines[3].split("\t", -1);
+		assertEquals("2", fields[2]);
+		final String[] values = fields[12].split(",");
+		for (int i = 0; i < 3; i++) {
+			assertEquals(6 * i, Double.parseDouble(values[i]), 1e-12);
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that lines that can't be evaluated are reported and don't stop the others.
+	 */
+	public void testErrors () throws IOException {
+		final String[] lines = run("x^; 0; 1; 10\nx; 0; 1\nx; a; 1; 10\nx; 0; 1; 0\nx^x; 0; 1; 10; 1\nx; 0; 1; 2100000000\nx; 0; 1; 10\n",
+			new BatchEvaluator(3, 2, false));
+		assertEquals(8, lines.length);
+		for (int i = 1; i <= 6; i++) {
+			assertFalse(lines[i].split("\t", -1)[11].isEmpty(), lines[i]);
+		}
+		assertEquals("", lines[7].split("\t", -1)[11]);
+	}
+
+	@Test
+	/**
+	 * Verifies that a run started from the bundle saved by an earlier one gives the same results.
+	 */
+	public void testBundle () throws IOException {
+		final String input = "x^3 - 2*x; -2; 2; 9; 2\n1/(1 + 2^x); -5; 5; 11; 1\nx^x; 0; 1; 10; 1\nx^; 0; 1; 10\n";
+		final Path bundle = _directory.resolve("expressions.gcx");
+		final String[] first;
+		try (BatchEvaluator evaluator = new BatchEvaluator(2, 4, true)) {
+			first = run(input, evaluator);
+			assertEquals(3, evaluator.save(bundle));
+		}
+		try (BatchEvaluator evaluator = new BatchEvaluator(2, 4, true)) {
+			assertEquals(3, evaluator.load(bundle));
+			assertSameResults(first, run(input, evaluator));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that trees written to an ExpressionStore by one run are used by the next with the same results.
+	 */
+	public void testStore () throws IOException {
+		final String input = "x^3 - 2*x; -2; 2; 9; 2\n1/(1 + 2^x); -5; 5; 11; 1\nx^x; 0; 1; 10; 1\nx^; 0; 1; 10\nx^3-2*x; 0; 1; 5\n";
+		final String[] first;
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			final BatchEvaluator evaluator = new BatchEvaluator(2, 4, true);
+			evaluator.setStore(store);
+			first = run(input, evaluator);
+			assertEquals(3, store.size());
+			// The parsed tree, the simplified one and two derivatives
+			assertEquals(4, store.get("x^3-2*x").size());
+			// Trees are stored even if the derivative failed, but not if parsing did.
+			assertTrue(store.contains("x^x"));
+			assertFalse(store.contains("x^"));
+		}
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			final long length = store.getDataLength();
+			final BatchEvaluator evaluator = new BatchEvaluator(1, 4, true);
+			evaluator.setStore(store);
+			assertSameResults(first, run(input, evaluator));
+			// Nothing was missing from the store, so nothing was written.
+			assertEquals(length, store.getDataLength());
+		}
+	}
+
+	private static void assertSameResults (String[] first, String[] second) {
+		assertEquals(first.length, second.length);
+		for (int i = 1; i < first.length; i++) {
+			final String[] expected = first[i].split("\t", -1), actual = second[i].split("\t", -1);
+			assertEquals(expected.length, actual.length);
+			for (int field = 0; field < expected.length; field++) {
+				// All but the timings
+				if (field < 8 || field > 10) {
+					assertEquals(expected[field], actual[field], first[i]);
+				}
+			}
+		}
+	}
+
+	private static String[] run (String input, BatchEvaluator evaluator) throws IOException {
+		final StringWriter out = new StringWriter();
+		try (evaluator) {
+			evaluator.run(new BufferedReader(new StringReader(input)), out);
+		}
+		return out.toString().split("\n");
+	}
+}
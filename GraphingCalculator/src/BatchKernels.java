@@ -0,0 +1,68 @@
+/**
+ * The element-wise loops of Expression.evaluateBatch, out[i] = out[i] op right[i]. When the JVM was started with
+ * --add-modules jdk.incubator.vector, they run on VectorKernels, which uses the widest SIMD registers of the
+ * processor; otherwise, or with -DgraphingCalculator.noVectorize=true, they are scalar loops, which the JIT may still
+ * vectorize itself. VectorKernels is only loaded in the first case, so this class works without the module.
+ * Both paths round every operation exactly as the scalar operators do, so the results are the same bit for bit.
+ * Math.pow and Math.log stay scalar: the Vector API versions may differ from them in the last bit.
+ */
+final class BatchKernels {
+	// Whether the loops run on VectorKernels.
+	static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+		&& !Boolean.getBoolean("graphingCalculator.noVectorize");
+
+	private BatchKernels () {
+	}
+
+	/**
+	 * Sets out[i] to out[i] + right[i] for i below length.
+	 */
+	static void add (double[] out, double[] right, int length) {
+		if (VECTORIZED) {
+			VectorKernels.add(out, right, length);
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			out[i] = out[i] + right[i];
+		}
+	}
+
+	/**
+	 * Sets out[i] to out[i] - right[i] for i below length.
+	 */
+	static void subtract (double[] out, double[] right, int length) {
+		if (VECTORIZED) {
+			VectorKernels.subtract(out, right, length);
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			out[i] = out[i] - right[i];
+		}
+	}
+
+	/**
+	 * Sets out[i] to out[i] * right[i] for i below length.
+	 */
+	static void multiply (double[] out, double[] right, int length) {
+		if (VECTORIZED) {
+			VectorKernels.multiply(out, right, length);
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			out[i] = out[i] * right[i];
+		}
+	}
+
+	/**
+	 * Sets out[i] to out[i] / right[i] for i below length.
+	 */
+	static void divide (double[] out, double[] right, int length) {
+		if (VECTORIZED) {
+			VectorKernels.divide(out, right, length);
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			out[i] = out[i] / right[i];
+		}
+	}
+}
@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import java.util.*;
+
+/**
+ * Checks that BatchScratch serves Expression.evaluateBatch without changing its values, and that the loops of
+ * BatchKernels round like the scalar operators. The loops run on VectorKernels when the tests run with
+ * --add-modules jdk.incubator.vector, as the Maven build does, and are scalar otherwise.
+ */
+public class BatchKernelsTester {
+	/**
+	 * Builds a random expression tree with the given number of operators.
+	 */
+	private static Expression randomExpression (Random random, int operators) {
+		if (operators == 0) {
+			switch (random.nextInt(3)) {
+				case 0: return new VariableExpression();
+				case 1: return new LiteralExpression(random.nextInt(5));
+				default: return new LiteralExpression(random.nextGaussian() * 100);
+			}
+		}
+		final int leftOperators = random.nextInt(operators);
+		final Expression left = randomExpression(random, leftOperators);
+		final Expression right = randomExpression(random, operators - 1 - leftOperators);
+		switch (random.nextInt(7)) {
+			case 0: return new SExpression(left, right, "+");
+			case 1: return new SExpression(left, right, "-");
+			case 2: return new MExpression(left, right, "*");
+			case 3: return new MExpression(left, right, "/");
+			case 4: return new EExpression(left, right, "^");
+			case 5: return new EExpression(null, right, "log");
+			default: return new PExpression(left);
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that evaluating batches with a shared scratch gives the same values as without, and that the scratch
+	 * stops growing once it has served the deepest tree.
+	 */
+	public void testBatchScratch () {
+		final Random random = new Random(1);
+		final BatchScratch scratch = new BatchScratch();
+		final double[] xs = new double[37], out = new double[xs.length], expected = new double[xs.length];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = random.nextGaussian() * 10;
+		}
+		final List<Expression> expressions = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			expressions.add(randomExpression(random, random.nextInt(30)));
+		}
+		for (int round = 0; round < 2; round++) {
+			for (Expression expression : expressions) {
+				expression.evaluateBatch(xs, out, scratch);
+				expression.evaluateBatch(xs, expected);
+				for (int i = 0; i < xs.length; i++) {
+					assertEquals(Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(out[i]));
+				}
+			}
+		}
+		final int size = scratch.size();
+		assertTrue(size > 0 && size < 30, "" + size);
+		for (Expression expression : expressions) {
+			expression.evaluateBatch(xs, out, scratch);
+		}
+		assertEquals(size, scratch.size());
+		assertThrows(IllegalStateException.class, scratch::release);
+	}
+
+	@Test
+	/**
+	 * Verifies that the batch loops, vectorized or not, round like the scalar operators for every length, including
+	 * the values left over after the last full vector.
+	 */
+	public void testBatchKernels () {
+		final Random random = new Random(2);
+		final double[] specials = { 0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE };
+		for (int length = 0; length < 40; length++) {
+			final double[] left = new double[length], right = new double[length];
+			for (int i = 0; i < length; i++) {
+				left[i] = random.nextInt(4) == 0 ? specials[random.nextInt(specials.length)] : random.nextGaussian() * 1e3;
+				right[i] = random.nextInt(4) == 0 ? specials[random.nextInt(specials.length)] : random.nextGaussian() * 1e-3;
+			}
+			final double[] sum = left.clone(), difference = left.clone(), product = left.clone(), quotient = left.clone();
+			BatchKernels.add(sum, right, length);
+			BatchKernels.subtract(difference, right, length);
+			BatchKernels.multiply(product, right, length);
+			BatchKernels.divide(quotient, right, length);
+			for (int i = 0; i < length; i++) {
+				assertEquals(Double.doubleToLongBits(left[i] + right[i]), Double.doubleToLongBits(sum[i]));
+				assertEquals(Double.doubleToLongBits(left[i] - right[i]), Double.doubleToLongBits(difference[i]));
+				assertEquals(Double.doubleToLongBits(left[i] * right[i]), Double.doubleToLongBits(product[i]));
+				assertEquals(Double.doubleToLongBits(left[i] / right[i]), Double.doubleToLongBits(quotient[i]));
+			}
+		}
+	}
+}
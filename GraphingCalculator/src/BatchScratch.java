@@ -0,0 +1,45 @@
+import java.util.ArrayList;
+
+/**
+ * Arrays for the intermediate values of Expression.evaluateBatch, so that evaluating a tree over batch after batch
+ * allocates nothing once the arrays exist. A binary node takes an array for the values of its right operand while
+ * it evaluates it and gives it back afterwards, so the arrays are used as a stack with one array per level of
+ * nesting of right operands, not one per node.
+ * A scratch is not thread-safe: each thread evaluating batches should own one and keep it from batch to batch.
+ */
+class BatchScratch {
+	private final ArrayList<double[]> _arrays = new ArrayList<>();
+	// The number of arrays taken and not given back yet.
+	private int _used;
+
+	/**
+	 * Takes the next array off the stack, growing it if it is shorter than length.
+	 * @param length the number of values needed
+	 * @return an array of at least length values, whose contents are undefined
+	 */
+	public double[] acquire (int length) {
+		if (_used == _arrays.size()) {
+			_arrays.add(new double[length]);
+		} else if (_arrays.get(_used).length < length) {
+			_arrays.set(_used, new double[length]);
+		}
+		return _arrays.get(_used++);
+	}
+
+	/**
+	 * Gives back the array taken last.
+	 */
+	public void release () {
+		if (_used == 0) {
+			throw new IllegalStateException("No scratch array to release");
+		}
+		_used--;
+	}
+
+	/**
+	 * Returns the number of arrays allocated so far, which is the deepest the stack has been.
+	 */
+	public int size () {
+		return _arrays.size();
+	}
+}
@@ -0,0 +1,150 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An ExpressionParser that remembers the results of another parser in a bounded LRU cache, so that expressions
+ * that are parsed again and again, such as the same text graphed repeatedly, are parsed only once.
+ * Inputs are keyed by their text with all spaces removed, which is the first thing the parsers do, so "2 * x"
+ * and "2*x" share an entry. Failures are remembered too: parsing text that failed before throws a new
+ * ExpressionParseException of the same kind with the same message, so an input that exceeded a ParseBudget keeps
+ * failing fast with a ParseBudgetExceededException.
+ * The cached trees are never handed out, since Expression trees can be modified; every call returns a deep copy.
+ * The cache can be used by any number of threads at once. The lock is not held while parsing, so two threads
+ * parsing the same new text at the same time may both parse it.
+ */
+class CachingExpressionParser implements ExpressionParser {
+	protected static final int DEFAULT_CAPACITY = 1024;
+
+	private final ExpressionParser _parser;
+	// Each value is either the parsed Expression or the ExpressionParseException it failed with.
+	private final LinkedHashMap<String, Object> _cache;
+	private final LongAdder _hits = new LongAdder(), _misses = new LongAdder(), _evictions = new LongAdder();
+
+	/**
+	 * @param parser the parser whose results to cache
+	 */
+	public CachingExpressionParser (ExpressionParser parser) {
+		this(parser, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param parser the parser whose results to cache
+	 * @param capacity the most inputs whose results are kept
+	 */
+	public CachingExpressionParser (ExpressionParser parser, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		_parser = parser;
+		_cache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<String, Object> eldest) {
+				if (size() > capacity) {
+					_evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns a copy of the cached tree for the string, parsing it with the underlying parser if it isn't cached.
+	 * @param str the string to parse into an expression tree
+	 * @return the Expression object representing the parsed expression tree
+	 */
+	public Expression parse (String str) throws ExpressionParseException {
+		final String key = str.replaceAll(" ", "");
+		Object result;
+		synchronized (_cache) {
+			result = _cache.get(key);
+		}
+		if (result != null) {
+			_hits.increment();
+		} else {
+			_misses.increment();
+			try {
+				result = _parser.parse(key);
+			} catch (ExpressionParseException epe) {
+				result = epe;
+			}
+			synchronized (_cache) {
+				_cache.put(key, result);
+			}
+		}
+		if (result instanceof ParseBudgetExceededException) {
+			final ParseBudgetExceededException pbee = (ParseBudgetExceededException) result;
+			throw new ParseBudgetExceededException(pbee.getLimit(), pbee.getMessage());
+		}
+		if (result instanceof ExpressionParseException) {
+			// A new exception each time, so its stack trace is that of this call.
+			throw new ExpressionParseException(((ExpressionParseException) result).getMessage());
+		}
+		return ((Expression) result).deepCopy();
+	}
+
+	/**
+	 * Adds a tree to the cache as the result of parsing a text, e.g. one decoded by ExpressionCodec at startup.
+	 * @param str the text
+	 * @param expression the tree the underlying parser gives for it; the cache keeps a copy
+	 */
+	public void put (String str, Expression expression) {
+		final Expression copy = expression.deepCopy();
+		synchronized (_cache) {
+			_cache.put(str.replaceAll(" ", ""), copy);
+		}
+	}
+
+	/**
+	 * Returns copies of the cached trees, by the text they were parsed from with all spaces removed, from the least
+	 * to the most recently used. Failures are left out.
+	 */
+	public LinkedHashMap<String, Expression> getParsedTrees () {
+		final LinkedHashMap<String, Expression> trees = new LinkedHashMap<>();
+		synchronized (_cache) {
+			for (Map.Entry<String, Object> entry : _cache.entrySet()) {
+				if (entry.getValue() instanceof Expression) {
+					trees.put(entry.getKey(), (Expression) entry.getValue());
+				}
+			}
+		}
+		trees.replaceAll((str, expression) -> expression.deepCopy());
+		return trees;
+	}
+
+	/**
+	 * Returns the number of parse calls answered from the cache.
+	 */
+	public long getHitCount () {
+		return _hits.sum();
+	}
+
+	/**
+	 * Returns the number of parse calls that had to call the underlying parser.
+	 */
+	public long getMissCount () {
+		return _misses.sum();
+	}
+
+	/**
+	 * Returns the number of entries dropped to keep the cache within its capacity.
+	 */
+	public long getEvictionCount () {
+		return _evictions.sum();
+	}
+
+	/**
+	 * Returns the number of inputs whose results are cached.
+	 */
+	public int size () {
+		synchronized (_cache) {
+			return _cache.size();
+		}
+	}
+
+	public void clear () {
+		synchronized (_cache) {
+			_cache.clear();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks that CachingExpressionParser returns the same results as the parser it wraps, and counts and evicts correctly.
+ */
+public class CachingExpressionParserTester {
+	private CachingExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new CachingExpressionParser(new TokenizingExpressionParser(), 2);
+	}
+
+	@Test
+	/**
+	 * Verifies hits, misses, copies and normalization.
+	 */
+	public void testHitsAndMisses () throws ExpressionParseException {
+		final Expression first = _parser.parse("2 * x + 1");
+		final Expression second = _parser.parse("2*x+1");
+		assertNotSame(first, second);
+		assertEquals(new SimpleExpressionParser().parse("2*x+1").convertToString(0), second.convertToString(0));
+		// Changing a returned tree doesn't change the cache.
+		((SExpression) first)._opr = "-";
+		assertEquals("+", ((SExpression) _parser.parse("2*x+1"))._opr);
+		assertEquals(2, _parser.getHitCount());
+		assertEquals(1, _parser.getMissCount());
+		assertEquals(1, _parser.size());
+	}
+
+	@Test
+	/**
+	 * Verifies that failures are cached too.
+	 */
+	public void testNegativeResults () {
+		final ExpressionParseException first = assertThrows(ExpressionParseException.class, () -> _parser.parse("x +"));
+		final ExpressionParseException second = assertThrows(ExpressionParseException.class, () -> _parser.parse("x+"));
+		assertEquals(first.getMessage(), second.getMessage());
+		assertEquals(1, _parser.getHitCount());
+		assertEquals(1, _parser.getMissCount());
+	}
+
+	@Test
+	/**
+	 * Verifies that the least recently used entry is evicted.
+	 */
+	public void testEviction () throws ExpressionParseException {
+		_parser.parse("x");
+		_parser.parse("x+1");
+		_parser.parse("x");
+		_parser.parse("x+2");
+		assertEquals(1, _parser.getEvictionCount());
+		assertEquals(2, _parser.size());
+		_parser.parse("x");
+		assertEquals(2, _parser.getHitCount());
+		_parser.parse("x+1");
+		assertEquals(4, _parser.getMissCount());
+	}
+
+	@Test
+	/**
+	 * Verifies concurrent use from several threads.
+	 */
+	public void testConcurrentAccess () throws Exception {
+		final CachingExpressionParser parser = new CachingExpressionParser(new TokenizingExpressionParser(), 16);
+		final String[] expressions = new String[32];
+		final String[] expected = new String[expressions.length];
+		for (int i = 0; i < expressions.length; i++) {
+			expressions[i] = i % 5 == 0 ? "x*" + i + "+" : "x*" + i + "+1";
+			expected[i] = i % 5 == 0 ? null : new TokenizingExpressionParser().parse(expressions[i]).convertToString(0);
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				final int seed = t;
+				futures.add(executor.submit(() -> {
+					final Random random = new Random(seed);
+					for (int n = 0; n < 5000; n++) {
+						final int i = random.nextInt(expressions.length);
+						try {
+							assertEquals(expected[i], parser.parse(expressions[i]).convertToString(0));
+						} catch (ExpressionParseException epe) {
+							assertNull(expected[i]);
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(8 * 5000, parser.getHitCount() + parser.getMissCount());
+		assertTrue(parser.size() <= 16);
+	}
+}
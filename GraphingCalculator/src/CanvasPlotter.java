@@ -0,0 +1,103 @@
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws curves held in PointBuffers straight onto a Canvas, as an alternative to LineChart that needs no
+ * XYChart.Data object per point. A point whose y value is NaN or infinite lifts the pen, so no line is drawn
+ * across it.
+ */
+class CanvasPlotter {
+	// The colors of successive curves, matching the default colors of LineChart series.
+	private static final Color[] CURVE_COLORS = { Color.web("#f3622d"), Color.web("#fba71b"), Color.web("#57b757"), Color.web("#41a9c9"), Color.web("#4258c9") };
+	// How far outside the canvas (in canvas heights) a segment end may be drawn; farther points are clamped.
+	private static final double MAX_OVERSHOOT = 2;
+
+	private final Canvas _canvas;
+	private final double _minX, _maxX, _minY, _maxY, _gridInterval;
+
+	/**
+	 * @param canvas the canvas to draw on
+	 * @param minX the x value at the left edge of the canvas
+	 * @param maxX the x value at the right edge of the canvas
+	 * @param minY the y value at the bottom edge of the canvas
+	 * @param maxY the y value at the top edge of the canvas
+	 * @param gridInterval the distance between grid lines
+	 */
+	public CanvasPlotter (Canvas canvas, double minX, double maxX, double minY, double maxY, double gridInterval) {
+		_canvas = canvas;
+		_minX = minX;
+		_maxX = maxX;
+		_minY = minY;
+		_maxY = maxY;
+		_gridInterval = gridInterval;
+	}
+
+	public Canvas getCanvas () {
+		return _canvas;
+	}
+
+	/**
+	 * Erases all curves and draws the grid and the axes.
+	 */
+	public void clear () {
+		final GraphicsContext gc = _canvas.getGraphicsContext2D();
+		gc.setFill(Color.WHITE);
+		gc.fillRect(0, 0, _canvas.getWidth(), _canvas.getHeight());
+
+		gc.setLineWidth(1);
+		gc.setStroke(Color.gray(0.9));
+		for (double x = Math.ceil(_minX / _gridInterval) * _gridInterval; x <= _maxX; x += _gridInterval) {
+			gc.strokeLine(toCanvasX(x), 0, toCanvasX(x), _canvas.getHeight());
+		}
+		for (double y = Math.ceil(_minY / _gridInterval) * _gridInterval; y <= _maxY; y += _gridInterval) {
+			gc.strokeLine(0, toCanvasY(y), _canvas.getWidth(), toCanvasY(y));
+		}
+
+		gc.setStroke(Color.gray(0.4));
+		if (_minX <= 0 && 0 <= _maxX) {
+			gc.strokeLine(toCanvasX(0), 0, toCanvasX(0), _canvas.getHeight());
+		}
+		if (_minY <= 0 && 0 <= _maxY) {
+			gc.strokeLine(0, toCanvasY(0), _canvas.getWidth(), toCanvasY(0));
+		}
+	}
+
+	/**
+	 * Draws the curve through the given points.
+	 * @param points the points of the curve, in order of increasing x
+	 * @param index the index of the curve among those on the canvas, which picks its color
+	 */
+	public void plot (PointBuffer points, int index) {
+		final GraphicsContext gc = _canvas.getGraphicsContext2D();
+		final double[] xs = points.xs(), ys = points.ys();
+		final double height = _canvas.getHeight();
+		gc.setStroke(CURVE_COLORS[index % CURVE_COLORS.length]);
+		gc.setLineWidth(2);
+		gc.beginPath();
+		boolean penDown = false;
+		for (int i = 0; i < points.size(); i++) {
+			if (!Double.isFinite(ys[i])) {
+				penDown = false;
+				continue;
+			}
+			final double canvasX = toCanvasX(xs[i]);
+			final double canvasY = Math.max(-MAX_OVERSHOOT * height, Math.min((1 + MAX_OVERSHOOT) * height, toCanvasY(ys[i])));
+			if (penDown) {
+				gc.lineTo(canvasX, canvasY);
+			} else {
+				gc.moveTo(canvasX, canvasY);
+				penDown = true;
+			}
+		}
+		gc.stroke();
+	}
+
+	private double toCanvasX (double x) {
+		return (x - _minX) / (_maxX - _minX) * _canvas.getWidth();
+	}
+
+	private double toCanvasY (double y) {
+		return (_maxY - y) / (_maxY - _minY) * _canvas.getHeight();
+	}
+}
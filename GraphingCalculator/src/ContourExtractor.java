@@ -0,0 +1,106 @@
+/**
+ * Extracts the contour lines of a function of x and y at a given level from its values on a grid, as computed by
+ * GridEvaluator, with marching squares. Every cell between four neighboring grid points is classified by which of
+ * its corners lie above the level, and the contour crosses each of its edges whose ends lie on different sides, at
+ * the point found by linear interpolation. A cell with two diagonally opposite corners above the level (a saddle)
+ * is resolved by the average of its corners. Cells with an undefined or infinite corner are skipped, so contours
+ * end at the boundary of the region where the function is finite.
+ * The segments are appended to a PointBuffer as pairs of points, each followed by a point with a NaN y value, so
+ * CanvasPlotter draws them as they are.
+ */
+class ContourExtractor {
+	// Edges of a cell, in the order they are examined.
+	private static final int BOTTOM = 0, RIGHT = 1, TOP = 2, LEFT = 3;
+
+	private ContourExtractor () {
+	}
+
+	/**
+	 * Appends the segments of the contour line at the given level to out.
+	 * @param values the grid values in row-major order, as filled in by GridEvaluator
+	 * @param columns the number of columns of the grid
+	 * @param rows the number of rows of the grid
+	 * @param minX the x value of the first column
+	 * @param maxX the x value of the last column
+	 * @param minY the y value of the first row
+	 * @param maxY the y value of the last row
+	 * @param level the value of the function along the contour
+	 * @param out receives the segments
+	 * @return the number of segments appended
+	 */
+	public static int extract (double[] values, int columns, int rows, double minX, double maxX, double minY, double maxY, double level, PointBuffer out) {
+		if ((long) columns * rows > values.length) {
+			throw new IllegalArgumentException("A " + columns + "x" + rows + " grid doesn't fit in an array of " + values.length);
+		}
+		// The crossing points of the current cell's edges, indexed by BOTTOM, RIGHT, TOP and LEFT.
+		final double[] xs = new double[4], ys = new double[4];
+		int segments = 0;
+		for (int j = 0; j + 1 < rows; j++) {
+			final double y0 = ParallelSampler.xAt(minY, maxY, rows, j), y1 = ParallelSampler.xAt(minY, maxY, rows, j + 1);
+			for (int i = 0; i + 1 < columns; i++) {
+				final double v00 = values[j * columns + i], v10 = values[j * columns + i + 1];
+				final double v01 = values[(j + 1) * columns + i], v11 = values[(j + 1) * columns + i + 1];
+				if (!(Double.isFinite(v00) && Double.isFinite(v10) && Double.isFinite(v01) && Double.isFinite(v11))) {
+					continue;
+				}
+				final boolean a00 = v00 > level, a10 = v10 > level, a01 = v01 > level, a11 = v11 > level;
+				if (a00 == a10 && a10 == a11 && a11 == a01) {
+					continue;
+				}
+				final double x0 = ParallelSampler.xAt(minX, maxX, columns, i), x1 = ParallelSampler.xAt(minX, maxX, columns, i + 1);
+				final boolean bottom = a00 != a10, right = a10 != a11, top = a01 != a11, left = a00 != a01;
+				if (bottom) {
+					xs[BOTTOM] = interpolate(x0, v00, x1, v10, level);
+					ys[BOTTOM] = y0;
+				}
+				if (right) {
+					xs[RIGHT] = x1;
+					ys[RIGHT] = interpolate(y0, v10, y1, v11, level);
+				}
+				if (top) {
+					xs[TOP] = interpolate(x0, v01, x1, v11, level);
+					ys[TOP] = y1;
+				}
+				if (left) {
+					xs[LEFT] = x0;
+					ys[LEFT] = interpolate(y0, v00, y1, v01, level);
+				}
+
+				if (bottom && right && top && left) {
+					// A saddle: the two corners on the same side as the middle are connected through it, and the contour
+					// cuts off the other two.
+					final boolean middleAbove = (v00 + v10 + v01 + v11) / 4 > level;
+					if (middleAbove == a00) {
+						// v00 and v11 are connected: cut off v10 and v01.
+						add(out, xs, ys, BOTTOM, RIGHT);
+						add(out, xs, ys, TOP, LEFT);
+					} else {
+						add(out, xs, ys, BOTTOM, LEFT);
+						add(out, xs, ys, TOP, RIGHT);
+					}
+					segments += 2;
+				} else {
+					// Exactly two edges are crossed.
+					final int first = bottom ? BOTTOM : right ? RIGHT : TOP;
+					final int second = left ? LEFT : top ? TOP : RIGHT;
+					add(out, xs, ys, first, second);
+					segments++;
+				}
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Returns the coordinate between a and b at which the linear interpolation of the values reaches the level.
+	 */
+	private static double interpolate (double a, double valueA, double b, double valueB, double level) {
+		return a + (b - a) * (level - valueA) / (valueB - valueA);
+	}
+
+	private static void add (PointBuffer out, double[] xs, double[] ys, int from, int to) {
+		out.add(xs[from], ys[from]);
+		out.add(xs[to], ys[to]);
+		out.add(xs[to], Double.NaN);
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Reduces a sampled curve to the points that make a visible difference when it is drawn with straight lines at a
+ * given horizontal resolution. The x range is divided into one bucket per pixel column, and of the points in each
+ * bucket only the first, the last, and those with the smallest and largest y are kept, in their original order
+ * (the "M4" aggregation). A polyline through the kept points covers the same pixels as one through all of them,
+ * so a LineChart or Canvas gets at most four points per pixel column however densely the curve was sampled.
+ * Points with a NaN or infinite y value mark gaps in the curve and are always kept.
+ */
+class CurveDecimator {
+	private CurveDecimator () {
+	}
+
+	/**
+	 * Decimates the points, which must be in order of increasing x, into out, replacing its contents.
+	 * @param points the points of the curve
+	 * @param minX the x value at the left edge of the display
+	 * @param maxX the x value at the right edge of the display
+	 * @param columns the width of the display in pixels
+	 * @param out receives the kept points; it must not be the same buffer as points
+	 */
+	public static void decimate (PointBuffer points, double minX, double maxX, int columns, PointBuffer out) {
+		out.clear();
+		final double[] xs = points.xs(), ys = points.ys();
+		final int size = points.size();
+		final double columnsPerX = columns / (maxX - minX);
+		int start = 0;
+		while (start < size) {
+			if (!Double.isFinite(ys[start])) {
+				out.add(xs[start], ys[start]);
+				start++;
+				continue;
+			}
+			// The run of finite points in the same column as the point at start.
+			final long column = column(xs[start], minX, columnsPerX);
+			int end = start + 1, min = start, max = start;
+			while (end < size && Double.isFinite(ys[end]) && column(xs[end], minX, columnsPerX) == column) {
+				if (ys[end] < ys[min]) {
+					min = end;
+				}
+				if (ys[end] > ys[max]) {
+					max = end;
+				}
+				end++;
+			}
+			final int last = end - 1;
+			out.add(xs[start], ys[start]);
+			if (Math.min(min, max) != start && Math.min(min, max) != last) {
+				out.add(xs[Math.min(min, max)], ys[Math.min(min, max)]);
+			}
+			if (Math.max(min, max) != Math.min(min, max) && Math.max(min, max) != start && Math.max(min, max) != last) {
+				out.add(xs[Math.max(min, max)], ys[Math.max(min, max)]);
+			}
+			if (last != start) {
+				out.add(xs[last], ys[last]);
+			}
+			start = end;
+		}
+	}
+
+	private static long column (double x, double minX, double columnsPerX) {
+		return (long) Math.floor((x - minX) * columnsPerX);
+	}
+}
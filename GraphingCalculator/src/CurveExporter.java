@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * Samples an expression at equally spaced x values and writes the points to a file, for sample counts far too
+ * large to hold in memory (or in a LineChart). The samples are taken a chunk at a time with a ParallelSampler
+ * and handed to a writer thread, so a chunk is sampled while the one before it is encoded and written: two
+ * chunk buffers are used in turn, which bounds the memory used whatever the number of samples.
+ * The formats are
+ * <ul>
+ * <li>CSV: a header line "x,y" followed by one line per sample, with the values as Double.toString writes them,
+ * so they read back exactly;</li>
+ * <li>BINARY: the x and y value of every sample as little-endian IEEE 754 doubles, one pair after another, i.e.
+ * 16 bytes per sample and no header.</li>
+ * </ul>
+ * Files are written through a FileChannel. The binary format can also be written through memory mappings of the
+ * file, one per chunk, which leaves the copying to the operating system.
+ * Run main to export from the command line, without starting the user interface.
+ */
+class CurveExporter {
+	protected static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+	// The longest line of the CSV format: two doubles as Double.toString writes them (at most 24 characters), ',' and '\n'.
+	private static final int MAX_CSV_LINE = 2 * 24 + 2;
+	private static final int BINARY_SAMPLE = 2 * Double.BYTES;
+
+	enum Format {
+		CSV, BINARY
+	}
+
+	private final ParallelSampler _sampler;
+	private final int _chunkSize;
+
+	/**
+	 * Creates an exporter that samples on the common ForkJoinPool in chunks of the default size.
+	 */
+	public CurveExporter () {
+		this(new ParallelSampler(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param sampler the sampler to take the samples with
+	 * @param chunkSize the number of samples taken and written at a time
+	 */
+	public CurveExporter (ParallelSampler sampler, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+		}
+		_sampler = sampler;
+		_chunkSize = chunkSize;
+	}
+
+	/**
+	 * Samples the expression at count equally spaced x values over [minX, maxX] and writes the points to the file,
+	 * replacing its contents.
+	 * @param expression the expression to sample
+	 * @param minX the first x value
+	 * @param maxX the last x value
+	 * @param count the number of samples
+	 * @param path the file to write
+	 * @param format the format to write
+	 * @param mapped whether to write through memory mappings of the file rather than FileChannel.write; only for BINARY
+	 * @return the number of bytes written
+	 * @throws IOException if the file can't be written
+	 */
+	public long export (Expression expression, double minX, double maxX, long count, Path path, Format format, boolean mapped) throws IOException {
+		if (count < 0) {
+			throw new IllegalArgumentException("Invalid sample count: " + count);
+		}
+		if (mapped && format != Format.BINARY) {
+			throw new IllegalArgumentException("Only the binary format can be written through a memory mapping");
+		}
+		final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "Curve writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+				StandardOpenOption.READ)) {
+			final Chunk[] chunks = { new Chunk(format, mapped), new Chunk(format, mapped) };
+			final long[] position = new long[1];
+			if (format == Format.CSV) {
+				write(channel, ByteBuffer.wrap("x,y\n".getBytes(StandardCharsets.US_ASCII)), position);
+			}
+
+			// Each write is chained to the previous one, so the chunks are written in order, one at a time.
+			CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+			for (long first = 0, index = 0; first < count; first += _chunkSize, index++) {
+				final Chunk chunk = chunks[(int) (index % 2)];
+				// Wait until the chunk sampled two chunks ago, which used the same buffer, has been written.
+				join(chunk._written);
+				final int length = (int) Math.min(_chunkSize, count - first);
+				_sampler.sample(expression, minX, maxX, count, first, chunk._ys, length, () -> false);
+				final long chunkFirst = first;
+				written = written.thenRunAsync(() -> {
+					try {
+						chunk.write(channel, minX, maxX, count, chunkFirst, length, position);
+					} catch (IOException ioe) {
+						throw new CompletionException(ioe);
+					}
+				}, writer);
+				chunk._written = written;
+			}
+			join(written);
+			return position[0];
+		} finally {
+			writer.shutdown();
+		}
+	}
+
+	/**
+	 * Waits for a write to finish, rethrowing its IOException.
+	 */
+	private static void join (CompletableFuture<Void> write) throws IOException {
+		if (write == null) {
+			return;
+		}
+		try {
+			write.join();
+		} catch (CompletionException ce) {
+			if (ce.getCause() instanceof IOException) {
+				throw (IOException) ce.getCause();
+			}
+			throw ce;
+		}
+	}
+
+	private static void write (FileChannel channel, ByteBuffer buffer, long[] position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position[0] += channel.write(buffer, position[0]);
+		}
+	}
+
+	/**
+	 * The buffers of one chunk: the sampled values, and the bytes they are encoded into.
+	 */
+	private class Chunk {
+		final Format _format;
+		final boolean _mapped;
+		final double[] _ys = new double[_chunkSize];
+		final ByteBuffer _bytes;
+		// The write of the samples last taken into this chunk, or null.
+		CompletableFuture<Void> _written;
+
+		Chunk (Format format, boolean mapped) {
+			_format = format;
+			_mapped = mapped;
+			_bytes = mapped ? null : ByteBuffer.allocateDirect(_chunkSize * (format == Format.CSV ? MAX_CSV_LINE : BINARY_SAMPLE)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * Encodes the samples first, ..., first + length - 1 held in _ys and appends them to the file.
+		 */
+		void write (FileChannel channel, double minX, double maxX, long count, long first, int length, long[] position) throws IOException {
+			if (_mapped) {
+				final MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, position[0], (long) length * BINARY_SAMPLE);
+				final DoubleBuffer doubles = mapping.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+				for (int i = 0; i < length; i++) {
+					doubles.put(ParallelSampler.xAt(minX, maxX, count, first + i)).put(_ys[i]);
+				}
+				position[0] += (long) length * BINARY_SAMPLE;
+				return;
+			}
+			_bytes.clear();
+			if (_format == Format.BINARY) {
+				for (int i = 0; i < length; i++) {
+					_bytes.putDouble(ParallelSampler.xAt(minX, maxX, count, first + i)).putDouble(_ys[i]);
+				}
+			} else {
+				for (int i = 0; i < length; i++) {
+					putAscii(Double.toString(ParallelSampler.xAt(minX, maxX, count, first + i)));
+					_bytes.put((byte) ',');
+					putAscii(Double.toString(_ys[i]));
+					_bytes.put((byte) '\n');
+				}
+			}
+			_bytes.flip();
+			CurveExporter.write(channel, _bytes, position);
+		}
+
+		private void putAscii (String str) {
+			for (int i = 0; i < str.length(); i++) {
+				_bytes.put((byte) str.charAt(i));
+			}
+		}
+	}
+
+	/**
+	 * Exports a curve from the command line:
+	 * java CurveExporter expression minX maxX count file [--mapped]
+	 * The file is written in the binary format if its name ends in ".bin", and as CSV otherwise.
+	 */
+	public static void main (String[] args) throws ExpressionParseException, IOException {
+		if (args.length < 5) {
+			System.err.println("Usage: java CurveExporter expression minX maxX count file [--mapped]");
+			System.exit(2);
+		}
+		final Expression expression = new TokenizingExpressionParser().parse(args[0]);
+		final double minX = Double.parseDouble(args[1]), maxX = Double.parseDouble(args[2]);
+		final long count = Long.parseLong(args[3]);
+		final Path path = Paths.get(args[4]);
+		final Format format = args[4].endsWith(".bin") ? Format.BINARY : Format.CSV;
+		final boolean mapped = args.length > 5 && args[5].equals("--mapped");
+
+		final long start = System.nanoTime();
+		final long bytes = new CurveExporter().export(expression, minX, maxX, count, path, format, mapped);
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d samples, %d bytes in %.2f s (%.1f million samples/s, %.1f MB/s)%n", count, bytes, seconds, count / seconds / 1e6, bytes / seconds / 1e6);
+	}
+}
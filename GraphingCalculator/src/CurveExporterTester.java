@@ -0,0 +1,82 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.List;
+
+/**
+ * Checks the files written by CurveExporter against evaluating the expression at every sample.
+ */
+public class CurveExporterTester {
+	// Not a multiple of the chunk size, so the last chunk is a partial one.
+	private static final int COUNT = 10_007;
+	private static final double MIN_X = -3, MAX_X = 5;
+
+	private Expression _expression;
+	private CurveExporter _exporter;
+
+	@TempDir
+	Path _directory;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser and the exporter
+	 */
+	public void setUp () throws ExpressionParseException {
+		_expression = new TokenizingExpressionParser().parse("x^3 - 2*x + 1/(x - 1)");
+		_exporter = new CurveExporter(new ParallelSampler(), 1000);
+	}
+
+	@Test
+	/**
+	 * Verifies that the CSV file holds a header and exactly the sampled values, over several chunks.
+	 */
+	public void testCsv () throws IOException {
+		final Path path = _directory.resolve("curve.csv");
+		final long bytes = _exporter.export(_expression, MIN_X, MAX_X, COUNT, path, CurveExporter.Format.CSV, false);
+		assertEquals(Files.size(path), bytes);
+		final List<String> lines = Files.readAllLines(path);
+		assertEquals(COUNT + 1, lines.size());
+		assertEquals("x,y", lines.get(0));
+		for (int i = 0; i < COUNT; i++) {
+			final String[] fields = lines.get(i + 1).split(",");
+			final double x = ParallelSampler.xAt(MIN_X, MAX_X, COUNT, i);
+			assertEquals(x, Double.parseDouble(fields[0]));
+			assertEquals(_expression.evaluate(x), Double.parseDouble(fields[1]), "at " + x);
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that both ways of writing the binary format give the same little-endian (x, y) pairs.
+	 */
+	public void testBinary () throws IOException {
+		for (boolean mapped : new boolean[] { false, true }) {
+			final Path path = _directory.resolve("curve" + mapped + ".bin");
+			assertEquals(16L * COUNT, _exporter.export(_expression, MIN_X, MAX_X, COUNT, path, CurveExporter.Format.BINARY, mapped));
+			final DoubleBuffer doubles = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			assertEquals(2 * COUNT, doubles.remaining());
+			for (int i = 0; i < COUNT; i++) {
+				final double x = ParallelSampler.xAt(MIN_X, MAX_X, COUNT, i);
+				assertEquals(x, doubles.get());
+				assertEquals(_expression.evaluate(x), doubles.get(), "at " + x);
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies exporting no samples or a single one, and that an existing file is replaced.
+	 */
+	public void testEdgeCases () throws IOException {
+		final Path path = _directory.resolve("curve.csv");
+		Files.write(path, new byte[100_000]);
+		_exporter.export(_expression, MIN_X, MAX_X, 0, path, CurveExporter.Format.CSV, false);
+		assertEquals(List.of("x,y"), Files.readAllLines(path));
+		_exporter.export(_expression, 2, 2, 1, path, CurveExporter.Format.CSV, false);
+		assertEquals(List.of("x,y", "2.0," + _expression.evaluate(2)), Files.readAllLines(path));
+		assertThrows(IllegalArgumentException.class, () -> _exporter.export(_expression, 0, 1, 10, path, CurveExporter.Format.CSV, true));
+	}
+}
@@ -0,0 +1,137 @@
+import java.util.*;
+
+/**
+ * Computes derivatives of any order and remembers them, so that plotting f, f', f'' and f''' differentiates
+ * each order only once, from the order below it, instead of starting from f every time. Expressions are
+ * identified by their structure (see ExpressionKey), so parsing the same string again finds the cached
+ * derivatives. Every derivative is simplified with ExpressionSimplifier before it is stored and differentiated
+ * further, which keeps higher orders from growing combinatorially.
+ * The cache holds the derivatives of a bounded number of expressions, dropping the least recently used ones.
+ * Callers get their own copies of the cached trees. All methods are synchronized.
+ */
+class DerivativeCache {
+	protected static final int DEFAULT_CAPACITY = 64;
+
+	// The simplified expression followed by its derivatives of order 1, 2, ..., for each expression.
+	private final LinkedHashMap<ExpressionKey, List<Expression>> _derivatives;
+
+	public DerivativeCache () {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity the number of expressions whose derivatives are kept
+	 */
+	public DerivativeCache (int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		_derivatives = new LinkedHashMap<ExpressionKey, List<Expression>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<ExpressionKey, List<Expression>> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the simplified derivative of the given order.
+	 * @param expression the expression to differentiate
+	 * @param order the order of the derivative; 0 returns the simplified expression itself
+	 * @return a new, fully independent tree representing the derivative
+	 * @throws UnsupportedOperationException if a derivative up to the given order can't be computed, e.g. for x^x
+	 */
+	public synchronized Expression derivative (Expression expression, int order) {
+		if (order < 0) {
+			throw new IllegalArgumentException("Negative order: " + order);
+		}
+		final ExpressionKey key = new ExpressionKey(expression);
+		List<Expression> derivatives = _derivatives.get(key);
+		if (derivatives == null) {
+			derivatives = new ArrayList<>();
+			derivatives.add(ExpressionSimplifier.simplify(expression));
+			_derivatives.put(key, derivatives);
+		}
+		while (derivatives.size() <= order) {
+			final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+			final Expression derivative = ExpressionSimplifier.differentiate(derivatives.get(derivatives.size() - 1));
+			if (Metrics.ENABLED) {
+				Metrics.differentiated(derivatives.size(), ExpressionSimplifier.countNodes(derivatives.get(derivatives.size() - 1)),
+					ExpressionSimplifier.countNodes(derivative), start);
+			}
+			if (!isComplete(derivative)) {
+				throw new UnsupportedOperationException("Cannot compute derivative " + derivatives.size() + " of the expression");
+			}
+			derivatives.add(derivative);
+		}
+		return derivatives.get(order).deepCopy();
+	}
+
+	/**
+	 * Returns copies of the trees cached for an expression: the simplified expression followed by its derivatives of
+	 * order 1, 2, ..., as far as they have been computed.
+	 * @param expression the expression
+	 * @return the trees, or an empty list if none are cached
+	 */
+	public synchronized List<Expression> getCachedDerivatives (Expression expression) {
+		final List<Expression> derivatives = _derivatives.get(new ExpressionKey(expression));
+		final List<Expression> copies = new ArrayList<>();
+		if (derivatives != null) {
+			for (Expression derivative : derivatives) {
+				copies.add(derivative.deepCopy());
+			}
+		}
+		return copies;
+	}
+
+	/**
+	 * Adds the trees computed for an expression to the cache, e.g. ones decoded by ExpressionCodec at startup.
+	 * @param expression the expression
+	 * @param derivatives the simplified expression followed by its derivatives of order 1, 2, ..., as returned by
+	 * getCachedDerivatives; the cache keeps copies
+	 */
+	public synchronized void put (Expression expression, List<Expression> derivatives) {
+		if (derivatives.isEmpty()) {
+			throw new IllegalArgumentException("The simplified expression is missing");
+		}
+		final List<Expression> copies = new ArrayList<>();
+		for (Expression derivative : derivatives) {
+			copies.add(derivative.deepCopy());
+		}
+		_derivatives.put(new ExpressionKey(expression), copies);
+	}
+
+	/**
+	 * Returns the number of expressions whose derivatives are cached.
+	 */
+	public synchronized int size () {
+		return _derivatives.size();
+	}
+
+	public synchronized void clear () {
+		_derivatives.clear();
+	}
+
+	/**
+	 * Decides whether the tree has no missing nodes, which Expression.differentiate leaves where it can't differentiate.
+	 */
+	private static boolean isComplete (Expression expression) {
+		if (expression == null) {
+			return false;
+		}
+		if (expression instanceof SExpression) {
+			return isComplete(((SExpression) expression)._leftNode) && isComplete(((SExpression) expression)._rightNode);
+		}
+		if (expression instanceof MExpression) {
+			return isComplete(((MExpression) expression)._leftNode) && isComplete(((MExpression) expression)._rightNode);
+		}
+		if (expression instanceof EExpression) {
+			final EExpression exponential = (EExpression) expression;
+			return (exponential._opr.equals("log") || isComplete(exponential._leftNode)) && isComplete(exponential._rightNode);
+		}
+		if (expression instanceof PExpression) {
+			return isComplete(((PExpression) expression)._node);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * Checks that DerivativeCache computes the same derivatives as repeated differentiation and reuses them.
+ */
+public class DerivativeCacheTester {
+	private static final double[] XS = { -7.5, -2, -1, -0.5, 0.25, 0.5, 1, 1.5, 2, 3, 9.75 };
+
+	private ExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser();
+	}
+
+	@Test
+	/**
+	 * Verifies derivatives of several orders against repeated differentiation.
+	 */
+	public void testOrders () throws ExpressionParseException {
+		final DerivativeCache cache = new DerivativeCache();
+		final String[] expressions = { "13", "2*x+5*x*x", "10*x^3 + 2*(15+x)", "1./(1. + 5^(-1*x))", "(x-1)*(x+1)/(x*x+1) - 3*x/7" };
+		for (String expressionStr : expressions) {
+			final Expression expression = _parser.parse(expressionStr);
+			Expression expected = ExpressionSimplifier.simplify(expression);
+			for (int order = 0; order <= 3; order++) {
+				final Expression actual = cache.derivative(expression, order);
+				for (double x : XS) {
+					final double value = expected.evaluate(x);
+					assertEquals(value, actual.evaluate(x), 1e-9 * Math.max(1, Math.abs(value)), expressionStr + " order " + order + " at " + x);
+				}
+				expected = ExpressionSimplifier.differentiate(expected);
+			}
+		}
+		assertEquals("0.0\n", cache.derivative(_parser.parse("10*x^3 + 2*(15+x)"), 4).convertToString(0));
+		assertEquals(expressions.length, cache.size());
+	}
+
+	@Test
+	/**
+	 * Verifies that cached trees are found by structure and are not shared with callers.
+	 */
+	public void testCaching () throws ExpressionParseException {
+		final DerivativeCache cache = new DerivativeCache(2);
+		final Expression first = cache.derivative(_parser.parse("x*x*x"), 2);
+		final Expression second = cache.derivative(_parser.parse("x*x*x"), 2);
+		assertNotSame(first, second);
+		assertEquals(first.convertToString(0), second.convertToString(0));
+		assertEquals(1, cache.size());
+
+		cache.derivative(_parser.parse("x+1"), 1);
+		cache.derivative(_parser.parse("x+2"), 1);
+		assertEquals(2, cache.size());
+
+		assertThrows(UnsupportedOperationException.class, () -> cache.derivative(_parser.parse("x^x"), 1));
+		assertThrows(IllegalArgumentException.class, () -> cache.derivative(_parser.parse("x"), -1));
+	}
+
+	@Test
+	/**
+	 * Verifies that ExpressionKey compares trees by structure.
+	 */
+	public void testKeys () throws ExpressionParseException {
+		assertEquals(new ExpressionKey(_parser.parse("2*(x+1)")), new ExpressionKey(_parser.parse("2 * (x + 1)")));
+		assertEquals(new ExpressionKey(_parser.parse("2*(x+1)")).hashCode(), new ExpressionKey(_parser.parse("2 * (x + 1)")).hashCode());
+		assertNotEquals(new ExpressionKey(_parser.parse("2*(x+1)")), new ExpressionKey(_parser.parse("2*x+1")));
+		assertNotEquals(new ExpressionKey(_parser.parse("x-1")), new ExpressionKey(_parser.parse("x+1")));
+		assertNotEquals(new ExpressionKey(_parser.parse("x*0")), new ExpressionKey(_parser.parse("x*-0")));
+	}
+}
@@ -0,0 +1,151 @@
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Computes f(x) and f'(x) together in one pass over the instructions of a LinearizedExpression, using forward-mode
+ * automatic differentiation: every intermediate result is a dual number, a value paired with its derivative with
+ * respect to x, kept on two preallocated primitive stacks. No derivative tree is built, so the cost is a small
+ * constant factor of evaluating f, and powers whose base and exponent both depend on x (such as x^x), which
+ * Expression.differentiate can't handle, are differentiated with the general rule
+ * d(u^v) = u^v * (v' log u + v u' / u).
+ * Nodes that are not one of the known Expression classes are differentiated numerically with a central difference.
+ * Because the stacks are preallocated, an instance must not be used by several threads at once; use copy to get
+ * an instance for each thread.
+ */
+class DualNumberEvaluator implements DoubleUnaryOperator {
+	private final LinearizedExpression _program;
+	private final double[] _values, _derivatives;
+	// The results of the last evaluation.
+	private double _value, _derivative;
+
+	private DualNumberEvaluator (LinearizedExpression program) {
+		_program = program;
+		_values = new double[program._code.length];
+		_derivatives = new double[program._code.length];
+	}
+
+	/**
+	 * Creates an evaluator for the derivative of the given expression.
+	 * @param expression the expression to differentiate
+	 * @return the evaluator
+	 */
+	public static DualNumberEvaluator of (Expression expression) {
+		return new DualNumberEvaluator(LinearizedExpression.of(expression));
+	}
+
+	/**
+	 * Creates an instance that shares the instructions of this one but has its own stacks, so it can be used by another thread.
+	 * @return the copy
+	 */
+	public DualNumberEvaluator copy () {
+		return new DualNumberEvaluator(_program);
+	}
+
+	/**
+	 * Computes the value and the derivative of the expression at x, which value and derivative then return.
+	 * @param x the value of the independent variable x
+	 * @return the derivative of the expression at x
+	 */
+	public double evaluate (double x) {
+		final double[] values = _values, derivatives = _derivatives;
+		int top = -1;
+		for (int instruction : _program._code) {
+			switch (instruction & LinearizedExpression.OPCODE_MASK) {
+				case LinearizedExpression.CONSTANT:
+					values[++top] = _program._constants[instruction >>> LinearizedExpression.OPCODE_BITS];
+					derivatives[top] = 0;
+					break;
+				case LinearizedExpression.VARIABLE: {
+					// Variables other than x, in slot 0, are undefined.
+					final boolean isX = instruction == LinearizedExpression.VARIABLE;
+					values[++top] = isX ? x : Double.NaN;
+					derivatives[top] = isX ? 1 : 0;
+					break;
+				}
+				case LinearizedExpression.ADD:
+					top--;
+					values[top] = values[top] + values[top + 1];
+					derivatives[top] = derivatives[top] + derivatives[top + 1];
+					break;
+				case LinearizedExpression.SUBTRACT:
+					top--;
+					values[top] = values[top] - values[top + 1];
+					derivatives[top] = derivatives[top] - derivatives[top + 1];
+					break;
+				case LinearizedExpression.MULTIPLY: {
+					top--;
+					final double u = values[top], v = values[top + 1];
+					values[top] = u * v;
+					derivatives[top] = derivatives[top] * v + u * derivatives[top + 1];
+					break;
+				}
+				case LinearizedExpression.DIVIDE: {
+					top--;
+					final double quotient = values[top] / values[top + 1];
+					// (u/v)' = (u' - (u/v) v') / v
+					derivatives[top] = (derivatives[top] - quotient * derivatives[top + 1]) / values[top + 1];
+					values[top] = quotient;
+					break;
+				}
+				case LinearizedExpression.POWER: {
+					top--;
+					final double u = values[top], v = values[top + 1], du = derivatives[top], dv = derivatives[top + 1];
+					final double power = Math.pow(u, v);
+					if (du == 0 && dv == 0) {
+						derivatives[top] = 0;
+					} else if (dv == 0) {
+						// The power rule also works where log u is undefined, e.g. for negative bases.
+						derivatives[top] = v * Math.pow(u, v - 1) * du;
+					} else if (du == 0) {
+						derivatives[top] = power * Math.log(u) * dv;
+					} else {
+						derivatives[top] = power * (dv * Math.log(u) + v * du / u);
+					}
+					values[top] = power;
+					break;
+				}
+				case LinearizedExpression.LOG:
+					derivatives[top] = derivatives[top] / values[top];
+					values[top] = Math.log(values[top]);
+					break;
+				default: {
+					final Expression fallback = _program._fallbacks[instruction >>> LinearizedExpression.OPCODE_BITS];
+					final double h = 1e-6 * Math.max(1, Math.abs(x));
+					values[++top] = fallback.evaluate(x);
+					derivatives[top] = (fallback.evaluate(x + h) - fallback.evaluate(x - h)) / (2 * h);
+				}
+			}
+		}
+		_value = values[0];
+		_derivative = derivatives[0];
+		return _derivative;
+	}
+
+	/**
+	 * Returns the value of the expression at the x of the last call to evaluate.
+	 */
+	public double value () {
+		return _value;
+	}
+
+	/**
+	 * Returns the derivative of the expression at the x of the last call to evaluate.
+	 */
+	public double derivative () {
+		return _derivative;
+	}
+
+	public double applyAsDouble (double x) {
+		return evaluate(x);
+	}
+
+	/**
+	 * Computes the derivative of the expression at every value in xs.
+	 * @param xs the values of the independent variable x
+	 * @param out the array receiving the derivative at each of xs; it must be at least as long as xs
+	 */
+	public void evaluateBatch (double[] xs, double[] out) {
+		for (int i = 0; i < xs.length; i++) {
+			out[i] = evaluate(xs[i]);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * Compares derivatives computed by DualNumberEvaluator with symbolic derivatives and known closed forms.
+ */
+public class DualNumberEvaluatorTester {
+	private static final double[] XS = { -7.5, -2, -1, -0.5, 0, 0.25, 0.5, 1, 1.5, 2, 3, 9.75 };
+
+	private ExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser();
+	}
+
+	private static void assertClose (double expected, double actual, String message) {
+		if (Double.isFinite(expected)) {
+			assertEquals(expected, actual, 1e-9 * Math.max(1, Math.abs(expected)), message);
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies values and derivatives against the interpreter and Expression.differentiate.
+	 */
+	public void testSymbolicDerivatives () throws ExpressionParseException {
+		final String[] expressions = { "x", "13", "2*x+5*x*x", "10*x^3 + 2*(15+x)", "1./(1. + 5^(-1*x))", "log(x)*2-log2", "(x-1)*(x+1)/(x*x+1) - 3*x/7", "x^2", "x^0.5" };
+		for (String expressionStr : expressions) {
+			final Expression expression = _parser.parse(expressionStr);
+			final Expression derivative = expression.differentiate();
+			final DualNumberEvaluator evaluator = DualNumberEvaluator.of(expression);
+			for (double x : XS) {
+				final double result = evaluator.evaluate(x);
+				assertEquals(result, evaluator.derivative());
+				assertEquals(Double.doubleToLongBits(expression.evaluate(x)), Double.doubleToLongBits(evaluator.value()), expressionStr + " at " + x);
+				assertClose(derivative.evaluate(x), result, expressionStr + "' at " + x);
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies powers whose base and exponent both depend on x, which Expression.differentiate can't differentiate.
+	 */
+	public void testVariablePowers () throws ExpressionParseException {
+		final DualNumberEvaluator power = DualNumberEvaluator.of(_parser.parse("x^x"));
+		final DualNumberEvaluator nested = DualNumberEvaluator.of(_parser.parse("(x*x+1)^(2*x)"));
+		for (double x : new double[] { 0.25, 0.5, 1, 1.5, 2, 3 }) {
+			assertClose(Math.pow(x, x) * (Math.log(x) + 1), power.evaluate(x), "x^x at " + x);
+			final double base = x * x + 1;
+			assertClose(Math.pow(base, 2 * x) * (2 * Math.log(base) + 2 * x * 2 * x / base), nested.evaluate(x), "(x*x+1)^(2*x) at " + x);
+		}
+		// Integer powers of negative numbers are differentiated with the power rule.
+		assertEquals(-6, DualNumberEvaluator.of(_parser.parse("x^2")).copy().evaluate(-3));
+	}
+
+	@Test
+	/**
+	 * Verifies that unknown nodes are differentiated numerically.
+	 */
+	public void testFallback () {
+		final Expression cube = new Expression() {
+			public Expression deepCopy () { return this; }
+			public String convertToString (int indentLevel) { return "cube\n"; }
+			public double evaluate (double x) { return x * x * x; }
+			public Expression differentiate () { throw new UnsupportedOperationException(); }
+		};
+		final DualNumberEvaluator evaluator = DualNumberEvaluator.of(new MExpression(new LiteralExpression(2), cube, "*"));
+		assertEquals(2 * 3 * 4, evaluator.evaluate(2), 1e-6);
+		assertEquals(16, evaluator.value());
+	}
+}
@@ -58,6 +58,73 @@ public class EExpression implements Expression {
 		}
 	}
 
+	/**
+	 * Given the values of the variables, indexed by their slots, compute the value of this Exponentiation expression.
+	 * @param env the value of each variable
+	 * @return the value of this expression.
+	 */
+	public double evaluate (double[] env) {
+		if(_opr.equals("^")) {
+			return Math.pow(_leftNode.evaluate(env), _rightNode.evaluate(env));
+		}
+		else {
+			return Math.log(_rightNode.evaluate(env));
+		}
+	}
+
+	/**
+	 * Given an array of values of the independent variable x, compute the value of this Exponentiation expression at each of them.
+	 * Math.pow and Math.log have no vectorized form, so these are computed one value at a time.
+	 * @param xs the values of the independent variable x
+	 * @param out receives the value of this expression at each of xs
+	 */
+	public void evaluateBatch (double[] xs, double[] out) {
+		evaluateBatch(xs, out, new BatchScratch());
+	}
+
+	/**
+	 * Given an array of values of the independent variable x, compute the value of this Exponentiation expression at each of them,
+	 * with the values of the exponent in an array from scratch.
+	 * @param xs the values of the independent variable x
+	 * @param out receives the value of this expression at each of xs
+	 * @param scratch the arrays for intermediate values
+	 */
+	public void evaluateBatch (double[] xs, double[] out, BatchScratch scratch) {
+		if(_opr.equals("^")) {
+			_leftNode.evaluateBatch(xs, out, scratch);
+			final double[] exponents = scratch.acquire(xs.length);
+			try {
+				_rightNode.evaluateBatch(xs, exponents, scratch);
+				for (int i = 0; i < xs.length; i++) {
+					out[i] = Math.pow(out[i], exponents[i]);
+				}
+			} finally {
+				scratch.release();
+			}
+		}
+		else {
+			_rightNode.evaluateBatch(xs, out, scratch);
+			for (int i = 0; i < xs.length; i++) {
+				out[i] = Math.log(out[i]);
+			}
+		}
+	}
+
+	/**
+	 * Given a range of the independent variable x, compute a range enclosing every value of this Exponentiation expression over it.
+	 * @param lo the smallest value of x
+	 * @param hi the largest value of x
+	 * @return the range of the values of this expression
+	 */
+	public Interval evaluateInterval (double lo, double hi) {
+		if(_opr.equals("^")) {
+			return _leftNode.evaluateInterval(lo, hi).pow(_rightNode.evaluateInterval(lo, hi));
+		}
+		else {
+			return _rightNode.evaluateInterval(lo, hi).log();
+		}
+	}
+
 	/**
 	 * Produce a new, fully independent (i.e., there should be no shared subtrees) Exponentiation Expression
 	 * representing the derivative of this expression.
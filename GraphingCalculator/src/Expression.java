@@ -29,6 +29,54 @@ interface Expression {
 	 */
 	public double evaluate (double x);
 
+	/**
+	 * Given the values of the variables, indexed by the slots the parser's VariableScope assigned them, compute the
+	 * value of this expression. evaluate(x) is the same as evaluate(new double[] { x }) for expressions of x alone.
+	 * @param env the value of each variable
+	 * @return the value of this expression.
+	 */
+	default double evaluate (double[] env) {
+		return evaluate(env[0]);
+	}
+
+	/**
+	 * Given an array of values of the independent variable x, compute the value of this expression at each of them.
+	 * Implementations work one node at a time over the whole array, so each operator is decided once per batch rather
+	 * than once per value, and the arithmetic runs in simple loops that the JIT can vectorize.
+	 * @param xs the values of the independent variable x
+	 * @param out receives the value of this expression at each of xs; it must be at least as long as xs and must not be xs
+	 */
+	default void evaluateBatch (double[] xs, double[] out) {
+		for (int i = 0; i < xs.length; i++) {
+			out[i] = evaluate(xs[i]);
+		}
+	}
+
+	/**
+	 * Like evaluateBatch(xs, out), but takes the arrays for intermediate values from scratch instead of allocating
+	 * them, so a caller that evaluates batch after batch with the same scratch produces no garbage.
+	 * Expressions without intermediate values ignore the scratch.
+	 * @param xs the values of the independent variable x
+	 * @param out receives the value of this expression at each of xs; it must be at least as long as xs and must not be xs
+	 * @param scratch the arrays for intermediate values, owned by the calling thread
+	 */
+	default void evaluateBatch (double[] xs, double[] out, BatchScratch scratch) {
+		evaluateBatch(xs, out);
+	}
+
+	/**
+	 * Given a range of the independent variable x, compute a range that encloses every value this expression takes
+	 * over it, i.e. evaluate(x) lies in the result for every x in [lo, hi] where it isn't NaN. The range may be wider
+	 * than the exact one, but it is never narrower, so it can be used to rule out whole ranges of x at once.
+	 * Expressions that don't know better return Interval.ENTIRE.
+	 * @param lo the smallest value of x
+	 * @param hi the largest value of x
+	 * @return the range of the values of this expression
+	 */
+	default Interval evaluateInterval (double lo, double hi) {
+		return Interval.ENTIRE;
+	}
+
 	/**
 	 * Produce a new, fully independent (i.e., there should be no shared subtrees) Expression
 	 * representing the derivative of this expression.
@@ -0,0 +1,473 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Encodes Expression trees in a compact binary form and decodes them again, so that parsed and differentiated
+ * trees can be stored, sent to other machines and loaded at startup without parsing their text again.
+ * <p>
+ * An encoding starts with a header of the magic bytes "GCX", the format VERSION and the kind of content, a single
+ * tree or a bundle. A tree is encoded as:
+ * <pre>
+ * varint   the number of distinct variables, then for each its slot (varint) and its name (varint length, UTF-8)
+ * varint   the number of nodes
+ * varint   the most subtrees decoding keeps on its stack at once
+ * nodes    in post-order, each an opcode byte followed, for a LITERAL, by the IEEE-754 bits of its value (8 bytes,
+ *          little-endian) or, for a VARIABLE, by the index of the variable in the table above (varint)
+ * </pre>
+ * Since the nodes are in post-order, every operator comes right after its operands, so the layout of the children
+ * needs no offsets: decoding pushes each leaf on a stack and replaces the operands on top of it with each operator.
+ * The null subtrees Expression.differentiate leaves where it can't differentiate are encoded as MISSING nodes.
+ * Varints are unsigned LEB128: 7 bits per byte, least significant first, the high bit set on all but the last byte.
+ * <p>
+ * A bundle holds a number of entries (varint), each a text (varint length, UTF-8) and a list of trees (a varint
+ * count, then each tree as above), e.g. an expression and its derivatives.
+ * <p>
+ * Decoding walks the bytes once, without recursion, and allocates little more than the nodes themselves and one
+ * stack of the recorded size. Decoding a tree gives the same convertToString as the tree that was encoded.
+ * Only the Expression classes of the parser can be encoded; the compiled forms (see ExpressionCompiler and
+ * LinearizedExpression) are rebuilt from the decoded trees.
+ */
+final class ExpressionCodec {
+	// The current version of the format, which decode checks.
+	public static final int VERSION = 1;
+	// The first bytes of every encoding.
+	protected static final byte[] MAGIC = { 'G', 'C', 'X' };
+	// The kinds of content following the header.
+	protected static final int TREE = 0, BUNDLE = 1;
+	// Node opcodes.
+	protected static final int LITERAL = 0, VARIABLE = 1, ADD = 2, SUBTRACT = 3, MULTIPLY = 4, DIVIDE = 5, POWER = 6, LOG = 7,
+		PARENTHESES = 8, MISSING = 9;
+	// The fewest bytes a tree takes: its variable, node and stack height counts and one node.
+	protected static final int TREE_BYTES = 4;
+
+	private ExpressionCodec () {
+	}
+
+	/**
+	 * Encodes a tree, with a header.
+	 * @param expression the tree to encode, which may have null subtrees
+	 * @return the encoding
+	 * @throws IllegalArgumentException if the tree has nodes of a class other than those of the parser
+	 */
+	public static byte[] encode (Expression expression) {
+		final Output out = new Output(64);
+		out.header(TREE);
+		encodeTree(out, expression);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a tree encoded by encode.
+	 * @param bytes the encoding
+	 * @return the decoded tree
+	 * @throws IllegalArgumentException if the bytes are not a valid encoding of a tree of this version
+	 */
+	public static Expression decode (byte[] bytes) {
+		return decode(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Decodes a tree encoded by encode from a range of an array.
+	 * @param bytes the array holding the encoding
+	 * @param offset the index of the first byte of the encoding
+	 * @param length the length of the encoding
+	 * @return the decoded tree
+	 * @throws IllegalArgumentException if the range is not a valid encoding of a tree of this version
+	 */
+	public static Expression decode (byte[] bytes, int offset, int length) {
+		final Input in = new Input(bytes, offset, length);
+		in.header(TREE);
+		final Expression expression = decodeTree(in);
+		in.checkEnd();
+		return expression;
+	}
+
+	/**
+	 * Encodes a bundle of texts and trees, with a header.
+	 * @param entries the trees of each text, in the order to encode them
+	 * @return the encoding
+	 */
+	public static byte[] encodeBundle (Map<String, List<Expression>> entries) {
+		final Output out = new Output(256);
+		out.header(BUNDLE);
+		out.varint(entries.size());
+		for (Map.Entry<String, List<Expression>> entry : entries.entrySet()) {
+			out.string(entry.getKey());
+			out.varint(entry.getValue().size());
+			for (Expression expression : entry.getValue()) {
+				encodeTree(out, expression);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a bundle encoded by encodeBundle.
+	 * @param bytes the encoding
+	 * @return the trees of each text, in the order they were encoded
+	 * @throws IllegalArgumentException if the bytes are not a valid encoding of a bundle of this version
+	 */
+	public static LinkedHashMap<String, List<Expression>> decodeBundle (byte[] bytes) {
+		final Input in = new Input(bytes, 0, bytes.length);
+		in.header(BUNDLE);
+		final int size = in.count();
+		final LinkedHashMap<String, List<Expression>> entries = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++) {
+			final String text = in.string();
+			final int count = in.count(TREE_BYTES);
+			final List<Expression> expressions = new ArrayList<>(count);
+			for (int j = 0; j < count; j++) {
+				expressions.add(decodeTree(in));
+			}
+			entries.put(text, expressions);
+		}
+		in.checkEnd();
+		return entries;
+	}
+
+	/**
+	 * Writes a bundle to a file, replacing it only once the new contents are complete, so that a crash never leaves
+	 * a partly written bundle behind.
+	 * @param path the file
+	 * @param entries the trees of each text
+	 * @throws IOException if the file can't be written
+	 */
+	public static void writeBundle (Path path, Map<String, List<Expression>> entries) throws IOException {
+		final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(temporary, encodeBundle(entries));
+		try {
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException amnse) {
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads a bundle written by writeBundle.
+	 * @param path the file
+	 * @return the trees of each text
+	 * @throws IOException if the file can't be read or isn't a valid bundle of this version
+	 */
+	public static LinkedHashMap<String, List<Expression>> readBundle (Path path) throws IOException {
+		try {
+			return decodeBundle(Files.readAllBytes(path));
+		} catch (IllegalArgumentException iae) {
+			throw new IOException("Cannot read expression bundle " + path + ": " + iae.getMessage(), iae);
+		}
+	}
+
+	/**
+	 * Appends the encoding of a tree, without a header.
+	 */
+	static void encodeTree (Output out, Expression expression) {
+		final List<Expression> nodes = IterativeExpressions.postOrder(expression);
+		// Number the variables, and find the height of the stack decoding needs.
+		final List<VariableExpression> variables = new ArrayList<>();
+		final int[] indexOf = new int[nodes.size()];
+		int height = 0, maxHeight = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			final Expression node = nodes.get(i);
+			final int opcode = opcode(node);
+			if (opcode == VARIABLE) {
+				// Expressions have few distinct variables, so a linear search is quickest.
+				final VariableExpression variable = (VariableExpression) node;
+				int index = 0;
+				while (index < variables.size() && (variables.get(index)._slot != variable._slot || !variables.get(index)._name.equals(variable._name))) {
+					index++;
+				}
+				if (index == variables.size()) {
+					variables.add(variable);
+				}
+				indexOf[i] = index;
+			}
+			height += 1 - arity(opcode);
+			maxHeight = Math.max(maxHeight, height);
+		}
+
+		out.varint(variables.size());
+		for (VariableExpression variable : variables) {
+			out.varint(variable._slot);
+			out.string(variable._name);
+		}
+		out.varint(nodes.size());
+		out.varint(maxHeight);
+		for (int i = 0; i < nodes.size(); i++) {
+			final Expression node = nodes.get(i);
+			final int opcode = opcode(node);
+			out.write(opcode);
+			if (opcode == LITERAL) {
+				out.longLE(Double.doubleToRawLongBits(((LiteralExpression) node)._value));
+			} else if (opcode == VARIABLE) {
+				out.varint(indexOf[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads the encoding of a tree, without a header.
+	 */
+	static Expression decodeTree (Input in) {
+		// Each variable has a slot and the length of its name, and each node an opcode.
+		final int variableCount = in.count(2);
+		final String[] names = new String[variableCount];
+		final int[] slots = new int[variableCount];
+		for (int i = 0; i < variableCount; i++) {
+			slots[i] = in.count();
+			names[i] = in.string();
+		}
+		final int nodeCount = in.count(1);
+		final int maxHeight = in.count();
+		if (nodeCount == 0 || maxHeight == 0 || maxHeight > nodeCount) {
+			throw new IllegalArgumentException("Invalid tree of " + nodeCount + " nodes and stack height " + maxHeight);
+		}
+		final Expression[] stack = new Expression[maxHeight];
+		int size = 0;
+		for (int i = 0; i < nodeCount; i++) {
+			final int opcode = in.read();
+			final int arity = arity(opcode);
+			if (size < arity || size - arity >= maxHeight) {
+				throw new IllegalArgumentException("Invalid tree: node " + i + " doesn't fit the stack");
+			}
+			switch (opcode) {
+				case LITERAL:
+					stack[size++] = new LiteralExpression(Double.longBitsToDouble(in.longLE()));
+					break;
+				case VARIABLE: {
+					final int index = in.count();
+					if (index >= variableCount) {
+						throw new IllegalArgumentException("Invalid variable index " + index);
+					}
+					// Each occurrence gets its own node, as after parsing, so the tree has no shared subtrees.
+					stack[size++] = new VariableExpression(names[index], slots[index]);
+					break;
+				}
+				case MISSING:
+					stack[size++] = null;
+					break;
+				case ADD:
+					size--;
+					stack[size - 1] = new SExpression(stack[size - 1], stack[size], "+");
+					break;
+				case SUBTRACT:
+					size--;
+					stack[size - 1] = new SExpression(stack[size - 1], stack[size], "-");
+					break;
+				case MULTIPLY:
+					size--;
+					stack[size - 1] = new MExpression(stack[size - 1], stack[size], "*");
+					break;
+				case DIVIDE:
+					size--;
+					stack[size - 1] = new MExpression(stack[size - 1], stack[size], "/");
+					break;
+				case POWER:
+					size--;
+					stack[size - 1] = new EExpression(stack[size - 1], stack[size], "^");
+					break;
+				case LOG:
+					stack[size - 1] = new EExpression(null, stack[size - 1], "log");
+					break;
+				default:
+					stack[size - 1] = new PExpression(stack[size - 1]);
+			}
+		}
+		if (size != 1) {
+			throw new IllegalArgumentException("Invalid tree: " + size + " subtrees left over");
+		}
+		return stack[0];
+	}
+
+	private static int opcode (Expression node) {
+		if (node == null) {
+			return MISSING;
+		}
+		if (node instanceof LiteralExpression) {
+			return LITERAL;
+		}
+		if (node instanceof VariableExpression) {
+			return VARIABLE;
+		}
+		if (node instanceof SExpression) {
+			return ((SExpression) node)._opr.equals("+") ? ADD : SUBTRACT;
+		}
+		if (node instanceof MExpression) {
+			return ((MExpression) node)._opr.equals("*") ? MULTIPLY : DIVIDE;
+		}
+		if (node instanceof EExpression) {
+			return ((EExpression) node)._opr.equals("^") ? POWER : LOG;
+		}
+		if (node instanceof PExpression) {
+			return PARENTHESES;
+		}
+		throw new IllegalArgumentException("Cannot encode a " + node.getClass().getName());
+	}
+
+	/**
+	 * Returns the number of operands of a node with the given opcode.
+	 * @throws IllegalArgumentException if the opcode is unknown
+	 */
+	private static int arity (int opcode) {
+		switch (opcode) {
+			case LITERAL: case VARIABLE: case MISSING: return 0;
+			case LOG: case PARENTHESES: return 1;
+			case ADD: case SUBTRACT: case MULTIPLY: case DIVIDE: case POWER: return 2;
+			default: throw new IllegalArgumentException("Unknown opcode " + opcode);
+		}
+	}
+
+	/**
+	 * A growable byte array that encodings are written to.
+	 */
+	static final class Output {
+		private byte[] _bytes;
+		private int _size;
+
+		Output (int capacity) {
+			_bytes = new byte[capacity];
+		}
+
+		void write (int b) {
+			if (_size == _bytes.length) {
+				_bytes = Arrays.copyOf(_bytes, 2 * _bytes.length);
+			}
+			_bytes[_size++] = (byte) b;
+		}
+
+		void header (int kind) {
+			for (byte b : MAGIC) {
+				write(b);
+			}
+			write(VERSION);
+			write(kind);
+		}
+
+		void varint (int value) {
+			while ((value & ~0x7f) != 0) {
+				write((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			write(value);
+		}
+
+		void longLE (long value) {
+			for (int i = 0; i < 8; i++) {
+				write((int) (value >>> (8 * i)));
+			}
+		}
+
+		void string (String str) {
+			final byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+			varint(utf8.length);
+			for (byte b : utf8) {
+				write(b);
+			}
+		}
+
+		int size () {
+			return _size;
+		}
+
+		byte[] toByteArray () {
+			return Arrays.copyOf(_bytes, _size);
+		}
+	}
+
+	/**
+	 * Reads an encoding from a range of a byte array, checking every read against the end of the range.
+	 */
+	static final class Input {
+		private final byte[] _bytes;
+		private int _position;
+		private final int _end;
+
+		Input (byte[] bytes, int offset, int length) {
+			if (offset < 0 || length < 0 || offset > bytes.length - length) {
+				throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " of " + bytes.length + " bytes");
+			}
+			_bytes = bytes;
+			_position = offset;
+			_end = offset + length;
+		}
+
+		int read () {
+			if (_position == _end) {
+				throw new IllegalArgumentException("Truncated encoding");
+			}
+			return _bytes[_position++] & 0xff;
+		}
+
+		void header (int kind) {
+			for (byte b : MAGIC) {
+				if (read() != b) {
+					throw new IllegalArgumentException("Not an expression encoding");
+				}
+			}
+			final int version = read();
+			if (version != VERSION) {
+				throw new IllegalArgumentException("Unsupported expression encoding version " + version + ", expected " + VERSION);
+			}
+			if (read() != kind) {
+				throw new IllegalArgumentException(kind == TREE ? "Not the encoding of a tree" : "Not the encoding of a bundle");
+			}
+		}
+
+		/**
+		 * Reads a varint that counts something, so it must fit in a non-negative int.
+		 */
+		int count () {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				final int b = read();
+				value |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					if (value < 0) {
+						break;
+					}
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("Invalid varint");
+		}
+
+		/**
+		 * Reads the count of items that take at least the given number of bytes each, checking that that many fit in
+		 * the bytes left, so that a corrupt count doesn't allocate a huge array.
+		 */
+		int count (int minBytesEach) {
+			final int count = count();
+			if (count > (_end - _position) / minBytesEach) {
+				throw new IllegalArgumentException("Truncated encoding: " + count + " items in " + (_end - _position) + " bytes");
+			}
+			return count;
+		}
+
+		long longLE () {
+			if (_end - _position < 8) {
+				throw new IllegalArgumentException("Truncated encoding");
+			}
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value |= (_bytes[_position++] & 0xffL) << (8 * i);
+			}
+			return value;
+		}
+
+		String string () {
+			final int length = count();
+			if (length > _end - _position) {
+				throw new IllegalArgumentException("Truncated encoding");
+			}
+			final String str = new String(_bytes, _position, length, StandardCharsets.UTF_8);
+			_position += length;
+			return str;
+		}
+
+		void checkEnd () {
+			if (_position != _end) {
+				throw new IllegalArgumentException((_end - _position) + " bytes after the end of the encoding");
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that ExpressionCodec round-trips trees and bundles exactly, and rejects encodings it can't decode.
+ */
+public class ExpressionCodecTester {
+	@TempDir
+	Path _directory;
+
+	private ExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser(VariableScope.XY);
+	}
+
+	private static void assertRoundTrip (Expression expression) {
+		final byte[] bytes = ExpressionCodec.encode(expression);
+		final Expression decoded = ExpressionCodec.decode(bytes);
+		assertArrayEquals(bytes, ExpressionCodec.encode(decoded));
+		if (IterativeExpressions.postOrder(expression).indexOf(null) < 0) {
+			assertEquals(expression.convertToString(0), decoded.convertToString(0));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that parsed trees, with every kind of node and literals that only survive as raw bits, decode to the
+	 * same trees.
+	 */
+	public void testRoundTrip () throws ExpressionParseException {
+		for (String str : new String[] { "x", "-0.0", "1e-320*x", "2^log(x)/(y-3.25)", "((x+y))*x*y", "2^x^y-x/y/1.7976931348623157E308",
+				"10*x^3 + 2*(15+x) - 1/x" }) {
+			assertRoundTrip(_parser.parse(str));
+		}
+		assertRoundTrip(new LiteralExpression(Double.NaN));
+		assertRoundTrip(new LiteralExpression(Double.longBitsToDouble(0x7ff0000000000123L)));
+		final Expression product = _parser.parse("x*y");
+		final Expression decoded = ExpressionCodec.decode(ExpressionCodec.encode(product));
+		assertEquals(product.evaluate(new double[] { 3, 4 }), decoded.evaluate(new double[] { 3, 4 }));
+	}
+
+	@Test
+	/**
+	 * Verifies the size of a small encoding, and that decoding gives a tree without shared nodes.
+	 */
+	public void testLayout () throws ExpressionParseException {
+		// The header, the table of one variable "x", two varints, then the nodes x, 1.0 and +.
+		final byte[] bytes = ExpressionCodec.encode(_parser.parse("x+1"));
+		assertEquals(5 + 4 + 2 + 2 + 9 + 1, bytes.length);
+		assertEquals(ExpressionCodec.VERSION, bytes[3]);
+		final SExpression sum = (SExpression) ExpressionCodec.decode(ExpressionCodec.encode(_parser.parse("x*x+x")));
+		assertNotSame(((MExpression) sum._leftNode)._leftNode, ((MExpression) sum._leftNode)._rightNode);
+	}
+
+	@Test
+	/**
+	 * Verifies that derivatives, including those with missing subtrees, and trees too deep for recursion round-trip.
+	 */
+	public void testDerivativesAndDeepTrees () throws ExpressionParseException {
+		assertRoundTrip(_parser.parse("x^3*log(x)/(x+1)").differentiate());
+		// The derivative of x^x is missing.
+		final Expression incomplete = _parser.parse("2*x^x").differentiate();
+		assertTrue(IterativeExpressions.postOrder(incomplete).contains(null));
+		assertRoundTrip(incomplete);
+
+		Expression deep = new VariableExpression();
+		for (int i = 0; i < 100000; i++) {
+			deep = new SExpression(deep, new PExpression(new LiteralExpression(i)), "+");
+		}
+		final Expression decoded = ExpressionCodec.decode(ExpressionCodec.encode(deep));
+		assertEquals(IterativeExpressions.evaluate(deep, 0.5), IterativeExpressions.evaluate(decoded, 0.5));
+	}
+
+	@Test
+	/**
+	 * Verifies that bundles round-trip through a file, in order.
+	 */
+	public void testBundle () throws ExpressionParseException, IOException {
+		final DerivativeCache derivatives = new DerivativeCache();
+		final LinkedHashMap<String, List<Expression>> entries = new LinkedHashMap<>();
+		for (String str : new String[] { "x^2", "1/(1+2^x)", "log(x*y)" }) {
+			final Expression expression = _parser.parse(str);
+			derivatives.derivative(expression, 2);
+			entries.put(str, derivatives.getCachedDerivatives(expression));
+		}
+		entries.put("empty", new ArrayList<>());
+		final Path path = _directory.resolve("bundle.gcx");
+		ExpressionCodec.writeBundle(path, entries);
+		final LinkedHashMap<String, List<Expression>> read = ExpressionCodec.readBundle(path);
+		assertEquals(new ArrayList<>(entries.keySet()), new ArrayList<>(read.keySet()));
+		for (String str : entries.keySet()) {
+			assertEquals(entries.get(str).size(), read.get(str).size());
+			for (int i = 0; i < entries.get(str).size(); i++) {
+				assertEquals(entries.get(str).get(i).convertToString(0), read.get(str).get(i).convertToString(0));
+			}
+		}
+		assertFalse(Files.exists(_directory.resolve("bundle.gcx.tmp")));
+	}
+
+	@Test
+	/**
+	 * Verifies that other versions, other kinds of content, truncated, padded and corrupt encodings are rejected.
+	 */
+	public void testInvalid () throws ExpressionParseException, IOException {
+		final byte[] bytes = ExpressionCodec.encode(_parser.parse("x*(y+2)"));
+		final byte[] version = bytes.clone();
+		version[3] = (byte) (ExpressionCodec.VERSION + 1);
+		assertTrue(assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(version)).getMessage().contains("version"));
+		assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decodeBundle(bytes));
+		for (int length = 0; length < bytes.length; length++) {
+			final int truncated = length;
+			assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(bytes, 0, truncated), "" + length);
+		}
+		assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(Arrays.copyOf(bytes, bytes.length + 1)));
+		final byte[] opcode = bytes.clone();
+		opcode[opcode.length - 1] = 42;
+		assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(opcode));
+		// A product as the first node has no operands.
+		final byte[] operands = ExpressionCodec.encode(new LiteralExpression(1));
+		operands[operands.length - 9] = (byte) ExpressionCodec.MULTIPLY;
+		assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(Arrays.copyOf(operands, operands.length - 8)));
+		// Counts larger than the bytes left are rejected before anything is allocated for them.
+		final byte max = (byte) 0xff, version1 = (byte) ExpressionCodec.VERSION, tree = (byte) ExpressionCodec.TREE;
+		final byte[] variables = { 'G', 'C', 'X', version1, tree, max, max, max, max, 7, 0, 0, 0, 0 };
+		assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(variables));
+		final byte[] nodes = { 'G', 'C', 'X', version1, tree, 0, max, max, max, max, 7, 1, 0, 0, 0 };
+		assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(nodes));
+		final byte[] trees = { 'G', 'C', 'X', version1, (byte) ExpressionCodec.BUNDLE, 1, 1, 'x', max, max, max, max, 7, 0, 0, 0 };
+		assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decodeBundle(trees));
+
+		final Path path = _directory.resolve("corrupt.gcx");
+		Files.write(path, bytes);
+		assertThrows(IOException.class, () -> ExpressionCodec.readBundle(path));
+		Files.write(path, trees);
+		assertThrows(IOException.class, () -> ExpressionCodec.readBundle(path));
+	}
+}
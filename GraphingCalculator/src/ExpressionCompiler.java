@@ -0,0 +1,368 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Compiles an Expression tree into a hidden class implementing DoubleUnaryOperator, whose applyAsDouble method
+ * evaluates the whole tree as one straight-line sequence of bytecodes. The operators are resolved once at compile
+ * time, so evaluating the compiled form involves no virtual calls and no String comparisons, and the JIT can
+ * optimize it like any other small method.
+ * Nodes the compiler does not know (other Expression implementations, or nodes with missing children) are
+ * evaluated by calling back into their own evaluate method. The compiled form is a snapshot: changing the
+ * tree afterwards does not change it.
+ * HotSpot never JIT-compiles a method of more than 8000 bytes of bytecode, and interpreting such a method is slower
+ * than interpreting the tree, so expressions whose code would be longer are not compiled.
+ */
+class ExpressionCompiler {
+	// Name of the generated class. Hidden classes get a unique suffix, so every compiled tree can use the same name.
+	private static final String CLASS_NAME = "ExpressionCompiler$Compiled";
+	// The longest method HotSpot JIT-compiles (HugeMethodLimit), far below the JVM limit of 65535 bytes.
+	static final int MAX_CODE_LENGTH = 8000;
+	// The JVM limit on the size of the constant pool.
+	private static final int MAX_POOL_COUNT = 65535;
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private ExpressionCompiler () {
+	}
+
+	/**
+	 * Compiles the given expression.
+	 * @param expression the expression to compile
+	 * @return an operator computing the same values as expression.evaluate
+	 */
+	public static DoubleUnaryOperator compile (Expression expression) {
+		final ClassWriter writer = new ClassWriter();
+		writer.emit(expression);
+		// Leave room for the DRETURN and for the constants toByteArray adds.
+		if (writer._code.size() + 1 > MAX_CODE_LENGTH || writer._poolCount + 16 > MAX_POOL_COUNT) {
+			// Too large for the JIT, so use the interpreter instead.
+			return expression::evaluate;
+		}
+
+		try {
+			final MethodHandles.Lookup lookup = LOOKUP.defineHiddenClass(writer.toByteArray(), true);
+			final MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Expression[].class));
+			return (DoubleUnaryOperator) constructor.invoke(writer._fallbacks.toArray(new Expression[0]));
+		} catch (Throwable t) {
+			throw new IllegalStateException("Cannot compile expression", t);
+		}
+	}
+
+	/**
+	 * Returns the length in bytes of the code of the applyAsDouble method compiled from the given expression.
+	 */
+	static int codeLength (Expression expression) {
+		final ClassWriter writer = new ClassWriter();
+		writer.emit(expression);
+		return writer._code.size() + 1;
+	}
+
+	/**
+	 * Writes the class file of a single compiled expression. The class looks like
+	 * <pre>
+	 * final class ExpressionCompiler$Compiled implements DoubleUnaryOperator {
+	 *     private final Expression[] fallbacks;
+	 *     public ExpressionCompiler$Compiled (Expression[] fallbacks) { this.fallbacks = fallbacks; }
+	 *     public double applyAsDouble (double x) { return ...; }
+	 * }
+	 * </pre>
+	 */
+	private static class ClassWriter {
+		// Opcodes used by the generated code.
+		private static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, DLOAD_1 = 0x27, DCONST_0 = 0x0e, DCONST_1 = 0x0f;
+		private static final int LDC_W = 0x13, LDC2_W = 0x14, BIPUSH = 0x10, SIPUSH = 0x11, AALOAD = 0x32;
+		private static final int DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DRETURN = 0xaf, RETURN = 0xb1;
+		private static final int GETFIELD = 0xb4, PUTFIELD = 0xb5, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9;
+		// Stand for the calls to Math.log and Math.pow among the operators waiting to be emitted.
+		private static final int LOG_CALL = -1, POW_CALL = -2;
+		// Constant pool tags.
+		private static final int UTF8 = 1, INTEGER = 3, DOUBLE = 6, CLASS = 7, FIELDREF = 9, METHODREF = 10, INTERFACE_METHODREF = 11, NAME_AND_TYPE = 12;
+
+		private final ByteArrayOutputStream _pool = new ByteArrayOutputStream();
+		private final Map<String, Integer> _poolIndices = new HashMap<>();
+		private int _poolCount = 1;
+
+		private final ByteArrayOutputStream _code = new ByteArrayOutputStream();
+		private int _maxStack;
+		private final List<Expression> _fallbacks = new ArrayList<>();
+
+		/**
+		 * Emits the code computing the given expression, leaving its value on the operand stack. The tree is walked
+		 * in post-order with an explicit stack rather than recursion, so trees of any depth can be emitted.
+		 * @param expression the expression to emit
+		 */
+		void emit (Expression expression) {
+			// The nodes still to walk, and after the operands of each operator, the operator to emit once they are on the stack.
+			final List<Object> pending = new ArrayList<>();
+			pending.add(expression);
+			// The slots on the operand stack; every double takes two.
+			int depth = 0;
+			while (!pending.isEmpty()) {
+				final Object next = pending.remove(pending.size() - 1);
+				if (next instanceof Integer) {
+					final int operator = (Integer) next;
+					if (operator == LOG_CALL) {
+						writeShort(_code, INVOKESTATIC, member(METHODREF, "java/lang/Math", "log", "(D)D"));
+					} else {
+						if (operator == POW_CALL) {
+							writeShort(_code, INVOKESTATIC, member(METHODREF, "java/lang/Math", "pow", "(DD)D"));
+						} else {
+							_code.write(operator);
+						}
+						// Binary operators replace their two operands by the result.
+						depth -= 2;
+					}
+				} else {
+					final int pushed = expand((Expression) next, pending);
+					_maxStack = Math.max(_maxStack, depth + pushed);
+					if (pushed > 0) {
+						depth += 2;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Emits the code of a leaf, or schedules the operands and then the operator of an inner node.
+		 * @return the most slots the code of a leaf uses on top of the operand stack, or 0 for an inner node
+		 */
+		private int expand (Expression expression, List<Object> pending) {
+			if (expression instanceof LiteralExpression) {
+				final double value = ((LiteralExpression) expression)._value;
+				if (Double.doubleToRawLongBits(value) == 0) {
+					_code.write(DCONST_0);
+				} else if (value == 1) {
+					_code.write(DCONST_1);
+				} else {
+					writeShort(_code, LDC2_W, constant(DOUBLE, Double.doubleToRawLongBits(value)));
+				}
+				return 2;
+			}
+			if (expression instanceof VariableExpression && ((VariableExpression) expression)._slot == 0) {
+				_code.write(DLOAD_1);
+				return 2;
+			}
+			if (expression instanceof PExpression && ((PExpression) expression)._node != null) {
+				pending.add(((PExpression) expression)._node);
+				return 0;
+			}
+			if (expression instanceof SExpression && isBinary(((SExpression) expression)._leftNode, ((SExpression) expression)._rightNode, ((SExpression) expression)._opr)) {
+				final SExpression sum = (SExpression) expression;
+				return binary(sum._leftNode, sum._rightNode, sum._opr.equals("+") ? DADD : DSUB, pending);
+			}
+			if (expression instanceof MExpression && isBinary(((MExpression) expression)._leftNode, ((MExpression) expression)._rightNode, ((MExpression) expression)._opr)) {
+				final MExpression product = (MExpression) expression;
+				return binary(product._leftNode, product._rightNode, product._opr.equals("*") ? DMUL : DDIV, pending);
+			}
+			if (expression instanceof EExpression && ((EExpression) expression)._opr != null && ((EExpression) expression)._rightNode != null) {
+				final EExpression exponential = (EExpression) expression;
+				if (!exponential._opr.equals("^")) {
+					pending.add(LOG_CALL);
+					pending.add(exponential._rightNode);
+					return 0;
+				}
+				if (exponential._leftNode != null) {
+					return binary(exponential._leftNode, exponential._rightNode, POW_CALL, pending);
+				}
+			}
+
+			// Anything else is evaluated by the interpreter: fallbacks[i].evaluate(x)
+			_code.write(ALOAD_0);
+			writeShort(_code, GETFIELD, member(FIELDREF, CLASS_NAME, "fallbacks", "[LExpression;"));
+			final int index = _fallbacks.size();
+			_fallbacks.add(expression);
+			if (index < 128) {
+				_code.write(BIPUSH);
+				_code.write(index);
+			} else if (index < 32768) {
+				writeShort(_code, SIPUSH, index);
+			} else {
+				writeShort(_code, LDC_W, constant(INTEGER, index));
+			}
+			_code.write(AALOAD);
+			_code.write(DLOAD_1);
+			writeShort(_code, INVOKEINTERFACE, member(INTERFACE_METHODREF, "Expression", "evaluate", "(D)D"));
+			// The argument count (including the receiver, in slots) and a zero byte.
+			_code.write(3);
+			_code.write(0);
+			// The array reference and x are on the stack at once.
+			return 3;
+		}
+
+		/**
+		 * Schedules the left operand, then the right one, then the operator.
+		 */
+		private static int binary (Expression left, Expression right, int operator, List<Object> pending) {
+			pending.add(operator);
+			pending.add(right);
+			pending.add(left);
+			return 0;
+		}
+
+		private static boolean isBinary (Expression left, Expression right, String operator) {
+			return left != null && right != null && operator != null;
+		}
+
+		/**
+		 * Assembles the class file around the emitted code.
+		 * @return the bytes of the class file
+		 */
+		byte[] toByteArray () throws IOException {
+			final int thisClass = classConstant(CLASS_NAME);
+			final int superClass = classConstant("java/lang/Object");
+			final int operatorInterface = classConstant("java/util/function/DoubleUnaryOperator");
+			final int objectConstructor = member(METHODREF, "java/lang/Object", "<init>", "()V");
+			final int fallbacksField = member(FIELDREF, CLASS_NAME, "fallbacks", "[LExpression;");
+			final int codeName = utf8("Code");
+
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xcafebabe);
+			// Java 8 class files don't need stack map frames, and the generated code has no branches anyway.
+			out.writeShort(0);
+			out.writeShort(52);
+			// Every name the methods below refer to has to be in the pool before it is written out.
+			final int fallbacksName = utf8("fallbacks"), fallbacksType = utf8("[LExpression;");
+			final int constructorName = utf8("<init>"), constructorType = utf8("([LExpression;)V");
+			final int methodName = utf8("applyAsDouble"), methodType = utf8("(D)D");
+			out.writeShort(_poolCount);
+			_pool.writeTo(out);
+
+			// public final class, implementing DoubleUnaryOperator
+			out.writeShort(0x0031);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(operatorInterface);
+
+			// private final Expression[] fallbacks;
+			out.writeShort(1);
+			out.writeShort(0x0012);
+			out.writeShort(fallbacksName);
+			out.writeShort(fallbacksType);
+			out.writeShort(0);
+
+			out.writeShort(2);
+			// public <init> (Expression[] fallbacks) { super(); this.fallbacks = fallbacks; }
+			final ByteArrayOutputStream constructor = new ByteArrayOutputStream();
+			constructor.write(ALOAD_0);
+			writeShort(constructor, INVOKESPECIAL, objectConstructor);
+			constructor.write(ALOAD_0);
+			constructor.write(ALOAD_1);
+			writeShort(constructor, PUTFIELD, fallbacksField);
+			constructor.write(RETURN);
+			writeMethod(out, constructorName, constructorType, codeName, constructor, 2, 2);
+
+			// public double applyAsDouble (double x) { return ...; }
+			_code.write(DRETURN);
+			writeMethod(out, methodName, methodType, codeName, _code, _maxStack, 3);
+
+			// No class attributes.
+			out.writeShort(0);
+			return bytes.toByteArray();
+		}
+
+		private static void writeMethod (DataOutputStream out, int name, int type, int codeName, ByteArrayOutputStream code, int maxStack, int maxLocals) throws IOException {
+			out.writeShort(0x0001);
+			out.writeShort(name);
+			out.writeShort(type);
+			out.writeShort(1);
+			out.writeShort(codeName);
+			out.writeInt(12 + code.size());
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(code.size());
+			code.writeTo(out);
+			// No exception table and no code attributes.
+			out.writeShort(0);
+			out.writeShort(0);
+		}
+
+		private static void writeShort (ByteArrayOutputStream out, int opcode, int operand) {
+			out.write(opcode);
+			out.write(operand >>> 8);
+			out.write(operand);
+		}
+
+		private int utf8 (String value) {
+			final Integer index = _poolIndices.get("utf8 " + value);
+			if (index != null) {
+				return index;
+			}
+			final DataOutputStream out = new DataOutputStream(_pool);
+			try {
+				out.writeByte(UTF8);
+				out.writeUTF(value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return addConstant("utf8 " + value, 1);
+		}
+
+		private int classConstant (String name) {
+			final int nameIndex = utf8(name);
+			final Integer index = _poolIndices.get("class " + name);
+			if (index != null) {
+				return index;
+			}
+			_pool.write(CLASS);
+			writeShort(nameIndex);
+			return addConstant("class " + name, 1);
+		}
+
+		private int member (int tag, String owner, String name, String type) {
+			final String key = tag + " " + owner + "." + name + type;
+			final Integer index = _poolIndices.get(key);
+			if (index != null) {
+				return index;
+			}
+			final int ownerIndex = classConstant(owner);
+			final int nameIndex = utf8(name), typeIndex = utf8(type);
+			Integer nameAndType = _poolIndices.get("nameAndType " + name + type);
+			if (nameAndType == null) {
+				_pool.write(NAME_AND_TYPE);
+				writeShort(nameIndex);
+				writeShort(typeIndex);
+				nameAndType = addConstant("nameAndType " + name + type, 1);
+			}
+			_pool.write(tag);
+			writeShort(ownerIndex);
+			writeShort(nameAndType);
+			return addConstant(key, 1);
+		}
+
+		/**
+		 * Adds an INTEGER constant (the low 32 bits of value) or a DOUBLE constant (value holding the raw bits).
+		 */
+		private int constant (int tag, long value) {
+			final String key = tag + " " + value;
+			final Integer index = _poolIndices.get(key);
+			if (index != null) {
+				return index;
+			}
+			_pool.write(tag);
+			if (tag == DOUBLE) {
+				writeShort((int) (value >>> 48));
+				writeShort((int) (value >>> 32));
+			}
+			writeShort((int) (value >>> 16));
+			writeShort((int) value);
+			// Doubles take up two entries of the pool.
+			return addConstant(key, tag == DOUBLE ? 2 : 1);
+		}
+
+		private void writeShort (int value) {
+			_pool.write(value >>> 8);
+			_pool.write(value);
+		}
+
+		private int addConstant (String key, int size) {
+			final int index = _poolCount;
+			_poolIndices.put(key, index);
+			_poolCount += size;
+			return index;
+		}
+	}
+}
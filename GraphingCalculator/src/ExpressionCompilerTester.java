@@ -0,0 +1,152 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import java.util.*;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Compares expressions compiled by ExpressionCompiler, flattened into LinearizedExpression, or evaluated with
+ * Expression.evaluateBatch, with the interpreted Expression.evaluate.
+ */
+public class ExpressionCompilerTester {
+	private static final double[] XS = { 0, -0.0, 1, -1, 0.5, 2, -2.5, 3.75, 10, -10, 1e-9, 1e9, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+	private ExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser();
+	}
+
+	/**
+	 * Checks that the compiled and linearized forms of the expression compute bit-for-bit the same values as the interpreter.
+	 */
+	private static void assertSameValues (Expression expression) {
+		final DoubleUnaryOperator compiled = ExpressionCompiler.compile(expression);
+		final LinearizedExpression linearized = LinearizedExpression.of(expression);
+		final double[] batch = new double[XS.length], treeBatch = new double[XS.length];
+		linearized.evaluateBatch(XS, batch);
+		expression.evaluateBatch(XS, treeBatch);
+		for (int i = 0; i < XS.length; i++) {
+			final double x = XS[i];
+			final long expected = Double.doubleToLongBits(expression.evaluate(x));
+			assertEquals(expected, Double.doubleToLongBits(compiled.applyAsDouble(x)), () -> "compiled " + expression.convertToString(0) + " at " + x);
+			assertEquals(expected, Double.doubleToLongBits(linearized.evaluate(x)), () -> "linearized " + expression.convertToString(0) + " at " + x);
+			assertEquals(expected, Double.doubleToLongBits(batch[i]), () -> "linearized batch " + expression.convertToString(0) + " at " + x);
+			assertEquals(expected, Double.doubleToLongBits(treeBatch[i]), () -> "batch " + expression.convertToString(0) + " at " + x);
+		}
+	}
+
+	/**
+	 * Builds a random expression tree with the given number of operators.
+	 */
+	private static Expression randomExpression (Random random, int operators) {
+		if (operators == 0) {
+			switch (random.nextInt(4)) {
+				case 0: return new VariableExpression();
+				case 1: return new LiteralExpression(random.nextInt(5));
+				case 2: return new LiteralExpression(random.nextGaussian() * 100);
+				default: return new LiteralExpression(random.nextBoolean() ? -0.0 : Double.NaN);
+			}
+		}
+		final int leftOperators = random.nextInt(operators);
+		final Expression left = randomExpression(random, leftOperators);
+		final Expression right = randomExpression(random, operators - 1 - leftOperators);
+		switch (random.nextInt(8)) {
+			case 0: return new SExpression(left, right, "+");
+			case 1: return new SExpression(left, right, "-");
+			case 2: return new MExpression(left, right, "*");
+			case 3: return new MExpression(left, right, "/");
+			case 4: return new EExpression(left, right, "^");
+			case 5: return new EExpression(null, right, "log");
+			case 6: return new PExpression(new SExpression(left, right, "+"));
+			default: return new PExpression(new MExpression(left, right, "*"));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies parsed expressions and their derivatives.
+	 */
+	public void testParsedExpressions () throws ExpressionParseException {
+		final String[] expressions = { "x", "13", "2*x+5*x*x", "10*x^3 + 2*(15+x)", "1./(1. + 5^(-1*x))", "log(x)*2-log2", "-0.0*x", "NaN+x" };
+		for (String expressionStr : expressions) {
+			final Expression expression = _parser.parse(expressionStr);
+			assertSameValues(expression);
+			assertSameValues(expression.differentiate());
+		}
+		assertSameValues(_parser.parse("4^3^2"));
+	}
+
+	@Test
+	/**
+	 * Verifies a large number of random expression trees.
+	 */
+	public void testRandomExpressions () {
+		final Random random = new Random(0);
+		for (int i = 0; i < 2000; i++) {
+			assertSameValues(randomExpression(random, random.nextInt(30)));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that nodes the compiler doesn't know are evaluated by the interpreter.
+	 */
+	public void testFallback () {
+		final Expression square = new Expression() {
+			public Expression deepCopy () { return this; }
+			public String convertToString (int indentLevel) { return "square\n"; }
+			public double evaluate (double x) { return x * x; }
+			public Expression differentiate () { return new MExpression(new LiteralExpression(2), new VariableExpression(), "*"); }
+		};
+		final Expression expression = new SExpression(new MExpression(square, new LiteralExpression(3), "*"), square, "-");
+		assertSameValues(expression);
+		assertEquals(18, ExpressionCompiler.compile(expression).applyAsDouble(3));
+		assertEquals(18, LinearizedExpression.of(expression).evaluate(3));
+	}
+
+	@Test
+	/**
+	 * Verifies that an expression too large for a single method still evaluates correctly.
+	 */
+	public void testHugeExpression () {
+		assertSameValues(balancedSum(0, 20000));
+	}
+
+	@Test
+	/**
+	 * Verifies that expressions are compiled up to the longest method the JIT compiles, and interpreted beyond it.
+	 */
+	public void testCodeLengthLimit () {
+		int terms = 1;
+		while (ExpressionCompiler.codeLength(balancedSum(0, terms + 1)) <= ExpressionCompiler.MAX_CODE_LENGTH) {
+			terms++;
+		}
+		final Expression largest = balancedSum(0, terms), tooLarge = balancedSum(0, terms + 1);
+		assertTrue(isCompiled(ExpressionCompiler.compile(largest)));
+		assertFalse(isCompiled(ExpressionCompiler.compile(tooLarge)));
+		assertSameValues(largest);
+		assertSameValues(tooLarge);
+	}
+
+	/**
+	 * Returns whether the operator is a compiled class rather than the interpreter.
+	 */
+	private static boolean isCompiled (DoubleUnaryOperator operator) {
+		return operator.getClass().getName().startsWith("ExpressionCompiler$Compiled");
+	}
+
+	/**
+	 * Builds a balanced tree adding up x and the literals from start to end - 1.
+	 */
+	private static Expression balancedSum (int start, int end) {
+		if (end - start == 1) {
+			return new SExpression(new VariableExpression(), new LiteralExpression(start), "+");
+		}
+		final int middle = (start + end) / 2;
+		return new SExpression(balancedSum(start, middle), balancedSum(middle, end), "+");
+	}
+}
@@ -0,0 +1,354 @@
+import java.util.*;
+
+/**
+ * A hash-consed store of expression nodes in which structurally identical subtrees are stored only once.
+ * Every node is interned in a canonicalizing hash table, so adding a node that already exists returns the
+ * existing node's id instead of a new one. Nodes are identified by int ids, and a node's children always
+ * have smaller ids than the node itself.
+ * Derivatives computed with differentiate share all their common subtrees with the original expression and
+ * with each other, instead of deep-copying them at every level as Expression.differentiate does. An
+ * Evaluator computes every shared node only once per x. toExpression converts back into ordinary,
+ * fully independent Expression trees.
+ */
+class ExpressionDag {
+	// Node kinds. Unary nodes (LOG, PARENTHESES) keep their operand in the left slot.
+	public static final int CONSTANT = 0, VARIABLE = 1, ADD = 2, SUBTRACT = 3, MULTIPLY = 4, DIVIDE = 5, POWER = 6, LOG = 7, PARENTHESES = 8;
+	// The id of a missing child.
+	private static final int NONE = -1;
+
+	private int[] _kinds = new int[16];
+	private int[] _lefts = new int[16];
+	private int[] _rights = new int[16];
+	private double[] _values = new double[16];
+	private int _size;
+
+	// Open-addressing hash table of node ids (NONE for an empty slot); its length is always a power of two.
+	private int[] _table = newTable(32);
+	// The id of the derivative of each node, or NONE if it hasn't been computed yet; as long as the node arrays.
+	private int[] _derivatives = newTable(16);
+
+	/**
+	 * Returns the number of distinct nodes in the DAG.
+	 */
+	public int size () {
+		return _size;
+	}
+
+	public int kind (int id) {
+		return _kinds[id];
+	}
+
+	public int left (int id) {
+		return _lefts[id];
+	}
+
+	public int right (int id) {
+		return _rights[id];
+	}
+
+	/**
+	 * Returns the value of a CONSTANT node.
+	 */
+	public double value (int id) {
+		return _values[id];
+	}
+
+	public int constant (double value) {
+		return intern(CONSTANT, NONE, NONE, value);
+	}
+
+	public int variable () {
+		return intern(VARIABLE, NONE, NONE, 0);
+	}
+
+	/**
+	 * Returns the id of the node with the given kind and children, adding it if it isn't in the DAG yet.
+	 * @param kind one of ADD, SUBTRACT, MULTIPLY, DIVIDE and POWER, or LOG or PARENTHESES with right set to -1
+	 */
+	public int node (int kind, int left, int right) {
+		if (kind < ADD || kind > PARENTHESES || left < 0 || left >= _size || (kind >= LOG ? right != NONE : right < 0 || right >= _size)) {
+			throw new IllegalArgumentException("Invalid node");
+		}
+		return intern(kind, left, right, 0);
+	}
+
+	/**
+	 * Adds the given expression tree, sharing every subtree that is already in the DAG.
+	 * @param expression the expression to add
+	 * @return the id of the root of the expression
+	 * @throws IllegalArgumentException if the tree contains a node that isn't one of the Expression classes of this calculator, or a variable other than x
+	 */
+	public int add (Expression expression) {
+		if (expression instanceof LiteralExpression) {
+			return constant(((LiteralExpression) expression)._value);
+		}
+		if (expression instanceof VariableExpression && ((VariableExpression) expression)._slot == 0) {
+			return variable();
+		}
+		if (expression instanceof PExpression) {
+			return node(PARENTHESES, add(((PExpression) expression)._node), NONE);
+		}
+		if (expression instanceof SExpression) {
+			final SExpression sum = (SExpression) expression;
+			return node(sum._opr.equals("+") ? ADD : SUBTRACT, add(sum._leftNode), add(sum._rightNode));
+		}
+		if (expression instanceof MExpression) {
+			final MExpression product = (MExpression) expression;
+			return node(product._opr.equals("*") ? MULTIPLY : DIVIDE, add(product._leftNode), add(product._rightNode));
+		}
+		if (expression instanceof EExpression) {
+			final EExpression exponential = (EExpression) expression;
+			if (exponential._opr.equals("^")) {
+				return node(POWER, add(exponential._leftNode), add(exponential._rightNode));
+			}
+			return node(LOG, add(exponential._rightNode), NONE);
+		}
+		throw new IllegalArgumentException("Cannot add " + (expression == null ? "a missing node" : expression.getClass().getName()) + " to an ExpressionDag");
+	}
+
+	/**
+	 * Builds a new, fully independent Expression tree for the given node. Nodes shared in the DAG are copied
+	 * wherever they occur, so the tree is the same as the one the DAG was built from.
+	 * @param id the id of the root node
+	 * @return the expression tree
+	 */
+	public Expression toExpression (int id) {
+		switch (_kinds[id]) {
+			case CONSTANT: return new LiteralExpression(_values[id]);
+			case VARIABLE: return new VariableExpression();
+			case ADD: return new SExpression(toExpression(_lefts[id]), toExpression(_rights[id]), "+");
+			case SUBTRACT: return new SExpression(toExpression(_lefts[id]), toExpression(_rights[id]), "-");
+			case MULTIPLY: return new MExpression(toExpression(_lefts[id]), toExpression(_rights[id]), "*");
+			case DIVIDE: return new MExpression(toExpression(_lefts[id]), toExpression(_rights[id]), "/");
+			case POWER: return new EExpression(toExpression(_lefts[id]), toExpression(_rights[id]), "^");
+			case LOG: return new EExpression(null, toExpression(_lefts[id]), "log");
+			default: return new PExpression(toExpression(_lefts[id]));
+		}
+	}
+
+	/**
+	 * Returns the derivative of the given node, using the same rules as Expression.differentiate. Where those give a
+	 * complete tree, toExpression(differentiate(add(e))) is the same tree as e.differentiate(). Where they can't
+	 * differentiate a power, for which e.differentiate() returns null or a tree with missing subtrees (as for x^x,
+	 * 2^3, x^(2) or 2*x^x), this throws instead, since a DAG has no missing nodes. Every node is differentiated at
+	 * most once, and the derivative shares its subtrees with the original.
+	 * @param id the id of the node to differentiate
+	 * @return the id of the derivative
+	 * @throws UnsupportedOperationException if the node contains a power whose base and exponent are both literals,
+	 * or both not literals
+	 */
+	public int differentiate (int id) {
+		if (_derivatives[id] != NONE) {
+			return _derivatives[id];
+		}
+		final int left = _lefts[id], right = _rights[id];
+		final int derivative;
+		switch (_kinds[id]) {
+			// Derivative of a constant is always 0
+			case CONSTANT:
+				derivative = constant(0);
+				break;
+			case VARIABLE:
+				derivative = constant(1);
+				break;
+			//f'(x) = g'(x) + h'(x)
+			case ADD:
+			//f'(x) = g'(x) - h'(x)
+			case SUBTRACT:
+				derivative = node(_kinds[id], differentiate(left), differentiate(right));
+				break;
+			//f'(x) = g(x)*h'(x) + g'(x)*h(x)
+			case MULTIPLY:
+				derivative = node(ADD, node(MULTIPLY, left, differentiate(right)), node(MULTIPLY, differentiate(left), right));
+				break;
+			//f'(x)= g'(x)/h(x) - g(x)h'(x)/h(x)^2
+			case DIVIDE:
+				derivative = node(SUBTRACT, node(DIVIDE, differentiate(left), right), node(DIVIDE, node(MULTIPLY, left, differentiate(right)), node(POWER, right, constant(2))));
+				break;
+			case POWER:
+				// f(x)= C^h(x), f'(x)= (log C) C^h(x)*h'(x)
+				if (_kinds[left] == CONSTANT && _kinds[right] != CONSTANT) {
+					derivative = node(MULTIPLY, node(MULTIPLY, node(LOG, left, NONE), id), differentiate(right));
+				}
+				// f(x) = g(x)^C, f'(x) = C * g(x)^C-1 * g'(x)
+				else if (_kinds[right] == CONSTANT && _kinds[left] != CONSTANT) {
+					derivative = node(MULTIPLY, right, node(MULTIPLY, node(POWER, left, node(SUBTRACT, right, constant(1))), differentiate(left)));
+				} else {
+					throw new UnsupportedOperationException("Cannot differentiate a power whose base and exponent are both constant or both functions of x");
+				}
+				break;
+			// f'(x) = g'(x)/g(x)
+			case LOG:
+				derivative = node(DIVIDE, differentiate(left), left);
+				break;
+			default:
+				derivative = node(PARENTHESES, differentiate(left), NONE);
+		}
+		_derivatives[id] = derivative;
+		return derivative;
+	}
+
+	/**
+	 * Returns the number of nodes the given node would have as an ordinary Expression tree, i.e. counting shared nodes once per use.
+	 */
+	public long treeSize (int id) {
+		final long[] sizes = new long[id + 1];
+		for (int i = 0; i <= id; i++) {
+			sizes[i] = 1 + (_lefts[i] == NONE ? 0 : sizes[_lefts[i]]) + (_rights[i] == NONE ? 0 : sizes[_rights[i]]);
+		}
+		return sizes[id];
+	}
+
+	/**
+	 * Creates an evaluator computing the values of the given nodes. Only nodes reachable from them are evaluated,
+	 * each once per x however many times it is shared.
+	 * @param roots the ids of the nodes to compute
+	 * @return the evaluator
+	 */
+	public Evaluator evaluator (int... roots) {
+		return new Evaluator(roots);
+	}
+
+	/**
+	 * Evaluates a fixed set of nodes of the DAG. It keeps the value of every node it evaluates in a preallocated
+	 * array, so it doesn't allocate per evaluation, but it must not be used by several threads at once.
+	 */
+	public class Evaluator {
+		private final int[] _roots;
+		// The reachable nodes in increasing order of id, which puts every child before its parents.
+		private final int[] _schedule;
+		private final double[] _results;
+
+		private Evaluator (int[] roots) {
+			_roots = roots.clone();
+			int maxRoot = -1;
+			for (int root : _roots) {
+				maxRoot = Math.max(maxRoot, root);
+			}
+			final boolean[] reachable = new boolean[maxRoot + 1];
+			for (int root : _roots) {
+				reachable[root] = true;
+			}
+			int count = 0;
+			for (int id = maxRoot; id >= 0; id--) {
+				if (reachable[id]) {
+					count++;
+					if (_lefts[id] != NONE) {
+						reachable[_lefts[id]] = true;
+					}
+					if (_rights[id] != NONE) {
+						reachable[_rights[id]] = true;
+					}
+				}
+			}
+			_schedule = new int[count];
+			for (int id = 0, i = 0; id <= maxRoot; id++) {
+				if (reachable[id]) {
+					_schedule[i++] = id;
+				}
+			}
+			_results = new double[maxRoot + 1];
+		}
+
+		/**
+		 * Returns the number of nodes evaluated per x.
+		 */
+		public int nodeCount () {
+			return _schedule.length;
+		}
+
+		/**
+		 * Computes the value of every root at the given x.
+		 * @param x the value of the independent variable x
+		 * @param out receives the value of each root, in the order they were given
+		 */
+		public void evaluate (double x, double[] out) {
+			final double[] results = _results;
+			for (int id : _schedule) {
+				final double value;
+				switch (_kinds[id]) {
+					case CONSTANT: value = _values[id]; break;
+					case VARIABLE: value = x; break;
+					case ADD: value = results[_lefts[id]] + results[_rights[id]]; break;
+					case SUBTRACT: value = results[_lefts[id]] - results[_rights[id]]; break;
+					case MULTIPLY: value = results[_lefts[id]] * results[_rights[id]]; break;
+					case DIVIDE: value = results[_lefts[id]] / results[_rights[id]]; break;
+					case POWER: value = Math.pow(results[_lefts[id]], results[_rights[id]]); break;
+					case LOG: value = Math.log(results[_lefts[id]]); break;
+					default: value = results[_lefts[id]];
+				}
+				results[id] = value;
+			}
+			for (int i = 0; i < _roots.length; i++) {
+				out[i] = results[_roots[i]];
+			}
+		}
+
+		/**
+		 * Computes the value of the first root at the given x.
+		 */
+		public double evaluate (double x) {
+			final double[] out = new double[_roots.length];
+			evaluate(x, out);
+			return out[0];
+		}
+	}
+
+	private int intern (int kind, int left, int right, double value) {
+		final long bits = Double.doubleToRawLongBits(value);
+		int slot = hash(kind, left, right, bits) & (_table.length - 1);
+		while (_table[slot] != NONE) {
+			final int id = _table[slot];
+			if (_kinds[id] == kind && _lefts[id] == left && _rights[id] == right && Double.doubleToRawLongBits(_values[id]) == bits) {
+				return id;
+			}
+			slot = (slot + 1) & (_table.length - 1);
+		}
+
+		if (_size == _kinds.length) {
+			_kinds = Arrays.copyOf(_kinds, _size * 2);
+			_lefts = Arrays.copyOf(_lefts, _size * 2);
+			_rights = Arrays.copyOf(_rights, _size * 2);
+			_values = Arrays.copyOf(_values, _size * 2);
+			_derivatives = Arrays.copyOf(_derivatives, _size * 2);
+			Arrays.fill(_derivatives, _size, _size * 2, NONE);
+		}
+		final int id = _size++;
+		_kinds[id] = kind;
+		_lefts[id] = left;
+		_rights[id] = right;
+		_values[id] = value;
+		_table[slot] = id;
+		// Keep the table at most half full.
+		if (_size * 2 > _table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void rehash () {
+		_table = newTable(_table.length * 2);
+		for (int id = 0; id < _size; id++) {
+			int slot = hash(_kinds[id], _lefts[id], _rights[id], Double.doubleToRawLongBits(_values[id])) & (_table.length - 1);
+			while (_table[slot] != NONE) {
+				slot = (slot + 1) & (_table.length - 1);
+			}
+			_table[slot] = id;
+		}
+	}
+
+	private static int hash (int kind, int left, int right, long bits) {
+		int h = kind;
+		h = h * 31 + left;
+		h = h * 31 + right;
+		h = h * 31 + Long.hashCode(bits);
+		// Spread the bits, since the table index only uses the low ones.
+		return h ^ (h >>> 16) ^ (h >>> 7);
+	}
+
+	private static int[] newTable (int length) {
+		final int[] table = new int[length];
+		Arrays.fill(table, NONE);
+		return table;
+	}
+}
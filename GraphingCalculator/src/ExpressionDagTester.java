@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * Checks that ExpressionDag shares identical subtrees, converts to and from Expression trees without changing
+ * them, and differentiates and evaluates like the Expression classes do.
+ */
+public class ExpressionDagTester {
+	private static final double[] XS = { 0, -0.0, 1, -1, 0.5, 2, -2.5, 3.75, 10, 1e-9, Double.NaN, Double.POSITIVE_INFINITY };
+
+	private ExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser();
+	}
+
+	@Test
+	/**
+	 * Verifies that structurally identical subtrees are stored once.
+	 */
+	public void testSharing () throws ExpressionParseException {
+		final ExpressionDag dag = new ExpressionDag();
+		final int root = dag.add(_parser.parse("(x*x+1)*(x*x+1)"));
+		// x, x*x, 1, x*x+1, (x*x+1) and the product
+		assertEquals(6, dag.size());
+		assertEquals(13, dag.treeSize(root));
+		assertEquals(root, dag.add(_parser.parse("(x*x+1)*(x*x+1)")));
+		assertEquals(6, dag.size());
+		assertNotEquals(dag.constant(0.0), dag.constant(-0.0));
+	}
+
+	@Test
+	/**
+	 * Verifies that converting to a DAG and back gives an equal, independent tree, and that evaluation matches.
+	 */
+	public void testRoundTrip () throws ExpressionParseException {
+		final String[] expressions = { "x", "13", "2*x+5*x*x", "10*x^3 + 2*(15+x)", "1./(1. + 5^(-1*x))", "log(x)*2-log2", "-0.0*x", "NaN+x", "4^3^2" };
+		for (String expressionStr : expressions) {
+			final Expression expression = _parser.parse(expressionStr);
+			final ExpressionDag dag = new ExpressionDag();
+			final int root = dag.add(expression);
+			final Expression copy = dag.toExpression(root);
+			assertEquals(expression.convertToString(0), copy.convertToString(0));
+			assertNotSame(dag.toExpression(root), copy);
+			final ExpressionDag.Evaluator evaluator = dag.evaluator(root);
+			for (double x : XS) {
+				assertEquals(Double.doubleToLongBits(expression.evaluate(x)), Double.doubleToLongBits(evaluator.evaluate(x)), expressionStr + " at " + x);
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that derivatives are the same trees as those of Expression.differentiate, but share their nodes.
+	 */
+	public void testDifferentiate () throws ExpressionParseException {
+		// Second derivatives of powers of x have non-constant exponents, which can't be differentiated, so there are none here.
+		final String[] expressions = { "x", "13", "2*x+5*x*x", "2*(15+x)*(x-1)", "3^(-1*x)", "log(x)*2-log2", "(x*x+1)/(x*x+1)" };
+		for (String expressionStr : expressions) {
+			final Expression expression = _parser.parse(expressionStr);
+			final ExpressionDag dag = new ExpressionDag();
+			final int root = dag.add(expression);
+			final int first = dag.differentiate(root);
+			final int second = dag.differentiate(first);
+			assertEquals(expression.differentiate().convertToString(0), dag.toExpression(first).convertToString(0));
+			assertEquals(expression.differentiate().differentiate().convertToString(0), dag.toExpression(second).convertToString(0));
+			assertTrue(dag.size() <= dag.treeSize(root) + dag.treeSize(first) + dag.treeSize(second));
+
+			final ExpressionDag.Evaluator evaluator = dag.evaluator(first, second);
+			final double[] values = new double[2];
+			for (double x : XS) {
+				evaluator.evaluate(x, values);
+				assertEquals(Double.doubleToLongBits(expression.differentiate().evaluate(x)), Double.doubleToLongBits(values[0]), expressionStr + " at " + x);
+				assertEquals(Double.doubleToLongBits(expression.differentiate().differentiate().evaluate(x)), Double.doubleToLongBits(values[1]), expressionStr + " at " + x);
+			}
+		}
+
+		// Where Expression.differentiate gives null or a tree with missing subtrees, the DAG throws.
+		for (String expressionStr : new String[] { "x^x", "2^3", "x^(2)", "2*x^x" }) {
+			final Expression expression = _parser.parse(expressionStr);
+			final Expression derivative = expression.differentiate();
+			assertTrue(derivative == null || IterativeExpressions.postOrder(derivative).contains(null), expressionStr);
+			final ExpressionDag dag = new ExpressionDag();
+			final int root = dag.add(expression);
+			assertThrows(UnsupportedOperationException.class, () -> dag.differentiate(root), expressionStr);
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that a DAG of more nodes than its initial capacity can be differentiated, from its root as well as
+	 * from nodes added before the arrays grew.
+	 */
+	public void testDifferentiateLargeDag () throws ExpressionParseException {
+		final Expression expression = _parser.parse("1+2*3+4*5+6*7+8*9+10*11+12*13+x*14");
+		final ExpressionDag dag = new ExpressionDag();
+		final int root = dag.add(expression);
+		assertTrue(dag.size() > 16, "" + dag.size());
+		final int derivative = dag.differentiate(root);
+		assertEquals(expression.differentiate().convertToString(0), dag.toExpression(derivative).convertToString(0));
+		assertEquals(derivative, dag.differentiate(root));
+		assertEquals(dag.constant(0), dag.differentiate(dag.constant(1)));
+		assertEquals(14, dag.evaluator(derivative).evaluate(2.5));
+	}
+
+	@Test
+	/**
+	 * Verifies that repeated differentiation grows the DAG far more slowly than the equivalent trees.
+	 */
+	public void testHigherDerivatives () throws ExpressionParseException {
+		final ExpressionDag dag = new ExpressionDag();
+		int derivative = dag.add(_parser.parse("(x*x+1)*(x-3)*(x+2)*x"));
+		for (int order = 0; order < 6; order++) {
+			derivative = dag.differentiate(derivative);
+		}
+		assertTrue(dag.treeSize(derivative) > 100 * dag.size());
+		assertTrue(dag.evaluator(derivative).nodeCount() <= dag.size());
+	}
+}
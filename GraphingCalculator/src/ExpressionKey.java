@@ -0,0 +1,97 @@
+/**
+ * A map key standing for the structure of an expression tree: two keys are equal if their trees have the same
+ * nodes with the same operators and literal values in the same places. The hash code is computed once, when the
+ * key is created, and the key keeps its own copy of the tree, so later changes to the original don't affect it.
+ */
+final class ExpressionKey {
+	private final Expression _expression;
+	private final int _hash;
+
+	/**
+	 * @param expression the expression the key stands for
+	 */
+	public ExpressionKey (Expression expression) {
+		_expression = expression.deepCopy();
+		_hash = hash(_expression);
+	}
+
+	@Override
+	public int hashCode () {
+		return _hash;
+	}
+
+	@Override
+	public boolean equals (Object other) {
+		return other instanceof ExpressionKey && ((ExpressionKey) other)._hash == _hash && equal(((ExpressionKey) other)._expression, _expression);
+	}
+
+	/**
+	 * Computes a hash code from the structure of the tree, consistent with equal.
+	 */
+	public static int hash (Expression expression) {
+		if (expression == null) {
+			return 0;
+		}
+		if (expression instanceof LiteralExpression) {
+			return ((LiteralExpression) expression)._value.hashCode();
+		}
+		if (expression instanceof VariableExpression) {
+			return 1 + ((VariableExpression) expression)._slot;
+		}
+		if (expression instanceof SExpression) {
+			final SExpression sum = (SExpression) expression;
+			return combine(sum._opr.hashCode(), hash(sum._leftNode), hash(sum._rightNode));
+		}
+		if (expression instanceof MExpression) {
+			final MExpression product = (MExpression) expression;
+			return combine(product._opr.hashCode(), hash(product._leftNode), hash(product._rightNode));
+		}
+		if (expression instanceof EExpression) {
+			final EExpression exponential = (EExpression) expression;
+			return combine(exponential._opr.hashCode(), hash(exponential._leftNode), hash(exponential._rightNode));
+		}
+		if (expression instanceof PExpression) {
+			return combine(2, hash(((PExpression) expression)._node), 0);
+		}
+		return expression.getClass().hashCode();
+	}
+
+	/**
+	 * Decides whether two trees are structurally identical. Literals are compared like Double.equals, so that
+	 * NaN equals NaN and 0.0 differs from -0.0. Nodes of unknown classes are only equal to themselves.
+	 */
+	public static boolean equal (Expression a, Expression b) {
+		if (a == b) {
+			return true;
+		}
+		if (a == null || b == null || a.getClass() != b.getClass()) {
+			return false;
+		}
+		if (a instanceof LiteralExpression) {
+			return ((LiteralExpression) a)._value.equals(((LiteralExpression) b)._value);
+		}
+		if (a instanceof VariableExpression) {
+			return ((VariableExpression) a)._slot == ((VariableExpression) b)._slot && ((VariableExpression) a)._name.equals(((VariableExpression) b)._name);
+		}
+		if (a instanceof SExpression) {
+			final SExpression sa = (SExpression) a, sb = (SExpression) b;
+			return sa._opr.equals(sb._opr) && equal(sa._leftNode, sb._leftNode) && equal(sa._rightNode, sb._rightNode);
+		}
+		if (a instanceof MExpression) {
+			final MExpression ma = (MExpression) a, mb = (MExpression) b;
+			return ma._opr.equals(mb._opr) && equal(ma._leftNode, mb._leftNode) && equal(ma._rightNode, mb._rightNode);
+		}
+		if (a instanceof EExpression) {
+			final EExpression ea = (EExpression) a, eb = (EExpression) b;
+			return ea._opr.equals(eb._opr) && equal(ea._leftNode, eb._leftNode) && equal(ea._rightNode, eb._rightNode);
+		}
+		if (a instanceof PExpression) {
+			return equal(((PExpression) a)._node, ((PExpression) b)._node);
+		}
+		return false;
+	}
+
+	private static int combine (int operator, int left, int right) {
+		return (operator * 31 + left) * 31 + right;
+	}
+}
@@ -129,4 +129,15 @@ public class ExpressionParserTester {
                 final String expressionStr = "4^3^2";
                 assertEquals(262144, (int) _parser.parse(expressionStr).evaluate(0));
         }
+        @Test
+        /**
+         * Verifies that packrat mode builds the same parse trees as the default mode.
+         */
+        public void testPackratMode () throws ExpressionParseException {
+                final ExpressionParser packratParser = new SimpleExpressionParser(true);
+                for (String expressionStr : new String[] { "x+x", "10*x^3 + 2*(15+x)", "1-2+3-x*4/5^6^7", "log(x)*2-log2" }) {
+                        assertEquals(_parser.parse(expressionStr).convertToString(0), packratParser.parse(expressionStr).convertToString(0));
+                }
+                assertThrows(ExpressionParseException.class, () -> packratParser.parse("1+2+"));
+        }
 }
@@ -0,0 +1,192 @@
+/**
+ * Rewrites expression trees into smaller ones that compute the same function, mainly to shrink the trees built by
+ * Expression.differentiate, which are full of multiplications by 0 and 1, exponents like "2 - 1" and parentheses.
+ * The rules are applied bottom-up until none of them applies any more:
+ * <ul>
+ * <li>constant folding: an operator whose operands are all literals is replaced by its value;</li>
+ * <li>identities: a+0, 0+a, a-0, a*1, 1*a, a/1 and a^1 become a;</li>
+ * <li>annihilators: a*0, 0*a and 0/a become 0, and a^0 and 1^a become 1;</li>
+ * <li>parentheses: PExpression nodes only group, and the tree structure already does that, so they are removed;</li>
+ * <li>power merging: g^a*g^b (including g*g) becomes g^(a+b), and (g^a)^b becomes g^(a*b), when a and b are integers;</li>
+ * <li>literal factors are gathered: c*(d*a) becomes (c*d)*a.</li>
+ * </ul>
+ * The annihilators drop their other operand, so a simplified expression can be defined where the original was
+ * not, e.g. 0*log(x) is 0 even for negative x. All other rules keep the value, up to rounding and the sign of zero.
+ * Simplification never modifies its argument: it returns a new, fully independent tree.
+ */
+class ExpressionSimplifier {
+	private boolean _changed;
+
+	private ExpressionSimplifier () {
+	}
+
+	/**
+	 * Returns a simplified copy of the expression.
+	 * @param expression the expression to simplify
+	 * @return the simplified expression
+	 */
+	public static Expression simplify (Expression expression) {
+		final ExpressionSimplifier simplifier = new ExpressionSimplifier();
+		Expression result = simplifier.rewrite(expression);
+		// Every rule makes the tree smaller, so this terminates.
+		while (simplifier._changed) {
+			simplifier._changed = false;
+			result = simplifier.rewrite(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the simplified derivative of the expression.
+	 * @param expression the expression to differentiate
+	 * @return the simplified derivative
+	 */
+	public static Expression differentiate (Expression expression) {
+		return simplify(IterativeExpressions.differentiate(expression));
+	}
+
+	/**
+	 * Returns the number of nodes in the tree.
+	 */
+	public static int countNodes (Expression expression) {
+		return IterativeExpressions.postOrder(expression).size();
+	}
+
+	/**
+	 * Applies the rules once to every node of the tree, bottom-up, building a new tree.
+	 */
+	private Expression rewrite (Expression expression) {
+		if (expression instanceof PExpression) {
+			_changed = true;
+			return rewrite(((PExpression) expression)._node);
+		}
+		if (expression instanceof SExpression) {
+			final SExpression sum = (SExpression) expression;
+			return simplifySum(rewrite(sum._leftNode), rewrite(sum._rightNode), sum._opr);
+		}
+		if (expression instanceof MExpression) {
+			final MExpression product = (MExpression) expression;
+			return simplifyProduct(rewrite(product._leftNode), rewrite(product._rightNode), product._opr);
+		}
+		if (expression instanceof EExpression) {
+			final EExpression exponential = (EExpression) expression;
+			if (exponential._opr.equals("log")) {
+				final Expression argument = rewrite(exponential._rightNode);
+				if (argument instanceof LiteralExpression) {
+					return fold(new EExpression(null, argument, "log"));
+				}
+				return new EExpression(null, argument, "log");
+			}
+			return simplifyPower(rewrite(exponential._leftNode), rewrite(exponential._rightNode));
+		}
+		// Leaves, missing children (e.g. in the derivative of x^x) and unknown nodes are copied as they are.
+		return expression == null ? null : expression.deepCopy();
+	}
+
+	private Expression simplifySum (Expression left, Expression right, String operator) {
+		if (left instanceof LiteralExpression && right instanceof LiteralExpression) {
+			return fold(new SExpression(left, right, operator));
+		}
+		if (isLiteral(right, 0) || operator.equals("+") && isLiteral(left, 0)) {
+			_changed = true;
+			return isLiteral(right, 0) ? left : right;
+		}
+		return new SExpression(left, right, operator);
+	}
+
+	private Expression simplifyProduct (Expression left, Expression right, String operator) {
+		if (left instanceof LiteralExpression && right instanceof LiteralExpression) {
+			return fold(new MExpression(left, right, operator));
+		}
+		if (isLiteral(left, 0) || operator.equals("*") && isLiteral(right, 0)) {
+			_changed = true;
+			return new LiteralExpression(0);
+		}
+		if (isLiteral(right, 1) || operator.equals("*") && isLiteral(left, 1)) {
+			_changed = true;
+			return isLiteral(right, 1) ? left : right;
+		}
+		if (operator.equals("/")) {
+			return new MExpression(left, right, operator);
+		}
+
+		// c*(d*a) = (c*d)*a
+		if (left instanceof LiteralExpression && right instanceof MExpression && ((MExpression) right)._opr.equals("*")
+				&& ((MExpression) right)._leftNode instanceof LiteralExpression) {
+			_changed = true;
+			final MExpression inner = (MExpression) right;
+			return new MExpression(fold(new MExpression(left, inner._leftNode, "*")), inner._rightNode, "*");
+		}
+
+		// g^a*g^b = g^(a+b)
+		final Expression leftBase = base(left), rightBase = base(right);
+		final Expression leftExponent = exponent(left), rightExponent = exponent(right);
+		if (isInteger(leftExponent) && isInteger(rightExponent) && ExpressionKey.equal(leftBase, rightBase)) {
+			_changed = true;
+			return simplifyPower(leftBase, fold(new SExpression(leftExponent, rightExponent, "+")));
+		}
+		return new MExpression(left, right, operator);
+	}
+
+	private Expression simplifyPower (Expression base, Expression exponent) {
+		if (base instanceof LiteralExpression && exponent instanceof LiteralExpression) {
+			return fold(new EExpression(base, exponent, "^"));
+		}
+		// Math.pow(a, 0) and Math.pow(1, a) are 1 even if a is NaN.
+		if (isLiteral(exponent, 0) || isLiteral(base, 1)) {
+			_changed = true;
+			return new LiteralExpression(1);
+		}
+		if (isLiteral(exponent, 1)) {
+			_changed = true;
+			return base;
+		}
+		// (g^a)^b = g^(a*b)
+		if (base instanceof EExpression && ((EExpression) base)._opr.equals("^") && isInteger(((EExpression) base)._rightNode) && isInteger(exponent)) {
+			_changed = true;
+			final EExpression inner = (EExpression) base;
+			return new EExpression(inner._leftNode, fold(new MExpression(inner._rightNode, exponent, "*")), "^");
+		}
+		return new EExpression(base, exponent, "^");
+	}
+
+	/**
+	 * Replaces a node whose operands are all literals by its value.
+	 */
+	private LiteralExpression fold (Expression constant) {
+		_changed = true;
+		return new LiteralExpression(constant.evaluate(0));
+	}
+
+	/**
+	 * Returns the base of an expression seen as a power: g for g^a, and the expression itself otherwise.
+	 */
+	private static Expression base (Expression expression) {
+		if (expression instanceof EExpression && ((EExpression) expression)._opr.equals("^")) {
+			return ((EExpression) expression)._leftNode;
+		}
+		return expression;
+	}
+
+	/**
+	 * Returns the exponent of an expression seen as a power: a for g^a, and 1 otherwise.
+	 */
+	private static Expression exponent (Expression expression) {
+		if (expression instanceof EExpression && ((EExpression) expression)._opr.equals("^")) {
+			return ((EExpression) expression)._rightNode;
+		}
+		return new LiteralExpression(1);
+	}
+
+	private static boolean isLiteral (Expression expression, double value) {
+		return expression instanceof LiteralExpression && ((LiteralExpression) expression)._value == value;
+	}
+
+	private static boolean isInteger (Expression expression) {
+		if (!(expression instanceof LiteralExpression)) {
+			return false;
+		}
+		final double value = ((LiteralExpression) expression)._value;
+		return value == Math.rint(value) && Math.abs(value) < 1e9;
+	}
+}
@@ -0,0 +1,82 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * Checks that ExpressionSimplifier shrinks trees without changing the functions they compute.
+ */
+public class ExpressionSimplifierTester {
+	private static final double[] XS = { -7.5, -2, -1, -0.5, 0.25, 0.5, 1, 1.5, 2, 3, 9.75 };
+
+	private ExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser();
+	}
+
+	/**
+	 * Checks that the simplified expression has the same value as the original wherever the original is defined.
+	 */
+	private static void assertSameFunction (Expression expected, Expression actual) {
+		for (double x : XS) {
+			final double value = expected.evaluate(x);
+			if (Double.isFinite(value)) {
+				assertEquals(value, actual.evaluate(x), 1e-9 * Math.max(1, Math.abs(value)), () -> expected.convertToString(0) + " at " + x);
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies the individual rules.
+	 */
+	public void testRules () throws ExpressionParseException {
+		assertEquals("10.0\n", ExpressionSimplifier.simplify(_parser.parse("2*(3+2)")).convertToString(0));
+		assertEquals("x\n", ExpressionSimplifier.simplify(_parser.parse("((x))*1+0")).convertToString(0));
+		assertEquals("0.0\n", ExpressionSimplifier.simplify(_parser.parse("0*log(x)")).convertToString(0));
+		assertEquals("1.0\n", ExpressionSimplifier.simplify(_parser.parse("(x+1)^(1-1)")).convertToString(0));
+		assertEquals("^\n\tx\n\t5.0\n", ExpressionSimplifier.simplify(_parser.parse("x^2*x^3")).convertToString(0));
+		assertEquals("^\n\tx\n\t2.0\n", ExpressionSimplifier.simplify(_parser.parse("x*x")).convertToString(0));
+		assertEquals("^\n\tx\n\t6.0\n", ExpressionSimplifier.simplify(_parser.parse("(x^2)^3")).convertToString(0));
+		assertEquals("*\n\t6.0\n\tx\n", ExpressionSimplifier.simplify(_parser.parse("2*(3*x)")).convertToString(0));
+		// Non-integer exponents are not merged, since g^0.5*g^0.5 is NaN for negative g.
+		assertEquals(7, ExpressionSimplifier.countNodes(ExpressionSimplifier.simplify(_parser.parse("x^0.5*x^0.5"))));
+	}
+
+	@Test
+	/**
+	 * Verifies that simplified expressions and derivatives compute the same functions with fewer nodes.
+	 */
+	public void testDerivatives () throws ExpressionParseException {
+		final String[] expressions = { "x", "13", "2*x+5*x*x", "10*x^3 + 2*(15+x)", "1./(1. + 5^(-1*x))", "log(x)*2-log2", "(x-1)*(x+1)/(x*x+1) - 3*x/7" };
+		for (String expressionStr : expressions) {
+			Expression expression = _parser.parse(expressionStr);
+			for (int order = 0; order < 3; order++) {
+				final String before = expression.convertToString(0);
+				final Expression simplified = ExpressionSimplifier.simplify(expression);
+				assertEquals(before, expression.convertToString(0));
+				assertTrue(ExpressionSimplifier.countNodes(simplified) <= ExpressionSimplifier.countNodes(expression));
+				assertSameFunction(expression, simplified);
+				// Simplification reaches a fixpoint.
+				assertEquals(simplified.convertToString(0), ExpressionSimplifier.simplify(simplified).convertToString(0));
+				expression = simplified.differentiate();
+			}
+		}
+		final Expression derivative = _parser.parse("10*x^3 + 2*(15+x)").differentiate();
+		assertEquals(31, ExpressionSimplifier.countNodes(derivative));
+		assertEquals(7, ExpressionSimplifier.countNodes(ExpressionSimplifier.simplify(derivative)));
+	}
+
+	@Test
+	/**
+	 * Verifies the simplifying parser.
+	 */
+	public void testSimplifyingParser () throws ExpressionParseException {
+		final ExpressionParser parser = new SimplifyingExpressionParser(_parser);
+		assertEquals("x\n", parser.parse("(1*x)").convertToString(0));
+		assertThrows(ExpressionParseException.class, () -> parser.parse("x+"));
+	}
+}
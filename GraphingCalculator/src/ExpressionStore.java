@@ -0,0 +1,525 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of parsed trees and their derivatives, so that a restarted process doesn't parse and
+ * differentiate the same expressions again. The trees of each text are stored under the text as the parsers
+ * normalize it, with all spaces removed, and are only read and decoded when they are asked for.
+ * <p>
+ * A store is a directory of two files:
+ * <ul>
+ * <li>The data file, expressions.dat, to which records are only ever appended. After a header of the magic bytes
+ * "GCXD", the format version and a random id, each record is the length of its payload and the CRC32 of the payload
+ * (ints), then the payload: the text and its trees, encoded by ExpressionCodec.
+ * Storing the trees of a text again appends a new record, which replaces the old one.</li>
+ * <li>The index, expressions.idx, an open-addressing hash table with linear probing that is read and updated
+ * through a MappedByteBuffer. After a header of the magic bytes "GCXI", the version, the id of the data file, the
+ * length of the data file it covers, its capacity and its size, each slot holds the hash of a text and the offset
+ * of its latest record plus one, 0 meaning empty. Texts whose hashes are equal are told apart by the texts in their
+ * records.</li>
+ * </ul>
+ * Records are appended before the index points to them, and nothing is forced to disk until flush or close, so a
+ * crash may leave a torn record at the end of the data file, or records the index doesn't cover. Opening the store
+ * indexes the records after the length the index covers, and truncates the data file at the first record that is
+ * incomplete or fails its CRC. An index that is missing, damaged or of another data file is rebuilt from the data
+ * file. A data file of an older version is discarded, since its trees can't be decoded.
+ * <p>
+ * Replaced records stay in the data file until compact rewrites it with only the latest record of each text.
+ * All methods are synchronized.
+ */
+class ExpressionStore implements Closeable {
+	// The version of the file formats, which includes that of the ExpressionCodec encoding of the trees.
+	public static final int VERSION = 1 << 8 | ExpressionCodec.VERSION;
+	protected static final String DATA_FILE = "expressions.dat", INDEX_FILE = "expressions.idx";
+	protected static final int DATA_MAGIC = 0x47435844, INDEX_MAGIC = 0x47435849;
+	// The data file header: magic, version and id.
+	protected static final int DATA_HEADER = 16;
+	// The record header: payload length and CRC32.
+	protected static final int RECORD_HEADER = 8;
+	// The index header: magic, version, data file id, covered data length, capacity and size.
+	protected static final int INDEX_HEADER = 32;
+	protected static final int SLOT = 16;
+	protected static final int INITIAL_CAPACITY = 1024;
+	// The index grows when more than this fraction of its slots are used.
+	protected static final double MAX_LOAD = 0.75;
+
+	private final Path _directory;
+	private FileChannel _data;
+	private long _id;
+	// The length of the data file: the end of its last valid record.
+	private long _dataLength;
+	private FileChannel _indexChannel;
+	private MappedByteBuffer _index;
+	private int _capacity, _size;
+	// The number of records seen replaced by later ones since the store was opened or compacted.
+	private long _replaced;
+
+	/**
+	 * Opens the store in a directory, creating it if it doesn't exist, and recovers from a crash if necessary.
+	 * @param directory the directory of the store
+	 * @throws IOException if the files can't be read or written, or the data file isn't one of a store
+	 */
+	public ExpressionStore (Path directory) throws IOException {
+		_directory = directory;
+		Files.createDirectories(directory);
+		open();
+	}
+
+	private void open () throws IOException {
+		_data = FileChannel.open(_directory.resolve(DATA_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			readDataHeader();
+			if (!openIndex()) {
+				createIndex(_directory.resolve(INDEX_FILE), INITIAL_CAPACITY);
+			}
+			if (indexRecords(_index.getLong(16))) {
+				// Unless it was only the process that stopped, the index may have reached the disk before the
+				// records it points to did.
+				for (int slot = 0; slot < _capacity; slot++) {
+					if (_index.getLong(INDEX_HEADER + slot * SLOT + 8) - 1 >= _dataLength) {
+						createIndex(_directory.resolve(INDEX_FILE), INITIAL_CAPACITY);
+						indexRecords(DATA_HEADER);
+						break;
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			closeChannels();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the header of the data file, writing a new one if the file is empty, torn or of an older version.
+	 */
+	private void readDataHeader () throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+		final long size = _data.size();
+		if (size >= DATA_HEADER) {
+			readFully(header, 0);
+			if (header.getInt(0) != DATA_MAGIC) {
+				throw new IOException(_directory.resolve(DATA_FILE) + " is not the data file of an expression store");
+			}
+			if (header.getInt(4) == VERSION) {
+				_id = header.getLong(8);
+				_dataLength = size;
+				return;
+			}
+		} else if (size >= 4) {
+			readFully(header.limit(4), 0);
+			if (header.getInt(0) != DATA_MAGIC) {
+				throw new IOException(_directory.resolve(DATA_FILE) + " is not the data file of an expression store");
+			}
+		}
+		// A new store, a crash while creating it, or trees encoded in a format this version can't decode.
+		_id = new Random().nextLong();
+		header.clear();
+		header.putInt(DATA_MAGIC).putInt(VERSION).putLong(_id).flip();
+		_data.truncate(0);
+		_data.write(header, 0);
+		_dataLength = DATA_HEADER;
+	}
+
+	/**
+	 * Maps the index file if it is a valid index of the data file.
+	 * @return whether it is
+	 */
+	private boolean openIndex () throws IOException {
+		final Path path = _directory.resolve(INDEX_FILE);
+		if (!Files.exists(path) || Files.size(path) < INDEX_HEADER) {
+			return false;
+		}
+		final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		final MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+		final int capacity = index.getInt(24), size = index.getInt(28);
+		final long covered = index.getLong(16);
+		if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION || index.getLong(8) != _id || covered < DATA_HEADER || covered > _dataLength
+				|| capacity < 1 || Integer.bitCount(capacity) != 1 || size < 0 || size > capacity || channel.size() != INDEX_HEADER + (long) capacity * SLOT) {
+			channel.close();
+			return false;
+		}
+		_indexChannel = channel;
+		_index = index;
+		_capacity = capacity;
+		_size = size;
+		return true;
+	}
+
+	/**
+	 * Creates an empty index of the data file and maps it.
+	 */
+	private void createIndex (Path path, int capacity) throws IOException {
+		if (_indexChannel != null) {
+			_indexChannel.close();
+		}
+		_indexChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		_index = _indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) capacity * SLOT);
+		_index.putInt(0, INDEX_MAGIC).putInt(4, VERSION).putLong(8, _id).putLong(16, DATA_HEADER).putInt(24, capacity).putInt(28, 0);
+		_capacity = capacity;
+		_size = 0;
+	}
+
+	/**
+	 * Adds the records from an offset on to the index, and truncates the data file at the first one that is torn.
+	 * @return whether the data file was truncated
+	 */
+	private boolean indexRecords (long offset) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+		boolean truncated = false;
+		while (offset < _dataLength) {
+			final byte[] payload = readRecord(offset, header);
+			if (payload == null) {
+				// Everything from here on was being written when the process stopped.
+				_data.truncate(offset);
+				_dataLength = offset;
+				truncated = true;
+				break;
+			}
+			final String text = textOf(payload);
+			insert(hash(text), offset, text);
+			offset += RECORD_HEADER + payload.length;
+		}
+		_index.putLong(16, _dataLength);
+		return truncated;
+	}
+
+	/**
+	 * Reads the payload of the record at an offset.
+	 * @return the payload, or null if the record is incomplete or fails its CRC
+	 */
+	private byte[] readRecord (long offset, ByteBuffer header) throws IOException {
+		if (_dataLength - offset < RECORD_HEADER) {
+			return null;
+		}
+		header.clear();
+		readFully(header, offset);
+		final int length = header.getInt(0);
+		// The shortest payload is an empty text and no trees.
+		if (length < 2 || length > _dataLength - offset - RECORD_HEADER) {
+			return null;
+		}
+		final byte[] payload = new byte[length];
+		readFully(ByteBuffer.wrap(payload), offset + RECORD_HEADER);
+		final CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int) crc.getValue() == header.getInt(4) ? payload : null;
+	}
+
+	private void readFully (ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (_data.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	/**
+	 * Returns the text of a record's payload.
+	 */
+	private static String textOf (byte[] payload) {
+		return new ExpressionCodec.Input(payload, 0, payload.length).string();
+	}
+
+	/**
+	 * Returns the text of the record at an offset, or null if it can't be read.
+	 */
+	private String textAt (long offset) throws IOException {
+		final byte[] payload = readRecord(offset, ByteBuffer.allocate(RECORD_HEADER));
+		return payload == null ? null : textOf(payload);
+	}
+
+	/**
+	 * Returns the slot of the text, or the empty slot where it would be inserted.
+	 */
+	private int find (long hash, String text) throws IOException {
+		int slot = (int) spread(hash) & (_capacity - 1);
+		while (true) {
+			final int position = INDEX_HEADER + slot * SLOT;
+			final long offset = _index.getLong(position + 8) - 1;
+			if (offset < 0 || _index.getLong(position) == hash && text.equals(textAt(offset))) {
+				return position;
+			}
+			slot = (slot + 1) & (_capacity - 1);
+		}
+	}
+
+	/**
+	 * Points the index at the record of a text, replacing the one it pointed at before, if any.
+	 */
+	private void insert (long hash, long offset, String text) throws IOException {
+		if (_size + 1 > MAX_LOAD * _capacity) {
+			grow();
+		}
+		final int position = find(hash, text);
+		final long old = _index.getLong(position + 8);
+		if (old == 0) {
+			_index.putInt(28, ++_size);
+		} else if (old != offset + 1) {
+			_replaced++;
+		}
+		_index.putLong(position, hash).putLong(position + 8, offset + 1);
+	}
+
+	/**
+	 * Doubles the capacity of the index, writing the new one next to the old one and then replacing it.
+	 */
+	private void grow () throws IOException {
+		final int capacity = _capacity;
+		final long[] hashes = new long[_size], offsets = new long[_size];
+		int count = 0;
+		for (int slot = 0; slot < capacity; slot++) {
+			final int position = INDEX_HEADER + slot * SLOT;
+			if (_index.getLong(position + 8) != 0) {
+				hashes[count] = _index.getLong(position);
+				offsets[count++] = _index.getLong(position + 8);
+			}
+		}
+		final long covered = _index.getLong(16);
+		final Path temporary = _directory.resolve(INDEX_FILE + ".tmp");
+		_indexChannel.close();
+		_indexChannel = null;
+		createIndex(temporary, 2 * capacity);
+		for (int i = 0; i < count; i++) {
+			// The entries are of distinct texts, so the first empty slot is theirs.
+			int slot = (int) spread(hashes[i]) & (_capacity - 1);
+			while (_index.getLong(INDEX_HEADER + slot * SLOT + 8) != 0) {
+				slot = (slot + 1) & (_capacity - 1);
+			}
+			_index.putLong(INDEX_HEADER + slot * SLOT, hashes[i]).putLong(INDEX_HEADER + slot * SLOT + 8, offsets[i]);
+		}
+		_size = count;
+		_index.putInt(28, count).putLong(16, covered);
+		_index.force();
+		move(temporary, _directory.resolve(INDEX_FILE));
+	}
+
+	private static void move (Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException amnse) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Returns the spaces-free form of a text that the parsers parse, under which its trees are stored.
+	 */
+	public static String normalize (String text) {
+		return text.replaceAll(" ", "");
+	}
+
+	/**
+	 * Returns the 64-bit FNV-1a hash of the characters of a normalized text.
+	 */
+	public static long hash (String normalized) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < normalized.length(); i++) {
+			hash = (hash ^ normalized.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Mixes the bits of a hash, so the low bits that pick a slot depend on all of them.
+	 */
+	private static long spread (long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		return hash ^ hash >>> 33;
+	}
+
+	/**
+	 * Returns the trees stored for a text, decoding them from the data file.
+	 * @param text the text, which is normalized
+	 * @return the trees, or null if none are stored
+	 * @throws IOException if the data file can't be read
+	 */
+	public synchronized List<Expression> get (String text) throws IOException {
+		final String normalized = normalize(text);
+		final int position = find(hash(normalized), normalized);
+		final long offset = _index.getLong(position + 8) - 1;
+		if (offset < 0) {
+			return null;
+		}
+		final byte[] payload = readRecord(offset, ByteBuffer.allocate(RECORD_HEADER));
+		if (payload == null) {
+			return null;
+		}
+		final ExpressionCodec.Input in = new ExpressionCodec.Input(payload, 0, payload.length);
+		in.string();
+		final int count = in.count(ExpressionCodec.TREE_BYTES);
+		final List<Expression> trees = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			trees.add(ExpressionCodec.decodeTree(in));
+		}
+		return trees;
+	}
+
+	/**
+	 * Stores the trees of a text, replacing those stored before.
+	 * @param text the text, which is normalized
+	 * @param trees the trees, e.g. the parsed tree followed by the trees DerivativeCache computed from it
+	 * @throws IOException if the files can't be written
+	 */
+	public synchronized void put (String text, List<Expression> trees) throws IOException {
+		final String normalized = normalize(text);
+		final long hash = hash(normalized);
+		final ExpressionCodec.Output out = new ExpressionCodec.Output(256);
+		for (int i = 0; i < RECORD_HEADER; i++) {
+			out.write(0);
+		}
+		out.string(normalized);
+		out.varint(trees.size());
+		for (Expression tree : trees) {
+			ExpressionCodec.encodeTree(out, tree);
+		}
+		final byte[] record = out.toByteArray();
+		final ByteBuffer buffer = ByteBuffer.wrap(record);
+		final CRC32 crc = new CRC32();
+		crc.update(record, RECORD_HEADER, record.length - RECORD_HEADER);
+		buffer.putInt(0, record.length - RECORD_HEADER).putInt(4, (int) crc.getValue());
+
+		final long offset = _dataLength;
+		while (buffer.hasRemaining()) {
+			_data.write(buffer, offset + buffer.position());
+		}
+		_dataLength += record.length;
+		insert(hash, offset, normalized);
+		_index.putLong(16, _dataLength);
+	}
+
+	/**
+	 * Returns whether trees are stored for a text, without reading them.
+	 */
+	public synchronized boolean contains (String text) throws IOException {
+		final String normalized = normalize(text);
+		return _index.getLong(find(hash(normalized), normalized) + 8) != 0;
+	}
+
+	/**
+	 * Returns the number of texts stored.
+	 */
+	public synchronized int size () {
+		return _size;
+	}
+
+	/**
+	 * Returns the length of the data file, including replaced records.
+	 */
+	public synchronized long getDataLength () {
+		return _dataLength;
+	}
+
+	/**
+	 * Returns the number of records the store has seen replaced by later ones since it was opened or compacted,
+	 * which is at most the number compact would drop.
+	 */
+	public synchronized long getReplacedCount () {
+		return _replaced;
+	}
+
+	/**
+	 * Rewrites the data file with only the latest record of each text, and the index to match. Records that have been
+	 * damaged since they were indexed can't be read, and are dropped with their text. The new files are written next
+	 * to the old ones and then replace them, so a crash leaves either the old store or the new one.
+	 * @throws IOException if the files can't be written
+	 */
+	public synchronized void compact () throws IOException {
+		final long[] offsets = new long[_size];
+		int count = 0;
+		for (int slot = 0; slot < _capacity; slot++) {
+			final long offset = _index.getLong(INDEX_HEADER + slot * SLOT + 8) - 1;
+			if (offset >= 0) {
+				offsets[count++] = offset;
+			}
+		}
+		// Keep the records in the order they were written.
+		Arrays.sort(offsets, 0, count);
+
+		final Path temporary = _directory.resolve(DATA_FILE + ".tmp");
+		final long id = new Random().nextLong();
+		try (FileChannel compacted = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			final ByteBuffer header = ByteBuffer.allocate(Math.max(DATA_HEADER, RECORD_HEADER));
+			header.putInt(DATA_MAGIC).putInt(VERSION).putLong(id).flip();
+			compacted.write(header);
+			for (int i = 0; i < count; i++) {
+				final byte[] payload = readRecord(offsets[i], ByteBuffer.allocate(RECORD_HEADER));
+				if (payload == null) {
+					continue;
+				}
+				header.clear();
+				final CRC32 crc = new CRC32();
+				crc.update(payload);
+				header.putInt(payload.length).putInt((int) crc.getValue()).flip();
+				compacted.write(header);
+				compacted.write(ByteBuffer.wrap(payload));
+			}
+			compacted.force(true);
+		}
+		flush();
+		closeChannels();
+		// If the process stops between the moves, the old index doesn't match the new data file, and is rebuilt.
+		move(temporary, _directory.resolve(DATA_FILE));
+		Files.deleteIfExists(_directory.resolve(INDEX_FILE));
+		_replaced = 0;
+		open();
+		flush();
+	}
+
+	/**
+	 * Forces the data file and the index to disk.
+	 * @throws IOException if they can't be written
+	 */
+	public synchronized void flush () throws IOException {
+		_data.force(false);
+		_index.force();
+	}
+
+	/**
+	 * Flushes and closes the store.
+	 */
+	public synchronized void close () throws IOException {
+		if (_data != null) {
+			flush();
+			closeChannels();
+		}
+	}
+
+	private void closeChannels () throws IOException {
+		try {
+			if (_data != null) {
+				_data.close();
+			}
+		} finally {
+			_data = null;
+			if (_indexChannel != null) {
+				_indexChannel.close();
+				_indexChannel = null;
+			}
+			_index = null;
+		}
+	}
+
+	/**
+	 * Prints the size of a store from the command line, compacting it first if asked:
+	 * java ExpressionStore directory [--compact]
+	 */
+	public static void main (String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2 || args.length == 2 && !args[1].equals("--compact")) {
+			System.err.println("Usage: java ExpressionStore directory [--compact]");
+			System.exit(2);
+		}
+		try (ExpressionStore store = new ExpressionStore(Paths.get(args[0]))) {
+			if (args.length == 2) {
+				final long before = store.getDataLength();
+				store.compact();
+				System.out.printf("Compacted %d bytes to %d%n", before, store.getDataLength());
+			}
+			System.out.printf("%d expressions in %d bytes%n", store.size(), store.getDataLength());
+		}
+	}
+}
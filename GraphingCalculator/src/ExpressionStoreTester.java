@@ -0,0 +1,225 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that ExpressionStore keeps trees across reopening, grows its index, recovers from torn records and
+ * damaged indexes, and compacts without losing the latest trees.
+ */
+public class ExpressionStoreTester {
+	@TempDir
+	Path _directory;
+
+	private ExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser();
+	}
+
+	private static String text (int i) {
+		return i + "*x^2 + " + (i % 7) + "/x";
+	}
+
+	private List<Expression> trees (String text, int derivatives) throws ExpressionParseException {
+		final List<Expression> trees = new ArrayList<>();
+		trees.add(_parser.parse(text));
+		for (int i = 0; i < derivatives; i++) {
+			trees.add(trees.get(trees.size() - 1).differentiate());
+		}
+		return trees;
+	}
+
+	private static void assertSameTrees (List<Expression> expected, List<Expression> actual) {
+		assertNotNull(actual);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			// Derivatives may have missing subtrees, which convertToString can't print.
+			assertArrayEquals(ExpressionCodec.encode(expected.get(i)), ExpressionCodec.encode(actual.get(i)));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that trees are found under the normalized text, replaced by later ones, and kept when the store is
+	 * reopened.
+	 */
+	public void testPutAndGet () throws ExpressionParseException, IOException {
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			assertNull(store.get("x"));
+			store.put("2 * x", trees("2*x", 0));
+			store.put("x^3", trees("x^3", 1));
+			store.put("x ^ 3", trees("x^3", 2));
+			assertEquals(2, store.size());
+			assertEquals(1, store.getReplacedCount());
+			assertSameTrees(trees("2*x", 0), store.get("2*x"));
+			assertTrue(store.contains("x^3"));
+			assertFalse(store.contains("x^4"));
+		}
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			assertEquals(2, store.size());
+			assertSameTrees(trees("x^3", 2), store.get("x^3"));
+			assertSameTrees(trees("2*x", 0), store.get(" 2*x "));
+			assertNull(store.get("x"));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that the index grows past its initial capacity, and that every text is found after reopening.
+	 */
+	public void testGrowth () throws ExpressionParseException, IOException {
+		final int count = 3 * ExpressionStore.INITIAL_CAPACITY;
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			for (int i = 0; i < count; i++) {
+				store.put(text(i), trees(text(i), i % 3));
+			}
+			assertEquals(count, store.size());
+		}
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			assertEquals(count, store.size());
+			for (int i = 0; i < count; i += 7) {
+				assertSameTrees(trees(text(i), i % 3), store.get(text(i)));
+			}
+			assertFalse(Files.exists(_directory.resolve(ExpressionStore.INDEX_FILE + ".tmp")));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that a record torn by a crash, or that fails its CRC, is dropped with everything after it, and that
+	 * records the index doesn't cover are indexed.
+	 */
+	public void testTornTail () throws ExpressionParseException, IOException {
+		final Path data = _directory.resolve(ExpressionStore.DATA_FILE), index = _directory.resolve(ExpressionStore.INDEX_FILE);
+		final long complete;
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			for (int i = 0; i < 10; i++) {
+				store.put(text(i), trees(text(i), 1));
+			}
+			complete = store.getDataLength();
+			store.put(text(10), trees(text(10), 1));
+		}
+		// Tear the last record.
+		try (FileChannel channel = FileChannel.open(data, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			assertEquals(complete, store.getDataLength());
+			assertEquals(complete, Files.size(data));
+			assertEquals(10, store.size());
+			assertNull(store.get(text(10)));
+			assertSameTrees(trees(text(9), 1), store.get(text(9)));
+			store.put(text(10), trees(text(10), 1));
+		}
+
+		// An index from before the last records were written still finds them.
+		final byte[] oldIndex = Files.readAllBytes(index);
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			store.put(text(11), trees(text(11), 0));
+			store.put(text(0), trees(text(0), 2));
+		}
+		Files.write(index, oldIndex);
+		// Flip a bit in the middle of the last record.
+		final byte[] bytes = Files.readAllBytes(data);
+		bytes[bytes.length - 20] ^= 1;
+		Files.write(data, bytes);
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			assertEquals(12, store.size());
+			assertSameTrees(trees(text(11), 0), store.get(text(11)));
+			// The replacement of text 0 was lost, so the earlier record is found.
+			assertSameTrees(trees(text(0), 1), store.get(text(0)));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that a missing or damaged index is rebuilt, and that a file that isn't a store is rejected.
+	 */
+	public void testIndexRebuild () throws ExpressionParseException, IOException {
+		final Path index = _directory.resolve(ExpressionStore.INDEX_FILE);
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			for (int i = 0; i < 100; i++) {
+				store.put(text(i), trees(text(i), 0));
+			}
+		}
+		Files.delete(index);
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			assertEquals(100, store.size());
+		}
+		Files.write(index, new byte[100]);
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			assertEquals(100, store.size());
+			assertSameTrees(trees(text(42), 0), store.get(text(42)));
+		}
+
+		final Path other = _directory.resolve("other");
+		Files.createDirectories(other);
+		Files.write(other.resolve(ExpressionStore.DATA_FILE), "not a store, but long enough".getBytes());
+		assertThrows(IOException.class, () -> new ExpressionStore(other));
+	}
+
+	@Test
+	/**
+	 * Verifies that compaction drops the replaced records and keeps the latest trees of every text.
+	 */
+	public void testCompaction () throws ExpressionParseException, IOException {
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			for (int round = 0; round < 3; round++) {
+				for (int i = 0; i < 200; i++) {
+					store.put(text(i), trees(text(i), 2 - round));
+				}
+			}
+			assertEquals(400, store.getReplacedCount());
+			final long before = store.getDataLength();
+			store.compact();
+			assertEquals(200, store.size());
+			assertEquals(0, store.getReplacedCount());
+			assertTrue(store.getDataLength() < before / 3, store.getDataLength() + " of " + before);
+			assertSameTrees(trees(text(5), 0), store.get(text(5)));
+			store.put(text(200), trees(text(200), 0));
+		}
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			assertEquals(201, store.size());
+			for (int i = 0; i <= 200; i++) {
+				assertSameTrees(trees(text(i), 0), store.get(text(i)));
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that compaction drops a record damaged after it was indexed and keeps the others.
+	 */
+	public void testCompactionOfDamagedRecord () throws ExpressionParseException, IOException {
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			for (int i = 0; i < 10; i++) {
+				store.put(text(i), trees(text(i), 1));
+			}
+		}
+		// Flip a bit in the payload of the first record, which the index covers.
+		final Path data = _directory.resolve(ExpressionStore.DATA_FILE);
+		final byte[] bytes = Files.readAllBytes(data);
+		bytes[ExpressionStore.DATA_HEADER + ExpressionStore.RECORD_HEADER + 1] ^= 1;
+		Files.write(data, bytes);
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			assertNull(store.get(text(0)));
+			store.compact();
+			assertEquals(9, store.size());
+			assertNull(store.get(text(0)));
+		}
+		try (ExpressionStore store = new ExpressionStore(_directory)) {
+			assertEquals(9, store.size());
+			for (int i = 1; i < 10; i++) {
+				assertSameTrees(trees(text(i), 1), store.get(text(i)));
+			}
+		}
+	}
+}
@@ -1,19 +1,24 @@
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.chart.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javafx.geometry.Point2D;
 import javafx.scene.control.Label;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.event.EventType;
 import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
 import javafx.scene.input.MouseEvent;
 import javafx.event.EventHandler;
 import javafx.scene.layout.StackPane;
@@ -28,19 +33,86 @@ public class GraphingCalculator extends Application {
 	protected static final double MIN_X = -10, MAX_X = +10, DELTA_X = 0.01;
 	protected static final double MIN_Y = -10, MAX_Y = +10;
 	protected static final double GRID_INTERVAL = 5;
+	// Room left for the query bar above the canvas.
+	protected static final int CANVAS_MARGIN = 30;
 	protected static final String EXAMPLE_EXPRESSION = "2*x+5*x*x";
-	protected final ExpressionParser expressionParser = new SimpleExpressionParser();
+	protected static final int SAMPLE_COUNT = (int) Math.round((MAX_X - MIN_X) / DELTA_X) + 1;
+	// Run with -DgraphingCalculator.lineChart=true to plot with a LineChart instead of drawing on a Canvas.
+	protected static final boolean USE_LINE_CHART = Boolean.getBoolean("graphingCalculator.lineChart");
+	// Run with -DgraphingCalculator.noSimplify=true to plot parsed expressions and derivatives without simplifying them.
+	protected static final boolean SIMPLIFY = !Boolean.getBoolean("graphingCalculator.noSimplify");
+	// The highest order of derivative that can be plotted along with the expression.
+	protected static final int MAX_DERIVATIVE_ORDER = 3;
+	// How long (in milliseconds) the text must stay unchanged before a live update starts.
+	protected static final long LIVE_UPDATE_DELAY = 150;
+	// The parser is only used by one pipeline stage at a time, and keeps the previous input to re-parse edits incrementally.
+	protected final ExpressionParser expressionParser = new CachingExpressionParser(SIMPLIFY ? new SimplifyingExpressionParser(new IncrementalExpressionParser()) : new IncrementalExpressionParser());
+	protected final ParallelSampler sampler = new ParallelSampler();
+	protected final DerivativeCache derivativeCache = new DerivativeCache();
+	protected final AdaptiveSampler adaptiveSampler = new AdaptiveSampler(MIN_X, MAX_X, MIN_Y, MAX_Y, WINDOW_WIDTH, WINDOW_HEIGHT - CANVAS_MARGIN);
+	// Runs the stages of the plot pipeline, so the JavaFX Application Thread never parses or samples.
+	protected final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "Plot worker");
+		thread.setDaemon(true);
+		return thread;
+	});
+	protected final PlotPipeline pipeline = new PlotPipeline(expressionParser, SIMPLIFY ? derivativeCache : null, sampler, USE_LINE_CHART ? null : adaptiveSampler,
+		MIN_X, MAX_X, SAMPLE_COUNT, WINDOW_WIDTH, workers);
+	// Shows the Metrics over the graph when they are enabled (run with -DgraphingCalculator.metrics=true), otherwise null.
+	private Label metricsOverlay;
 
-	private void graph (LineChart<Number, Number> chart, Expression expression, boolean clear) {
-		final XYChart.Series series = new XYChart.Series();
-		for (double x = MIN_X; x <= MAX_X; x += DELTA_X) {
-			final double y = expression.evaluate(x);
-			series.getData().add(new XYChart.Data(x, y));
-		}
-		if (clear) {
+	/**
+	 * Replaces the curves on screen with the given ones. Must be called on the JavaFX Application Thread.
+	 */
+	private void showCurves (LineChart<Number, Number> chart, CanvasPlotter plotter, List<PointBuffer> curves) {
+		if (USE_LINE_CHART) {
 			chart.getData().clear();
+			for (PointBuffer points : curves) {
+				final XYChart.Series<Number, Number> series = new XYChart.Series<>();
+				for (int i = 0; i < points.size(); i++) {
+					series.getData().add(new XYChart.Data<>(points.x(i), points.y(i)));
+				}
+				chart.getData().add(series);
+			}
+		} else {
+			plotter.clear();
+			for (int i = 0; i < curves.size(); i++) {
+				plotter.plot(curves.get(i), i);
+			}
+		}
+		if (metricsOverlay != null) {
+			metricsOverlay.setText(Metrics.get().summary());
 		}
-		chart.getData().addAll(series);
+	}
+
+	/**
+	 * Plots the text and its derivatives through the pipeline, cancelling the previous plot. Must be called on the
+	 * JavaFX Application Thread.
+	 * @param delayMillis how long to wait before starting, so that a burst of keystrokes causes a single plot
+	 */
+	private void plot (LineChart<Number, Number> chart, CanvasPlotter plotter, TextField textField, int maxOrder, boolean autoDiff, long delayMillis) {
+		pipeline.submit(textField.getText(), maxOrder, autoDiff, delayMillis, new PlotPipeline.Listener() {
+			public void curvesReady (PlotPipeline.Job job, List<PointBuffer> curves, boolean preview) {
+				Platform.runLater(() -> {
+					// Drop the result if a newer plot has been asked for since.
+					if (!job.isCancelled()) {
+						showCurves(chart, plotter, curves);
+						textField.setStyle(curves.size() > job.getMaxOrder() ? "-fx-text-fill: black" : "-fx-text-fill: red");
+						textField.setTooltip(null);
+					}
+				});
+			}
+
+			public void failed (PlotPipeline.Job job, Throwable error) {
+				Platform.runLater(() -> {
+					if (!job.isCancelled()) {
+						textField.setStyle("-fx-text-fill: red");
+						// Say why an expression too long or too complex to parse was rejected; other errors are just invalid input.
+						textField.setTooltip(error instanceof ParseBudgetExceededException ? new Tooltip(error.getMessage()) : null);
+					}
+				});
+			}
+		});
 	}
 
 	@Override
@@ -51,7 +123,15 @@ public class GraphingCalculator extends Application {
 		final Label label = new Label("y=");
 		final TextField textField = new TextField(EXAMPLE_EXPRESSION);
 		final Button graphButton = new Button("Graph");
-		final CheckBox diffBox = new CheckBox("Show Derivative");
+		final Label orderLabel = new Label("Derivatives:");
+		final ChoiceBox<Integer> orderBox = new ChoiceBox<>();
+		for (int order = 0; order <= MAX_DERIVATIVE_ORDER; order++) {
+			orderBox.getItems().add(order);
+		}
+		orderBox.setValue(0);
+		final CheckBox autoDiffBox = new CheckBox("Automatic differentiation");
+		final CheckBox liveBox = new CheckBox("Live");
+		liveBox.setSelected(true);
 		queryPane.getChildren().add(label);
 		queryPane.getChildren().add(textField);
 
@@ -59,26 +139,38 @@ public class GraphingCalculator extends Application {
 		final LineChart<Number, Number> chart = new LineChart<Number, Number>(new NumberAxis(MIN_X, MAX_X, GRID_INTERVAL), new NumberAxis(MIN_Y, MAX_Y, GRID_INTERVAL));
 		chart.setLegendVisible(false);
 		chart.setCreateSymbols(false);
-		graphPane.getChildren().add(chart);
+		final CanvasPlotter plotter = new CanvasPlotter(new Canvas(WINDOW_WIDTH, WINDOW_HEIGHT - CANVAS_MARGIN), MIN_X, MAX_X, MIN_Y, MAX_Y, GRID_INTERVAL);
+		plotter.clear();
+		graphPane.getChildren().add(USE_LINE_CHART ? chart : plotter.getCanvas());
+		if (Metrics.ENABLED) {
+			metricsOverlay = new Label(Metrics.get().summary());
+			metricsOverlay.setStyle("-fx-font-size: 10px; -fx-background-color: rgba(255, 255, 255, 0.8); -fx-padding: 2px;");
+			metricsOverlay.setMouseTransparent(true);
+			metricsOverlay.relocate(4, 4);
+			graphPane.getChildren().add(metricsOverlay);
+		}
 		graphButton.setOnMouseClicked(new EventHandler<MouseEvent>() {
 			public void handle (MouseEvent e) {
-				try {
-					final Expression expression = expressionParser.parse(textField.getText());
-					graph(chart, expression, true);
-					System.out.println(expression.convertToString(0));
-					if (diffBox.isSelected()) {
-						final Expression derivative = expression.differentiate();
-						graph(chart, derivative, false);
-					}
-				} catch (ExpressionParseException epe) {
-					textField.setStyle("-fx-text-fill: red");
-				} catch (UnsupportedOperationException epe) {
-					textField.setStyle("-fx-text-fill: red");
-				}
+				// Plot f, f', f'', ... up to the selected order.
+				plot(chart, plotter, textField, orderBox.getValue(), autoDiffBox.isSelected(), 0);
 			}
 		});
 		queryPane.getChildren().add(graphButton);
-		queryPane.getChildren().add(diffBox);
+		queryPane.getChildren().add(orderLabel);
+		queryPane.getChildren().add(orderBox);
+		queryPane.getChildren().add(autoDiffBox);
+		queryPane.getChildren().add(liveBox);
+
+		// Graph as the user types, and whenever the settings change.
+		final Runnable liveUpdate = () -> {
+			if (liveBox.isSelected()) {
+				plot(chart, plotter, textField, orderBox.getValue(), autoDiffBox.isSelected(), LIVE_UPDATE_DELAY);
+			}
+		};
+		textField.textProperty().addListener((observable, oldText, newText) -> liveUpdate.run());
+		orderBox.valueProperty().addListener((observable, oldOrder, newOrder) -> liveUpdate.run());
+		autoDiffBox.selectedProperty().addListener((observable, wasSelected, isSelected) -> liveUpdate.run());
+		liveBox.selectedProperty().addListener((observable, wasSelected, isSelected) -> liveUpdate.run());
 
 		textField.setOnKeyPressed(e -> textField.setStyle("-fx-text-fill: black"));
 		
@@ -0,0 +1,212 @@
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates an expression of x and y over a rectangular grid, e.g. for a heatmap or for ContourExtractor, into a
+ * primitive double[] in row-major order: the value at column i and row j is out[j * columns + i], taken at
+ * x = ParallelSampler.xAt(minX, maxX, columns, i) and y = ParallelSampler.xAt(minY, maxY, rows, j), so row 0 is
+ * the bottom one. The expression must only use the variables in slots 0 (x) and 1 (y), as parsed with
+ * VariableScope.XY.
+ * The expression is linearized once, and the rows are split into tasks that are evaluated in parallel on a
+ * ForkJoinPool. Each row is evaluated one instruction at a time over all of its columns, as evaluateBatch does
+ * for x, so every instruction is decoded once per row and the arithmetic runs in simple loops that the JIT can
+ * vectorize.
+ */
+class GridEvaluator implements AutoCloseable {
+	// Number of rows each task evaluates; a 1000x1000 grid is split into about 60 tasks.
+	protected static final int DEFAULT_ROWS_PER_TASK = 16;
+	// The number of variables bound: x and y.
+	private static final int SLOTS = 2;
+
+	private final ForkJoinPool _pool;
+	private final boolean _ownsPool;
+	private final int _rowsPerTask;
+
+	/**
+	 * Creates an evaluator that runs on the common ForkJoinPool.
+	 */
+	public GridEvaluator () {
+		this(ForkJoinPool.commonPool(), false, DEFAULT_ROWS_PER_TASK);
+	}
+
+	/**
+	 * Creates an evaluator with its own pool of the given number of worker threads, which close shuts down.
+	 * @param parallelism the number of worker threads
+	 */
+	public GridEvaluator (int parallelism) {
+		this(new ForkJoinPool(parallelism), true, DEFAULT_ROWS_PER_TASK);
+	}
+
+	/**
+	 * @param pool the pool to run on
+	 * @param ownsPool whether close should shut the pool down
+	 * @param rowsPerTask the number of rows each task evaluates
+	 */
+	protected GridEvaluator (ForkJoinPool pool, boolean ownsPool, int rowsPerTask) {
+		if (rowsPerTask < 1) {
+			throw new IllegalArgumentException("Rows per task must be positive: " + rowsPerTask);
+		}
+		_pool = pool;
+		_ownsPool = ownsPool;
+		_rowsPerTask = rowsPerTask;
+	}
+
+	/**
+	 * Evaluates the expression over the grid.
+	 * @return the values, in row-major order
+	 */
+	public double[] evaluate (Expression expression, double minX, double maxX, int columns, double minY, double maxY, int rows) {
+		final double[] out = new double[columns * rows];
+		evaluate(expression, minX, maxX, columns, minY, maxY, rows, out);
+		return out;
+	}
+
+	/**
+	 * Evaluates the expression over the grid into the given array.
+	 * @param expression the expression of x and y to evaluate
+	 * @param minX the x value of the first column
+	 * @param maxX the x value of the last column
+	 * @param columns the number of columns
+	 * @param minY the y value of the first row
+	 * @param maxY the y value of the last row
+	 * @param rows the number of rows
+	 * @param out receives the values in row-major order; it must hold at least columns * rows values
+	 */
+	public void evaluate (Expression expression, double minX, double maxX, int columns, double minY, double maxY, int rows, double[] out) {
+		if (columns < 0 || rows < 0 || (long) columns * rows > out.length) {
+			throw new IllegalArgumentException("Cannot evaluate a " + columns + "x" + rows + " grid into an array of " + out.length);
+		}
+		final double[] xs = new double[columns];
+		for (int i = 0; i < columns; i++) {
+			xs[i] = ParallelSampler.xAt(minX, maxX, columns, i);
+		}
+		_pool.invoke(new RowTask(LinearizedExpression.of(expression), xs, minY, maxY, rows, out, 0, rows));
+	}
+
+	/**
+	 * Shuts down the pool if this evaluator created it.
+	 */
+	public void close () {
+		if (_ownsPool) {
+			_pool.shutdown();
+		}
+	}
+
+	/**
+	 * Evaluates the rows [start, end), splitting the range in half until it fits in a task.
+	 */
+	private class RowTask extends RecursiveAction {
+		private final LinearizedExpression _program;
+		private final double[] _xs;
+		private final double _minY, _maxY;
+		private final int _rows;
+		private final double[] _out;
+		private final int _start, _end;
+
+		RowTask (LinearizedExpression program, double[] xs, double minY, double maxY, int rows, double[] out, int start, int end) {
+			_program = program;
+			_xs = xs;
+			_minY = minY;
+			_maxY = maxY;
+			_rows = rows;
+			_out = out;
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected void compute () {
+			if (_end - _start > _rowsPerTask) {
+				final int middle = (_start + _end) >>> 1;
+				invokeAll(new RowTask(_program, _xs, _minY, _maxY, _rows, _out, _start, middle),
+					new RowTask(_program, _xs, _minY, _maxY, _rows, _out, middle, _end));
+				return;
+			}
+
+			final double[][] stack = new double[_program.maxStack()][_xs.length];
+			final double[] env = new double[SLOTS];
+			for (int j = _start; j < _end; j++) {
+				env[1] = ParallelSampler.xAt(_minY, _maxY, _rows, j);
+				evaluateRow(_program, _xs, env, stack);
+				System.arraycopy(stack[0], 0, _out, j * _xs.length, _xs.length);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the program at every x of a row, leaving the values in stack[0].
+	 * @param program the linearized expression
+	 * @param xs the x values of the columns
+	 * @param env the values of the variables; all but x are the same for the whole row
+	 * @param stack the operand stack, each entry holding a value per column
+	 */
+	private static void evaluateRow (LinearizedExpression program, double[] xs, double[] env, double[][] stack) {
+		final int columns = xs.length;
+		int top = -1;
+		for (int instruction : program._code) {
+			final int operand = instruction >>> LinearizedExpression.OPCODE_BITS;
+			switch (instruction & LinearizedExpression.OPCODE_MASK) {
+				case LinearizedExpression.CONSTANT:
+					Arrays.fill(stack[++top], program._constants[operand]);
+					break;
+				case LinearizedExpression.VARIABLE:
+					if (operand == 0) {
+						System.arraycopy(xs, 0, stack[++top], 0, columns);
+					} else {
+						Arrays.fill(stack[++top], env[operand]);
+					}
+					break;
+				case LinearizedExpression.ADD: {
+					final double[] a = stack[--top], b = stack[top + 1];
+					for (int i = 0; i < columns; i++) {
+						a[i] = a[i] + b[i];
+					}
+					break;
+				}
+				case LinearizedExpression.SUBTRACT: {
+					final double[] a = stack[--top], b = stack[top + 1];
+					for (int i = 0; i < columns; i++) {
+						a[i] = a[i] - b[i];
+					}
+					break;
+				}
+				case LinearizedExpression.MULTIPLY: {
+					final double[] a = stack[--top], b = stack[top + 1];
+					for (int i = 0; i < columns; i++) {
+						a[i] = a[i] * b[i];
+					}
+					break;
+				}
+				case LinearizedExpression.DIVIDE: {
+					final double[] a = stack[--top], b = stack[top + 1];
+					for (int i = 0; i < columns; i++) {
+						a[i] = a[i] / b[i];
+					}
+					break;
+				}
+				case LinearizedExpression.POWER: {
+					final double[] a = stack[--top], b = stack[top + 1];
+					for (int i = 0; i < columns; i++) {
+						a[i] = Math.pow(a[i], b[i]);
+					}
+					break;
+				}
+				case LinearizedExpression.LOG: {
+					final double[] a = stack[top];
+					for (int i = 0; i < columns; i++) {
+						a[i] = Math.log(a[i]);
+					}
+					break;
+				}
+				default: {
+					final Expression fallback = program._fallbacks[operand];
+					final double[] a = stack[++top];
+					for (int i = 0; i < columns; i++) {
+						env[0] = xs[i];
+						a[i] = fallback.evaluate(env);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+import java.util.*;
+
+/**
+ * A TokenizingExpressionParser for text that is edited a little at a time, such as the contents of a TextField
+ * re-parsed on every keystroke. It remembers the tokens and the parenthesized subtrees of the previous inputs:
+ * <ul>
+ * <li>Only the edited region is re-tokenized. Tokens before the last '*', '/', '^', '(' or ')' preceding the edit
+ * are kept, since the scanner never looks past such a character, and tokenizing stops as soon as it is back in
+ * step with the old tokens after the edit, whose positions are then shifted by the change in length.</li>
+ * <li>A parenthesized span "(S)" whose text is the same as one parsed before is not parsed again: its subtree is
+ * reused. The parse of a span depends only on its text, so this gives the same tree.</li>
+ * </ul>
+ * The reused subtrees are never handed out; every call returns a new, fully independent tree.
+ * An instance holds the state of the previous parse, so it must not be used by several threads at once.
+ */
+class IncrementalExpressionParser extends TokenizingExpressionParser {
+	// The most subtrees of parenthesized spans that are remembered; the memory is cleared when it grows larger.
+	protected static final int MAX_SPANS = 256;
+
+	private String _previousStr;
+	private Tokens _previousTokens;
+	// The tree of the previous input, or null if it couldn't be parsed.
+	private Expression _previousExpression;
+	private final Map<String, Expression> _spans = new HashMap<>();
+
+	// The edit being tokenized: the characters from _suffixStart on are the same as at the end of the previous
+	// input, where they were _shift characters earlier.
+	private int _suffixStart, _shift;
+	// The index of the matching CLOSE token of each OPEN token of the input being parsed, or -1.
+	private int[] _matches;
+	private int _reusedTokens, _reusedSubtrees;
+
+	/**
+	 * Creates a parser for expressions of x.
+	 */
+	public IncrementalExpressionParser () {
+		this(VariableScope.X);
+	}
+
+	/**
+	 * @param scope the variables the parsed expressions may use
+	 */
+	public IncrementalExpressionParser (VariableScope scope) {
+		super(scope);
+	}
+
+	/**
+	 * @param scope the variables the parsed expressions may use
+	 * @param budget the limits on the inputs
+	 */
+	public IncrementalExpressionParser (VariableScope scope, ParseBudget budget) {
+		super(scope, budget);
+	}
+
+	/**
+	 * Parses the string, reusing as much as possible of the work done for the previous one.
+	 * @param str the string to parse into an expression tree
+	 * @return the Expression object representing the parsed expression tree
+	 */
+	@Override
+	protected Expression parseText (String str) throws ExpressionParseException {
+		str = str.replaceAll(" ", "");
+		_reusedTokens = 0;
+		_reusedSubtrees = 0;
+		if (str.equals(_previousStr)) {
+			if (_previousExpression == null) {
+				throw new ExpressionParseException("Cannot parse expression: " + str);
+			}
+			_reusedTokens = _previousTokens._size;
+			return _previousExpression.deepCopy();
+		}
+
+		final Tokens tokens;
+		try {
+			tokens = tokenize(str);
+		} catch (ExpressionParseException epe) {
+			forget(str);
+			throw epe;
+		}
+		_previousStr = str;
+		_previousTokens = tokens;
+		_previousExpression = null;
+
+		_matches = matchParentheses(tokens);
+		final Expression expression = parseBinary(tokens, 1);
+		if (tokens.peek() != END) {
+			throw new ExpressionParseException("Cannot parse expression: " + str);
+		}
+		_previousExpression = expression;
+		return expression.deepCopy();
+	}
+
+	/**
+	 * Returns the number of tokens of the last input that were taken over from the previous one instead of being scanned.
+	 */
+	public int getReusedTokenCount () {
+		return _reusedTokens;
+	}
+
+	/**
+	 * Returns the number of parenthesized subtrees of the last input that were reused instead of being parsed.
+	 */
+	public int getReusedSubtreeCount () {
+		return _reusedSubtrees;
+	}
+
+	/**
+	 * Tokenizes the string, keeping the old tokens before and after the edited region.
+	 */
+	@Override
+	protected Tokens tokenize (String str) throws ExpressionParseException {
+		final Tokens old = _previousTokens;
+		if (old == null) {
+			return super.tokenize(str);
+		}
+		final String oldStr = old._str;
+		int prefix = 0;
+		final int maxCommon = Math.min(str.length(), oldStr.length());
+		while (prefix < maxCommon && str.charAt(prefix) == oldStr.charAt(prefix)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < maxCommon - prefix && str.charAt(str.length() - 1 - suffix) == oldStr.charAt(oldStr.length() - 1 - suffix)) {
+			suffix++;
+		}
+
+		// Restart after the last character before the edit that can't be part of a literal. It is a token of its own.
+		int restart = prefix - 1;
+		while (restart >= 0 && "*/^()".indexOf(str.charAt(restart)) < 0) {
+			restart--;
+		}
+		final Tokens tokens = new Tokens(str);
+		boolean expectOperand = true;
+		for (int j = 0; j < old._size && old._starts[j] <= restart; j++) {
+			tokens.add(old._kinds[j], old._values[j], old._starts[j]);
+			expectOperand = expectsOperandAfter(old._kinds[j]);
+		}
+		_reusedTokens = tokens._size;
+
+		_suffixStart = str.length() - suffix;
+		_shift = str.length() - oldStr.length();
+		tokenize(tokens, restart + 1, expectOperand);
+		return tokens;
+	}
+
+	/**
+	 * Once tokenizing has reached the unchanged suffix in the same state as the old tokenization, copies the rest of the old tokens.
+	 */
+	@Override
+	protected boolean resume (Tokens tokens, int i, boolean expectOperand) {
+		// The character before i must be unchanged too, since log looks at it.
+		if (_previousTokens == null || i <= _suffixStart) {
+			return false;
+		}
+		final Tokens old = _previousTokens;
+		final int j = Arrays.binarySearch(old._starts, 0, old._size, i - _shift);
+		if (j < 0 || expectOperand != (j == 0 || expectsOperandAfter(old._kinds[j - 1]))) {
+			return false;
+		}
+		for (int k = j; k < old._size; k++) {
+			tokens.add(old._kinds[k], old._values[k], old._starts[k] + _shift);
+		}
+		_reusedTokens += old._size - j;
+		return true;
+	}
+
+	/**
+	 * Parses a P, reusing the subtree of a parenthesized span that has been parsed before.
+	 */
+	@Override
+	protected Expression parseP (Tokens tokens) throws ExpressionParseException {
+		final int position = tokens._position;
+		if (tokens._kinds[position] != OPEN || _matches[position] < 0) {
+			return super.parseP(tokens);
+		}
+		final int close = _matches[position];
+		final String span = tokens._str.substring(tokens._starts[position], tokens._starts[close] + 1);
+		final Expression reused = _spans.get(span);
+		if (reused != null) {
+			tokens._position = close + 1;
+			_reusedSubtrees++;
+			return reused;
+		}
+		final Expression parsed = super.parseP(tokens);
+		if (_spans.size() >= MAX_SPANS) {
+			_spans.clear();
+		}
+		_spans.put(span, parsed);
+		return parsed;
+	}
+
+	private void forget (String str) {
+		_previousStr = str;
+		_previousTokens = null;
+		_previousExpression = null;
+	}
+
+	/**
+	 * Mirrors the tokenizer: after a literal, a variable or ')' an operator is expected, and after anything else an operand.
+	 */
+	private static boolean expectsOperandAfter (int kind) {
+		return kind != LITERAL && kind != VARIABLE && kind != CLOSE;
+	}
+
+	/**
+	 * Finds the matching CLOSE token of every OPEN token, or -1 for unbalanced ones.
+	 */
+	private static int[] matchParentheses (Tokens tokens) {
+		final int[] matches = new int[tokens._size];
+		final int[] open = new int[tokens._size];
+		int depth = 0;
+		for (int j = 0; j < tokens._size; j++) {
+			matches[j] = -1;
+			if (tokens._kinds[j] == OPEN) {
+				open[depth++] = j;
+			} else if (tokens._kinds[j] == CLOSE && depth > 0) {
+				matches[open[--depth]] = j;
+			}
+		}
+		return matches;
+	}
+}
@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import java.util.*;
+
+/**
+ * Checks that IncrementalExpressionParser gives the same results as TokenizingExpressionParser over sequences
+ * of edits, and that it reuses tokens and subtrees.
+ */
+public class IncrementalExpressionParserTester {
+	private static final String ALPHABET = "x0123456789.e+-*/^()log \tNaInfity";
+
+	private IncrementalExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new IncrementalExpressionParser();
+	}
+
+	/**
+	 * Parses the string with both parsers and checks that they agree.
+	 */
+	private void assertSameResult (String str) {
+		String expected, actual;
+		try {
+			expected = new TokenizingExpressionParser().parse(str).convertToString(0);
+		} catch (ExpressionParseException epe) {
+			expected = epe.getMessage();
+		}
+		try {
+			actual = _parser.parse(str).convertToString(0);
+		} catch (ExpressionParseException epe) {
+			actual = epe.getMessage();
+		}
+		assertEquals(expected, actual, () -> "\"" + str + "\"");
+	}
+
+	@Test
+	/**
+	 * Verifies typing an expression one character at a time, then deleting it again.
+	 */
+	public void testTyping () {
+		final String expression = "10*x^3 + 2*(15+x) - log(x*(x+1e-3))/(1.5e+2*x)";
+		for (int i = 0; i <= expression.length(); i++) {
+			assertSameResult(expression.substring(0, i));
+		}
+		for (int i = expression.length(); i >= 0; i--) {
+			assertSameResult(expression.substring(i));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies random edits of random strings.
+	 */
+	public void testRandomEdits () {
+		final Random random = new Random(1234);
+		final String[] seeds = { "2*x+5*x*x", "10*x^3 + 2*(15+x)", "1./(1. + 5^(-1*x))", "log(x)*2-log2", "(x-1)*(x+1)/(x*x+1) - 3*x/7", "0x1.8p1*x" };
+		for (int run = 0; run < 200; run++) {
+			final StringBuilder text = new StringBuilder(seeds[random.nextInt(seeds.length)]);
+			for (int edit = 0; edit < 50; edit++) {
+				final int position = random.nextInt(text.length() + 1);
+				if (random.nextBoolean() && text.length() > 0) {
+					text.delete(Math.min(position, text.length() - 1), Math.min(text.length(), position + 1 + random.nextInt(3)));
+				} else {
+					text.insert(position, ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+				}
+				assertSameResult(text.toString());
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that an edit reuses the tokens around it and the unchanged parenthesized subtrees.
+	 */
+	public void testReuse () throws ExpressionParseException {
+		final Expression first = _parser.parse("(x+1)*(x-1)*(2*x)");
+		assertEquals(0, _parser.getReusedTokenCount());
+		final Expression second = _parser.parse("(x+1)*(x-2)*(2*x)");
+		assertEquals(new TokenizingExpressionParser().parse("(x+1)*(x-2)*(2*x)").convertToString(0), second.convertToString(0));
+		assertEquals(2, _parser.getReusedSubtreeCount());
+		assertTrue(_parser.getReusedTokenCount() >= 14);
+		// The trees are independent.
+		assertNotSame(((MExpression) first)._rightNode, ((MExpression) second)._rightNode);
+		assertNotSame(_parser.parse("(x+1)*(x-2)*(2*x)"), second);
+	}
+}
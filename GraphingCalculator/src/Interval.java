@@ -0,0 +1,239 @@
+/**
+ * A closed range [lo, hi] of doubles, possibly unbounded, used to enclose all values an expression takes over a
+ * range of x. The operations are those of Expression.evaluate, carried out on ranges: each returns a range that
+ * contains every value the operation can produce for operands in the given ranges, so an expression evaluated
+ * with intervals encloses every value evaluate returns for x in the range.
+ * +, -, * and / are computed on the bounds without widening them, since floating-point rounding is monotonic;
+ * Math.pow and Math.log are only semi-monotonic and accurate to 1 ulp, so results that combine them are widened
+ * outwards by an ulp per step.
+ * Values where evaluate returns NaN (such as the log of a negative number, or 0/0) are not part of the range;
+ * an interval instead records whether there may be any. An interval that is empty, such as log over [-2, -1],
+ * holds no values at all.
+ * Intervals are immutable.
+ */
+final class Interval {
+	/**
+	 * The range of all values, for expressions nothing is known about.
+	 */
+	public static final Interval ENTIRE = new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+	/**
+	 * The range of an expression that is NaN everywhere.
+	 */
+	public static final Interval UNDEFINED = new Interval(Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, true);
+
+	private final double _lo, _hi;
+	private final boolean _mayBeUndefined;
+
+	private Interval (double lo, double hi, boolean mayBeUndefined) {
+		_lo = lo;
+		_hi = hi;
+		_mayBeUndefined = mayBeUndefined;
+	}
+
+	/**
+	 * Returns the interval [lo, hi].
+	 * @throws IllegalArgumentException if lo > hi, or either is NaN
+	 */
+	public static Interval of (double lo, double hi) {
+		if (!(lo <= hi)) {
+			throw new IllegalArgumentException("Invalid interval [" + lo + ", " + hi + "]");
+		}
+		return new Interval(lo, hi, false);
+	}
+
+	/**
+	 * Returns the interval holding just the given value, or UNDEFINED for NaN.
+	 */
+	public static Interval point (double value) {
+		return Double.isNaN(value) ? UNDEFINED : new Interval(value, value, false);
+	}
+
+	public double lo () {
+		return _lo;
+	}
+
+	public double hi () {
+		return _hi;
+	}
+
+	/**
+	 * Returns whether the range holds no values, i.e. the expression is NaN everywhere.
+	 */
+	public boolean isEmpty () {
+		return _lo > _hi;
+	}
+
+	/**
+	 * Returns whether the expression may be NaN somewhere, in addition to the values in the range.
+	 */
+	public boolean mayBeUndefined () {
+		return _mayBeUndefined;
+	}
+
+	/**
+	 * Returns whether the range holds a finite lower and upper bound.
+	 */
+	public boolean isBounded () {
+		return Double.isFinite(_lo) && Double.isFinite(_hi);
+	}
+
+	public boolean contains (double value) {
+		return _lo <= value && value <= _hi;
+	}
+
+	public Interval add (Interval other) {
+		if (isEmpty() || other.isEmpty()) {
+			return UNDEFINED;
+		}
+		return make(_lo + other._lo, _hi + other._hi, other);
+	}
+
+	public Interval subtract (Interval other) {
+		if (isEmpty() || other.isEmpty()) {
+			return UNDEFINED;
+		}
+		return make(_lo - other._hi, _hi - other._lo, other);
+	}
+
+	public Interval multiply (Interval other) {
+		if (isEmpty() || other.isEmpty()) {
+			return UNDEFINED;
+		}
+		final double[] products = { _lo * other._lo, _lo * other._hi, _hi * other._lo, _hi * other._hi };
+		double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+		boolean undefined = _mayBeUndefined || other._mayBeUndefined;
+		for (double product : products) {
+			// 0 * infinity is NaN, while the products of the values next to them range over everything in between.
+			if (Double.isNaN(product)) {
+				undefined = true;
+				product = 0;
+			}
+			lo = Math.min(lo, product);
+			hi = Math.max(hi, product);
+		}
+		return new Interval(lo, hi, undefined);
+	}
+
+	public Interval divide (Interval other) {
+		if (isEmpty() || other.isEmpty()) {
+			return UNDEFINED;
+		}
+		// 0/0 and infinity/infinity are NaN.
+		final boolean undefined = _mayBeUndefined || other._mayBeUndefined || contains(0) && other.contains(0) || !isBounded() && !other.isBounded();
+		if (other._lo > 0 || other._hi < 0) {
+			final double[] quotients = { _lo / other._lo, _lo / other._hi, _hi / other._lo, _hi / other._hi };
+			double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+			for (double quotient : quotients) {
+				// infinity / infinity is NaN, while the quotients next to it range over everything in between.
+				if (Double.isNaN(quotient)) {
+					return new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+				}
+				lo = Math.min(lo, quotient);
+				hi = Math.max(hi, quotient);
+			}
+			return new Interval(lo, hi, undefined);
+		}
+		// Division by a range containing 0 can give any value, including infinities of either sign. That is so
+		// even if 0 is one of its bounds, since the sign of zero isn't tracked and 1/-0.0 is -infinity.
+		return new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, undefined);
+	}
+
+	/**
+	 * Computes the range of Math.pow(base, exponent) for base in this range and exponent in the other.
+	 */
+	public Interval pow (Interval exponent) {
+		if (exponent.isEmpty()) {
+			return UNDEFINED;
+		}
+		if (exponent._lo == 0 && exponent._hi == 0) {
+			// Math.pow(x, 0) is 1, even for NaN.
+			return new Interval(1, 1, exponent._mayBeUndefined);
+		}
+		if (isEmpty()) {
+			// Math.pow(NaN, y) is NaN, except where y is 0.
+			return exponent.contains(0) ? new Interval(1, 1, true) : UNDEFINED;
+		}
+		final boolean undefined = _mayBeUndefined || exponent._mayBeUndefined;
+		if (exponent._lo == exponent._hi) {
+			return powConstant(exponent._lo, undefined);
+		}
+		if (_lo == _hi && _lo > 0) {
+			// k^y is monotonic in y.
+			final double a = Math.pow(_lo, exponent._lo), b = Math.pow(_lo, exponent._hi);
+			return make(down(Math.min(a, b)), up(Math.max(a, b)), undefined);
+		}
+		if (_lo > 0) {
+			// x^y = e^(y log x), each step of which is monotonic.
+			final Interval logarithm = log().multiply(exponent);
+			return make(down(Math.exp(down(logarithm._lo))), up(Math.exp(up(logarithm._hi))), undefined);
+		}
+		// Non-integer powers of negative numbers are NaN, and the rest can be anything.
+		return ENTIRE;
+	}
+
+	/**
+	 * Computes the range of Math.log(x) for x in this range.
+	 */
+	public Interval log () {
+		if (isEmpty() || _hi < 0) {
+			return UNDEFINED;
+		}
+		final boolean undefined = _mayBeUndefined || _lo < 0;
+		// log(0) is -infinity.
+		return new Interval(_lo <= 0 ? Double.NEGATIVE_INFINITY : down(Math.log(_lo)), up(Math.log(_hi)), undefined);
+	}
+
+	private Interval powConstant (double c, boolean undefined) {
+		if (Double.isInfinite(c)) {
+			// Math.pow(x, infinity) jumps between 0, 1, infinity and NaN.
+			return ENTIRE;
+		}
+		final double a = Math.pow(_lo, c), b = Math.pow(_hi, c);
+		if (c == Math.rint(c)) {
+			final boolean even = c % 2 == 0;
+			if (_lo > 0 || _hi < 0) {
+				// x^c is monotonic on either side of 0.
+				return make(Math.min(a, b), Math.max(a, b), undefined);
+			}
+			if (c > 0) {
+				// 0 lies inside the range, where x^c is 0.
+				return even ? make(0, Math.max(a, b), undefined) : make(a, b, undefined);
+			}
+			// x^c has a pole at 0; for even c both sides go to +infinity.
+			return even ? make(Math.min(a, b), Double.POSITIVE_INFINITY, undefined) : new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, undefined);
+		}
+		// Non-integer powers are only defined for x >= 0, where they are monotonic.
+		if (_hi < 0) {
+			return UNDEFINED;
+		}
+		final double lo = Math.max(_lo, 0), powLo = Math.pow(lo, c);
+		return new Interval(Math.min(powLo, b), Math.max(powLo, b), undefined || _lo < 0);
+	}
+
+	/**
+	 * Builds the result of an operation, treating NaN bounds (from infinity - infinity) as unbounded.
+	 */
+	private Interval make (double lo, double hi, Interval other) {
+		return make(lo, hi, _mayBeUndefined || other._mayBeUndefined);
+	}
+
+	private static Interval make (double lo, double hi, boolean undefined) {
+		if (Double.isNaN(lo) || Double.isNaN(hi)) {
+			return new Interval(Double.isNaN(lo) ? Double.NEGATIVE_INFINITY : lo, Double.isNaN(hi) ? Double.POSITIVE_INFINITY : hi, true);
+		}
+		return new Interval(lo, hi, undefined);
+	}
+
+	private static double down (double value) {
+		return value == Double.NEGATIVE_INFINITY ? value : Math.nextDown(value);
+	}
+
+	private static double up (double value) {
+		return value == Double.POSITIVE_INFINITY ? value : Math.nextUp(value);
+	}
+
+	@Override
+	public String toString () {
+		return isEmpty() ? "[]" : "[" + _lo + ", " + _hi + "]" + (_mayBeUndefined ? "?" : "");
+	}
+}
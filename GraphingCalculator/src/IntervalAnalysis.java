@@ -0,0 +1,87 @@
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Finds the features of a curve by bisecting ranges of x with Expression.evaluateInterval, instead of sampling it
+ * densely: a range whose enclosure rules a feature out is dropped whole, and the rest are halved until they are
+ * narrower than a tolerance.
+ * The results are candidates: a range that is reported may contain a feature, while a range that isn't
+ * reported certainly contains none. Since enclosures can be wider than the exact range of values, a reported
+ * range can turn out to hold none, e.g. the enclosure of x*x + 1 - x*x over [0, 1] is [0, 2]. The number of ranges bisected is
+ * limited; once the limit is reached the remaining ranges are reported as they are.
+ */
+class IntervalAnalysis {
+	// The most ranges bisected per search.
+	protected static final int MAX_BISECTIONS = 1 << 16;
+
+	private IntervalAnalysis () {
+	}
+
+	/**
+	 * Returns the ranges of x in [lo, hi] where the expression may be 0. The enclosure next to a pole is
+	 * unbounded, so poles are reported too; findAsymptotes tells them apart.
+	 * @param expression the expression
+	 * @param lo the smallest x value to search
+	 * @param hi the largest x value to search
+	 * @param tolerance the width below which ranges aren't halved any further
+	 * @return disjoint ranges of x in increasing order; adjacent candidates are merged
+	 */
+	public static List<Interval> isolateRoots (Expression expression, double lo, double hi, double tolerance) {
+		return search(expression, lo, hi, tolerance, range -> range.contains(0));
+	}
+
+	/**
+	 * Returns the ranges of x in [lo, hi] where the expression may have a vertical asymptote, i.e. where its values
+	 * can't be bounded.
+	 * @param expression the expression
+	 * @param lo the smallest x value to search
+	 * @param hi the largest x value to search
+	 * @param tolerance the width below which ranges aren't halved any further
+	 * @return disjoint ranges of x in increasing order; adjacent candidates are merged
+	 */
+	public static List<Interval> findAsymptotes (Expression expression, double lo, double hi, double tolerance) {
+		return search(expression, lo, hi, tolerance, range -> !range.isEmpty() && !range.isBounded());
+	}
+
+	/**
+	 * Bisects [lo, hi] depth-first, keeping the ranges whose enclosure may hold the feature.
+	 */
+	private static List<Interval> search (Expression expression, double lo, double hi, double tolerance, Predicate<Interval> candidate) {
+		if (!(lo <= hi && tolerance > 0)) {
+			throw new IllegalArgumentException("Invalid range");
+		}
+		final List<Interval> result = new ArrayList<>();
+		// The ranges still to look at, as pairs of bounds; the leftmost is on top.
+		final Deque<double[]> pending = new ArrayDeque<>();
+		pending.push(new double[] { lo, hi });
+		int bisections = 0;
+		while (!pending.isEmpty()) {
+			final double[] range = pending.pop();
+			final double a = range[0], b = range[1];
+			if (!candidate.test(expression.evaluateInterval(a, b))) {
+				continue;
+			}
+			final double m = 0.5 * (a + b);
+			if (b - a <= tolerance || bisections >= MAX_BISECTIONS || m <= a || m >= b) {
+				add(result, a, b);
+				continue;
+			}
+			bisections++;
+			pending.push(new double[] { m, b });
+			pending.push(new double[] { a, m });
+		}
+		return result;
+	}
+
+	/**
+	 * Appends [a, b] to the ranges, merging it with the last one if they touch.
+	 */
+	private static void add (List<Interval> ranges, double a, double b) {
+		if (!ranges.isEmpty() && ranges.get(ranges.size() - 1).hi() >= a) {
+			final Interval last = ranges.remove(ranges.size() - 1);
+			ranges.add(Interval.of(last.lo(), b));
+		} else {
+			ranges.add(Interval.of(a, b));
+		}
+	}
+}
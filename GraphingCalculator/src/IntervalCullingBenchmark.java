@@ -0,0 +1,110 @@
+import java.util.List;
+
+/**
+ * Counts how many evaluations interval arithmetic saves on typical viewports: AdaptiveSampler with and without
+ * the enclosures of Expression.evaluateInterval, and root isolation with IntervalAnalysis compared with a dense
+ * uniform sampling of the same resolution. Enclosures cost more than a point evaluation, so they are counted
+ * separately, along with the sampling time.
+ */
+public class IntervalCullingBenchmark {
+	private static final String[] EXPRESSIONS = { "x^2", "x^3 - 2*x", "1/x", "10^x", "log(x)", "x^4 - 10*x^2", "2^x*x", "1/((x-1)*(x+2))", "x^0.5" };
+	// Viewports as minX, maxX, minY, maxY, with the size of the display.
+	private static final double[][] VIEWPORTS = { { -10, 10, -10, 10 }, { -100, 100, -10, 10 }, { -2, 2, -1, 1 } };
+	private static final int WIDTH = 600, HEIGHT = 600;
+	private static final int ROUNDS = 10;
+	// How often a curve is sampled per round.
+	private static final int REPETITIONS = 200;
+	// Sum of all values computed, printed so that the evaluations can't be optimized away.
+	private static double checksum;
+	private static long evaluations, enclosures;
+
+	public static void main (String[] args) throws ExpressionParseException {
+		final ExpressionParser parser = new TokenizingExpressionParser();
+		for (double[] viewport : VIEWPORTS) {
+			System.out.printf("x in [%g, %g], y in [%g, %g]%n", viewport[0], viewport[1], viewport[2], viewport[3]);
+			final AdaptiveSampler sampler = new AdaptiveSampler(viewport[0], viewport[1], viewport[2], viewport[3], WIDTH, HEIGHT);
+			long totalPlain = 0, totalCulled = 0;
+			for (String expressionStr : EXPRESSIONS) {
+				final Expression expression = parser.parse(expressionStr);
+				final PointBuffer points = new PointBuffer(1024);
+
+				final double plainNanos = time(sampler, expression, false, points);
+				final long plain = evaluations;
+				final double culledNanos = time(sampler, expression, true, points);
+				final long culled = evaluations, culledEnclosures = enclosures;
+				totalPlain += plain;
+				totalCulled += culled;
+				System.out.printf("  %-20s evaluations %5d -> %5d (+%3d enclosures)   saved %5.1f%%   %8.1f -> %8.1f us%n", expressionStr,
+					plain, culled, culledEnclosures, 100.0 * (plain - culled) / plain, plainNanos / 1000, culledNanos / 1000);
+			}
+			System.out.printf("  %-20s evaluations %5d -> %5d   saved %5.1f%%%n", "total", totalPlain, totalCulled, 100.0 * (totalPlain - totalCulled) / totalPlain);
+		}
+
+		// Finding the roots to within 1e-9 by sampling would take (maxX - minX) / 1e-9 evaluations.
+		System.out.println("root isolation on [-10, 10] to 1e-9");
+		for (String expressionStr : EXPRESSIONS) {
+			final Expression expression = parser.parse(expressionStr);
+			final Expression counting = counting(expression);
+			enclosures = 0;
+			final List<Interval> roots = IntervalAnalysis.isolateRoots(counting, -10, 10, 1e-9);
+			System.out.printf("  %-20s %6d enclosures instead of %.0e evaluations: %s%n", expressionStr, enclosures, 20 / 1e-9, roots);
+		}
+		System.out.printf("(checksum %g)%n", checksum);
+	}
+
+	/**
+	 * Samples the expression repeatedly, leaving the number of evaluations of one sampling in the counters, and
+	 * returns the average time of a sampling in the measured rounds.
+	 */
+	private static double time (AdaptiveSampler sampler, Expression expression, boolean cull, PointBuffer points) {
+		final Expression counting = counting(expression);
+		double nanos = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			final long start = System.nanoTime();
+			for (int r = 0; r < REPETITIONS; r++) {
+				evaluations = 0;
+				enclosures = 0;
+				if (cull) {
+					sampler.sample(counting, points);
+				} else {
+					sampler.sample(counting::evaluate, points);
+				}
+				checksum += points.size();
+			}
+			// The first half of the rounds is warm-up.
+			if (round >= ROUNDS / 2) {
+				nanos += System.nanoTime() - start;
+			}
+		}
+		return nanos / ((ROUNDS - ROUNDS / 2) * REPETITIONS);
+	}
+
+	/**
+	 * Wraps the expression so that its evaluations and enclosures are counted.
+	 */
+	private static Expression counting (Expression expression) {
+		return new Expression() {
+			public Expression deepCopy () {
+				return counting(expression.deepCopy());
+			}
+
+			public String convertToString (int indentLevel) {
+				return expression.convertToString(indentLevel);
+			}
+
+			public double evaluate (double x) {
+				evaluations++;
+				return expression.evaluate(x);
+			}
+
+			public Interval evaluateInterval (double lo, double hi) {
+				enclosures++;
+				return expression.evaluateInterval(lo, hi);
+			}
+
+			public Expression differentiate () {
+				return counting(expression.differentiate());
+			}
+		};
+	}
+}
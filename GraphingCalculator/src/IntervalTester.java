@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import java.util.*;
+
+/**
+ * Checks that Expression.evaluateInterval encloses the values of expressions, and the sampling and searches built on it.
+ */
+public class IntervalTester {
+	private static final String[] EXPRESSIONS = { "x", "13", "2*x+5*x*x", "10*x^3 + 2*(15+x)", "1./(1. + 5^(-1*x))", "log(x)*2-log2", "(x-1)*(x+1)/(x*x+1) - 3*x/7",
+		"x^2", "x^0.5", "x^-1", "x^-2", "x^3", "1/x", "x/x", "2^x", "0.5^x", "x^x", "(x+2)^(x/3)", "log(x*x-1)", "1/((x-1)*(x+2))", "(x-x)/(x-x)", "0^x",
+		"(log(x-20))^0", "(log(x-20))^(x-x)", "NaN^0", "x^NaN" };
+
+	private ExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser();
+	}
+
+	@Test
+	/**
+	 * Verifies that the range over random intervals holds the value at every point of them that isn't NaN.
+	 */
+	public void testEnclosesValues () throws ExpressionParseException {
+		final Random random = new Random(17);
+		final double[] bounds = { -10, -3, -2, -1, -0.5, 0, 0.5, 1, 2, 3, 10 };
+		for (String expressionStr : EXPRESSIONS) {
+			final Expression expression = _parser.parse(expressionStr);
+			for (int trial = 0; trial < 200; trial++) {
+				double lo = trial % 2 == 0 ? bounds[random.nextInt(bounds.length)] : -10 + 20 * random.nextDouble();
+				double hi = trial % 3 == 0 ? bounds[random.nextInt(bounds.length)] : -10 + 20 * random.nextDouble();
+				if (lo > hi) {
+					final double t = lo;
+					lo = hi;
+					hi = t;
+				}
+				final Interval range = expression.evaluateInterval(lo, hi);
+				for (int i = 0; i <= 100; i++) {
+					final double x = i == 100 ? hi : lo + (hi - lo) * i / 100;
+					final double y = expression.evaluate(x);
+					if (Double.isNaN(y)) {
+						assertTrue(range.mayBeUndefined(), expressionStr + " is NaN at " + x + " but not over [" + lo + ", " + hi + "]: " + range);
+					} else {
+						assertTrue(range.contains(y), expressionStr + " is " + y + " at " + x + ", outside its range over [" + lo + ", " + hi + "]: " + range);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies the ranges of some expressions whose exact ranges are known.
+	 */
+	public void testExactRanges () throws ExpressionParseException {
+		assertRange(0, 9, "x^2", -2, 3);
+		assertRange(-8, 27, "x^3", -2, 3);
+		assertRange(5, 5, "2+3", -1, 1);
+		assertRange(1, 1, "x^0", -1, 1);
+		// Even where the base is NaN everywhere
+		assertRange(1, 1, "(log(x-20))^0", -1, 1);
+		assertFalse(_parser.parse("(log(x-20))^0").evaluateInterval(-1, 1).mayBeUndefined());
+		assertRange(1, 1, "(log(x-20))^(x-x)", -1, 1);
+		assertTrue(_parser.parse("x^NaN").evaluateInterval(-1, 1).isEmpty());
+		// The range of a - b doesn't know that a and b are the same.
+		assertRange(-1, 1, "x-x", 0, 1);
+		assertRange(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, "1/x", -1, 1);
+		assertRange(0.5, 1, "1/x", 1, 2);
+		assertRange(-1, -0.5, "1/x", -2, -1);
+		assertRange(0.25, Double.POSITIVE_INFINITY, "x^-2", -2, 2);
+		assertTrue(_parser.parse("log(x)").evaluateInterval(-2, -1).isEmpty());
+		assertTrue(_parser.parse("x^0.5").evaluateInterval(-2, -1).isEmpty());
+		assertFalse(_parser.parse("x^2+1").evaluateInterval(-5, 5).mayBeUndefined());
+		assertTrue(_parser.parse("log(x)").evaluateInterval(-1, 1).mayBeUndefined());
+		assertTrue(_parser.parse("x/x").evaluateInterval(-1, 1).mayBeUndefined());
+	}
+
+	private void assertRange (double lo, double hi, String expressionStr, double minX, double maxX) throws ExpressionParseException {
+		final Interval range = _parser.parse(expressionStr).evaluateInterval(minX, maxX);
+		assertEquals(lo, range.lo(), 1e-12, expressionStr + " over [" + minX + ", " + maxX + "]");
+		assertEquals(hi, range.hi(), 1e-12, expressionStr + " over [" + minX + ", " + maxX + "]");
+	}
+
+	@Test
+	/**
+	 * Verifies that culling only drops points that are out of view, and keeps all others.
+	 */
+	public void testCulledSampling () throws ExpressionParseException {
+		final AdaptiveSampler sampler = new AdaptiveSampler(-10, 10, -10, 10, 600, 600);
+		for (String expressionStr : EXPRESSIONS) {
+			final Expression expression = _parser.parse(expressionStr);
+			final PointBuffer plain = new PointBuffer(16), culled = new PointBuffer(16);
+			sampler.sample(expression::evaluate, plain);
+			sampler.sample(expression, culled);
+			assertTrue(culled.size() <= plain.size(), expressionStr);
+			final Map<Double, Double> culledPoints = new HashMap<>();
+			for (int i = 0; i < culled.size(); i++) {
+				culledPoints.put(culled.xs()[i], culled.ys()[i]);
+			}
+			for (int i = 0; i < plain.size(); i++) {
+				final double x = plain.xs()[i], y = plain.ys()[i];
+				if (y >= -10 && y <= 10) {
+					assertEquals(y, culledPoints.get(x), expressionStr + " at " + x);
+				}
+			}
+		}
+		// The curve is 1 everywhere, so nothing is culled.
+		final Expression one = _parser.parse("(log(x-20))^0");
+		final PointBuffer plain = new PointBuffer(16), culled = new PointBuffer(16);
+		sampler.sample(one::evaluate, plain);
+		sampler.sample(one, culled);
+		assertEquals(plain.size(), culled.size());
+		assertTrue(culled.size() > 100, "" + culled.size());
+
+		final PointBuffer points = new PointBuffer(16);
+		sampler.sample(_parser.parse("x^2+20"), points);
+		// Only the ends and the midpoints down to the culling threshold are left.
+		assertTrue(points.size() < 20, "" + points.size());
+	}
+
+	@Test
+	/**
+	 * Verifies roots and asymptotes found by bisection.
+	 */
+	public void testAnalysis () throws ExpressionParseException {
+		final List<Interval> roots = IntervalAnalysis.isolateRoots(_parser.parse("x^3 - 2*x"), -10, 10, 1e-9);
+		assertEquals(3, roots.size(), roots.toString());
+		final double[] expected = { -Math.sqrt(2), 0, Math.sqrt(2) };
+		for (int i = 0; i < 3; i++) {
+			assertTrue(roots.get(i).contains(expected[i]), roots.toString());
+			assertTrue(roots.get(i).hi() - roots.get(i).lo() <= 2e-9, roots.toString());
+		}
+		assertTrue(IntervalAnalysis.isolateRoots(_parser.parse("x^2+1"), -10, 10, 1e-9).isEmpty());
+
+		final List<Interval> asymptotes = IntervalAnalysis.findAsymptotes(_parser.parse("1/((x-1)*(x+2))"), -10, 10, 1e-6);
+		assertEquals(2, asymptotes.size(), asymptotes.toString());
+		assertTrue(asymptotes.get(0).contains(-2) && asymptotes.get(1).contains(1), asymptotes.toString());
+		assertTrue(IntervalAnalysis.findAsymptotes(_parser.parse("x^2"), -10, 10, 1e-6).isEmpty());
+		assertEquals(1, IntervalAnalysis.findAsymptotes(_parser.parse("log(x)"), -10, 10, 1e-6).size());
+	}
+}
@@ -0,0 +1,221 @@
+import java.util.*;
+
+/**
+ * Evaluates, copies and differentiates Expression trees with explicit stacks instead of recursion, so that trees of
+ * any depth, such as ones built by program rather than parsed within a ParseBudget, can't overflow the stack.
+ * The results are the same as those of the recursive Expression methods, including where differentiate leaves a
+ * null subtree and where its result shares subtrees. Nodes of other Expression classes are handled by calling
+ * their own methods.
+ */
+final class IterativeExpressions {
+	private IterativeExpressions () {
+	}
+
+	/**
+	 * Returns the nodes of the tree in post-order: every node after its children, the left child's subtree first.
+	 * The subtrees differentiate leaves missing are included as null leaves.
+	 */
+	static List<Expression> postOrder (Expression root) {
+		final ArrayList<Expression> nodes = new ArrayList<>();
+		final ArrayList<Expression> pending = new ArrayList<>();
+		pending.add(root);
+		while (!pending.isEmpty()) {
+			final Expression node = pop(pending);
+			nodes.add(node);
+			pending.addAll(children(node));
+		}
+		// Each node was added before the nodes of its subtrees, right subtree before left.
+		Collections.reverse(nodes);
+		return nodes;
+	}
+
+	/**
+	 * Returns the number of nodes on the longest path from the root to a leaf, 1 for a single node.
+	 */
+	static int depth (Expression root) {
+		final ArrayList<Expression> pending = new ArrayList<>();
+		final ArrayDeque<Integer> depths = new ArrayDeque<>();
+		pending.add(root);
+		depths.push(1);
+		int depth = 0;
+		while (!pending.isEmpty()) {
+			final Expression node = pop(pending);
+			final int nodeDepth = depths.pop();
+			depth = Math.max(depth, nodeDepth);
+			for (Expression child : children(node)) {
+				pending.add(child);
+				depths.push(nodeDepth + 1);
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Decides whether the tree has no missing nodes, which differentiate leaves where it can't differentiate a power.
+	 */
+	static boolean isComplete (Expression root) {
+		return root != null && !postOrder(root).contains(null);
+	}
+
+	/**
+	 * Given the value of the independent variable x, compute the value of the expression, like Expression.evaluate(x).
+	 * @param root the expression to evaluate
+	 * @param x the value of the independent variable x
+	 * @return the value of the expression
+	 */
+	static double evaluate (Expression root, double x) {
+		return evaluate(root, null, x);
+	}
+
+	/**
+	 * Given the values of the variables, indexed by their slots, compute the value of the expression, like
+	 * Expression.evaluate(env).
+	 * @param root the expression to evaluate
+	 * @param env the value of each variable
+	 * @return the value of the expression
+	 */
+	static double evaluate (Expression root, double[] env) {
+		return evaluate(root, env, 0);
+	}
+
+	/**
+	 * Evaluates the nodes in post-order, keeping the values of the subtrees not yet used on a stack.
+	 * @param env the value of each variable, or null to evaluate at x
+	 */
+	private static double evaluate (Expression root, double[] env, double x) {
+		final List<Expression> nodes = postOrder(root);
+		final double[] values = new double[nodes.size()];
+		int size = 0;
+		for (Expression node : nodes) {
+			if (node instanceof LiteralExpression) {
+				values[size++] = ((LiteralExpression) node)._value;
+			} else if (node instanceof VariableExpression) {
+				final int slot = ((VariableExpression) node)._slot;
+				values[size++] = env != null ? env[slot] : slot == 0 ? x : Double.NaN;
+			} else if (node instanceof SExpression) {
+				final double right = values[--size];
+				values[size - 1] = ((SExpression) node)._opr.equals("+") ? values[size - 1] + right : values[size - 1] - right;
+			} else if (node instanceof MExpression) {
+				final double right = values[--size];
+				values[size - 1] = ((MExpression) node)._opr.equals("*") ? values[size - 1] * right : values[size - 1] / right;
+			} else if (node instanceof EExpression) {
+				if (((EExpression) node)._opr.equals("^")) {
+					final double exponent = values[--size];
+					values[size - 1] = Math.pow(values[size - 1], exponent);
+				} else {
+					values[size - 1] = Math.log(values[size - 1]);
+				}
+			} else if (!(node instanceof PExpression)) {
+				values[size++] = env != null ? node.evaluate(env) : node.evaluate(x);
+			}
+		}
+		return values[0];
+	}
+
+	/**
+	 * Creates and returns a deep copy of the expression, like Expression.deepCopy.
+	 * @param root the expression to copy
+	 * @return the deep copy
+	 */
+	static Expression deepCopy (Expression root) {
+		final ArrayDeque<Expression> copies = new ArrayDeque<>();
+		for (Expression node : postOrder(root)) {
+			if (node instanceof SExpression) {
+				final Expression right = copies.pop();
+				copies.push(new SExpression(copies.pop(), right, ((SExpression) node)._opr));
+			} else if (node instanceof MExpression) {
+				final Expression right = copies.pop();
+				copies.push(new MExpression(copies.pop(), right, ((MExpression) node)._opr));
+			} else if (node instanceof EExpression) {
+				final Expression right = copies.pop();
+				copies.push(new EExpression(((EExpression) node)._opr.equals("log") ? null : copies.pop(), right, ((EExpression) node)._opr));
+			} else if (node instanceof PExpression) {
+				copies.push(new PExpression(copies.pop()));
+			} else {
+				copies.push(node.deepCopy());
+			}
+		}
+		return copies.pop();
+	}
+
+	/**
+	 * Produces the derivative of the expression, like Expression.differentiate. Unlike the recursive method, which
+	 * copies the whole subtree at every node, only the subtrees that appear in the derivative are copied.
+	 * @param root the expression to differentiate
+	 * @return the derivative of the expression
+	 */
+	static Expression differentiate (Expression root) {
+		// ArrayDeque can't hold the null derivatives of g(x)^h(x).
+		final ArrayList<Expression> derivatives = new ArrayList<>();
+		for (Expression node : postOrder(root)) {
+			if (node instanceof SExpression) {
+				final Expression right = pop(derivatives);
+				derivatives.add(new SExpression(pop(derivatives), right, ((SExpression) node)._opr));
+			} else if (node instanceof MExpression) {
+				final MExpression product = (MExpression) node;
+				final Expression right = pop(derivatives), left = pop(derivatives);
+				if (product._opr.equals("*")) {
+					// f'(x) = g(x)*h'(x) + g'(x)*h(x)
+					derivatives.add(new SExpression(new MExpression(deepCopy(product._leftNode), right, "*"),
+						new MExpression(left, deepCopy(product._rightNode), "*"), "+"));
+				} else {
+					// f'(x)= g'(x)/h(x) - g(x)h'(x)/h(x)^2
+					final Expression h = deepCopy(product._rightNode);
+					derivatives.add(new SExpression(new MExpression(left, h, "/"),
+						new MExpression(new MExpression(deepCopy(product._leftNode), right, "*"), new EExpression(h, new LiteralExpression(2), "^"), "/"), "-"));
+				}
+			} else if (node instanceof EExpression) {
+				final EExpression exponential = (EExpression) node;
+				final Expression right = pop(derivatives);
+				if (exponential._opr.equals("^")) {
+					final Expression left = pop(derivatives);
+					if (exponential._leftNode instanceof LiteralExpression && !(exponential._rightNode instanceof LiteralExpression)) {
+						// f'(x)= (log C) C^h(x)*h'(x)
+						final Expression c = deepCopy(exponential._leftNode);
+						derivatives.add(new MExpression(new MExpression(new EExpression(null, c, "log"),
+							new EExpression(c, deepCopy(exponential._rightNode), "^"), "*"), right, "*"));
+					} else if (exponential._rightNode instanceof LiteralExpression && !(exponential._leftNode instanceof LiteralExpression)) {
+						// f'(x) = C * g(x)^C-1 * g'(x)
+						final Expression c = deepCopy(exponential._rightNode);
+						final Expression power = new EExpression(deepCopy(exponential._leftNode), new SExpression(c, new LiteralExpression(1), "-"), "^");
+						derivatives.add(new MExpression(c, new MExpression(power, left, "*"), "*"));
+					} else {
+						derivatives.add(null);
+					}
+				} else {
+					// f'(x) = g'(x)/g(x)
+					derivatives.add(new MExpression(right, deepCopy(exponential._rightNode), "/"));
+				}
+			} else if (node instanceof PExpression) {
+				derivatives.add(new PExpression(pop(derivatives)));
+			} else {
+				derivatives.add(node.differentiate());
+			}
+		}
+		return derivatives.get(0);
+	}
+
+	private static Expression pop (ArrayList<Expression> stack) {
+		return stack.remove(stack.size() - 1);
+	}
+
+	/**
+	 * Returns the children of a node, left to right, some of which may be null.
+	 */
+	private static List<Expression> children (Expression node) {
+		if (node instanceof SExpression) {
+			return Arrays.asList(((SExpression) node)._leftNode, ((SExpression) node)._rightNode);
+		}
+		if (node instanceof MExpression) {
+			return Arrays.asList(((MExpression) node)._leftNode, ((MExpression) node)._rightNode);
+		}
+		if (node instanceof EExpression) {
+			final EExpression exponential = (EExpression) node;
+			return exponential._opr.equals("log") ? Arrays.asList(exponential._rightNode) : Arrays.asList(exponential._leftNode, exponential._rightNode);
+		}
+		if (node instanceof PExpression) {
+			return Arrays.asList(((PExpression) node)._node);
+		}
+		return Collections.emptyList();
+	}
+}
@@ -0,0 +1,274 @@
+import java.util.*;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A flattened form of an Expression tree: its nodes in post-order as an array of int instructions, with the
+ * literals in a separate constant pool. Evaluating it runs a small stack machine over a preallocated double[]
+ * stack, so there is no allocation, no virtual dispatch on the nodes and no String comparison per evaluation.
+ * Nodes that are not one of the known Expression classes are evaluated by calling their evaluate method.
+ * A variable's instruction holds its slot, so evaluate(double[]) loads it from the array of values.
+ * Because the stack is preallocated, an instance must not be used by several threads at once; use copy to get
+ * an instance for each thread.
+ */
+class LinearizedExpression implements DoubleUnaryOperator {
+	// Each instruction holds its opcode in the low OPCODE_BITS bits and its operand (if any) in the rest.
+	static final int OPCODE_BITS = 4, OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+	static final int CONSTANT = 0, VARIABLE = 1, ADD = 2, SUBTRACT = 3, MULTIPLY = 4, DIVIDE = 5, POWER = 6, LOG = 7, FALLBACK = 8;
+
+	final int[] _code;
+	final double[] _constants;
+	final Expression[] _fallbacks;
+	private final double[] _stack;
+
+	private LinearizedExpression (int[] code, double[] constants, Expression[] fallbacks, int maxStack) {
+		_code = code;
+		_constants = constants;
+		_fallbacks = fallbacks;
+		_stack = new double[maxStack];
+	}
+
+	/**
+	 * Flattens the given expression with a single post-order walk of its tree, which uses an explicit stack rather
+	 * than recursion, so trees of any depth can be flattened.
+	 * @param expression the expression to flatten
+	 * @return the linearized expression
+	 */
+	public static LinearizedExpression of (Expression expression) {
+		final Builder builder = new Builder();
+		final int maxStack = builder.add(expression);
+		return new LinearizedExpression(Arrays.copyOf(builder._code, builder._size), builder._constants.stream().mapToDouble(Double::doubleValue).toArray(),
+			builder._fallbacks.toArray(new Expression[0]), maxStack);
+	}
+
+	/**
+	 * Creates an instance that shares the instructions of this one but has its own stack, so it can be used by another thread.
+	 * @return the copy
+	 */
+	public LinearizedExpression copy () {
+		return new LinearizedExpression(_code, _constants, _fallbacks, _stack.length);
+	}
+
+	/**
+	 * Returns the most values on the stack at once while evaluating this expression.
+	 */
+	int maxStack () {
+		return _stack.length;
+	}
+
+	/**
+	 * Given the value of the independent variable x, compute the value of this expression.
+	 * @param x the value of the independent variable x
+	 * @return the value of this expression.
+	 */
+	public double evaluate (double x) {
+		final double[] stack = _stack;
+		int top = -1;
+		for (int instruction : _code) {
+			switch (instruction & OPCODE_MASK) {
+				case CONSTANT:
+					stack[++top] = _constants[instruction >>> OPCODE_BITS];
+					break;
+				case VARIABLE:
+					// Only x, in slot 0, is bound.
+					stack[++top] = instruction == VARIABLE ? x : Double.NaN;
+					break;
+				case ADD:
+					top--;
+					stack[top] = stack[top] + stack[top + 1];
+					break;
+				case SUBTRACT:
+					top--;
+					stack[top] = stack[top] - stack[top + 1];
+					break;
+				case MULTIPLY:
+					top--;
+					stack[top] = stack[top] * stack[top + 1];
+					break;
+				case DIVIDE:
+					top--;
+					stack[top] = stack[top] / stack[top + 1];
+					break;
+				case POWER:
+					top--;
+					stack[top] = Math.pow(stack[top], stack[top + 1]);
+					break;
+				case LOG:
+					stack[top] = Math.log(stack[top]);
+					break;
+				default:
+					stack[++top] = _fallbacks[instruction >>> OPCODE_BITS].evaluate(x);
+			}
+		}
+		return stack[0];
+	}
+
+	/**
+	 * Given the values of the variables, indexed by their slots, compute the value of this expression.
+	 * @param env the value of each variable
+	 * @return the value of this expression.
+	 */
+	public double evaluate (double[] env) {
+		final double[] stack = _stack;
+		int top = -1;
+		for (int instruction : _code) {
+			switch (instruction & OPCODE_MASK) {
+				case CONSTANT:
+					stack[++top] = _constants[instruction >>> OPCODE_BITS];
+					break;
+				case VARIABLE:
+					stack[++top] = env[instruction >>> OPCODE_BITS];
+					break;
+				case ADD:
+					top--;
+					stack[top] = stack[top] + stack[top + 1];
+					break;
+				case SUBTRACT:
+					top--;
+					stack[top] = stack[top] - stack[top + 1];
+					break;
+				case MULTIPLY:
+					top--;
+					stack[top] = stack[top] * stack[top + 1];
+					break;
+				case DIVIDE:
+					top--;
+					stack[top] = stack[top] / stack[top + 1];
+					break;
+				case POWER:
+					top--;
+					stack[top] = Math.pow(stack[top], stack[top + 1]);
+					break;
+				case LOG:
+					stack[top] = Math.log(stack[top]);
+					break;
+				default:
+					stack[++top] = _fallbacks[instruction >>> OPCODE_BITS].evaluate(env);
+			}
+		}
+		return stack[0];
+	}
+
+	public double applyAsDouble (double x) {
+		return evaluate(x);
+	}
+
+	/**
+	 * Evaluates this expression at every value in xs.
+	 * @param xs the values of the independent variable x
+	 * @param out the array receiving the value of this expression at each of xs; it must be at least as long as xs
+	 */
+	public void evaluateBatch (double[] xs, double[] out) {
+		for (int i = 0; i < xs.length; i++) {
+			out[i] = evaluate(xs[i]);
+		}
+	}
+
+	/**
+	 * Collects the instructions and constants while walking the tree.
+	 */
+	private static class Builder {
+		int[] _code = new int[16];
+		int _size;
+		final List<Double> _constants = new ArrayList<>();
+		final Map<Long, Integer> _constantIndices = new HashMap<>();
+		final List<Expression> _fallbacks = new ArrayList<>();
+
+		/**
+		 * Adds the instructions computing the given expression.
+		 * @return the most values on the stack at once while computing the expression
+		 */
+		int add (Expression expression) {
+			// The nodes still to walk, and after the operands of each operator, the opcode to emit once they are on the stack.
+			final List<Object> pending = new ArrayList<>();
+			pending.add(expression);
+			int depth = 0, maxDepth = 0;
+			while (!pending.isEmpty()) {
+				final Object next = pending.remove(pending.size() - 1);
+				if (next instanceof Integer) {
+					final int opcode = (Integer) next;
+					emit(opcode, 0);
+					if (opcode != LOG) {
+						// Binary operators replace their two operands by the result.
+						depth--;
+					}
+				} else if (!expand((Expression) next, pending)) {
+					maxDepth = Math.max(maxDepth, ++depth);
+				}
+			}
+			return maxDepth;
+		}
+
+		/**
+		 * Emits the instruction of a leaf, or schedules the operands and then the operator of an inner node.
+		 * @return whether the node was an inner node, which pushes nothing itself
+		 */
+		private boolean expand (Expression expression, List<Object> pending) {
+			if (expression instanceof LiteralExpression) {
+				final double value = ((LiteralExpression) expression)._value;
+				Integer index = _constantIndices.get(Double.doubleToRawLongBits(value));
+				if (index == null) {
+					index = _constants.size();
+					_constants.add(value);
+					_constantIndices.put(Double.doubleToRawLongBits(value), index);
+				}
+				emit(CONSTANT, index);
+				return false;
+			}
+			if (expression instanceof VariableExpression) {
+				emit(VARIABLE, ((VariableExpression) expression)._slot);
+				return false;
+			}
+			if (expression instanceof PExpression && ((PExpression) expression)._node != null) {
+				pending.add(((PExpression) expression)._node);
+				return true;
+			}
+			if (expression instanceof SExpression) {
+				final SExpression sum = (SExpression) expression;
+				if (sum._leftNode != null && sum._rightNode != null && sum._opr != null) {
+					return binary(sum._leftNode, sum._rightNode, sum._opr.equals("+") ? ADD : SUBTRACT, pending);
+				}
+			}
+			if (expression instanceof MExpression) {
+				final MExpression product = (MExpression) expression;
+				if (product._leftNode != null && product._rightNode != null && product._opr != null) {
+					return binary(product._leftNode, product._rightNode, product._opr.equals("*") ? MULTIPLY : DIVIDE, pending);
+				}
+			}
+			if (expression instanceof EExpression) {
+				final EExpression exponential = (EExpression) expression;
+				if (exponential._rightNode != null && exponential._opr != null) {
+					if (!exponential._opr.equals("^")) {
+						pending.add(LOG);
+						pending.add(exponential._rightNode);
+						return true;
+					}
+					if (exponential._leftNode != null) {
+						return binary(exponential._leftNode, exponential._rightNode, POWER, pending);
+					}
+				}
+			}
+
+			// Anything else is evaluated by the interpreter.
+			emit(FALLBACK, _fallbacks.size());
+			_fallbacks.add(expression);
+			return false;
+		}
+
+		/**
+		 * Schedules the left operand, then the right one, then the operator.
+		 */
+		private static boolean binary (Expression left, Expression right, int opcode, List<Object> pending) {
+			pending.add(opcode);
+			pending.add(right);
+			pending.add(left);
+			return true;
+		}
+
+		private void emit (int opcode, int operand) {
+			if (_size == _code.length) {
+				_code = Arrays.copyOf(_code, _size * 2);
+			}
+			_code[_size++] = operand << OPCODE_BITS | opcode;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import java.util.Arrays;
+
+/**
+ * Checks that LinearizedExpression flattens trees into the expected instructions, and that its evaluate,
+ * evaluateBatch and copies compute the same values as the tree.
+ */
+public class LinearizedExpressionTester {
+	private static final double[] XS = { 0, -0.0, 1, -1, 0.5, 2, -2.5, 3.75, 10, 1e-9, Double.NaN, Double.POSITIVE_INFINITY };
+
+	private ExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser(VariableScope.XY);
+	}
+
+	private static int opcode (int instruction) {
+		return instruction & LinearizedExpression.OPCODE_MASK;
+	}
+
+	@Test
+	/**
+	 * Verifies the instructions, constants and stack size of flattened trees.
+	 */
+	public void testOf () throws ExpressionParseException {
+		final LinearizedExpression sum = LinearizedExpression.of(_parser.parse("(x+2)*2"));
+		// Parentheses leave no instruction, and the constant 2 is stored once.
+		assertArrayEquals(new int[] { LinearizedExpression.VARIABLE, LinearizedExpression.CONSTANT, LinearizedExpression.ADD,
+			LinearizedExpression.CONSTANT, LinearizedExpression.MULTIPLY }, Arrays.stream(sum._code).map(LinearizedExpressionTester::opcode).toArray());
+		assertArrayEquals(new double[] { 2 }, sum._constants);
+		assertEquals(2, sum.maxStack());
+
+		// A chain to the left needs two values on the stack, one to the right as many as it has operands.
+		assertEquals(2, LinearizedExpression.of(_parser.parse("x+x+x+x")).maxStack());
+		assertEquals(4, LinearizedExpression.of(_parser.parse("x+(x+(x+x))")).maxStack());
+		final LinearizedExpression y = LinearizedExpression.of(_parser.parse("log(y)"));
+		assertEquals(1 << LinearizedExpression.OPCODE_BITS | LinearizedExpression.VARIABLE, y._code[0]);
+		assertEquals(LinearizedExpression.LOG, opcode(y._code[1]));
+
+		// The derivative of x^x is missing, so the product is left to the interpreter.
+		final Expression incomplete = _parser.parse("2*x^x").differentiate();
+		final LinearizedExpression fallback = LinearizedExpression.of(incomplete);
+		assertTrue(fallback._fallbacks.length > 0);
+		assertTrue(Arrays.stream(fallback._code).anyMatch(instruction -> opcode(instruction) == LinearizedExpression.FALLBACK));
+	}
+
+	@Test
+	/**
+	 * Verifies that evaluate and evaluateBatch give bit for bit the values of the tree, for x alone and for
+	 * several variables.
+	 */
+	public void testEvaluate () throws ExpressionParseException {
+		for (String str : new String[] { "13", "2*x+5*x*x", "10*x^3 + 2*(15+x)", "1./(1. + 5^(-1*x))", "log(x)*2-log2", "-0.0*x", "x/x", "NaN+x" }) {
+			final Expression expression = _parser.parse(str);
+			for (Expression tree : new Expression[] { expression, expression.differentiate() }) {
+				final LinearizedExpression linearized = LinearizedExpression.of(tree);
+				final double[] batch = new double[XS.length];
+				linearized.evaluateBatch(XS, batch);
+				for (int i = 0; i < XS.length; i++) {
+					final long expected = Double.doubleToLongBits(tree.evaluate(XS[i]));
+					assertEquals(expected, Double.doubleToLongBits(linearized.evaluate(XS[i])), str + " at " + XS[i]);
+					assertEquals(expected, Double.doubleToLongBits(linearized.applyAsDouble(XS[i])), str + " at " + XS[i]);
+					assertEquals(expected, Double.doubleToLongBits(batch[i]), str + " at " + XS[i]);
+				}
+			}
+		}
+		final Expression expression = _parser.parse("x*y - y^2/(x+1)");
+		final LinearizedExpression linearized = LinearizedExpression.of(expression);
+		for (double x : XS) {
+			for (double y : XS) {
+				final double[] env = { x, y };
+				assertEquals(Double.doubleToLongBits(expression.evaluate(env)), Double.doubleToLongBits(linearized.evaluate(env)), x + ", " + y);
+			}
+		}
+		// Variables other than x are undefined when only x is given.
+		assertTrue(Double.isNaN(linearized.evaluate(2)));
+	}
+
+	@Test
+	/**
+	 * Verifies that a copy shares the instructions but not the stack, so copies can be used at the same time.
+	 */
+	public void testCopy () throws ExpressionParseException, InterruptedException {
+		final Expression expression = _parser.parse("(x-1)*(x+1)/(x*x+1) - 3*x/7");
+		final LinearizedExpression linearized = LinearizedExpression.of(expression);
+		final LinearizedExpression copy = linearized.copy();
+		assertNotSame(linearized, copy);
+		assertSame(linearized._code, copy._code);
+		assertEquals(linearized.maxStack(), copy.maxStack());
+
+		final int threads = 4;
+		final Thread[] workers = new Thread[threads];
+		final boolean[] correct = new boolean[threads];
+		for (int t = 0; t < threads; t++) {
+			final LinearizedExpression own = t == 0 ? linearized : linearized.copy();
+			final int index = t;
+			workers[t] = new Thread(() -> {
+				boolean ok = true;
+				for (int i = 0; i < 100000; i++) {
+					final double x = (i + index) * 1e-3;
+					ok &= Double.doubleToLongBits(own.evaluate(x)) == Double.doubleToLongBits(expression.evaluate(x));
+				}
+				correct[index] = ok;
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertArrayEquals(new boolean[] { true, true, true, true }, correct);
+	}
+}
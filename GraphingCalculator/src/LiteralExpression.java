@@ -1,3 +1,4 @@
+import java.util.Arrays;
 
 public class LiteralExpression implements Expression {
 	
@@ -39,6 +40,34 @@ public class LiteralExpression implements Expression {
 		return _value;
 	}
 
+	/**
+	 * Given the values of the variables, indexed by their slots, compute the value of this Literal expression.
+	 * @param env the value of each variable
+	 * @return the value of this expression.
+	 */
+	public double evaluate (double[] env) {
+		return _value;
+	}
+
+	/**
+	 * Given an array of values of the independent variable x, compute the value of this Literal expression at each of them.
+	 * @param xs the values of the independent variable x
+	 * @param out receives the value of this expression at each of xs
+	 */
+	public void evaluateBatch (double[] xs, double[] out) {
+		Arrays.fill(out, 0, xs.length, _value);
+	}
+
+	/**
+	 * Given a range of the independent variable x, compute a range enclosing every value of this Literal expression over it.
+	 * @param lo the smallest value of x
+	 * @param hi the largest value of x
+	 * @return the range of the values of this expression
+	 */
+	public Interval evaluateInterval (double lo, double hi) {
+		return Interval.point(_value);
+	}
+
 	/**
 	 * Produce a new, fully independent (i.e., there should be no shared subtrees) Multiplication Expression
 	 * representing the derivative of this expression.
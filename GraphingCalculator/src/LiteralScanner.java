@@ -0,0 +1,141 @@
+/**
+ * A hand-written scanner for floating-point literals, accepting exactly the syntax of Double.parseDouble
+ * (NaN, Infinity, decimal and hexadecimal floats with optional exponent and f/d suffix). It works on a
+ * range of a string, so no substrings or regular expressions are needed to decide whether a range is a literal.
+ */
+class LiteralScanner {
+	private LiteralScanner () {
+	}
+
+	/**
+	 * Parses the range [start, end) of the given string as a literal, allowing leading and trailing
+	 * whitespace (characters up to '\u0020') the same way Double.parseDouble does.
+	 * @param str the string containing the literal
+	 * @param start the start of the range (inclusive)
+	 * @param end the end of the range (exclusive)
+	 * @return the LiteralExpression, or null if the range is not a literal
+	 */
+	public static LiteralExpression parse (String str, int start, int end) {
+		if (!matches(str, start, end)) {
+			return null;
+		}
+		return new LiteralExpression(Double.parseDouble(str.substring(start, end)));
+	}
+
+	/**
+	 * Checks whether the range [start, end) of the given string is a literal, allowing leading and trailing
+	 * whitespace (characters up to '\u0020') the same way Double.parseDouble does.
+	 * @param str the string to check
+	 * @param start the start of the range (inclusive)
+	 * @param end the end of the range (exclusive)
+	 * @return whether the range is a literal
+	 */
+	public static boolean matches (String str, int start, int end) {
+		while (start < end && str.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && str.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return start < end && scan(str, start, end) == end;
+	}
+
+	/**
+	 * Finds the longest floating-point literal (in the syntax accepted by Double.parseDouble, without surrounding
+	 * whitespace) that starts at index start of the given string.
+	 * @param str the string to scan
+	 * @param start the index at which the literal would start
+	 * @param end the index at which scanning stops
+	 * @return the index just past the literal, or start if there is no literal there
+	 */
+	public static int scan (String str, int start, int end) {
+		int i = start;
+		if (i < end && (str.charAt(i) == '+' || str.charAt(i) == '-')) {
+			i++;
+		}
+		if (end - i >= 3 && str.startsWith("NaN", i)) {
+			return i + 3;
+		}
+		if (end - i >= 8 && str.startsWith("Infinity", i)) {
+			return i + 8;
+		}
+
+		// 0[xX] HexDigits ._opt BinaryExponent FloatTypeSuffix_opt
+		// 0[xX] HexDigits_opt . HexDigits BinaryExponent FloatTypeSuffix_opt
+		if (i + 1 < end && str.charAt(i) == '0' && (str.charAt(i + 1) == 'x' || str.charAt(i + 1) == 'X')) {
+			int j = scanHexDigits(str, i + 2, end);
+			boolean hasDigits = j > i + 2;
+			if (j < end && str.charAt(j) == '.') {
+				final int afterPoint = scanHexDigits(str, j + 1, end);
+				hasDigits |= afterPoint > j + 1;
+				j = afterPoint;
+			}
+			if (hasDigits && j < end && (str.charAt(j) == 'p' || str.charAt(j) == 'P')) {
+				final int afterExponent = scanExponent(str, j, end);
+				if (afterExponent > 0) {
+					return scanSuffix(str, afterExponent, end);
+				}
+			}
+			// Not a hexadecimal literal, but the leading 0 is still a decimal one.
+		}
+
+		// Digits ._opt Digits_opt ExponentPart_opt FloatTypeSuffix_opt
+		// . Digits ExponentPart_opt FloatTypeSuffix_opt
+		int j = scanDigits(str, i, end);
+		if (j > i) {
+			if (j < end && str.charAt(j) == '.') {
+				j = scanDigits(str, j + 1, end);
+			}
+		} else if (j < end && str.charAt(j) == '.' && scanDigits(str, j + 1, end) > j + 1) {
+			j = scanDigits(str, j + 1, end);
+		} else {
+			return start;
+		}
+		if (j < end && (str.charAt(j) == 'e' || str.charAt(j) == 'E')) {
+			final int afterExponent = scanExponent(str, j, end);
+			if (afterExponent > 0) {
+				j = afterExponent;
+			}
+		}
+		return scanSuffix(str, j, end);
+	}
+
+	/**
+	 * Scans an exponent marker at index start followed by an optionally signed decimal integer.
+	 * @return the index just past the exponent, or -1 if there are no exponent digits
+	 */
+	private static int scanExponent (String str, int start, int end) {
+		int i = start + 1;
+		if (i < end && (str.charAt(i) == '+' || str.charAt(i) == '-')) {
+			i++;
+		}
+		final int j = scanDigits(str, i, end);
+		return j > i ? j : -1;
+	}
+
+	private static int scanDigits (String str, int start, int end) {
+		int i = start;
+		while (i < end && str.charAt(i) >= '0' && str.charAt(i) <= '9') {
+			i++;
+		}
+		return i;
+	}
+
+	private static int scanHexDigits (String str, int start, int end) {
+		int i = start;
+		while (i < end && (str.charAt(i) >= '0' && str.charAt(i) <= '9' || str.charAt(i) >= 'a' && str.charAt(i) <= 'f' || str.charAt(i) >= 'A' && str.charAt(i) <= 'F')) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int scanSuffix (String str, int start, int end) {
+		if (start < end) {
+			final char c = str.charAt(start);
+			if (c == 'f' || c == 'F' || c == 'd' || c == 'D') {
+				return start + 1;
+			}
+		}
+		return start;
+	}
+}
@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import java.util.*;
+
+/**
+ * Differential tests of LiteralScanner against Double.parseDouble and the regular expression that
+ * SimpleExpressionParser.parseL used to match literals with.
+ */
+public class LiteralScannerTester {
+	// From https://stackoverflow.com/questions/3543729/how-to-check-that-a-string-is-parseable-to-a-double/22936891:
+	private static final String Digits = "(\\p{Digit}+)";
+	private static final String HexDigits = "(\\p{XDigit}+)";
+	private static final String Exp = "[eE][+-]?" + Digits;
+	private static final String fpRegex =
+		("[\\x00-\\x20]*" + "[+-]?(" + "NaN|" + "Infinity|" +
+		"(((" + Digits + "(\\.)?(" + Digits + "?)(" + Exp + ")?)|" +
+		"(\\.(" + Digits + ")(" + Exp + ")?)|" +
+		"((" + "(0[xX]" + HexDigits + "(\\.)?)|" + "(0[xX]" + HexDigits + "?(\\.)" + HexDigits + ")" + ")[pP][+-]?" + Digits + "))" +
+		"[fFdD]?))" + "[\\x00-\\x20]*");
+
+	// Pieces that random literals are glued together from; most combinations are invalid, many are not.
+	private static final String[] PIECES = {
+		"0", "1", "7", "42", "09", ".", "e", "E", "p", "P", "+", "-", "x", "X", "0x", "0X", "a", "F", "f", "d", "D",
+		"NaN", "Infinity", "Na", "Inf", " ", "\t", "1.5", "e-3", "p+2", "x1", "_", "1e", "b"
+	};
+
+	private static boolean parsesAsDouble (String str) {
+		try {
+			Double.parseDouble(str);
+			return true;
+		} catch (NumberFormatException nfe) {
+			return false;
+		}
+	}
+
+	private static String randomLiteral (Random random) {
+		final StringBuilder str = new StringBuilder();
+		final int pieces = 1 + random.nextInt(6);
+		for (int i = 0; i < pieces; i++) {
+			str.append(PIECES[random.nextInt(PIECES.length)]);
+		}
+		return str.toString();
+	}
+
+	@Test
+	/**
+	 * Verifies that the scanner accepts exactly the strings Double.parseDouble accepts, and produces the same value.
+	 */
+	public void testAgainstParseDouble () {
+		final Random random = new Random(0);
+		int accepted = 0;
+		for (int i = 0; i < 200000; i++) {
+			final String str = randomLiteral(random);
+			final LiteralExpression literal = LiteralScanner.parse(str, 0, str.length());
+			assertEquals(parsesAsDouble(str), literal != null, str);
+			assertEquals(str.matches(fpRegex), literal != null, str);
+			if (literal != null) {
+				assertEquals(Double.doubleToLongBits(Double.parseDouble(str)), Double.doubleToLongBits(literal.evaluate(0)), str);
+				accepted++;
+			}
+		}
+		// Make sure the corpus actually exercises the accepting paths.
+		assertTrue(accepted > 10000);
+	}
+
+	@Test
+	/**
+	 * Verifies that the scanner agrees with Double.parseDouble on the printed form of random doubles.
+	 */
+	public void testRandomDoubles () {
+		final Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			final double value = Double.longBitsToDouble(random.nextLong());
+			if (!Double.isFinite(value)) {
+				continue;
+			}
+			for (String str : new String[] { Double.toString(value), Double.toHexString(value), Double.toString(value) + "d" }) {
+				final LiteralExpression literal = LiteralScanner.parse(str, 0, str.length());
+				assertNotNull(literal, str);
+				assertEquals(Double.doubleToLongBits(Double.parseDouble(str)), Double.doubleToLongBits(literal.evaluate(0)), str);
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that scanning stops at the end of the longest literal, and respects the end of the range.
+	 */
+	public void testScan () {
+		assertEquals(4, LiteralScanner.scan("1e-5-x", 0, 6));
+		assertEquals(1, LiteralScanner.scan("1e-x", 0, 4));
+		assertEquals(5, LiteralScanner.scan("0x1p3x", 0, 6));
+		assertEquals(1, LiteralScanner.scan("0x1", 0, 3));
+		assertEquals(2, LiteralScanner.scan("1d-5", 0, 4));
+		assertEquals(0, LiteralScanner.scan("NaN", 0, 2));
+		assertEquals(4, LiteralScanner.scan("-NaN", 0, 4));
+		assertEquals(3, LiteralScanner.scan("x+2", 1, 3));
+	}
+}
@@ -0,0 +1,353 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+import jdk.jfr.*;
+
+/**
+ * Opt-in counters of where the time goes: parsing, differentiating and sampling. Run with
+ * -DgraphingCalculator.metrics=true to enable them. Instrumented code checks ENABLED before measuring anything;
+ * as a static final field it is a constant to the JIT, which removes the disabled branches entirely, so the
+ * instrumentation costs nothing unless it is enabled.
+ * Every measurement is
+ * <ul>
+ * <li>added to the counters and latency histograms here, which can be read through JMX (see MetricsMXBean) and are
+ * shown by GraphingCalculator in an overlay;</li>
+ * <li>committed as a JDK Flight Recorder event (graphingcalculator.Parse, graphingcalculator.Differentiate and
+ * graphingcalculator.Sample) if a recording with those events enabled is running.</li>
+ * </ul>
+ * All methods can be called from any thread.
+ */
+final class Metrics implements MetricsMXBean {
+	protected static final boolean ENABLED = Boolean.getBoolean("graphingCalculator.metrics");
+	// The name the MXBean is registered under.
+	protected static final String OBJECT_NAME = "graphingcalculator:type=Metrics";
+
+	private static final Metrics INSTANCE = new Metrics();
+
+	private final LongAdder _parses = new LongAdder(), _parseNanos = new LongAdder();
+	// Parses by SimpleExpressionParser, and the parseHelper splits and parseL calls they made.
+	private final LongAdder _backtrackingParses = new LongAdder(), _splitAttempts = new LongAdder(), _literalCalls = new LongAdder();
+	private final LongAdder _differentiations = new LongAdder(), _nodesBefore = new LongAdder(), _nodesAfter = new LongAdder();
+	private final LongAdder _evaluations = new LongAdder(), _sampleNanos = new LongAdder();
+	private final LatencyHistogram _parseLatency = new LatencyHistogram(), _sampleLatency = new LatencyHistogram();
+
+	static {
+		if (ENABLED) {
+			registerMBean();
+		}
+	}
+
+	private Metrics () {
+	}
+
+	/**
+	 * Returns the counters everything is recorded in.
+	 */
+	static Metrics get () {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the counters on the platform MBeanServer, unless they already are.
+	 */
+	static void registerMBean () {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(INSTANCE, name);
+			}
+		} catch (InstanceAlreadyExistsException iaee) {
+			// Registered by another thread in the meantime.
+		} catch (JMException jme) {
+			System.err.println("Cannot register the metrics MBean: " + jme);
+		}
+	}
+
+	/**
+	 * Records a parse.
+	 * @param parser the simple name of the parser's class
+	 * @param length the length of the parsed text
+	 * @param startNanos the value of System.nanoTime() when parsing started
+	 * @param splitAttempts the number of times a backtracking parser split a range at an operator, or -1 for other parsers
+	 * @param literalCalls the number of times a backtracking parser tried to parse a range as a literal, or -1 for other parsers
+	 * @param succeeded whether the text could be parsed
+	 */
+	static void parsed (String parser, int length, long startNanos, int splitAttempts, int literalCalls, boolean succeeded) {
+		final long nanos = System.nanoTime() - startNanos;
+		INSTANCE._parses.increment();
+		INSTANCE._parseNanos.add(nanos);
+		INSTANCE._parseLatency.record(nanos);
+		if (splitAttempts >= 0) {
+			INSTANCE._backtrackingParses.increment();
+			INSTANCE._splitAttempts.add(splitAttempts);
+			INSTANCE._literalCalls.add(literalCalls);
+		}
+
+		final ParseEvent event = new ParseEvent();
+		if (event.shouldCommit()) {
+			event.parser = parser;
+			event.length = length;
+			event.time = nanos;
+			event.splitAttempts = splitAttempts;
+			event.literalCalls = literalCalls;
+			event.succeeded = succeeded;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Parses a string with a parser that has no counters of its own, and records the parse.
+	 * @param parser the simple name of the parser's class
+	 * @param str the string to parse
+	 * @param parse does the parsing
+	 * @return the parsed expression
+	 * @throws ExpressionParseException if the string can't be parsed
+	 */
+	static Expression timeParse (String parser, String str, ExpressionParser parse) throws ExpressionParseException {
+		final long start = System.nanoTime();
+		boolean succeeded = false;
+		try {
+			final Expression expression = parse.parse(str);
+			succeeded = true;
+			return expression;
+		} finally {
+			parsed(parser, str.length(), start, -1, -1, succeeded);
+		}
+	}
+
+	/**
+	 * Records a symbolic differentiation.
+	 * @param order the order of the derivative computed
+	 * @param nodesBefore the number of nodes of the tree that was differentiated
+	 * @param nodesAfter the number of nodes of its derivative
+	 * @param startNanos the value of System.nanoTime() when differentiating started
+	 */
+	static void differentiated (int order, int nodesBefore, int nodesAfter, long startNanos) {
+		final long nanos = System.nanoTime() - startNanos;
+		INSTANCE._differentiations.increment();
+		INSTANCE._nodesBefore.add(nodesBefore);
+		INSTANCE._nodesAfter.add(nodesAfter);
+
+		final DifferentiateEvent event = new DifferentiateEvent();
+		if (event.shouldCommit()) {
+			event.order = order;
+			event.nodesBefore = nodesBefore;
+			event.nodesAfter = nodesAfter;
+			event.time = nanos;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records the sampling of a curve.
+	 * @param sampler the simple name of the sampler's class
+	 * @param evaluations the number of points sampled
+	 * @param startNanos the value of System.nanoTime() when sampling started
+	 */
+	static void sampled (String sampler, int evaluations, long startNanos) {
+		final long nanos = System.nanoTime() - startNanos;
+		INSTANCE._evaluations.add(evaluations);
+		INSTANCE._sampleNanos.add(nanos);
+		INSTANCE._sampleLatency.record(nanos);
+
+		final SampleEvent event = new SampleEvent();
+		if (event.shouldCommit()) {
+			event.sampler = sampler;
+			event.evaluations = evaluations;
+			event.time = nanos;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Returns a few lines summing up the counters, as shown in the overlay.
+	 */
+	String summary () {
+		return String.format("parse: %d, mean %.1f us, p99 %.0f us, %.1f splits and %.1f parseL calls per parse%n"
+			+ "differentiate: %d, %.1f -> %.1f nodes%n"
+			+ "sample: %.2f M evaluations/s, p50 %.0f us, p99 %.0f us",
+			getParseCount(), getMeanParseMicros(), getParseP99Micros(), getSplitAttemptsPerParse(), getLiteralCallsPerParse(),
+			getDifferentiationCount(), getMeanNodesBeforeDifferentiation(), getMeanNodesAfterDifferentiation(),
+			getEvaluationsPerSecond() / 1e6, getSampleP50Micros(), getSampleP99Micros());
+	}
+
+	public long getParseCount () {
+		return _parses.sum();
+	}
+
+	public double getMeanParseMicros () {
+		return ratio(_parseNanos.sum() / 1e3, _parses.sum());
+	}
+
+	public double getParseP99Micros () {
+		return _parseLatency.percentile(0.99) / 1e3;
+	}
+
+	public double getSplitAttemptsPerParse () {
+		return ratio(_splitAttempts.sum(), _backtrackingParses.sum());
+	}
+
+	public double getLiteralCallsPerParse () {
+		return ratio(_literalCalls.sum(), _backtrackingParses.sum());
+	}
+
+	public long getDifferentiationCount () {
+		return _differentiations.sum();
+	}
+
+	public double getMeanNodesBeforeDifferentiation () {
+		return ratio(_nodesBefore.sum(), _differentiations.sum());
+	}
+
+	public double getMeanNodesAfterDifferentiation () {
+		return ratio(_nodesAfter.sum(), _differentiations.sum());
+	}
+
+	public long getEvaluationCount () {
+		return _evaluations.sum();
+	}
+
+	public double getEvaluationsPerSecond () {
+		return ratio(_evaluations.sum() * 1e9, _sampleNanos.sum());
+	}
+
+	public double getSampleP50Micros () {
+		return _sampleLatency.percentile(0.5) / 1e3;
+	}
+
+	public double getSampleP99Micros () {
+		return _sampleLatency.percentile(0.99) / 1e3;
+	}
+
+	public void reset () {
+		for (LongAdder adder : new LongAdder[] { _parses, _parseNanos, _backtrackingParses, _splitAttempts, _literalCalls, _differentiations,
+				_nodesBefore, _nodesAfter, _evaluations, _sampleNanos }) {
+			adder.reset();
+		}
+		_parseLatency.reset();
+		_sampleLatency.reset();
+	}
+
+	private static double ratio (double total, double count) {
+		return count == 0 ? 0 : total / count;
+	}
+
+	/**
+	 * Counts durations in buckets whose width grows with their bounds: four per power of two, so a percentile is
+	 * overestimated by at most 25%.
+	 */
+	static final class LatencyHistogram {
+		// The number of bits of a duration below its leading one that select the bucket within its power of two.
+		private static final int SUB_BUCKET_BITS = 2;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		private final AtomicLongArray _counts = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+
+		/**
+		 * Returns the bucket of a duration.
+		 */
+		static int bucket (long nanos) {
+			if (nanos < SUB_BUCKETS) {
+				return (int) Math.max(nanos, 0);
+			}
+			final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+			final int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+		}
+
+		/**
+		 * Returns the smallest duration in a bucket.
+		 */
+		static long lowerBound (int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+			return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		}
+
+		void record (long nanos) {
+			_counts.incrementAndGet(bucket(nanos));
+		}
+
+		/**
+		 * Returns the upper bound of the bucket holding the given fraction of the durations, or 0 if none have been recorded.
+		 * @param fraction the percentile, between 0 and 1
+		 */
+		double percentile (double fraction) {
+			long total = 0;
+			for (int i = 0; i < _counts.length(); i++) {
+				total += _counts.get(i);
+			}
+			if (total == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1, (long) Math.ceil(fraction * total));
+			long seen = 0;
+			for (int i = 0; i < _counts.length(); i++) {
+				seen += _counts.get(i);
+				if (seen >= rank) {
+					return i + 1 < _counts.length() ? lowerBound(i + 1) : Long.MAX_VALUE;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		void reset () {
+			for (int i = 0; i < _counts.length(); i++) {
+				_counts.set(i, 0);
+			}
+		}
+	}
+
+	@Name("graphingcalculator.Parse")
+	@Label("Parse")
+	@Category("Graphing Calculator")
+	@StackTrace(false)
+	static class ParseEvent extends Event {
+		@Label("Parser")
+		String parser;
+		@Label("Text Length")
+		int length;
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+		@Label("Split Attempts")
+		int splitAttempts;
+		@Label("Literal Calls")
+		int literalCalls;
+		@Label("Succeeded")
+		boolean succeeded;
+	}
+
+	@Name("graphingcalculator.Differentiate")
+	@Label("Differentiate")
+	@Category("Graphing Calculator")
+	@StackTrace(false)
+	static class DifferentiateEvent extends Event {
+		@Label("Order")
+		int order;
+		@Label("Nodes Before")
+		int nodesBefore;
+		@Label("Nodes After")
+		int nodesAfter;
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+	}
+
+	@Name("graphingcalculator.Sample")
+	@Label("Sample")
+	@Category("Graphing Calculator")
+	@StackTrace(false)
+	static class SampleEvent extends Event {
+		@Label("Sampler")
+		String sampler;
+		@Label("Evaluations")
+		int evaluations;
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+	}
+}
@@ -0,0 +1,43 @@
+/**
+ * The management interface of Metrics, registered as graphingcalculator:type=Metrics on the platform MBeanServer
+ * when metrics are enabled. It has to be public for JMX to introspect it.
+ */
+public interface MetricsMXBean {
+	long getParseCount ();
+
+	double getMeanParseMicros ();
+
+	double getParseP99Micros ();
+
+	/**
+	 * Returns the mean number of times SimpleExpressionParser.parseHelper split a range at an operator per parse.
+	 */
+	double getSplitAttemptsPerParse ();
+
+	/**
+	 * Returns the mean number of SimpleExpressionParser.parseL calls per parse.
+	 */
+	double getLiteralCallsPerParse ();
+
+	long getDifferentiationCount ();
+
+	double getMeanNodesBeforeDifferentiation ();
+
+	double getMeanNodesAfterDifferentiation ();
+
+	long getEvaluationCount ();
+
+	/**
+	 * Returns the number of evaluations per second spent sampling.
+	 */
+	double getEvaluationsPerSecond ();
+
+	double getSampleP50Micros ();
+
+	double getSampleP99Micros ();
+
+	/**
+	 * Sets all counters back to zero.
+	 */
+	void reset ();
+}
@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.*;
+import javax.management.*;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.*;
+
+/**
+ * Checks the counters and histograms of Metrics and the ways they are exposed: JMX and Flight Recorder events.
+ * The recording methods are called directly, since metrics are disabled while testing.
+ */
+public class MetricsTester {
+	@TempDir
+	Path _directory;
+
+	@BeforeEach
+	/**
+	 * Clears the counters
+	 */
+	public void setUp () {
+		Metrics.get().reset();
+	}
+
+	@Test
+	/**
+	 * Verifies that every duration falls in the bucket whose bounds enclose it, and that bounds are at most 25% apart.
+	 */
+	public void testHistogramBuckets () {
+		for (long nanos : new long[] { 0, 1, 3, 4, 5, 7, 8, 9, 1000, 123456789, 1L << 40, (1L << 40) - 1, Long.MAX_VALUE / 3, Long.MAX_VALUE }) {
+			final int bucket = Metrics.LatencyHistogram.bucket(nanos);
+			assertTrue(Metrics.LatencyHistogram.lowerBound(bucket) <= nanos, "" + nanos);
+			if (nanos < Long.MAX_VALUE / 2) {
+				assertTrue(Metrics.LatencyHistogram.lowerBound(bucket + 1) > nanos, "" + nanos);
+			}
+		}
+		for (int bucket = 8; bucket < 200; bucket++) {
+			assertTrue(Metrics.LatencyHistogram.lowerBound(bucket + 1) <= 1.25 * Metrics.LatencyHistogram.lowerBound(bucket), "" + bucket);
+		}
+
+		final Metrics.LatencyHistogram histogram = new Metrics.LatencyHistogram();
+		assertEquals(0, histogram.percentile(0.5));
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(50000, histogram.percentile(0.5), 0.25 * 50000);
+		assertTrue(histogram.percentile(0.5) >= 50000);
+		assertEquals(99000, histogram.percentile(0.99), 0.25 * 99000);
+		assertTrue(histogram.percentile(1) >= 100000);
+	}
+
+	@Test
+	/**
+	 * Verifies the counters and their ratios, as read through the platform MBeanServer.
+	 */
+	public void testMBean () throws JMException {
+		Metrics.parsed("SimpleExpressionParser", 10, System.nanoTime(), 30, 12, true);
+		Metrics.parsed("SimpleExpressionParser", 10, System.nanoTime(), 10, 4, false);
+		Metrics.parsed("TokenizingExpressionParser", 10, System.nanoTime(), -1, -1, true);
+		Metrics.differentiated(1, 5, 9, System.nanoTime());
+		Metrics.differentiated(2, 9, 21, System.nanoTime());
+		Metrics.sampled("ParallelSampler", 2001, System.nanoTime() - 1000000);
+
+		Metrics.registerMBean();
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+		assertEquals(3L, server.getAttribute(name, "ParseCount"));
+		assertEquals(20.0, server.getAttribute(name, "SplitAttemptsPerParse"));
+		assertEquals(8.0, server.getAttribute(name, "LiteralCallsPerParse"));
+		assertEquals(2L, server.getAttribute(name, "DifferentiationCount"));
+		assertEquals(7.0, server.getAttribute(name, "MeanNodesBeforeDifferentiation"));
+		assertEquals(15.0, server.getAttribute(name, "MeanNodesAfterDifferentiation"));
+		assertEquals(2001L, server.getAttribute(name, "EvaluationCount"));
+		// 2001 evaluations in at least 1 ms.
+		final double rate = (Double) server.getAttribute(name, "EvaluationsPerSecond");
+		assertTrue(rate > 0 && rate <= 2001e3, "" + rate);
+		assertTrue((Double) server.getAttribute(name, "SampleP50Micros") >= 1000);
+
+		server.invoke(name, "reset", null, null);
+		assertEquals(0L, server.getAttribute(name, "ParseCount"));
+		assertEquals(0.0, server.getAttribute(name, "SampleP99Micros"));
+		assertTrue(Metrics.get().summary().startsWith("parse: 0,"));
+	}
+
+	@Test
+	/**
+	 * Verifies that every measurement is committed as a Flight Recorder event while a recording runs.
+	 */
+	public void testFlightRecorderEvents () throws Exception {
+		final Path file = _directory.resolve("metrics.jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("graphingcalculator.Parse");
+			recording.enable("graphingcalculator.Differentiate");
+			recording.enable("graphingcalculator.Sample");
+			recording.start();
+			Metrics.parsed("SimpleExpressionParser", 7, System.nanoTime(), 3, 2, true);
+			Metrics.differentiated(1, 5, 9, System.nanoTime());
+			Metrics.sampled("AdaptiveSampler", 800, System.nanoTime());
+			recording.stop();
+			recording.dump(file);
+		}
+
+		final Map<String, RecordedEvent> events = new HashMap<>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+			events.put(event.getEventType().getName(), event);
+		}
+		assertEquals("SimpleExpressionParser", events.get("graphingcalculator.Parse").getString("parser"));
+		assertEquals(3, events.get("graphingcalculator.Parse").getInt("splitAttempts"));
+		assertTrue(events.get("graphingcalculator.Parse").getBoolean("succeeded"));
+		assertEquals(9, events.get("graphingcalculator.Differentiate").getInt("nodesAfter"));
+		assertEquals(800, events.get("graphingcalculator.Sample").getInt("evaluations"));
+	}
+}
@@ -0,0 +1,138 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * Checks parsing and evaluating expressions of several named variables, GridEvaluator and ContourExtractor.
+ */
+public class MultivariableTester {
+	private static final VariableScope SCOPE = new VariableScope("x", "y", "t_0", "rate");
+	private static final String[] EXPRESSIONS = { "x*y", "x^2 + y^2", "rate*(1+t_0)^y", "log(x*y) - y/x", "(x - y)*(x + y)/(rate + 1)", "2*t_0^-1", "x" };
+
+	private ExpressionParser _parser;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parser
+	 */
+	public void setUp () {
+		_parser = new TokenizingExpressionParser(SCOPE);
+	}
+
+	@Test
+	/**
+	 * Verifies that all parsers build the same trees, and evaluate them with the variables bound by slot.
+	 */
+	public void testParseAndEvaluate () throws ExpressionParseException {
+		final ExpressionParser[] parsers = { new SimpleExpressionParser(SCOPE, false), new SimpleExpressionParser(SCOPE, true), new IncrementalExpressionParser(SCOPE) };
+		final double[] env = { 1.5, -2.25, 0.75, 3 };
+		for (String expressionStr : EXPRESSIONS) {
+			final Expression expression = _parser.parse(expressionStr);
+			for (ExpressionParser parser : parsers) {
+				assertEquals(expression.convertToString(0), parser.parse(expressionStr).convertToString(0), expressionStr);
+			}
+			final double expected = expected(expressionStr, env[0], env[1], env[2], env[3]);
+			assertEquals(expected, expression.evaluate(env), 1e-12, expressionStr);
+			assertEquals(expected, expression.deepCopy().evaluate(env), 1e-12, expressionStr);
+			assertEquals(Double.doubleToLongBits(expression.evaluate(env)), Double.doubleToLongBits(LinearizedExpression.of(expression).evaluate(env)), expressionStr);
+		}
+		assertEquals("y\n", _parser.parse("y").convertToString(0));
+	}
+
+	private static double expected (String expressionStr, double x, double y, double t, double rate) {
+		switch (expressionStr) {
+			case "x*y": return x * y;
+			case "x^2 + y^2": return x * x + y * y;
+			case "rate*(1+t_0)^y": return rate * Math.pow(1 + t, y);
+			case "log(x*y) - y/x": return Math.log(x * y) - y / x;
+			case "(x - y)*(x + y)/(rate + 1)": return (x - y) * (x + y) / (rate + 1);
+			case "2*t_0^-1": return 2 / t;
+			default: return x;
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that only the variables of the scope are accepted, and that x alone is the default.
+	 */
+	public void testScope () {
+		for (String expressionStr : new String[] { "z", "x*z", "xy", "ratex", "2y", "y2+1" }) {
+			assertThrows(ExpressionParseException.class, () -> _parser.parse(expressionStr), expressionStr);
+			assertThrows(ExpressionParseException.class, () -> new SimpleExpressionParser(SCOPE, false).parse(expressionStr), expressionStr);
+		}
+		assertThrows(ExpressionParseException.class, () -> new TokenizingExpressionParser().parse("x*y"));
+		assertThrows(ExpressionParseException.class, () -> new SimpleExpressionParser().parse("x*y"));
+		for (String name : new String[] { "", "2x", "logx", "NaNa", "Infinity", "a-b", "x y" }) {
+			assertThrows(IllegalArgumentException.class, () -> new VariableScope(name), name);
+		}
+		assertThrows(IllegalArgumentException.class, () -> new VariableScope("a", "a"));
+		assertEquals(1, SCOPE.slot("y"));
+		assertEquals(-1, SCOPE.slot("z"));
+	}
+
+	@Test
+	/**
+	 * Verifies that the single-variable methods treat variables other than x as undefined constants.
+	 */
+	public void testSingleVariableMethods () throws ExpressionParseException {
+		final Expression expression = _parser.parse("x*y + x");
+		assertTrue(Double.isNaN(expression.evaluate(2)));
+		assertTrue(Double.isNaN(LinearizedExpression.of(expression).evaluate(2)));
+		assertTrue(Double.isNaN(ExpressionCompiler.compile(expression).applyAsDouble(2)));
+		// d/dx (x*y + x) = y + 1
+		assertEquals(5, expression.differentiate().evaluate(new double[] { 7, 4, 0, 0 }), 1e-12);
+		assertFalse(ExpressionKey.equal(_parser.parse("x"), _parser.parse("y")));
+		assertTrue(ExpressionKey.equal(_parser.parse("x*y"), _parser.parse("x*y")));
+	}
+
+	@Test
+	/**
+	 * Verifies the parallel grid evaluation against evaluating every point of the grid with the tree.
+	 */
+	public void testGrid () throws ExpressionParseException {
+		final ExpressionParser parser = new TokenizingExpressionParser(VariableScope.XY);
+		final int columns = 301, rows = 257;
+		try (GridEvaluator evaluator = new GridEvaluator(4)) {
+			for (String expressionStr : new String[] { "x*y", "x^2 + y^2", "log(x*y) - y/x", "x", "y", "7" }) {
+				final Expression expression = parser.parse(expressionStr);
+				final double[] values = evaluator.evaluate(expression, -3, 2, columns, -1, 4, rows);
+				for (int j = 0; j < rows; j++) {
+					for (int i = 0; i < columns; i++) {
+						final double[] env = { ParallelSampler.xAt(-3, 2, columns, i), ParallelSampler.xAt(-1, 4, rows, j) };
+						assertEquals(expression.evaluate(env), values[j * columns + i], expressionStr + " at " + env[0] + ", " + env[1]);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies contour lines of a circle and of a saddle.
+	 */
+	public void testContours () throws ExpressionParseException {
+		final ExpressionParser parser = new TokenizingExpressionParser(VariableScope.XY);
+		final int size = 201;
+		final double[] circle = new GridEvaluator().evaluate(parser.parse("x^2 + y^2"), -2, 2, size, -2, 2, size);
+		final PointBuffer points = new PointBuffer(16);
+		final int segments = ContourExtractor.extract(circle, size, size, -2, 2, -2, 2, 1, points);
+		assertEquals(3 * segments, points.size());
+		// The circle crosses about 2 * pi / 0.02 * 4 / pi cells.
+		assertTrue(segments > 300 && segments < 500, "" + segments);
+		for (int i = 0; i < points.size(); i++) {
+			if (i % 3 != 2) {
+				assertEquals(1, Math.hypot(points.x(i), points.y(i)), 1e-3);
+			} else {
+				assertTrue(Double.isNaN(points.y(i)));
+			}
+		}
+
+		// x*y = 0 runs along the axes, through saddle cells at the origin.
+		final double[] saddle = new GridEvaluator().evaluate(parser.parse("x*y"), -1, 1, 20, -1, 1, 20);
+		points.clear();
+		ContourExtractor.extract(saddle, 20, 20, -1, 1, -1, 1, 0, points);
+		for (int i = 0; i < points.size(); i += 3) {
+			assertTrue(Math.abs(points.x(i) * points.y(i)) < 1e-12, points.x(i) + ", " + points.y(i));
+		}
+		assertEquals(0, ContourExtractor.extract(circle, size, size, -2, 2, -2, 2, 100, points));
+	}
+}
@@ -40,6 +40,44 @@ public class PExpression implements Expression {
 			return _node.evaluate(x);
 	}
 
+	/**
+	 * Given the values of the variables, indexed by their slots, compute the value of this Parentheses expression.
+	 * @param env the value of each variable
+	 * @return the value of this expression.
+	 */
+	public double evaluate (double[] env) {
+		return _node.evaluate(env);
+	}
+
+	/**
+	 * Given an array of values of the independent variable x, compute the value of this Parentheses expression at each of them.
+	 * @param xs the values of the independent variable x
+	 * @param out receives the value of this expression at each of xs
+	 */
+	public void evaluateBatch (double[] xs, double[] out) {
+		_node.evaluateBatch(xs, out);
+	}
+
+	/**
+	 * Given an array of values of the independent variable x, compute the value of this Parentheses expression at each of them.
+	 * @param xs the values of the independent variable x
+	 * @param out receives the value of this expression at each of xs
+	 * @param scratch the arrays for intermediate values
+	 */
+	public void evaluateBatch (double[] xs, double[] out, BatchScratch scratch) {
+		_node.evaluateBatch(xs, out, scratch);
+	}
+
+	/**
+	 * Given a range of the independent variable x, compute a range enclosing every value of this Parentheses expression over it.
+	 * @param lo the smallest value of x
+	 * @param hi the largest value of x
+	 * @return the range of the values of this expression
+	 */
+	public Interval evaluateInterval (double lo, double hi) {
+		return _node.evaluateInterval(lo, hi);
+	}
+
 	/**
 	 * Produce a new, fully independent (i.e., there should be no shared subtrees) Parentheses Expression
 	 * representing the derivative of this expression.
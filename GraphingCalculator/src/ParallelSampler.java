@@ -0,0 +1,214 @@
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Samples an expression at equally spaced x values, splitting the range into chunks that are evaluated in
+ * parallel on a ForkJoinPool with Expression.evaluateBatch. Expression trees are not modified by evaluation,
+ * so the same tree is shared by all workers.
+ * The i-th sample is always taken at minX + (maxX - minX) * i / (count - 1), however the work is split, so
+ * the output does not depend on the parallelism.
+ */
+class ParallelSampler implements AutoCloseable {
+	// Number of x values each task evaluates at once; large enough to amortize the batch setup.
+	protected static final int DEFAULT_CHUNK_SIZE = 4096;
+	// The cancellation check of sample calls that can't be cancelled.
+	private static final BooleanSupplier NEVER = () -> false;
+
+	private final ForkJoinPool _pool;
+	private final boolean _ownsPool;
+	private final int _chunkSize;
+	// The intermediate arrays of each worker thread, kept from chunk to chunk.
+	private final ThreadLocal<BatchScratch> _scratch = ThreadLocal.withInitial(BatchScratch::new);
+	// The x values and results of the chunks of each worker thread.
+	private final ThreadLocal<ChunkBuffers> _buffers = ThreadLocal.withInitial(ChunkBuffers::new);
+
+	/**
+	 * Creates a sampler that runs on the common ForkJoinPool.
+	 */
+	public ParallelSampler () {
+		this(ForkJoinPool.commonPool(), false, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a sampler with its own pool of the given number of worker threads, which close shuts down.
+	 * @param parallelism the number of worker threads
+	 */
+	public ParallelSampler (int parallelism) {
+		this(new ForkJoinPool(parallelism), true, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param pool the pool to run on
+	 * @param ownsPool whether close should shut the pool down
+	 * @param chunkSize the number of x values each task evaluates at once
+	 */
+	protected ParallelSampler (ForkJoinPool pool, boolean ownsPool, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+		}
+		_pool = pool;
+		_ownsPool = ownsPool;
+		_chunkSize = chunkSize;
+	}
+
+	/**
+	 * Returns the x value of the i-th of count samples equally spaced over [minX, maxX].
+	 */
+	public static double xAt (double minX, double maxX, long count, long i) {
+		return count == 1 ? minX : minX + (maxX - minX) * i / (count - 1);
+	}
+
+	/**
+	 * Samples the expression at count equally spaced x values over [minX, maxX].
+	 * @param expression the expression to sample
+	 * @param minX the first x value
+	 * @param maxX the last x value
+	 * @param count the number of samples
+	 * @return the value of the expression at each of the x values
+	 */
+	public double[] sample (Expression expression, double minX, double maxX, int count) {
+		final double[] ys = new double[count];
+		sample(expression, minX, maxX, ys, count, NEVER);
+		return ys;
+	}
+
+	/**
+	 * Samples the expression at count equally spaced x values over [minX, maxX] into the given buffer, replacing
+	 * its contents. The buffer's arrays are reused, so resampling into the same buffer does not allocate them again.
+	 * @param expression the expression to sample
+	 * @param minX the first x value
+	 * @param maxX the last x value
+	 * @param count the number of samples
+	 * @param points receives the sampled points
+	 */
+	public void sample (Expression expression, double minX, double maxX, int count, PointBuffer points) {
+		points.resize(count);
+		final double[] xs = points.xs();
+		for (int i = 0; i < count; i++) {
+			xs[i] = xAt(minX, maxX, count, i);
+		}
+		sample(expression, minX, maxX, points.ys(), count, NEVER);
+	}
+
+	/**
+	 * Samples the expression at count equally spaced x values over [minX, maxX] into ys, checking before every
+	 * chunk whether the work has been cancelled, e.g. because the user has asked for a different plot already.
+	 * @param expression the expression to sample
+	 * @param minX the first x value
+	 * @param maxX the last x value
+	 * @param ys receives the value of the expression at each of the x values; it must hold at least count values
+	 * @param count the number of samples
+	 * @param cancelled returns true once the result is no longer needed
+	 * @throws CancellationException if cancelled returned true before all chunks were evaluated; ys is then only partially filled
+	 */
+	public void sample (Expression expression, double minX, double maxX, double[] ys, int count, BooleanSupplier cancelled) {
+		sample(expression, minX, maxX, count, 0, ys, count, cancelled);
+	}
+
+	/**
+	 * Takes the samples first, first + 1, ..., first + length - 1 of count equally spaced x values over [minX, maxX]
+	 * into ys, e.g. to sample more values than fit in memory a chunk at a time. The samples are the same as when all
+	 * count are taken at once.
+	 * @param expression the expression to sample
+	 * @param minX the first x value
+	 * @param maxX the last x value
+	 * @param count the total number of samples
+	 * @param first the index of the first sample to take
+	 * @param ys receives the value of the expression at each of the x values; it must hold at least length values
+	 * @param length the number of samples to take
+	 * @param cancelled returns true once the result is no longer needed
+	 * @throws CancellationException if cancelled returned true before all chunks were evaluated; ys is then only partially filled
+	 */
+	public void sample (Expression expression, double minX, double maxX, long count, long first, double[] ys, int length, BooleanSupplier cancelled) {
+		if (length < 0 || length > ys.length || first < 0 || first + length > count) {
+			throw new IllegalArgumentException("Cannot take samples " + first + " to " + (first + length) + " of " + count + " into an array of " + ys.length);
+		}
+		_pool.invoke(new SampleTask(expression, minX, maxX, ys, count, first, cancelled, 0, length));
+		if (cancelled.getAsBoolean()) {
+			throw new CancellationException();
+		}
+	}
+
+	/**
+	 * Shuts down the pool if this sampler created it.
+	 */
+	public void close () {
+		if (_ownsPool) {
+			_pool.shutdown();
+		}
+	}
+
+	/**
+	 * The arrays of x values and results of one worker thread. evaluateBatch takes the length of the batch from the
+	 * array of x values, so a chunk needs arrays of exactly its length: these are kept for whole chunks and for the
+	 * last, shorter chunk of the latest range.
+	 */
+	private class ChunkBuffers {
+		private double[][] _whole, _last;
+
+		/**
+		 * Returns the array of x values and the array of results for a chunk of the given length.
+		 */
+		double[][] get (int length) {
+			if (_whole != null && _whole[0].length == length) {
+				return _whole;
+			}
+			if (_last != null && _last[0].length == length) {
+				return _last;
+			}
+			final double[][] buffers = { new double[length], new double[length] };
+			if (length == _chunkSize) {
+				_whole = buffers;
+			} else {
+				_last = buffers;
+			}
+			return buffers;
+		}
+	}
+
+	/**
+	 * Evaluates the samples first + start, ..., first + end - 1 into ys[start, end), splitting the range in half until it fits in a chunk.
+	 */
+	private class SampleTask extends RecursiveAction {
+		private final Expression _expression;
+		private final double _minX, _maxX;
+		private final double[] _ys;
+		private final long _count, _first;
+		private final BooleanSupplier _cancelled;
+		private final int _start, _end;
+
+		SampleTask (Expression expression, double minX, double maxX, double[] ys, long count, long first, BooleanSupplier cancelled, int start, int end) {
+			_expression = expression;
+			_minX = minX;
+			_maxX = maxX;
+			_ys = ys;
+			_count = count;
+			_first = first;
+			_cancelled = cancelled;
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected void compute () {
+			if (_cancelled.getAsBoolean()) {
+				return;
+			}
+			if (_end - _start > _chunkSize) {
+				// Split at a multiple of the chunk size, so every chunk but the last of the range is a whole one.
+				final int middle = _start + Math.max(1, (_end - _start) / 2 / _chunkSize) * _chunkSize;
+				invokeAll(new SampleTask(_expression, _minX, _maxX, _ys, _count, _first, _cancelled, _start, middle),
+					new SampleTask(_expression, _minX, _maxX, _ys, _count, _first, _cancelled, middle, _end));
+				return;
+			}
+
+			final double[][] buffers = _buffers.get().get(_end - _start);
+			final double[] xs = buffers[0], values = buffers[1];
+			for (int i = 0; i < xs.length; i++) {
+				xs[i] = xAt(_minX, _maxX, _count, _first + _start + i);
+			}
+			_expression.evaluateBatch(xs, values, _scratch.get());
+			System.arraycopy(values, 0, _ys, _start, values.length);
+		}
+	}
+}
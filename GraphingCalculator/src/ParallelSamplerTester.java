@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Tests ParallelSampler against sequential evaluation.
+ */
+public class ParallelSamplerTester {
+	private Expression _expression;
+
+	@BeforeEach
+	/**
+	 * Parses the expression to sample
+	 */
+	public void setUp () throws ExpressionParseException {
+		_expression = new TokenizingExpressionParser().parse("10*x^3 + 2*(15+x) - 1/x");
+	}
+
+	@Test
+	/**
+	 * Verifies that every sample matches evaluating the expression at the same x, whatever the parallelism.
+	 */
+	public void testSameAsSequential () {
+		final int count = 100001;
+		for (int parallelism : new int[] { 1, 3, 8 }) {
+			try (ParallelSampler sampler = new ParallelSampler(parallelism)) {
+				final double[] ys = sampler.sample(_expression, -1e6, 1e6, count);
+				for (int i = 0; i < count; i++) {
+					assertEquals(_expression.evaluate(ParallelSampler.xAt(-1e6, 1e6, count, i)), ys[i]);
+				}
+				assertEquals(-1e6, ParallelSampler.xAt(-1e6, 1e6, count, 0));
+				assertEquals(1e6, ParallelSampler.xAt(-1e6, 1e6, count, count - 1));
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that ranges that aren't a multiple of the chunk size, sampled one after the other on the same
+	 * threads, still get the right values, in particular in their last, shorter chunks.
+	 */
+	public void testPartialChunks () {
+		try (ParallelSampler sampler = new ParallelSampler(new ForkJoinPool(3), true, 7)) {
+			for (int round = 0; round < 2; round++) {
+				for (int length = 1; length <= 50; length++) {
+					final double[] ys = new double[length];
+					sampler.sample(_expression, -10, 10, 1000, 3 * length, ys, length, () -> false);
+					for (int i = 0; i < length; i++) {
+						assertEquals(_expression.evaluate(ParallelSampler.xAt(-10, 10, 1000, 3 * length + i)), ys[i], length + ", " + i);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that sampling stops once cancelled.
+	 */
+	public void testCancellation () {
+		final AtomicInteger checks = new AtomicInteger();
+		try (ParallelSampler sampler = new ParallelSampler(2)) {
+			assertThrows(CancellationException.class, () -> sampler.sample(_expression, -10, 10, new double[1000000], 1000000, () -> checks.incrementAndGet() > 5));
+		}
+	}
+}
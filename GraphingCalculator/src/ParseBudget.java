@@ -0,0 +1,95 @@
+/**
+ * Limits on how much a parser may do with a single input, so that text from an untrusted source, such as a long
+ * chain "x-x-x-..." that makes SimpleExpressionParser backtrack exponentially or thousands of nested parentheses
+ * that overflow the stack, fails quickly with a ParseBudgetExceededException instead of pinning a core.
+ * <ul>
+ * <li>maxLength bounds the number of characters of the input, spaces included.</li>
+ * <li>maxDepth bounds how deeply parentheses nest. It is checked in a single pass before parsing, and with the
+ * length it also bounds the depth of the tree the recursive Expression methods walk.</li>
+ * <li>maxWork bounds the steps the parser takes: for SimpleExpressionParser, every character it looks at while
+ * searching a range for an operator and every attempt to read a literal. Parsers that take linear time don't
+ * count work.</li>
+ * </ul>
+ * Budgets are immutable, so one can be shared by any number of parsers.
+ */
+final class ParseBudget {
+	// Generous enough for anything typed by hand, while an input that exceeds it fails within milliseconds.
+	public static final ParseBudget DEFAULT = new ParseBudget(10000, 256, 5000000);
+	// Puts no limit on parsing, for trusted inputs such as generated benchmark corpora.
+	public static final ParseBudget UNLIMITED = new ParseBudget(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+	private final int _maxLength;
+	private final int _maxDepth;
+	private final long _maxWork;
+
+	/**
+	 * @param maxLength the most characters an input may have
+	 * @param maxDepth the most levels of parentheses an input may nest
+	 * @param maxWork the most steps a parser may take on an input
+	 */
+	public ParseBudget (int maxLength, int maxDepth, long maxWork) {
+		if (maxLength < 0 || maxDepth < 0 || maxWork < 0) {
+			throw new IllegalArgumentException("Limits must not be negative: " + maxLength + ", " + maxDepth + ", " + maxWork);
+		}
+		_maxLength = maxLength;
+		_maxDepth = maxDepth;
+		_maxWork = maxWork;
+	}
+
+	public int getMaxLength () {
+		return _maxLength;
+	}
+
+	public int getMaxDepth () {
+		return _maxDepth;
+	}
+
+	public long getMaxWork () {
+		return _maxWork;
+	}
+
+	/**
+	 * Checks the input against the length and depth limits, which takes time linear in its length.
+	 * @param str the string about to be parsed
+	 * @throws ParseBudgetExceededException if the string is too long or nests parentheses too deeply
+	 */
+	public void check (String str) throws ParseBudgetExceededException {
+		if (str.length() > _maxLength) {
+			throw new ParseBudgetExceededException(ParseBudgetExceededException.Limit.LENGTH,
+				"Expression is longer than " + _maxLength + " characters");
+		}
+		int depth = 0;
+		for (int i = 0; i < str.length(); i++) {
+			final char c = str.charAt(i);
+			if (c == '(' && ++depth > _maxDepth) {
+				throw depthExceeded();
+			} else if (c == ')' && depth > 0) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Returns the exception thrown when parentheses nest more than maxDepth levels deep.
+	 */
+	private ParseBudgetExceededException depthExceeded () {
+		return new ParseBudgetExceededException(ParseBudgetExceededException.Limit.DEPTH,
+			"Expression nests parentheses more than " + _maxDepth + " levels deep");
+	}
+
+	/**
+	 * Returns the exception thrown when a parser ran out of stack, which a long chain of operators can cause even
+	 * within the depth limit.
+	 */
+	static ParseBudgetExceededException stackExhausted () {
+		return new ParseBudgetExceededException(ParseBudgetExceededException.Limit.DEPTH, "Expression nests too deeply to parse");
+	}
+
+	/**
+	 * Returns the exception thrown when the parser took more than maxWork steps.
+	 */
+	ParseBudgetExceededException workExceeded () {
+		return new ParseBudgetExceededException(ParseBudgetExceededException.Limit.WORK,
+			"Expression takes more than " + _maxWork + " steps to parse");
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * Thrown when a parser gives up on an input because it exceeds a limit of its ParseBudget, rather than because
+ * the input isn't a valid expression.
+ */
+class ParseBudgetExceededException extends ExpressionParseException {
+	/**
+	 * The limits of a ParseBudget.
+	 */
+	public enum Limit { LENGTH, DEPTH, WORK }
+
+	private final Limit _limit;
+
+	/**
+	 * @param limit the limit that was exceeded
+	 * @param message the detail message
+	 */
+	public ParseBudgetExceededException (Limit limit, String message) {
+		super(message);
+		_limit = limit;
+	}
+
+	/**
+	 * Returns the limit that was exceeded.
+	 */
+	public Limit getLimit () {
+		return _limit;
+	}
+}
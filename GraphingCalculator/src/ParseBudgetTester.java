@@ -0,0 +1,200 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Checks that the parsers reject inputs beyond their ParseBudget quickly with a ParseBudgetExceededException, and
+ * that IterativeExpressions gives the same results as the recursive Expression methods on trees of any depth.
+ */
+public class ParseBudgetTester {
+	// Far longer than any of the adversarial inputs below should take to be rejected.
+	private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+	private ExpressionParser[] _parsers;
+
+	@BeforeEach
+	/**
+	 * Instantiates the parsers with the default budget
+	 */
+	public void setUp () {
+		_parsers = new ExpressionParser[] { new SimpleExpressionParser(), new SimpleExpressionParser(true), new TokenizingExpressionParser(),
+			new IncrementalExpressionParser() };
+	}
+
+	private static ParseBudgetExceededException.Limit exceededLimit (ExpressionParser parser, String str) {
+		return assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(ParseBudgetExceededException.class, () -> parser.parse(str)).getLimit(),
+			parser.getClass().getSimpleName());
+	}
+
+	@Test
+	/**
+	 * Verifies that the backtracking parser gives up on a chain that takes exponential time, in packrat mode too.
+	 */
+	public void testWork () throws ExpressionParseException {
+		final String chain = "x" + "-x".repeat(40);
+		assertEquals(ParseBudgetExceededException.Limit.WORK, exceededLimit(new SimpleExpressionParser(), chain));
+		final String longChain = "x" + "+x".repeat(4000);
+		assertEquals(ParseBudgetExceededException.Limit.WORK, exceededLimit(new SimpleExpressionParser(true), longChain));
+		// Within the budget, and for parsers that take linear time, the same inputs parse.
+		new SimpleExpressionParser(VariableScope.X, false, ParseBudget.UNLIMITED).parse("x" + "-x".repeat(10));
+		assertEquals(new TokenizingExpressionParser().parse(chain).convertToString(0), new SimpleExpressionParser(true).parse(chain).convertToString(0));
+		new TokenizingExpressionParser().parse(longChain);
+	}
+
+	@Test
+	/**
+	 * Verifies that every parser rejects inputs that are too long or nest too deeply before parsing them.
+	 */
+	public void testLengthAndDepth () throws ExpressionParseException {
+		final String deep = "(".repeat(4000) + "x" + ")".repeat(4000);
+		final String tooDeep = "(".repeat(257) + "x" + ")".repeat(257);
+		final String deepest = "(".repeat(256) + "x" + ")".repeat(256);
+		for (ExpressionParser parser : _parsers) {
+			assertEquals(ParseBudgetExceededException.Limit.LENGTH, exceededLimit(parser, "x+".repeat(5000) + "x"));
+			assertEquals(ParseBudgetExceededException.Limit.DEPTH, exceededLimit(parser, deep));
+			assertEquals(ParseBudgetExceededException.Limit.DEPTH, exceededLimit(parser, tooDeep));
+			assertEquals(1, parser.parse(deepest).evaluate(1));
+			// Unbalanced parentheses are a syntax error, not a budget one.
+			final ExpressionParseException epe = assertThrows(ExpressionParseException.class, () -> parser.parse(")x("));
+			assertFalse(epe instanceof ParseBudgetExceededException);
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that running out of stack on a chain within the depth limit is reported as exceeding the budget.
+	 */
+	public void testStackOverflow () {
+		final String chain = "x" + "^x".repeat(500000);
+		assertEquals(ParseBudgetExceededException.Limit.DEPTH,
+			exceededLimit(new TokenizingExpressionParser(VariableScope.X, ParseBudget.UNLIMITED), chain));
+	}
+
+	@Test
+	/**
+	 * Verifies that the cache remembers budget failures as such.
+	 */
+	public void testCaching () {
+		final CachingExpressionParser parser = new CachingExpressionParser(new SimpleExpressionParser());
+		final String chain = "x" + "-x".repeat(40);
+		assertEquals(ParseBudgetExceededException.Limit.WORK, exceededLimit(parser, chain));
+		assertEquals(ParseBudgetExceededException.Limit.WORK, exceededLimit(parser, chain));
+		assertEquals(1, parser.getHitCount());
+		final ExpressionParseException epe = assertThrows(ExpressionParseException.class, () -> parser.parse("x+"));
+		assertFalse(epe instanceof ParseBudgetExceededException);
+		assertFalse(assertThrows(ExpressionParseException.class, () -> parser.parse("x+")) instanceof ParseBudgetExceededException);
+	}
+
+	@Test
+	/**
+	 * Verifies that the longest chain of operators the default budget accepts, which makes a tree as deep as it has
+	 * operators, can be flattened, compiled and differentiated automatically on a thread with a small stack.
+	 */
+	public void testDeepChainWithinBudget () throws Throwable {
+		final String chain = "x" + "-x".repeat((ParseBudget.DEFAULT.getMaxLength() - 1) / 2);
+		final Expression expression = new TokenizingExpressionParser().parse(chain);
+		assertEquals(ParseBudget.DEFAULT.getMaxLength() / 2, IterativeExpressions.depth(expression));
+		final double expected = IterativeExpressions.evaluate(expression, 2);
+		final Throwable[] failure = new Throwable[1];
+		final Thread thread = new Thread(null, () -> {
+			try {
+				assertEquals(expected, LinearizedExpression.of(expression).evaluate(2));
+				assertEquals(expected, ExpressionCompiler.compile(expression).applyAsDouble(2));
+				assertEquals(1 - (ParseBudget.DEFAULT.getMaxLength() - 1) / 2, DualNumberEvaluator.of(expression).evaluate(2));
+			} catch (Throwable t) {
+				failure[0] = t;
+			}
+		}, "Deep chain", 256 * 1024);
+		thread.start();
+		thread.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	private static Expression randomExpression (Random random, int operators) {
+		if (operators == 0) {
+			return random.nextBoolean() ? new VariableExpression() : new LiteralExpression(random.nextInt(5) - 1);
+		}
+		final int leftOperators = random.nextInt(operators);
+		final Expression left = randomExpression(random, leftOperators);
+		final Expression right = randomExpression(random, operators - 1 - leftOperators);
+		switch (random.nextInt(7)) {
+			case 0: return new SExpression(left, right, "+");
+			case 1: return new SExpression(left, right, "-");
+			case 2: return new MExpression(left, right, "*");
+			case 3: return new MExpression(left, right, "/");
+			case 4: return new EExpression(left, right, "^");
+			case 5: return new EExpression(null, right, "log");
+			default: return new PExpression(left);
+		}
+	}
+
+	/**
+	 * Asserts that two trees, which may have null subtrees, have the same shape, operators and leaves.
+	 */
+	private static void assertSameTree (Expression expected, Expression actual) {
+		final List<Expression> expectedNodes = IterativeExpressions.postOrder(expected), actualNodes = IterativeExpressions.postOrder(actual);
+		assertEquals(expectedNodes.size(), actualNodes.size());
+		for (int i = 0; i < expectedNodes.size(); i++) {
+			final Expression e = expectedNodes.get(i), a = actualNodes.get(i);
+			if (e == null) {
+				assertNull(a);
+			} else if (e instanceof LiteralExpression) {
+				assertEquals(((LiteralExpression) e)._value, ((LiteralExpression) a)._value);
+			} else if (e instanceof SExpression) {
+				assertEquals(((SExpression) e)._opr, ((SExpression) a)._opr);
+			} else if (e instanceof MExpression) {
+				assertEquals(((MExpression) e)._opr, ((MExpression) a)._opr);
+			} else if (e instanceof EExpression) {
+				assertEquals(((EExpression) e)._opr, ((EExpression) a)._opr);
+			} else {
+				assertEquals(e.getClass(), a.getClass());
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that the iterative methods agree with the recursive ones on random trees, including derivatives
+	 * with missing subtrees.
+	 */
+	public void testIterativeMatchesRecursive () {
+		final Random random = new Random(0);
+		for (int i = 0; i < 2000; i++) {
+			final Expression expression = randomExpression(random, random.nextInt(12));
+			assertEquals(expression.convertToString(0), IterativeExpressions.deepCopy(expression).convertToString(0));
+			for (double x : new double[] { -2, 0, 0.5, 3 }) {
+				assertEquals(expression.evaluate(x), IterativeExpressions.evaluate(expression, x));
+				assertEquals(expression.evaluate(new double[] { x }), IterativeExpressions.evaluate(expression, new double[] { x }));
+			}
+			final Expression derivative = expression.differentiate();
+			if (derivative == null) {
+				assertNull(IterativeExpressions.differentiate(expression));
+			} else {
+				assertSameTree(derivative, IterativeExpressions.differentiate(expression));
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that the iterative methods handle a tree far deeper than the recursive ones could.
+	 */
+	public void testDeepTree () {
+		final int depth = 100000;
+		Expression expression = new VariableExpression();
+		for (int i = 0; i < depth; i++) {
+			expression = i % 3 == 0 ? new PExpression(expression) : new SExpression(expression, new LiteralExpression(1), i % 3 == 1 ? "+" : "-");
+		}
+		assertEquals(depth + 1, IterativeExpressions.depth(expression));
+		assertEquals(2.5, IterativeExpressions.evaluate(expression, 2.5));
+		final Expression copy = IterativeExpressions.deepCopy(expression);
+		assertNotSame(expression, copy);
+		assertEquals(depth + 1, IterativeExpressions.depth(copy));
+		final Expression derivative = IterativeExpressions.differentiate(expression);
+		assertEquals(1, IterativeExpressions.evaluate(derivative, 2.5));
+		assertEquals(ExpressionSimplifier.countNodes(expression), ExpressionSimplifier.countNodes(derivative));
+	}
+}
@@ -0,0 +1,266 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Turns the text of an expression into curves ready to draw, without doing any of the work on the thread that
+ * asks for it. Each request goes through the stages
+ * parse -> differentiate -> sample -> decimate -> publish
+ * as a chain of CompletableFuture stages on a worker executor. The curves are first sampled coarsely and
+ * published as a preview, then sampled at full resolution and published again.
+ * Submitting a request cancels the previous one: its remaining stages are skipped, the samplers stop at their next
+ * cancellation check, and nothing more is published for it. Results are handed to a Listener on a worker thread;
+ * a JavaFX listener has to pass them on with Platform.runLater, checking there that the job hasn't been cancelled
+ * in the meantime.
+ */
+class PlotPipeline {
+	protected static final int DEFAULT_PREVIEW_SAMPLE_COUNT = 101;
+
+	/**
+	 * Receives the results of the jobs. Its methods are called on a worker thread.
+	 */
+	interface Listener {
+		/**
+		 * Called with the preview curves of a job and then with its final curves.
+		 * @param job the job
+		 * @param curves the expression followed by its derivatives; there are fewer than job.getMaxOrder() + 1 if a derivative can't be computed
+		 * @param preview whether these are the coarse curves that will be followed by the final ones
+		 */
+		void curvesReady (Job job, List<PointBuffer> curves, boolean preview);
+
+		/**
+		 * Called if a job fails, e.g. with an ExpressionParseException if its text can't be parsed.
+		 * @param job the job
+		 * @param error the reason
+		 */
+		void failed (Job job, Throwable error);
+	}
+
+	/**
+	 * One request to plot an expression and its derivatives.
+	 */
+	public static class Job {
+		private final String _text;
+		private final int _maxOrder;
+		private final boolean _autoDiff;
+		private volatile boolean _cancelled;
+
+		Job (String text, int maxOrder, boolean autoDiff) {
+			_text = text;
+			_maxOrder = maxOrder;
+			_autoDiff = autoDiff;
+		}
+
+		public String getText () {
+			return _text;
+		}
+
+		public int getMaxOrder () {
+			return _maxOrder;
+		}
+
+		/**
+		 * Returns whether the job has been superseded by a newer one, or cancelled explicitly.
+		 */
+		public boolean isCancelled () {
+			return _cancelled;
+		}
+
+		public void cancel () {
+			_cancelled = true;
+		}
+
+		private void checkCancelled () {
+			if (_cancelled) {
+				throw new CancellationException();
+			}
+		}
+	}
+
+	/**
+	 * A curve to sample: a symbolic expression, or a derivative computed by automatic differentiation.
+	 */
+	private static class Curve {
+		final Expression _expression;
+		final DualNumberEvaluator _evaluator;
+
+		Curve (Expression expression, DualNumberEvaluator evaluator) {
+			_expression = expression;
+			_evaluator = evaluator;
+		}
+	}
+
+	private final ExpressionParser _parser;
+	private final DerivativeCache _derivatives;
+	private final ParallelSampler _sampler;
+	private final AdaptiveSampler _adaptiveSampler;
+	private final double _minX, _maxX;
+	private final int _sampleCount, _previewSampleCount, _columns;
+	private final Executor _executor;
+	private Job _current;
+
+	/**
+	 * @param parser the parser; it is only used by one thread at a time
+	 * @param derivatives the cache to take symbolic derivatives from, or null to call Expression.differentiate
+	 * @param sampler the sampler for the preview, and for the final curves if adaptiveSampler is null
+	 * @param adaptiveSampler the sampler for the final curves, or null to sample them at sampleCount equally spaced x values
+	 * @param minX the x value at the left edge of the display
+	 * @param maxX the x value at the right edge of the display
+	 * @param sampleCount the number of samples per final curve if adaptiveSampler is null
+	 * @param columns the width of the display in pixels, to which the curves are decimated
+	 * @param executor the executor running the stages
+	 */
+	public PlotPipeline (ExpressionParser parser, DerivativeCache derivatives, ParallelSampler sampler, AdaptiveSampler adaptiveSampler,
+			double minX, double maxX, int sampleCount, int columns, Executor executor) {
+		_parser = parser;
+		_derivatives = derivatives;
+		_sampler = sampler;
+		_adaptiveSampler = adaptiveSampler;
+		_minX = minX;
+		_maxX = maxX;
+		_sampleCount = sampleCount;
+		_previewSampleCount = Math.min(DEFAULT_PREVIEW_SAMPLE_COUNT, sampleCount);
+		_columns = columns;
+		_executor = executor;
+	}
+
+	/**
+	 * Starts plotting the text, cancelling the job submitted before.
+	 * @param text the expression to plot
+	 * @param maxOrder the highest order of derivative to plot along with it
+	 * @param autoDiff whether to compute the derivatives with a DualNumberEvaluator rather than symbolically
+	 * @param delayMillis how long to wait before starting, so that a newer request can cancel this one first
+	 * @param listener receives the results
+	 * @return the job
+	 */
+	public synchronized Job submit (String text, int maxOrder, boolean autoDiff, long delayMillis, Listener listener) {
+		if (_current != null) {
+			_current.cancel();
+		}
+		final Job job = new Job(text, maxOrder, autoDiff);
+		_current = job;
+
+		final Executor start = delayMillis > 0 ? CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, _executor) : _executor;
+		final CompletableFuture<List<Curve>> curves = CompletableFuture.supplyAsync(() -> parse(job), start)
+			.thenApplyAsync(expression -> differentiate(job, expression), _executor);
+		curves.thenApplyAsync(functions -> sample(job, functions, true), _executor)
+			.thenApplyAsync(points -> decimate(job, points), _executor)
+			.thenAcceptAsync(points -> publish(job, points, true, listener), _executor)
+			.thenCombineAsync(curves, (ignored, functions) -> sample(job, functions, false), _executor)
+			.thenApplyAsync(points -> decimate(job, points), _executor)
+			.thenAcceptAsync(points -> publish(job, points, false, listener), _executor)
+			.whenComplete((ignored, error) -> {
+				final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+				if (cause != null && !(cause instanceof CancellationException) && !job.isCancelled()) {
+					listener.failed(job, cause);
+				}
+			});
+		return job;
+	}
+
+	private Expression parse (Job job) {
+		job.checkCancelled();
+		try {
+			synchronized (_parser) {
+				return _parser.parse(job._text);
+			}
+		} catch (ExpressionParseException epe) {
+			throw new CompletionException(epe);
+		}
+	}
+
+	/**
+	 * Computes the derivatives up to the job's order, stopping at the first one that can't be computed.
+	 */
+	private List<Curve> differentiate (Job job, Expression expression) {
+		final List<Curve> curves = new ArrayList<>();
+		curves.add(new Curve(expression, null));
+		Expression derivative = expression;
+		try {
+			for (int order = 1; order <= job._maxOrder; order++) {
+				job.checkCancelled();
+				if (job._autoDiff) {
+					// Only the values of f^(order) are needed, so differentiate f^(order-1) numerically.
+					curves.add(new Curve(null, DualNumberEvaluator.of(derivative)));
+					if (order < job._maxOrder) {
+						derivative = _derivatives != null ? _derivatives.derivative(expression, order) : differentiate(derivative, order);
+					}
+				} else {
+					derivative = _derivatives != null ? _derivatives.derivative(expression, order) : differentiate(derivative, order);
+					curves.add(new Curve(derivative, null));
+				}
+			}
+		} catch (UnsupportedOperationException uoe) {
+			// Plot what could be computed.
+		}
+		return curves;
+	}
+
+	/**
+	 * Differentiates an expression without a DerivativeCache, recording it in Metrics if they are enabled.
+	 * @param order the order of the derivative this computes
+	 * @throws UnsupportedOperationException if the derivative is missing or has missing nodes, as DerivativeCache does
+	 */
+	private static Expression differentiate (Expression expression, int order) {
+		final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		final Expression derivative = IterativeExpressions.differentiate(expression);
+		if (!IterativeExpressions.isComplete(derivative)) {
+			throw new UnsupportedOperationException("Cannot compute derivative " + order + " of the expression");
+		}
+		if (Metrics.ENABLED) {
+			Metrics.differentiated(order, ExpressionSimplifier.countNodes(expression), ExpressionSimplifier.countNodes(derivative), start);
+		}
+		return derivative;
+	}
+
+	private List<PointBuffer> sample (Job job, List<Curve> curves, boolean preview) {
+		final List<PointBuffer> result = new ArrayList<>();
+		for (Curve curve : curves) {
+			job.checkCancelled();
+			final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+			final PointBuffer points = new PointBuffer(preview ? _previewSampleCount : _sampleCount);
+			final boolean adaptive = !preview && _adaptiveSampler != null;
+			if (adaptive) {
+				if (curve._expression != null) {
+					_adaptiveSampler.sample(curve._expression, points, job::isCancelled);
+				} else {
+					_adaptiveSampler.sample(curve._evaluator, points, job::isCancelled);
+				}
+			} else {
+				final int count = preview ? _previewSampleCount : _sampleCount;
+				points.resize(count);
+				final double[] xs = points.xs(), ys = points.ys();
+				for (int i = 0; i < count; i++) {
+					xs[i] = ParallelSampler.xAt(_minX, _maxX, count, i);
+				}
+				if (curve._expression != null) {
+					_sampler.sample(curve._expression, _minX, _maxX, ys, count, job::isCancelled);
+				} else {
+					for (int i = 0; i < count; i++) {
+						ys[i] = curve._evaluator.evaluate(xs[i]);
+					}
+				}
+			}
+			if (Metrics.ENABLED) {
+				Metrics.sampled(adaptive ? "AdaptiveSampler" : "ParallelSampler", points.size(), start);
+			}
+			result.add(points);
+		}
+		return result;
+	}
+
+	private List<PointBuffer> decimate (Job job, List<PointBuffer> curves) {
+		final List<PointBuffer> result = new ArrayList<>();
+		for (PointBuffer points : curves) {
+			job.checkCancelled();
+			final PointBuffer decimated = new PointBuffer(Math.min(points.size(), 4 * _columns));
+			CurveDecimator.decimate(points, _minX, _maxX, _columns, decimated);
+			result.add(decimated);
+		}
+		return result;
+	}
+
+	private void publish (Job job, List<PointBuffer> curves, boolean preview, Listener listener) {
+		job.checkCancelled();
+		listener.curvesReady(job, curves, preview);
+	}
+}
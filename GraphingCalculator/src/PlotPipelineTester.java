@@ -0,0 +1,175 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks the stages, the preview and the cancellation of PlotPipeline, and CurveDecimator.
+ */
+public class PlotPipelineTester {
+	private ExecutorService _executor;
+	private ParallelSampler _sampler;
+	private PlotPipeline _pipeline;
+
+	/**
+	 * Collects what the pipeline publishes.
+	 */
+	private static class Recorder implements PlotPipeline.Listener {
+		final List<Boolean> _previews = Collections.synchronizedList(new ArrayList<>());
+		volatile List<PointBuffer> _curves;
+		volatile Throwable _error;
+		final CountDownLatch _done = new CountDownLatch(1);
+
+		public void curvesReady (PlotPipeline.Job job, List<PointBuffer> curves, boolean preview) {
+			_previews.add(preview);
+			_curves = curves;
+			if (!preview) {
+				_done.countDown();
+			}
+		}
+
+		public void failed (PlotPipeline.Job job, Throwable error) {
+			_error = error;
+			_done.countDown();
+		}
+	}
+
+	@BeforeEach
+	/**
+	 * Instantiates the pipeline
+	 */
+	public void setUp () {
+		_executor = Executors.newCachedThreadPool();
+		_sampler = new ParallelSampler(2);
+		_pipeline = new PlotPipeline(new TokenizingExpressionParser(), new DerivativeCache(), _sampler, new AdaptiveSampler(-10, 10, -10, 10, 600, 470),
+			-10, 10, 2001, 600, _executor);
+	}
+
+	@AfterEach
+	/**
+	 * Shuts down the threads
+	 */
+	public void tearDown () {
+		_executor.shutdown();
+		_sampler.close();
+	}
+
+	@Test
+	/**
+	 * Verifies that a preview and then the final curves are published.
+	 */
+	public void testPreviewAndFinal () throws Exception {
+		final Recorder recorder = new Recorder();
+		_pipeline.submit("x*x-3", 2, false, 0, recorder);
+		assertTrue(recorder._done.await(10, TimeUnit.SECONDS));
+		assertNull(recorder._error);
+		assertEquals(Arrays.asList(true, false), recorder._previews);
+		assertEquals(3, recorder._curves.size());
+		final PointBuffer derivative = recorder._curves.get(1), second = recorder._curves.get(2);
+		for (int i = 0; i < derivative.size(); i++) {
+			assertEquals(2 * derivative.x(i), derivative.y(i), 1e-9);
+			assertEquals(2, second.y(i), 1e-9);
+		}
+		// At most four points per pixel column.
+		assertTrue(recorder._curves.get(0).size() <= 4 * 600);
+	}
+
+	@Test
+	/**
+	 * Verifies automatic differentiation and derivatives that can't be computed symbolically.
+	 */
+	public void testAutoDiff () throws Exception {
+		Recorder recorder = new Recorder();
+		_pipeline.submit("x^x", 1, true, 0, recorder);
+		assertTrue(recorder._done.await(10, TimeUnit.SECONDS));
+		assertEquals(2, recorder._curves.size());
+
+		recorder = new Recorder();
+		_pipeline.submit("x^x", 1, false, 0, recorder);
+		assertTrue(recorder._done.await(10, TimeUnit.SECONDS));
+		assertEquals(1, recorder._curves.size());
+	}
+
+	@Test
+	/**
+	 * Verifies that without a DerivativeCache the pipeline stops at the last derivative it can compute symbolically.
+	 */
+	public void testMissingDerivativesWithoutCache () throws Exception {
+		final PlotPipeline pipeline = new PlotPipeline(new TokenizingExpressionParser(), null, _sampler, new AdaptiveSampler(-10, 10, -10, 10, 600, 470),
+			-10, 10, 2001, 600, _executor);
+		for (String text : new String[] {"x^x", "2*x^x"}) {
+			Recorder recorder = new Recorder();
+			pipeline.submit(text, 2, true, 0, recorder);
+			assertTrue(recorder._done.await(10, TimeUnit.SECONDS));
+			assertNull(recorder._error);
+			assertEquals(2, recorder._curves.size());
+
+			recorder = new Recorder();
+			pipeline.submit(text, 2, false, 0, recorder);
+			assertTrue(recorder._done.await(10, TimeUnit.SECONDS));
+			assertNull(recorder._error);
+			assertEquals(1, recorder._curves.size());
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that parse errors are reported.
+	 */
+	public void testFailure () throws Exception {
+		final Recorder recorder = new Recorder();
+		_pipeline.submit("x+", 0, false, 0, recorder);
+		assertTrue(recorder._done.await(10, TimeUnit.SECONDS));
+		assertTrue(recorder._error instanceof ExpressionParseException);
+		assertTrue(recorder._previews.isEmpty());
+	}
+
+	@Test
+	/**
+	 * Verifies that a newer request cancels the previous one before it publishes anything.
+	 */
+	public void testCancellation () throws Exception {
+		final Recorder first = new Recorder(), second = new Recorder();
+		final PlotPipeline.Job job = _pipeline.submit("x", 0, false, 200, first);
+		_pipeline.submit("x+1", 0, false, 0, second);
+		assertTrue(job.isCancelled());
+		assertTrue(second._done.await(10, TimeUnit.SECONDS));
+		Thread.sleep(400);
+		assertTrue(first._previews.isEmpty());
+		assertNull(first._error);
+		assertEquals(1, second._curves.get(0).y(0) - second._curves.get(0).x(0), 1e-9);
+	}
+
+	@Test
+	/**
+	 * Verifies that decimation keeps the extremes of every column and the gaps.
+	 */
+	public void testDecimation () {
+		final PointBuffer points = new PointBuffer();
+		for (int i = 0; i <= 1000; i++) {
+			final double x = i / 1000.0;
+			points.add(x, i == 500 ? Double.NaN : Math.sin(40 * x));
+		}
+		final PointBuffer decimated = new PointBuffer();
+		CurveDecimator.decimate(points, 0, 1, 10, decimated);
+		assertTrue(decimated.size() <= 4 * 10 + 2);
+		int gaps = 0;
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < decimated.size(); i++) {
+			if (Double.isNaN(decimated.y(i))) {
+				gaps++;
+			} else {
+				min = Math.min(min, decimated.y(i));
+				max = Math.max(max, decimated.y(i));
+			}
+			if (i > 0) {
+				assertTrue(decimated.x(i) > decimated.x(i - 1));
+			}
+		}
+		assertEquals(1, gaps);
+		assertEquals(-1, min, 1e-4);
+		assertEquals(1, max, 1e-4);
+		assertEquals(0, decimated.x(0));
+		assertEquals(1, decimated.x(decimated.size() - 1));
+	}
+}
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/**
+ * A growable list of (x, y) points stored in two primitive arrays, so that sampling a curve allocates no boxed
+ * numbers and no per-point objects. A buffer is meant to be reused: clearing or resizing it keeps its arrays.
+ */
+class PointBuffer {
+	private double[] _xs;
+	private double[] _ys;
+	private int _size;
+
+	public PointBuffer () {
+		this(16);
+	}
+
+	/**
+	 * @param capacity the number of points the buffer can hold before it has to grow
+	 */
+	public PointBuffer (int capacity) {
+		_xs = new double[Math.max(capacity, 1)];
+		_ys = new double[_xs.length];
+	}
+
+	/**
+	 * Returns the number of points in the buffer.
+	 */
+	public int size () {
+		return _size;
+	}
+
+	public double x (int i) {
+		return _xs[i];
+	}
+
+	public double y (int i) {
+		return _ys[i];
+	}
+
+	/**
+	 * Returns the array holding the x values; only its first size() entries belong to the buffer.
+	 */
+	public double[] xs () {
+		return _xs;
+	}
+
+	/**
+	 * Returns the array holding the y values; only its first size() entries belong to the buffer.
+	 */
+	public double[] ys () {
+		return _ys;
+	}
+
+	/**
+	 * Removes all points, keeping the arrays for reuse.
+	 */
+	public void clear () {
+		_size = 0;
+	}
+
+	/**
+	 * Appends a point, growing the arrays if needed.
+	 */
+	public void add (double x, double y) {
+		if (_size == _xs.length) {
+			grow(_size + 1);
+		}
+		_xs[_size] = x;
+		_ys[_size] = y;
+		_size++;
+	}
+
+	/**
+	 * Sets the number of points, growing the arrays if needed, so that xs() and ys() can be filled in directly.
+	 * Points beyond the old size have unspecified values until they are written.
+	 * @param size the new number of points
+	 */
+	public void resize (int size) {
+		if (size > _xs.length) {
+			grow(size);
+		}
+		_size = size;
+	}
+
+	private void grow (int minCapacity) {
+		final int capacity = Math.max(minCapacity, _xs.length * 2);
+		_xs = Arrays.copyOf(_xs, capacity);
+		_ys = Arrays.copyOf(_ys, capacity);
+	}
+}
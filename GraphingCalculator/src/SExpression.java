@@ -48,6 +48,68 @@ public class SExpression implements Expression {
 		}
 	}
 
+	/**
+	 * Given the values of the variables, indexed by their slots, compute the value of this Sum expression.
+	 * @param env the value of each variable
+	 * @return the value of this expression.
+	 */
+	public double evaluate (double[] env) {
+		if(_opr.equals("+")) {
+			return _leftNode.evaluate(env) + _rightNode.evaluate(env);
+		}
+		else {
+			return _leftNode.evaluate(env) - _rightNode.evaluate(env);
+		}
+	}
+
+	/**
+	 * Given an array of values of the independent variable x, compute the value of this Sum expression at each of them.
+	 * @param xs the values of the independent variable x
+	 * @param out receives the value of this expression at each of xs
+	 */
+	public void evaluateBatch (double[] xs, double[] out) {
+		evaluateBatch(xs, out, new BatchScratch());
+	}
+
+	/**
+	 * Given an array of values of the independent variable x, compute the value of this Sum expression at each of them,
+	 * with the values of the right operand in an array from scratch.
+	 * @param xs the values of the independent variable x
+	 * @param out receives the value of this expression at each of xs
+	 * @param scratch the arrays for intermediate values
+	 */
+	public void evaluateBatch (double[] xs, double[] out, BatchScratch scratch) {
+		_leftNode.evaluateBatch(xs, out, scratch);
+		final double[] right = scratch.acquire(xs.length);
+		try {
+			_rightNode.evaluateBatch(xs, right, scratch);
+			if(_opr.equals("+")) {
+				BatchKernels.add(out, right, xs.length);
+			}
+			else {
+				BatchKernels.subtract(out, right, xs.length);
+			}
+		} finally {
+			scratch.release();
+		}
+	}
+
+	/**
+	 * Given a range of the independent variable x, compute a range enclosing every value of this Sum expression over it.
+	 * @param lo the smallest value of x
+	 * @param hi the largest value of x
+	 * @return the range of the values of this expression
+	 */
+	public Interval evaluateInterval (double lo, double hi) {
+		final Interval left = _leftNode.evaluateInterval(lo, hi), right = _rightNode.evaluateInterval(lo, hi);
+		if(_opr.equals("+")) {
+			return left.add(right);
+		}
+		else {
+			return left.subtract(right);
+		}
+	}
+
 	/**
 	 * Produce a new, fully independent (i.e., there should be no shared subtrees) Sum Expression
 	 * representing the derivative of this expression.
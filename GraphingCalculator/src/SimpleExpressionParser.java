@@ -1,9 +1,128 @@
-import java.util.function.*;
+import java.util.*;
 
 public class SimpleExpressionParser implements ExpressionParser {
+	// Indices of the production rules in the packrat memo table.
+	protected static final int S = 0, M = 1, E = 2, P = 3, L = 4, V = 5;
+
+	/**
+	 * Parses the range [start, end) of the string being parsed according to one production rule.
+	 */
+	@FunctionalInterface
+	protected interface RangeParser {
+		Expression parse (ParseState state, int start, int end);
+	}
+
+	/**
+	 * The state of a single call to parse: the string being parsed and, in packrat mode, the table of results
+	 * of every production rule on every range of that string that has been tried so far.
+	 */
+	protected static class ParseState {
+		// Stands in for a null result in the memo table, so that failed parses are remembered as well.
+		private static final Expression FAILED = new VariableExpression();
+
+		final String _str;
+		// For every production rule, the results on the ranges it was tried on, keyed by start << 32 | end.
+		private final List<Map<Long, Expression>> _memo;
+		// The number of times parseHelper split a range at an operator, and the number of parseL calls, for Metrics.
+		int _splitAttempts, _literalCalls;
+		// The characters parseHelper has looked at plus the parseL calls so far, and the most the ParseBudget allows.
+		private long _work;
+		private final long _maxWork;
+
+		ParseState (String str, boolean memoize, long maxWork) {
+			_str = str;
+			_maxWork = maxWork;
+			if (memoize) {
+				_memo = new ArrayList<>(V + 1);
+				for (int i = 0; i <= V; i++) {
+					_memo.add(new HashMap<>());
+				}
+			} else {
+				_memo = null;
+			}
+		}
+
+		/**
+		 * Looks up the result of a production rule on a range.
+		 * @return the remembered result, FAILED if the rule is known not to match, or null if it is unknown
+		 */
+		Expression recall (int production, int start, int end) {
+			return _memo == null ? null : _memo.get(production).get(((long) start << 32) | end);
+		}
+
+		/**
+		 * Remembers the result of a production rule on a range (in packrat mode), and returns it.
+		 */
+		Expression remember (int production, int start, int end, Expression expression) {
+			if (_memo != null) {
+				_memo.get(production).put(((long) start << 32) | end, expression == null ? FAILED : expression);
+			}
+			return expression;
+		}
+
+		/**
+		 * Counts steps, such as looking at a character in parseHelper or a parseL call, against the budget.
+		 * @param steps the number of steps
+		 * @throws WorkExceeded if the budget is used up
+		 */
+		void spend (int steps) {
+			if ((_work += steps) > _maxWork) {
+				throw WorkExceeded.INSTANCE;
+			}
+		}
+	}
+
+	/**
+	 * Unwinds a parse that used up its work budget; parse turns it into a ParseBudgetExceededException. It has no
+	 * stack trace, since it is only ever caught.
+	 */
+	protected static final class WorkExceeded extends RuntimeException {
+		static final WorkExceeded INSTANCE = new WorkExceeded();
+
+		private WorkExceeded () {
+			super(null, null, false, false);
+		}
+	}
+
+	private final boolean _memoize;
+	private final VariableScope _scope;
+	private final ParseBudget _budget;
+
+	public SimpleExpressionParser () {
+		this(false);
+	}
+
+	/**
+	 * @param memoize whether to parse in packrat mode, i.e. remember the result of every production rule on every
+	 * range of the input, which makes parsing polynomial instead of exponential without changing which tree is built
+	 */
+	public SimpleExpressionParser (boolean memoize) {
+		this(VariableScope.X, memoize);
+	}
+
+	/**
+	 * @param scope the variables the parsed expressions may use
+	 * @param memoize whether to parse in packrat mode
+	 */
+	public SimpleExpressionParser (VariableScope scope, boolean memoize) {
+		this(scope, memoize, ParseBudget.DEFAULT);
+	}
+
+	/**
+	 * @param scope the variables the parsed expressions may use
+	 * @param memoize whether to parse in packrat mode
+	 * @param budget the limits on the inputs and on the work done parsing each of them
+	 */
+	public SimpleExpressionParser (VariableScope scope, boolean memoize, ParseBudget budget) {
+		_scope = scope;
+		_memoize = memoize;
+		_budget = budget;
+	}
+
         /*
          * Attempts to create an expression tree from the specified String.
-         * Throws a ExpressionParseException if the specified string cannot be parsed.
+         * Throws a ExpressionParseException if the specified string cannot be parsed, or a ParseBudgetExceededException
+	 * if parsing it would exceed the parser's budget.
 	 * Grammar:
 	 * S -> A | P
 	 * A -> A+M | A-M | M
@@ -11,14 +130,31 @@ public class SimpleExpressionParser implements ExpressionParser {
 	 * E -> P^E | P | log(P)
 	 * P -> (S) | L | V
 	 * L -> <float>
-	 * V -> x
+	 * V -> a variable of the scope (x by default)
          * @param str the string to parse into an expression tree
          * @return the Expression object representing the parsed expression tree
          */
 	public Expression parse (String str) throws ExpressionParseException {
+		_budget.check(str);
 		str = str.replaceAll(" ", "");
 		
-		Expression expression = parseS(str);
+		final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		final ParseState state = new ParseState(str, _memoize, _budget.getMaxWork());
+		Expression expression;
+		try {
+			expression = parseS(state, 0, str.length());
+		} catch (WorkExceeded we) {
+			if (Metrics.ENABLED) {
+				Metrics.parsed("SimpleExpressionParser", str.length(), start, state._splitAttempts, state._literalCalls, false);
+			}
+			throw _budget.workExceeded();
+		} catch (StackOverflowError soe) {
+			// Long chains of operators recurse once per operator, even without parentheses.
+			throw ParseBudget.stackExhausted();
+		}
+		if (Metrics.ENABLED) {
+			Metrics.parsed("SimpleExpressionParser", str.length(), start, state._splitAttempts, state._literalCalls, expression != null);
+		}
 		if (expression == null) {
 			throw new ExpressionParseException("Cannot parse expression: " + str);
 		}
@@ -28,25 +164,32 @@ public class SimpleExpressionParser implements ExpressionParser {
 	}
 	
 	/**
-	 * Helps parse a string by separating it based on a given operation, and parsing each side with given
-	 * parse lambda functions. The function will iterate through all instances of the operator in the given string.
-	 * If the string is valid, the function will return an array of the operand expressions.
-	 * If the string is not valid, the function will return null.
-	 * @param str the string to be parsed
+	 * Helps parse a range by separating it based on a given operation, and parsing each side with given
+	 * parse functions. The function will iterate through all instances of the operator in the given range.
+	 * If the range is valid, the function will return an array of the operand expressions.
+	 * If the range is not valid, the function will return null.
+	 * @param state the state of the current parse
+	 * @param start the start of the range to be parsed (inclusive)
+	 * @param end the end of the range to be parsed (exclusive)
 	 * @param op the given operator string
 	 * @param m1 the parsing function for the left of the operator
 	 * @param m2 the parsing function for the right of the operator
 	 * @return a array of the operand expressions
 	 */
-	protected Expression[] parseHelper (String str, char op, Function<String, Expression> m1, Function<String, Expression> m2) {
-		Expression[] output = new Expression[2];
-		for (int i = 0; i < str.length(); i++) {
+	protected Expression[] parseHelper (ParseState state, int start, int end, char op, RangeParser m1, RangeParser m2) {
+		for (int i = start; i < end; i++) {
+			state.spend(1);
 			// If the program finds an instance of the operator, it checks if the operands are valid expressions of the given type. 
 			// If they are, it returns the operands. If they aren't, the program keeps searching for an instance of the operator.
-			if (str.charAt(i) == op && m1.apply(str.substring(0, i)) != null && m2.apply(str.substring(i+1)) != null) {
-				output[0] = m1.apply(str.substring(0, i));
-				output[1] = m2.apply(str.substring(i+1));
-				return output;
+			if (state._str.charAt(i) == op) {
+				state._splitAttempts++;
+				final Expression left = m1.parse(state, start, i);
+				if (left != null) {
+					final Expression right = m2.parse(state, i + 1, end);
+					if (right != null) {
+						return new Expression[] { left, right };
+					}
+				}
 			}
 		}
 		
@@ -55,20 +198,18 @@ public class SimpleExpressionParser implements ExpressionParser {
 	}
 	
 	/**
-	 * Helper function that checks if the given string is a valid logarithm expression. If the string is valid, the function returns the nested expression.
-	 * If the string is not a valid log expression, the function returns null.
-	 * @param str the given string
+	 * Helper function that checks if the given range is a valid logarithm expression. If the range is valid, the function returns the nested expression.
+	 * If the range is not a valid log expression, the function returns null.
+	 * @param state the state of the current parse
+	 * @param start the start of the range (inclusive)
+	 * @param end the end of the range (exclusive)
 	 * @return the nested expression or null
 	 */
-	protected Expression logHelper (String str) {
-		// The function checks if the expression meets a minimum length and contains "log"
-		if (str.length() >= 3 && str.substring(0, 3).equals("log")) {
-			
-			int index = str.indexOf("log");
+	protected Expression logHelper (ParseState state, int start, int end) {
+		// The function checks if the expression meets a minimum length and starts with "log"
+		if (end - start >= 3 && state._str.startsWith("log", start)) {
 			// The function checks if the nested expression is a valid expression.
-			if (parseP(str.substring(index + 3)) != null) {
-				return parseP(str.substring(index + 3));
-			}
+			return parseP(state, start + 3, end);
 		}
 		
 		// If the program determines that the expression is not valid, it communicates this with a null object.
@@ -76,224 +217,201 @@ public class SimpleExpressionParser implements ExpressionParser {
 	}
 
 	/**
-	 * Helper function that checks if the given string is a valid parentheses expression. If it is the function
+	 * Helper function that checks if the given range is a valid parentheses expression. If it is the function
 	 * returns the nested expression. If it isn't, the function returns null.
-	 * @param str the given string
+	 * @param state the state of the current parse
+	 * @param start the start of the range (inclusive)
+	 * @param end the end of the range (exclusive)
 	 * @return the nested expression or null
 	 */
-	protected Expression parenthesesHelper (String str) {
+	protected Expression parenthesesHelper (ParseState state, int start, int end) {
 		// Strips any whitespace that might confuse the program
-		String condensed = str.strip();
-		int condensedLen = condensed.length();
-		// Checks if the string is wrapped by ()
-		if (condensedLen >= 3 && condensed.charAt(0) == '(' && condensed.charAt(condensedLen - 1) == ')') {
-			// Checks if nested expression is valid
-			if (parseS(condensed.substring(1, condensedLen - 1)) != null) {
-				return parseS(condensed.substring(1, condensedLen - 1));
-			} else {
-				// Nested expression is not valid
-				return null;
-			}
+		final String str = state._str;
+		while (start < end && Character.isWhitespace(str.charAt(start))) {
+			start++;
+		}
+		while (end > start && Character.isWhitespace(str.charAt(end - 1))) {
+			end--;
+		}
+		// Checks if the range is wrapped by () and if the nested expression is valid
+		if (end - start >= 3 && str.charAt(start) == '(' && str.charAt(end - 1) == ')') {
+			return parseS(state, start + 1, end - 1);
 		} else {
-			// String is not wrapped by ()
+			// Range is not wrapped by ()
 			return null;
 		}
 	}
 	
 	/**
-	 * Checks if the given string meets the S (start/sum/subtraction) production rule (see above). If it does, the expression is parsed and returned
+	 * Checks if the given range meets the S (start/sum/subtraction) production rule (see above). If it does, the expression is parsed and returned
 	 * to be stored in a tree. If it isn't, the function returns null.
-	 * @param str the given string
+	 * @param state the state of the current parse
+	 * @param start the start of the range (inclusive)
+	 * @param end the end of the range (exclusive)
 	 * @return parsed expression or null
 	 */
-	protected Expression parseS (String str) {
-		Expression expression;
-		Expression[] plusOperands = parseHelper(str, '+', this::parseS, this::parseM);
-		Expression[] minusOperands = parseHelper(str, '-', this::parseS, this::parseM);
-		Expression multDivExpression = parseM(str);
+	protected Expression parseS (ParseState state, int start, int end) {
+		final Expression memo = state.recall(S, start, end);
+		if (memo != null) {
+			return memo == ParseState.FAILED ? null : memo;
+		}
 
+		Expression expression;
+		Expression[] operands;
 		// S+M
-		if (plusOperands != null) {
-			expression = new SExpression(plusOperands[0], plusOperands[1], "+");
+		if ((operands = parseHelper(state, start, end, '+', this::parseS, this::parseM)) != null) {
+			expression = new SExpression(operands[0], operands[1], "+");
 		} 
 		// S-M
-		else if (minusOperands != null) {
-			expression = new SExpression(minusOperands[0], minusOperands[1], "-");
-		} 
-		// M
-		else if (multDivExpression != null) {
-			expression = multDivExpression;
+		else if ((operands = parseHelper(state, start, end, '-', this::parseS, this::parseM)) != null) {
+			expression = new SExpression(operands[0], operands[1], "-");
 		} 
-		// Meets none of the rules, not a valid expression.
+		// M (null if it meets none of the rules, i.e. not a valid expression)
 		else {
-			expression = null;
-		}
+			expression = parseM(state, start, end);
+		} 
 		
-		return expression;
+		return state.remember(S, start, end, expression);
 	}
 	
 	/**
-	 * Checks if the given string meets the M (multiplication/division) production rule (see above). If it does, the expression is parsed and returned
+	 * Checks if the given range meets the M (multiplication/division) production rule (see above). If it does, the expression is parsed and returned
 	 * to be stored in a tree. If it isn't, the function returns null.
-	 * @param str the given string
+	 * @param state the state of the current parse
+	 * @param start the start of the range (inclusive)
+	 * @param end the end of the range (exclusive)
 	 * @return parsed expression or null
 	 */
-	protected Expression parseM (String str) {
+	protected Expression parseM (ParseState state, int start, int end) {
+		final Expression memo = state.recall(M, start, end);
+		if (memo != null) {
+			return memo == ParseState.FAILED ? null : memo;
+		}
+
 		Expression expression;
-		Expression[] multOperands = parseHelper(str, '*', this::parseM, this::parseE);
-		Expression[] divOperands = parseHelper(str, '/', this::parseM, this::parseE);
-		Expression exponentExpression = parseE(str);
-		
+		Expression[] operands;
 		// M*E
-		if (multOperands != null) {
-			expression = new MExpression(multOperands[0], multOperands[1], "*");
+		if ((operands = parseHelper(state, start, end, '*', this::parseM, this::parseE)) != null) {
+			expression = new MExpression(operands[0], operands[1], "*");
 		} 
 		// M/E
-		else if (divOperands != null) {
-			expression = new MExpression(divOperands[0], divOperands[1], "/");
-		} 
-		// E
-		else if (exponentExpression != null) {
-			expression = exponentExpression;
+		else if ((operands = parseHelper(state, start, end, '/', this::parseM, this::parseE)) != null) {
+			expression = new MExpression(operands[0], operands[1], "/");
 		} 
-		// Meets none of the rules, not a valid expression
+		// E (null if it meets none of the rules, i.e. not a valid expression)
 		else {
-			expression = null;
-		}
+			expression = parseE(state, start, end);
+		} 
 	
-		return expression;
+		return state.remember(M, start, end, expression);
 	}
 	
 	/**
-	 * Checks if the given string meets the E (exponents/logarithms) production rule (see above). If it does, the expression is parsed and returned
+	 * Checks if the given range meets the E (exponents/logarithms) production rule (see above). If it does, the expression is parsed and returned
 	 * to be stored in a tree. If it isn't, the function returns null.
-	 * @param str the given string
+	 * @param state the state of the current parse
+	 * @param start the start of the range (inclusive)
+	 * @param end the end of the range (exclusive)
 	 * @return parsed expression or null
 	 */
-	protected Expression parseE (String str) {
+	protected Expression parseE (ParseState state, int start, int end) {
+		final Expression memo = state.recall(E, start, end);
+		if (memo != null) {
+			return memo == ParseState.FAILED ? null : memo;
+		}
+
 		Expression expression;
-		Expression[] exponentOperands = parseHelper(str, '^', this::parseP, this::parseE);
-		Expression logExpression = logHelper(str);
-		Expression parenExpression = parseP(str);
-		
+		Expression[] operands;
+		Expression logExpression;
 		// P^E
-		if (exponentOperands != null) {
-			expression = new EExpression(exponentOperands[0], exponentOperands[1], "^");
+		if ((operands = parseHelper(state, start, end, '^', this::parseP, this::parseE)) != null) {
+			expression = new EExpression(operands[0], operands[1], "^");
 		} 
 		// log P
-		else if (logExpression != null) {
+		else if ((logExpression = logHelper(state, start, end)) != null) {
 			expression = new EExpression(null, logExpression, "log");
 		} 
-		// P
-		else if (parenExpression != null) {
-			expression = parenExpression;
-		} 
-		// Meets none of the rules, not a valid expression
+		// P (null if it meets none of the rules, i.e. not a valid expression)
 		else {
-			expression = null;
-		}
+			expression = parseP(state, start, end);
+		} 
 		
-		return expression;
+		return state.remember(E, start, end, expression);
 	}
 	
 	/**
-	 * Checks if the given string meets the P (parentheses) production rule (see above). If it does, the expression is parsed and returned
+	 * Checks if the given range meets the P (parentheses) production rule (see above). If it does, the expression is parsed and returned
 	 * to be stored in a tree. If it isn't, the function returns null.
-	 * @param str the given string
+	 * @param state the state of the current parse
+	 * @param start the start of the range (inclusive)
+	 * @param end the end of the range (exclusive)
 	 * @return parsed expression or null
 	 */
-	protected Expression parseP (String str) {
-		Expression expression;
-		Expression parenExpression = parenthesesHelper(str);
+	protected Expression parseP (ParseState state, int start, int end) {
+		final Expression memo = state.recall(P, start, end);
+		if (memo != null) {
+			return memo == ParseState.FAILED ? null : memo;
+		}
+
+		Expression expression = parenthesesHelper(state, start, end);
 		
 		// (S)
-		if (parenExpression != null) {
-			expression = new PExpression(parenExpression);
-		} 
-		// L
-		else if (parseL(str) != null) {
-			expression = parseL(str);
+		if (expression != null) {
+			expression = new PExpression(expression);
 		} 
-		// V
-		else if (parseV(str) != null) {
-			expression = parseV(str);
+		// L, otherwise V (null if it meets none of the rules, i.e. not a valid expression)
+		else if ((expression = parseL(state, start, end)) == null) {
+			expression = parseV(state, start, end);
 		} 
-		// Meets none of the rules, not a valid expression
-		else {
-			expression = null;
-		}
 		
-		return expression;
+		return state.remember(P, start, end, expression);
 	}
 	
 	/**
-	 * Checks if the given string meets the V (variable or 'x') production rule (see above). If it does, the expression is parsed and returned
+	 * Checks if the given range meets the V (a variable of the scope) production rule (see above). If it does, the expression is parsed and returned
 	 * to be stored in a tree. If it isn't, the function returns null.
-	 * @param str the given string
+	 * @param state the state of the current parse
+	 * @param start the start of the range (inclusive)
+	 * @param end the end of the range (exclusive)
 	 * @return parsed expression or null
 	 */
-	protected Expression parseV (String str) {
-		// a VariableExpression can only ever take on the value "x"
-		if (str.strip().equals("x")) {
-			return new VariableExpression();
+	protected Expression parseV (ParseState state, int start, int end) {
+		final Expression memo = state.recall(V, start, end);
+		if (memo != null) {
+			return memo == ParseState.FAILED ? null : memo;
+		}
+
+		// the variable's slot is looked up now, so that evaluation only has to index an array
+		state.spend(end - start);
+		final String name = state._str.substring(start, end).strip();
+		final int slot = _scope.slot(name);
+		if (slot >= 0) {
+			return state.remember(V, start, end, new VariableExpression(name, slot));
 		} else {
-			return null;
+			return state.remember(V, start, end, null);
 		}
 	}
 
 	/**
-	 * Checks if the given string meets the L (literal or double) production rule (see above). If it does, the expression is parsed and returned
+	 * Checks if the given range meets the L (literal or double) production rule (see above). If it does, the expression is parsed and returned
 	 * to be stored in a tree. If it isn't, the function returns null.
-	 * @param str the given string
+	 * @param state the state of the current parse
+	 * @param start the start of the range (inclusive)
+	 * @param end the end of the range (exclusive)
 	 * @return parsed expression or null
 	 */
-	protected /*Literal*/Expression parseL (String str) {
-		// From https://stackoverflow.com/questions/3543729/how-to-check-that-a-string-is-parseable-to-a-double/22936891:
-		final String Digits     = "(\\p{Digit}+)";
-		final String HexDigits  = "(\\p{XDigit}+)";
-		// an exponent is 'e' or 'E' followed by an optionally 
-		// signed decimal integer.
-		final String Exp        = "[eE][+-]?"+Digits;
-		final String fpRegex    =
-		    ("[\\x00-\\x20]*"+ // Optional leading "whitespace"
-		    "[+-]?(" +         // Optional sign character
-		    "NaN|" +           // "NaN" string
-		    "Infinity|" +      // "Infinity" string
-
-		    // A decimal floating-point string representing a finite positive
-		    // number without a leading sign has at most five basic pieces:
-		    // Digits . Digits ExponentPart FloatTypeSuffix
-		    // 
-		    // Since this method allows integer-only strings as input
-		    // in addition to strings of floating-point literals, the
-		    // two sub-patterns below are simplifications of the grammar
-		    // productions from the Java Language Specification, 2nd 
-		    // edition, section 3.10.2.
-
-		    // Digits ._opt Digits_opt ExponentPart_opt FloatTypeSuffix_opt
-		    "((("+Digits+"(\\.)?("+Digits+"?)("+Exp+")?)|"+
-
-		    // . Digits ExponentPart_opt FloatTypeSuffix_opt
-		    "(\\.("+Digits+")("+Exp+")?)|"+
-
-		    // Hexadecimal strings
-		    "((" +
-		    // 0[xX] HexDigits ._opt BinaryExponent FloatTypeSuffix_opt
-		    "(0[xX]" + HexDigits + "(\\.)?)|" +
-
-		    // 0[xX] HexDigits_opt . HexDigits BinaryExponent FloatTypeSuffix_opt
-		    "(0[xX]" + HexDigits + "?(\\.)" + HexDigits + ")" +
-
-		    ")[pP][+-]?" + Digits + "))" +
-		    "[fFdD]?))" +
-		    "[\\x00-\\x20]*");// Optional trailing "whitespace"
-
-		if (str.matches(fpRegex)) {
-			return new LiteralExpression(Double.parseDouble(str));
-			// TODO: Once you implement LiteralExpression, replace the line above with the line below:
-			// return new LiteralExpression(str);
+	protected /*Literal*/Expression parseL (ParseState state, int start, int end) {
+		state._literalCalls++;
+		state.spend(1);
+		final Expression memo = state.recall(L, start, end);
+		if (memo != null) {
+			return memo == ParseState.FAILED ? null : memo;
 		}
-		return null;
+
+		// LiteralScanner accepts exactly the language of the floating-point regular expression from
+		// https://stackoverflow.com/questions/3543729/how-to-check-that-a-string-is-parseable-to-a-double/22936891
+		// (i.e. that of Double.parseDouble) without compiling a Pattern or copying the range on every call.
+		return state.remember(L, start, end, LiteralScanner.parse(state._str, start, end));
 	}
 
 	public static void main (String[] args) throws ExpressionParseException {
@@ -301,7 +419,3 @@ public class SimpleExpressionParser implements ExpressionParser {
 		System.out.println(parser.parse("10*2+12-4.").convertToString(0));
 	}
 }
-
-
-
-
@@ -0,0 +1,56 @@
+/**
+ * Compares the size and evaluation speed of expressions and their first two derivatives before and after
+ * ExpressionSimplifier.simplify. Run with the number of x values as an optional argument.
+ */
+public class SimplifierBenchmark {
+	private static final String[] EXPRESSIONS = { "2*x+5*x*x", "10*x^3 + 2*(15+x)", "1./(1. + 5^(-1*x))", "(x-1)*(x+1)/(x*x+1) - 3*x/7" };
+	private static final int ROUNDS = 10;
+	// Sum of all values computed, printed so that the evaluations can't be optimized away.
+	private static double checksum;
+
+	public static void main (String[] args) throws ExpressionParseException {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 2001;
+		final double[] xs = new double[count];
+		for (int i = 0; i < count; i++) {
+			xs[i] = -10 + 20.0 * i / (count - 1);
+		}
+		final ExpressionParser parser = new TokenizingExpressionParser();
+		// Repeat so that every curve is evaluated about two million times in total.
+		final int repetitions = Math.max(1, 2000000 / count);
+
+		for (String expressionStr : EXPRESSIONS) {
+			Expression expression = parser.parse(expressionStr);
+			for (int order = 0; order <= 2; order++) {
+				final Expression simplified = ExpressionSimplifier.simplify(expression);
+				final double plainNanos = time(expression, xs, repetitions), simplifiedNanos = time(simplified, xs, repetitions);
+				final double evaluations = (double) repetitions * count * (ROUNDS - ROUNDS / 2);
+				System.out.printf("%-32s f%-3s nodes %5d -> %4d   %8.2f -> %7.2f ns/x   speedup %5.2fx%n", expressionStr, "'".repeat(order),
+					ExpressionSimplifier.countNodes(expression), ExpressionSimplifier.countNodes(simplified),
+					plainNanos / evaluations, simplifiedNanos / evaluations, plainNanos / simplifiedNanos);
+				// Differentiate the simplified tree, as GraphingCalculator does, so higher derivatives exist.
+				expression = simplified.differentiate();
+			}
+		}
+		System.out.printf("(checksum %g)%n", checksum);
+	}
+
+	/**
+	 * Returns the total time of the measured rounds of evaluating the expression at every x.
+	 */
+	private static double time (Expression expression, double[] xs, int repetitions) {
+		double nanos = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			final long start = System.nanoTime();
+			for (int r = 0; r < repetitions; r++) {
+				for (double x : xs) {
+					checksum += expression.evaluate(x);
+				}
+			}
+			// The first half of the rounds is warm-up.
+			if (round >= ROUNDS / 2) {
+				nanos += System.nanoTime() - start;
+			}
+		}
+		return nanos;
+	}
+}
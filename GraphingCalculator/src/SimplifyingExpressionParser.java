@@ -0,0 +1,22 @@
+/**
+ * An ExpressionParser that simplifies the trees another parser produces with ExpressionSimplifier.
+ */
+class SimplifyingExpressionParser implements ExpressionParser {
+	private final ExpressionParser _parser;
+
+	/**
+	 * @param parser the parser whose results to simplify
+	 */
+	public SimplifyingExpressionParser (ExpressionParser parser) {
+		_parser = parser;
+	}
+
+	/**
+	 * Parses the string with the underlying parser and returns the simplified tree.
+	 * @param str the string to parse into an expression tree
+	 * @return the simplified Expression object representing the parsed expression tree
+	 */
+	public Expression parse (String str) throws ExpressionParseException {
+		return ExpressionSimplifier.simplify(_parser.parse(str));
+	}
+}
@@ -0,0 +1,307 @@
+public class TokenizingExpressionParser implements ExpressionParser {
+	// Token kinds produced by the tokenizer.
+	protected static final int END = 0, LITERAL = 1, VARIABLE = 2, LOG = 3, OPEN = 4, CLOSE = 5;
+	protected static final int PLUS = 6, MINUS = 7, TIMES = 8, DIVIDE = 9, POWER = 10;
+
+	/**
+	 * The token array of one input string. The string is scanned exactly once, and the parser then
+	 * walks this array from left to right without ever looking at the characters again.
+	 */
+	protected static class Tokens {
+		final String _str;
+		final int[] _kinds;
+		final double[] _values;
+		final int[] _starts;
+		int _size;
+		int _position;
+
+		Tokens (String str) {
+			_str = str;
+			// There can never be more tokens than characters, plus the END token.
+			_kinds = new int[str.length() + 1];
+			_values = new double[str.length() + 1];
+			_starts = new int[str.length() + 1];
+		}
+
+		void add (int kind, double value, int start) {
+			_kinds[_size] = kind;
+			_values[_size] = value;
+			_starts[_size] = start;
+			_size++;
+		}
+
+		int peek () {
+			return _kinds[_position];
+		}
+	}
+
+	// The variables the parsed expressions may use. The value of a VARIABLE token is the variable's slot.
+	protected final VariableScope _scope;
+	// The limits on the inputs. Parsing takes linear time, so only their length and depth are limited.
+	protected final ParseBudget _budget;
+
+	/**
+	 * Creates a parser for expressions of x.
+	 */
+	public TokenizingExpressionParser () {
+		this(VariableScope.X);
+	}
+
+	/**
+	 * @param scope the variables the parsed expressions may use
+	 */
+	public TokenizingExpressionParser (VariableScope scope) {
+		this(scope, ParseBudget.DEFAULT);
+	}
+
+	/**
+	 * @param scope the variables the parsed expressions may use
+	 * @param budget the limits on the inputs
+	 */
+	public TokenizingExpressionParser (VariableScope scope, ParseBudget budget) {
+		_scope = scope;
+		_budget = budget;
+	}
+
+	/**
+	 * Attempts to create an expression tree from the specified String.
+	 * Throws a ExpressionParseException if the specified string cannot be parsed, or a ParseBudgetExceededException
+	 * if it is longer or nests more deeply than the parser's budget allows.
+	 * Accepts exactly the grammar of SimpleExpressionParser and builds the same tree, but the input is
+	 * tokenized once and the tree is built in a single left-to-right pass using precedence climbing,
+	 * so parse time is linear in the length of the expression.
+	 * Grammar:
+	 * S -> A | P
+	 * A -> A+M | A-M | M
+	 * M -> M*E | M/E | E
+	 * E -> P^E | P | log(P)
+	 * P -> (S) | L | V
+	 * L -> <float>
+	 * V -> a variable of the scope (x by default)
+	 * @param str the string to parse into an expression tree
+	 * @return the Expression object representing the parsed expression tree
+	 */
+	public Expression parse (String str) throws ExpressionParseException {
+		_budget.check(str);
+		try {
+			if (Metrics.ENABLED) {
+				return Metrics.timeParse(getClass().getSimpleName(), str, this::parseText);
+			}
+			return parseText(str);
+		} catch (StackOverflowError soe) {
+			// Right-associative chains such as x^x^...^x recurse once per operator, even without parentheses.
+			throw ParseBudget.stackExhausted();
+		}
+	}
+
+	/**
+	 * Does the work of parse, which times it when Metrics are enabled.
+	 * @param str the string to parse into an expression tree
+	 * @return the Expression object representing the parsed expression tree
+	 */
+	protected Expression parseText (String str) throws ExpressionParseException {
+		str = str.replaceAll(" ", "");
+
+		final Tokens tokens = tokenize(str);
+		final Expression expression = parseBinary(tokens, 1);
+		if (tokens.peek() != END) {
+			throw new ExpressionParseException("Cannot parse expression: " + str);
+		}
+
+		return expression;
+	}
+
+	/**
+	 * Splits the given string into tokens. A '+' or '-' only becomes part of a literal when it appears where an
+	 * operand is expected (e.g. "2*-3" or "x^-1"), which is the only place SimpleExpressionParser can accept a signed literal.
+	 * @param str the string to tokenize
+	 * @return the tokens, terminated by an END token
+	 * @throws ExpressionParseException if the string contains a character that cannot start any token
+	 */
+	protected Tokens tokenize (String str) throws ExpressionParseException {
+		final Tokens tokens = new Tokens(str);
+		tokenize(tokens, 0, true);
+		return tokens;
+	}
+
+	/**
+	 * Appends the tokens of the string from index i on, followed by the END token.
+	 * @param tokens the tokens of the string so far
+	 * @param i the index of the first character to tokenize
+	 * @param expectOperand whether the next token has to be an operand, i.e. we are at the start, or after an operator, '(' or log
+	 * @throws ExpressionParseException if the string contains a character that cannot start any token
+	 */
+	protected void tokenize (Tokens tokens, int i, boolean expectOperand) throws ExpressionParseException {
+		final String str = tokens._str;
+		final int length = str.length();
+		while (i < length) {
+			final char c = str.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+			if (resume(tokens, i, expectOperand)) {
+				return;
+			}
+
+			// L
+			if (c != '+' && c != '-' || expectOperand) {
+				final int end = LiteralScanner.scan(str, i, length);
+				if (end > i) {
+					tokens.add(LITERAL, Double.parseDouble(str.substring(i, end)), i);
+					expectOperand = false;
+					i = end;
+					continue;
+				}
+			}
+
+			final int kind;
+			int tokenLength = 1;
+			double value = 0;
+			switch (c) {
+				case '(': kind = OPEN; break;
+				case ')': kind = CLOSE; break;
+				case '+': kind = PLUS; break;
+				case '-': kind = MINUS; break;
+				case '*': kind = TIMES; break;
+				case '/': kind = DIVIDE; break;
+				case '^': kind = POWER; break;
+				default:
+					// SimpleExpressionParser only strips whitespace around a P, so none may come before log.
+					if (str.startsWith("log", i) && (i == 0 || !Character.isWhitespace(str.charAt(i - 1)))) {
+						kind = LOG;
+						tokenLength = 3;
+					} else {
+						// V
+						final int end = VariableScope.scanIdentifier(str, i, length);
+						final int slot = end > i ? _scope.slot(str.substring(i, end)) : -1;
+						if (slot < 0) {
+							throw new ExpressionParseException("Cannot parse expression: " + str);
+						}
+						kind = VARIABLE;
+						tokenLength = end - i;
+						value = slot;
+					}
+			}
+			tokens.add(kind, value, i);
+			expectOperand = kind != VARIABLE && kind != CLOSE;
+			i += tokenLength;
+		}
+		tokens.add(END, 0, length);
+	}
+
+	/**
+	 * Called by tokenize before each token. A subclass that already knows the remaining tokens of the string,
+	 * e.g. from an earlier version of it, can append them, including the END token, and return true to stop tokenizing.
+	 * @param tokens the tokens of the string so far
+	 * @param i the index of the first character of the next token
+	 * @param expectOperand whether the next token has to be an operand
+	 * @return whether the remaining tokens have been appended
+	 */
+	protected boolean resume (Tokens tokens, int i, boolean expectOperand) {
+		return false;
+	}
+
+	/**
+	 * Parses a sequence of operands joined by binary operators that bind at least as tightly as minPrecedence.
+	 * '+' and '-' (precedence 1) and '*' and '/' (precedence 2) are left associative, while '^' (precedence 3)
+	 * is right associative and, as in the rule E -> P^E, only accepts a single P as its base.
+	 * @param tokens the tokens, positioned at the first token of the operand
+	 * @param minPrecedence the lowest operator precedence this call may consume
+	 * @return the parsed expression
+	 * @throws ExpressionParseException if the tokens do not form a valid expression
+	 */
+	protected Expression parseBinary (Tokens tokens, int minPrecedence) throws ExpressionParseException {
+		// log(P) is an E, so it can't be the base of an exponent.
+		boolean isP = tokens.peek() != LOG;
+		Expression expression = parseOperand(tokens);
+
+		while (true) {
+			final int operator = tokens.peek();
+			final int precedence = precedence(operator);
+			if (precedence < minPrecedence) {
+				return expression;
+			}
+			tokens._position++;
+
+			switch (operator) {
+				case PLUS:
+					expression = new SExpression(expression, parseBinary(tokens, precedence + 1), "+");
+					break;
+				case MINUS:
+					expression = new SExpression(expression, parseBinary(tokens, precedence + 1), "-");
+					break;
+				case TIMES:
+					expression = new MExpression(expression, parseBinary(tokens, precedence + 1), "*");
+					break;
+				case DIVIDE:
+					expression = new MExpression(expression, parseBinary(tokens, precedence + 1), "/");
+					break;
+				default:
+					// P^E
+					if (!isP) {
+						throw new ExpressionParseException("Cannot parse expression: " + tokens._str);
+					}
+					expression = new EExpression(expression, parseBinary(tokens, precedence), "^");
+			}
+			isP = false;
+		}
+	}
+
+	/**
+	 * Parses a single operand: a P, or log followed by a P.
+	 * @param tokens the tokens, positioned at the first token of the operand
+	 * @return the parsed operand
+	 * @throws ExpressionParseException if the tokens do not start with a valid operand
+	 */
+	protected Expression parseOperand (Tokens tokens) throws ExpressionParseException {
+		// log P
+		if (tokens.peek() == LOG) {
+			tokens._position++;
+			return new EExpression(null, parseP(tokens), "log");
+		}
+		return parseP(tokens);
+	}
+
+	/**
+	 * Parses the P (parentheses) production rule (see above).
+	 * @param tokens the tokens, positioned at the first token of the P
+	 * @return the parsed expression
+	 * @throws ExpressionParseException if the tokens do not start with a valid P
+	 */
+	protected Expression parseP (Tokens tokens) throws ExpressionParseException {
+		final int position = tokens._position++;
+		switch (tokens._kinds[position]) {
+			// L
+			case LITERAL:
+				return new LiteralExpression(tokens._values[position]);
+			// V
+			case VARIABLE:
+				final int slot = (int) tokens._values[position];
+				return new VariableExpression(_scope.name(slot), slot);
+			// (S)
+			case OPEN:
+				final Expression nested = parseBinary(tokens, 1);
+				if (tokens.peek() != CLOSE) {
+					break;
+				}
+				tokens._position++;
+				return new PExpression(nested);
+		}
+		throw new ExpressionParseException("Cannot parse expression: " + tokens._str);
+	}
+
+	/**
+	 * Returns the binding strength of the given token, or 0 if the token is not a binary operator.
+	 * @param kind the token kind
+	 * @return the precedence of the operator
+	 */
+	protected static int precedence (int kind) {
+		switch (kind) {
+			case PLUS: case MINUS: return 1;
+			case TIMES: case DIVIDE: return 2;
+			case POWER: return 3;
+			default: return 0;
+		}
+	}
+}
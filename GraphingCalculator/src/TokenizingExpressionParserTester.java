@@ -0,0 +1,61 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * Checks that TokenizingExpressionParser builds exactly the same trees as SimpleExpressionParser.
+ */
+public class TokenizingExpressionParserTester {
+	private ExpressionParser _simpleParser;
+	private ExpressionParser _tokenizingParser;
+
+	@BeforeEach
+	/**
+	 * Instantiates both parsers
+	 */
+	public void setUp () {
+		_simpleParser = new SimpleExpressionParser();
+		_tokenizingParser = new TokenizingExpressionParser();
+	}
+
+	/**
+	 * Parses the string with the given parser, returning "error" instead of throwing.
+	 */
+	private static String parseToString (ExpressionParser parser, String str) {
+		try {
+			return parser.parse(str).convertToString(0);
+		} catch (ExpressionParseException epe) {
+			return "error";
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that both parsers agree on a set of valid and invalid expressions.
+	 */
+	public void testSameTrees () {
+		final String[] expressions = {
+			"x+x", "13*x", "10*x^3 + 2*(15+x)", "4*(x+5*x)", "9/3*3", "4-3*x", "1./(1. + 5^(-1*x))", "4^3^2",
+			"1-2+3", "1+2-3", "8/2*2", "8*2/2", "2*-3", "x^-2", "2--3", "-3+x", "(-3)", "1e-5-x", "2e-3-1",
+			"0x1p3*x", "0x.8p1", "1d-5", "NaN*x", "-Infinity", "log(x)", "logx", "log-2", "2*log(x)", "x^log(x)",
+			"(log(x))^2", "log(x)*2", "((x))", "2^x*3",
+			"1+2+", "((()))", "()()", "", "x x", "xx", "log(x)^2", "x^log(x)^2", "loglogx", "-x", "2*-x", "2---3",
+			"2e-x", "(x", "x)", "x^", "log", "2x", "NaNd"
+		};
+		for (String expression : expressions) {
+			assertEquals(parseToString(_simpleParser, expression), parseToString(_tokenizingParser, expression), expression);
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that a long expression is parsed quickly into the expected tree.
+	 */
+	public void testLongExpression () throws ExpressionParseException {
+		final StringBuilder expressionStr = new StringBuilder("x");
+		for (int i = 0; i < 100; i++) {
+			expressionStr.append(i % 2 == 0 ? "+2*x^2" : "-(x/3)");
+		}
+		final Expression expression = assertTimeoutPreemptively(java.time.Duration.ofSeconds(1), () -> _tokenizingParser.parse(expressionStr.toString()));
+		assertEquals(3 + 50 * 18 - 50 * 1, expression.evaluate(3), 1e-9);
+	}
+}
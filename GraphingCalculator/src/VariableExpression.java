@@ -1,7 +1,27 @@
+import java.util.Arrays;
 
+/**
+ * A variable: x, or another variable of the parser's VariableScope, which is bound to a slot of the values
+ * evaluate(double[]) is given. The methods that only know about x (evaluate(double), evaluateBatch,
+ * evaluateInterval and differentiate) bind x to slot 0, and treat the variables in other slots as undefined
+ * (NaN) for evaluation and as constants for differentiation.
+ */
 public class VariableExpression implements Expression {
 
+	final String _name;
+	final int _slot;
+
 	public VariableExpression() {
+		this("x", 0);
+	}
+
+	/**
+	 * @param name the name of the variable
+	 * @param slot the index of its value in the arrays passed to evaluate(double[])
+	 */
+	public VariableExpression(String name, int slot) {
+		_name = name;
+		_slot = slot;
 	}
 	
 	/**
@@ -11,7 +31,7 @@ public class VariableExpression implements Expression {
      * @return the deep copy
      */
     public Expression deepCopy () {
-    	return new VariableExpression();
+    	return new VariableExpression(_name, _slot);
     }
 
 	/**
@@ -24,7 +44,7 @@ public class VariableExpression implements Expression {
 	 */
 	public String convertToString (int indentLevel) {
 		String indts = "\t".repeat(indentLevel);
-		return indts + "x\n";
+		return indts + _name + "\n";
 	}
 
 	/**
@@ -33,7 +53,39 @@ public class VariableExpression implements Expression {
 	 * @return the value of this expression.
 	 */
 	public double evaluate (double x) {
-		return x;
+		return _slot == 0 ? x : Double.NaN;
+	}
+
+	/**
+	 * Given the values of the variables, indexed by their slots, compute the value of this Variable expression.
+	 * @param env the value of each variable
+	 * @return the value of this expression.
+	 */
+	public double evaluate (double[] env) {
+		return env[_slot];
+	}
+
+	/**
+	 * Given an array of values of the independent variable x, compute the value of this Variable expression at each of them.
+	 * @param xs the values of the independent variable x
+	 * @param out receives the value of this expression at each of xs
+	 */
+	public void evaluateBatch (double[] xs, double[] out) {
+		if (_slot == 0) {
+			System.arraycopy(xs, 0, out, 0, xs.length);
+		} else {
+			Arrays.fill(out, 0, xs.length, Double.NaN);
+		}
+	}
+
+	/**
+	 * Given a range of the independent variable x, compute a range enclosing every value of this Variable expression over it.
+	 * @param lo the smallest value of x
+	 * @param hi the largest value of x
+	 * @return the range of the values of this expression
+	 */
+	public Interval evaluateInterval (double lo, double hi) {
+		return _slot == 0 ? Interval.of(lo, hi) : Interval.UNDEFINED;
 	}
 
 	/**
@@ -42,7 +94,7 @@ public class VariableExpression implements Expression {
 	 * @return the derivative of this expression
 	 */
 	public Expression differentiate () {
-		return new LiteralExpression(1);
+		return new LiteralExpression(_slot == 0 ? 1 : 0);
 	}
 	
 }
@@ -0,0 +1,92 @@
+import java.util.Arrays;
+
+/**
+ * The variables an expression may use, each bound to a slot: an index into the array of values that
+ * Expression.evaluate(double[]) is given. Parsers resolve every name to its slot once, so evaluation indexes an
+ * array instead of looking names up. Expression.evaluate(double) binds its argument to slot 0.
+ * Names are identifiers: a letter or '_' followed by letters, digits and '_'. They may not start with "log",
+ * "NaN" or "Infinity", which the grammar reads as log or as literals.
+ */
+final class VariableScope {
+	/**
+	 * The scope of single-variable expressions: x in slot 0.
+	 */
+	public static final VariableScope X = new VariableScope("x");
+	/**
+	 * The scope of surfaces: x in slot 0 and y in slot 1.
+	 */
+	public static final VariableScope XY = new VariableScope("x", "y");
+
+	private final String[] _names;
+
+	/**
+	 * @param names the names of the variables, in the order of their slots
+	 * @throws IllegalArgumentException if a name isn't a valid identifier or occurs twice
+	 */
+	public VariableScope (String... names) {
+		for (int i = 0; i < names.length; i++) {
+			if (!isValidName(names[i])) {
+				throw new IllegalArgumentException("Invalid variable name: " + names[i]);
+			}
+			for (int j = 0; j < i; j++) {
+				if (names[i].equals(names[j])) {
+					throw new IllegalArgumentException("Duplicate variable name: " + names[i]);
+				}
+			}
+		}
+		_names = names.clone();
+	}
+
+	/**
+	 * Returns the slot of the variable with the given name, or -1 if there is none.
+	 */
+	public int slot (String name) {
+		for (int i = 0; i < _names.length; i++) {
+			if (_names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the name of the variable in the given slot.
+	 */
+	public String name (int slot) {
+		return _names[slot];
+	}
+
+	/**
+	 * Returns the number of variables, i.e. the length of the arrays of values.
+	 */
+	public int size () {
+		return _names.length;
+	}
+
+	/**
+	 * Returns the end of the identifier starting at index i of the string, or i if none starts there.
+	 */
+	static int scanIdentifier (String str, int i, int end) {
+		if (i >= end || !(Character.isLetter(str.charAt(i)) || str.charAt(i) == '_')) {
+			return i;
+		}
+		int j = i + 1;
+		while (j < end && (Character.isLetterOrDigit(str.charAt(j)) || str.charAt(j) == '_')) {
+			j++;
+		}
+		return j;
+	}
+
+	/**
+	 * Decides whether the string can be the name of a variable.
+	 */
+	static boolean isValidName (String name) {
+		return !name.isEmpty() && scanIdentifier(name, 0, name.length()) == name.length()
+			&& !name.startsWith("log") && !name.startsWith("NaN") && !name.startsWith("Infinity");
+	}
+
+	@Override
+	public String toString () {
+		return Arrays.toString(_names);
+	}
+}
@@ -0,0 +1,59 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The loops of BatchKernels written with the Vector API, a whole SIMD register of values at a time with a scalar
+ * loop for the values left over. Only BatchKernels uses this class, and only when the jdk.incubator.vector module
+ * is present, since loading it otherwise fails.
+ */
+final class VectorKernels {
+	// The widest vectors the processor supports.
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	private VectorKernels () {
+	}
+
+	static void add (double[] out, double[] right, int length) {
+		final int bound = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, out, i).add(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+		}
+		for (; i < length; i++) {
+			out[i] = out[i] + right[i];
+		}
+	}
+
+	static void subtract (double[] out, double[] right, int length) {
+		final int bound = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, out, i).sub(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+		}
+		for (; i < length; i++) {
+			out[i] = out[i] - right[i];
+		}
+	}
+
+	static void multiply (double[] out, double[] right, int length) {
+		final int bound = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, out, i).mul(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+		}
+		for (; i < length; i++) {
+			out[i] = out[i] * right[i];
+		}
+	}
+
+	static void divide (double[] out, double[] right, int length) {
+		final int bound = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, out, i).div(DoubleVector.fromArray(SPECIES, right, i)).intoArray(out, i);
+		}
+		for (; i < length; i++) {
+			out[i] = out[i] / right[i];
+		}
+	}
+}
@@ -0,0 +1,114 @@
+import graphingcalculator.benchmarks.Calculator;
+import java.util.List;
+
+/**
+ * Implements the operations the benchmarks measure with the calculator's classes; see Calculator.
+ * The plot settings are those of GraphingCalculator, which can't be referenced here without loading JavaFX.
+ */
+public class CalculatorBridge implements Calculator {
+	private static final double MIN_X = -10, MAX_X = +10, DELTA_X = 0.01;
+	private static final double MIN_Y = -10, MAX_Y = +10;
+	private static final int WIDTH = 600, HEIGHT = 470;
+	private static final int SAMPLE_COUNT = (int) Math.round((MAX_X - MIN_X) / DELTA_X) + 1;
+
+	public Parser parser (String kind) {
+		// The corpora are trusted, and the largest ones are beyond the default budget.
+		final ExpressionParser parser;
+		switch (kind) {
+			case "simple": parser = new SimpleExpressionParser(VariableScope.X, false, ParseBudget.UNLIMITED); break;
+			case "packrat": parser = new SimpleExpressionParser(VariableScope.X, true, ParseBudget.UNLIMITED); break;
+			case "tokenizing": parser = new TokenizingExpressionParser(VariableScope.X, ParseBudget.UNLIMITED); break;
+			default: throw new IllegalArgumentException("Unknown parser: " + kind);
+		}
+		return parser::parse;
+	}
+
+	public Sampler sampler (String kind) {
+		final PointBuffer points = new PointBuffer(SAMPLE_COUNT);
+		switch (kind) {
+			case "pointwise":
+				return (text, expression) -> {
+					points.clear();
+					for (double x = MIN_X; x <= MAX_X; x += DELTA_X) {
+						points.add(x, ((Expression) expression).evaluate(x));
+					}
+					return points.size();
+				};
+			case "batch": {
+				final double[] xs = new double[SAMPLE_COUNT], ys = new double[SAMPLE_COUNT];
+				for (int i = 0; i < SAMPLE_COUNT; i++) {
+					xs[i] = ParallelSampler.xAt(MIN_X, MAX_X, SAMPLE_COUNT, i);
+				}
+				return (text, expression) -> {
+					((Expression) expression).evaluateBatch(xs, ys);
+					return ys.length;
+				};
+			}
+			case "parallel": {
+				final ParallelSampler sampler = new ParallelSampler();
+				return (text, expression) -> {
+					points.clear();
+					sampler.sample((Expression) expression, MIN_X, MAX_X, SAMPLE_COUNT, points);
+					return points.size();
+				};
+			}
+			case "adaptive": {
+				final AdaptiveSampler sampler = new AdaptiveSampler(MIN_X, MAX_X, MIN_Y, MAX_Y, WIDTH, HEIGHT);
+				return (text, expression) -> {
+					points.clear();
+					sampler.sample((Expression) expression, points);
+					return points.size();
+				};
+			}
+			case "pipeline": {
+				// Every stage runs on the calling thread, so submit returns once the final curves are published.
+				final PlotPipeline pipeline = new PlotPipeline(new TokenizingExpressionParser(), new DerivativeCache(), new ParallelSampler(),
+					new AdaptiveSampler(MIN_X, MAX_X, MIN_Y, MAX_Y, WIDTH, HEIGHT), MIN_X, MAX_X, SAMPLE_COUNT, WIDTH, Runnable::run);
+				final int[] count = new int[1];
+				final PlotPipeline.Listener listener = new PlotPipeline.Listener() {
+					public void curvesReady (PlotPipeline.Job job, List<PointBuffer> curves, boolean preview) {
+						if (!preview) {
+							for (PointBuffer curve : curves) {
+								count[0] += curve.size();
+							}
+						}
+					}
+
+					public void failed (PlotPipeline.Job job, Throwable error) {
+						count[0] = -1;
+					}
+				};
+				return (text, expression) -> {
+					count[0] = 0;
+					pipeline.submit(text, 1, false, 0, listener);
+					if (count[0] < 0) {
+						throw new IllegalStateException("Cannot plot " + text);
+					}
+					return count[0];
+				};
+			}
+			default:
+				throw new IllegalArgumentException("Unknown sampler: " + kind);
+		}
+	}
+
+	public double evaluate (Object expression, double x) {
+		return ((Expression) expression).evaluate(x);
+	}
+
+	public Object differentiate (Object expression) {
+		return ((Expression) expression).differentiate();
+	}
+
+	public Object deepCopy (Object expression) {
+		return ((Expression) expression).deepCopy();
+	}
+
+	public byte[] encode (Object expression) {
+		return ExpressionCodec.encode((Expression) expression);
+	}
+
+	public Object decode (byte[] bytes) {
+		return ExpressionCodec.decode(bytes);
+	}
+}
@@ -0,0 +1,39 @@
+package graphingcalculator.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks, taking the same arguments as JMH's own main, e.g.
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar Parse -p parser=tokenizing
+ * </pre>
+ * Unless other options are given, the results are also written as JSON to jmh-results.json, for comparison with
+ * earlier runs.
+ */
+public final class BenchmarkMain {
+	// The file the results are written to by default.
+	public static final String DEFAULT_RESULTS_FILE = "jmh-results.json";
+
+	private BenchmarkMain () {
+	}
+
+	public static void main (String[] args) throws Exception {
+		final CommandLineOptions commandLine = new CommandLineOptions(args);
+		if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams() || commandLine.shouldListProfilers()
+				|| commandLine.shouldListResultFormats()) {
+			// Let JMH's own main handle the options that don't run anything.
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if (!commandLine.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLine.getResult().hasValue()) {
+			options.result(DEFAULT_RESULTS_FILE);
+		}
+		new Runner(options.build()).run();
+	}
+}
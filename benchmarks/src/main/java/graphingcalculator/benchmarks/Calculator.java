@@ -0,0 +1,69 @@
+package graphingcalculator.benchmarks;
+
+/**
+ * The operations of the calculator that the benchmarks measure.
+ * The calculator's classes are in the default package, which a named package can't import, and JMH doesn't accept
+ * benchmarks in the default package. So CalculatorBridge, which is in the default package, implements this
+ * interface, and the benchmarks load it by name once, in their setup; after that every call is an ordinary
+ * interface call that the JIT inlines. Expressions are passed around as Object.
+ */
+public interface Calculator {
+	/**
+	 * Parses text into an expression.
+	 */
+	interface Parser {
+		Object parse (String text) throws Exception;
+	}
+
+	/**
+	 * Samples an expression, or its text, the way the calculator graphs it.
+	 */
+	interface Sampler {
+		/**
+		 * @param text the text the expression was parsed from
+		 * @param expression the parsed expression
+		 * @return the number of points sampled
+		 */
+		int sample (String text, Object expression);
+	}
+
+	/**
+	 * Returns the implementation in the default package.
+	 */
+	static Calculator load () {
+		try {
+			return (Calculator) Class.forName("CalculatorBridge").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException roe) {
+			throw new IllegalStateException("CalculatorBridge is missing from the class path", roe);
+		}
+	}
+
+	/**
+	 * @param kind "simple" for SimpleExpressionParser, "packrat" for SimpleExpressionParser in packrat mode, or
+	 * "tokenizing" for TokenizingExpressionParser
+	 */
+	Parser parser (String kind);
+
+	/**
+	 * @param kind "pointwise" for the x += DELTA_X loop GraphingCalculator.graph used to run, "batch" for
+	 * Expression.evaluateBatch, "parallel" for ParallelSampler, "adaptive" for AdaptiveSampler, or "pipeline" for
+	 * the whole PlotPipeline from the text to the decimated curves of the expression and its derivative
+	 */
+	Sampler sampler (String kind);
+
+	double evaluate (Object expression, double x);
+
+	Object differentiate (Object expression);
+
+	Object deepCopy (Object expression);
+
+	/**
+	 * Encodes an expression with ExpressionCodec.
+	 */
+	byte[] encode (Object expression);
+
+	/**
+	 * Decodes an expression encoded by encode.
+	 */
+	Object decode (byte[] bytes);
+}
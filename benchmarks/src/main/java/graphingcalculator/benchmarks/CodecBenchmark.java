@@ -0,0 +1,66 @@
+package graphingcalculator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures encoding and decoding trees with ExpressionCodec against parsing their text with TokenizingExpressionParser,
+ * the fastest parser, on the corpus of ParseBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+	// The number of expressions used in turn.
+	private static final int CORPUS_SIZE = 16;
+
+	@Param({ "4", "16", "64", "256" })
+	public int operators;
+
+	@Param({ "BALANCED", "CHAIN" })
+	public ExpressionCorpus.Shape shape;
+
+	private Calculator _calculator;
+	private Calculator.Parser _parser;
+	private String[] _texts;
+	private Object[] _expressions;
+	private byte[][] _encodings;
+	private int _next;
+
+	@Setup
+	public void setUp () throws Exception {
+		_calculator = Calculator.load();
+		_parser = _calculator.parser("tokenizing");
+		_texts = ExpressionCorpus.generate(CORPUS_SIZE, operators, shape);
+		_expressions = new Object[CORPUS_SIZE];
+		_encodings = new byte[CORPUS_SIZE][];
+		for (int i = 0; i < CORPUS_SIZE; i++) {
+			_expressions[i] = _parser.parse(_texts[i]);
+			_encodings[i] = _calculator.encode(_expressions[i]);
+		}
+	}
+
+	private int next () {
+		final int next = _next;
+		_next = (_next + 1) % CORPUS_SIZE;
+		return next;
+	}
+
+	@Benchmark
+	public Object parse () throws Exception {
+		return _parser.parse(_texts[next()]);
+	}
+
+	@Benchmark
+	public byte[] encode () {
+		return _calculator.encode(_expressions[next()]);
+	}
+
+	@Benchmark
+	public Object decode () {
+		return _calculator.decode(_encodings[next()]);
+	}
+}
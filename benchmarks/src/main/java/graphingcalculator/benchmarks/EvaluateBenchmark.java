@@ -0,0 +1,58 @@
+package graphingcalculator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures Expression.evaluate for each type of node, applied to x, at a range of positive x values, so every node
+ * type is defined everywhere. Results are per evaluation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluateBenchmark {
+	// The number of x values evaluated per call.
+	private static final int POINTS = 1024;
+
+	@Param({ "literal", "variable", "add", "subtract", "multiply", "divide", "power", "log", "parentheses" })
+	public String node;
+
+	private Calculator _calculator;
+	private Object _expression;
+	private final double[] _xs = new double[POINTS];
+
+	@Setup
+	public void setUp () throws Exception {
+		_calculator = Calculator.load();
+		final String text;
+		switch (node) {
+			case "literal": text = "2.5"; break;
+			case "variable": text = "x"; break;
+			case "add": text = "x+2.5"; break;
+			case "subtract": text = "x-2.5"; break;
+			case "multiply": text = "x*2.5"; break;
+			case "divide": text = "x/2.5"; break;
+			case "power": text = "x^2.5"; break;
+			case "log": text = "log(x)"; break;
+			case "parentheses": text = "(x)"; break;
+			default: throw new IllegalArgumentException("Unknown node type: " + node);
+		}
+		_expression = _calculator.parser("tokenizing").parse(text);
+		for (int i = 0; i < POINTS; i++) {
+			_xs[i] = 0.5 + 10.0 * i / POINTS;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public double evaluate () {
+		double sum = 0;
+		for (double x : _xs) {
+			sum += _calculator.evaluate(_expression, x);
+		}
+		return sum;
+	}
+}
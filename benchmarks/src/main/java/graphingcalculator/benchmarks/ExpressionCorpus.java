@@ -0,0 +1,93 @@
+package graphingcalculator.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generates the texts of random expressions that every parser of the calculator accepts, so the benchmarks can be
+ * run over expressions of a chosen size and shape. The corpus only depends on its parameters and the seed, so
+ * runs on different builds measure the same expressions.
+ * An expression is a tree of binary operators and log whose leaves are x and literals. Every operand that isn't a
+ * leaf is put in parentheses, so the nesting depth of the parentheses is the depth of the tree, and exponents are
+ * small literals, which keeps the values in a realistic range.
+ */
+public final class ExpressionCorpus {
+	// Seed of the generator, fixed so that results from different runs can be compared.
+	public static final long SEED = 20240601L;
+	private static final String[] OPERATORS = { "+", "-", "*", "/", "^" };
+
+	/**
+	 * The shape of the generated trees.
+	 */
+	public enum Shape {
+		// The operators are split evenly between the two sides of every node, so the depth is about log2(operators).
+		BALANCED,
+		// Every node has a leaf on one side, so the depth is the number of operators.
+		CHAIN
+	}
+
+	private ExpressionCorpus () {
+	}
+
+	/**
+	 * Generates expressions.
+	 * @param count the number of expressions
+	 * @param operators the number of operators (including log) in each expression
+	 * @param shape the shape of the trees
+	 * @return the texts of the expressions
+	 */
+	public static String[] generate (int count, int operators, Shape shape) {
+		final Random random = new Random(SEED ^ (31L * operators + shape.ordinal()));
+		final String[] texts = new String[count];
+		for (int i = 0; i < count; i++) {
+			final StringBuilder text = new StringBuilder();
+			append(text, random, operators, shape);
+			texts[i] = text.toString();
+		}
+		return texts;
+	}
+
+	/**
+	 * Appends an expression with the given number of operators.
+	 */
+	private static void append (StringBuilder text, Random random, int operators, Shape shape) {
+		if (operators == 0) {
+			if (random.nextInt(3) == 0) {
+				text.append(1 + random.nextInt(90) / 10.0);
+			} else {
+				text.append('x');
+			}
+			return;
+		}
+		final int operator = random.nextInt(OPERATORS.length + 1);
+		if (operator == OPERATORS.length) {
+			text.append("log(");
+			append(text, random, operators - 1, shape);
+			text.append(')');
+			return;
+		}
+		if (OPERATORS[operator].equals("^")) {
+			appendOperand(text, random, operators - 1, shape);
+			text.append('^').append(2 + random.nextInt(2));
+			return;
+		}
+		final int left;
+		if (shape == Shape.BALANCED) {
+			left = (operators - 1) / 2;
+		} else {
+			left = random.nextBoolean() ? 0 : operators - 1;
+		}
+		appendOperand(text, random, left, shape);
+		text.append(OPERATORS[operator]);
+		appendOperand(text, random, operators - 1 - left, shape);
+	}
+
+	private static void appendOperand (StringBuilder text, Random random, int operators, Shape shape) {
+		if (operators == 0) {
+			append(text, random, 0, shape);
+		} else {
+			text.append('(');
+			append(text, random, operators, shape);
+			text.append(')');
+		}
+	}
+}
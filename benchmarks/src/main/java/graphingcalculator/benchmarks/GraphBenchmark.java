@@ -0,0 +1,52 @@
+package graphingcalculator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures sampling a curve over the calculator's window, without the user interface: the loop
+ * GraphingCalculator.graph used to run, each sampler it can use now, and the whole plot pipeline from the text to
+ * the final curves of an expression and its first derivative. Every call samples the next expression of a
+ * generated corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+// The batch samplers use the Vector API when the module is added; run with -jvmArgsAppend -DgraphingCalculator.noVectorize=true for the scalar loops.
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class GraphBenchmark {
+	// The number of expressions sampled in turn.
+	private static final int CORPUS_SIZE = 16;
+
+	@Param({ "pointwise", "batch", "parallel", "adaptive", "pipeline" })
+	public String sampler;
+
+	@Param({ "4", "16", "64" })
+	public int operators;
+
+	private Calculator.Sampler _sampler;
+	private String[] _texts;
+	private Object[] _expressions;
+	private int _next;
+
+	@Setup
+	public void setUp () throws Exception {
+		final Calculator calculator = Calculator.load();
+		_sampler = calculator.sampler(sampler);
+		final Calculator.Parser parser = calculator.parser("tokenizing");
+		_texts = ExpressionCorpus.generate(CORPUS_SIZE, operators, ExpressionCorpus.Shape.BALANCED);
+		_expressions = new Object[CORPUS_SIZE];
+		for (int i = 0; i < CORPUS_SIZE; i++) {
+			_expressions[i] = parser.parse(_texts[i]);
+		}
+	}
+
+	@Benchmark
+	public int graph () {
+		final int i = _next;
+		_next = (_next + 1) % CORPUS_SIZE;
+		return _sampler.sample(_texts[i], _expressions[i]);
+	}
+}
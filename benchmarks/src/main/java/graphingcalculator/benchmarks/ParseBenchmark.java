@@ -0,0 +1,46 @@
+package graphingcalculator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures parsing expressions of a growing number of operators and nesting depth with the parsers that take
+ * polynomial time. Every call parses the next expression of a generated corpus, so the parser can't specialize on
+ * a single input. SimpleParseBenchmark measures SimpleExpressionParser without packrat mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+	// The number of expressions parsed in turn.
+	static final int CORPUS_SIZE = 16;
+
+	@Param({ "packrat", "tokenizing" })
+	public String parser;
+
+	@Param({ "4", "16", "64", "256" })
+	public int operators;
+
+	@Param({ "BALANCED", "CHAIN" })
+	public ExpressionCorpus.Shape shape;
+
+	private Calculator.Parser _parser;
+	private String[] _texts;
+	private int _next;
+
+	@Setup
+	public void setUp () throws Exception {
+		_parser = Calculator.load().parser(parser);
+		_texts = ExpressionCorpus.generate(CORPUS_SIZE, operators, shape);
+	}
+
+	@Benchmark
+	public Object parse () throws Exception {
+		final String text = _texts[_next];
+		_next = (_next + 1) % CORPUS_SIZE;
+		return _parser.parse(text);
+	}
+}
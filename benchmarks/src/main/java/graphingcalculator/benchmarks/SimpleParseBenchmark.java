@@ -0,0 +1,40 @@
+package graphingcalculator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures parsing with SimpleExpressionParser without packrat mode, as ParseBenchmark does for the other parsers.
+ * It backtracks, taking time exponential in the nesting depth (about 0.1 s for 16 operators), so it is only run on
+ * small expressions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleParseBenchmark {
+	@Param({ "2", "4", "8", "16" })
+	public int operators;
+
+	@Param({ "BALANCED", "CHAIN" })
+	public ExpressionCorpus.Shape shape;
+
+	private Calculator.Parser _parser;
+	private String[] _texts;
+	private int _next;
+
+	@Setup
+	public void setUp () {
+		_parser = Calculator.load().parser("simple");
+		_texts = ExpressionCorpus.generate(ParseBenchmark.CORPUS_SIZE, operators, shape);
+	}
+
+	@Benchmark
+	public Object parse () throws Exception {
+		final String text = _texts[_next];
+		_next = (_next + 1) % _texts.length;
+		return _parser.parse(text);
+	}
+}
@@ -0,0 +1,63 @@
+package graphingcalculator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the operations that walk a whole tree, evaluate, differentiate and deepCopy, on generated trees of a
+ * growing size, balanced or as deep as they are large.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBenchmark {
+	// The number of trees used in turn.
+	private static final int CORPUS_SIZE = 16;
+
+	@Param({ "16", "128", "1024" })
+	public int operators;
+
+	@Param({ "BALANCED", "CHAIN" })
+	public ExpressionCorpus.Shape shape;
+
+	private Calculator _calculator;
+	private Object[] _expressions;
+	private int _next;
+	private double _x;
+
+	@Setup
+	public void setUp () throws Exception {
+		_calculator = Calculator.load();
+		final Calculator.Parser parser = _calculator.parser("tokenizing");
+		final String[] texts = ExpressionCorpus.generate(CORPUS_SIZE, operators, shape);
+		_expressions = new Object[CORPUS_SIZE];
+		for (int i = 0; i < CORPUS_SIZE; i++) {
+			_expressions[i] = parser.parse(texts[i]);
+		}
+	}
+
+	private Object next () {
+		final Object expression = _expressions[_next];
+		_next = (_next + 1) % CORPUS_SIZE;
+		return expression;
+	}
+
+	@Benchmark
+	public double evaluate () {
+		_x = _x < 10 ? _x + 0.37 : 0.1;
+		return _calculator.evaluate(next(), _x);
+	}
+
+	@Benchmark
+	public Object differentiate () {
+		return _calculator.differentiate(next());
+	}
+
+	@Benchmark
+	public Object deepCopy () {
+		return _calculator.deepCopy(next());
+	}
+}